@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+package org.jboss.byteman.agent;
+
+import org.jboss.byteman.rule.Rule;
+import org.jboss.byteman.rule.helper.Helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * a low priority background thread which retransforms classes to remove the trigger code for lazily
+ * uninstalled rules. a deleted rule is made inert straight away by purging its keys so its triggers
+ * find no rule to execute. this thread waits until no rules have been loaded or deleted for the quiet
+ * period configured via org.jboss.byteman.uninstall.quiet and then retransforms the affected classes a
+ * batch at a time, the batch size being configured via org.jboss.byteman.uninstall.batch. each batch
+ * is retransformed holding the retransformer's update lock so listener requests which update the rule
+ * set only ever wait for one batch. once all the classes have been retransformed the uninstall lifecycle
+ * is run for the deleted rules.
+ */
+class DeferredUninstaller extends Thread
+{
+    private final Retransformer retransformer;
+    /**
+     * deleted scripts whose classes have not yet been retransformed
+     */
+    private final List<RuleScript> pendingScripts;
+    /**
+     * names of the classes which need to be retransformed for the pending scripts
+     */
+    private final List<String> pendingClassNames;
+    /**
+     * number of deleted scripts currently being processed
+     */
+    private int inProgress;
+
+    DeferredUninstaller(Retransformer retransformer)
+    {
+        super("Byteman deferred uninstall");
+        this.retransformer = retransformer;
+        this.pendingScripts = new ArrayList<RuleScript>();
+        this.pendingClassNames = new ArrayList<String>();
+        this.inProgress = 0;
+        setDaemon(true);
+        setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * queue deleted scripts for retransformation
+     * @param scripts the deleted scripts
+     * @param classNames the names of the classes the scripts were injected into
+     */
+    synchronized void defer(List<RuleScript> scripts, List<String> classNames)
+    {
+        pendingScripts.addAll(scripts);
+        for (String className : classNames) {
+            if (!pendingClassNames.contains(className)) {
+                pendingClassNames.add(className);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return the number of deleted scripts whose classes have not yet been retransformed
+     */
+    synchronized int pendingCount()
+    {
+        return pendingScripts.size() + inProgress;
+    }
+
+    @Override
+    public void run()
+    {
+        // we don't want to see any triggers in the uninstaller thread, whether from classes being
+        // retransformed or from helper lifecycle methods run once the rules have been removed
+
+        Rule.disableTriggersInternal();
+
+        while (true) {
+            List<RuleScript> scripts;
+            List<String> classNames;
+            try {
+                synchronized (this) {
+                    while (pendingScripts.isEmpty()) {
+                        wait();
+                    }
+                }
+                awaitQuiet();
+                synchronized (this) {
+                    scripts = new ArrayList<RuleScript>(pendingScripts);
+                    classNames = new ArrayList<String>(pendingClassNames);
+                    pendingScripts.clear();
+                    pendingClassNames.clear();
+                    inProgress = scripts.size();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                uninstall(scripts, classNames);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable th) {
+                Helper.err("DeferredUninstaller.run : exception retransforming classes for deleted rules " + th);
+                Helper.errTraceException(th);
+            } finally {
+                synchronized (this) {
+                    inProgress = 0;
+                }
+            }
+        }
+    }
+
+    private void uninstall(List<RuleScript> scripts, List<String> classNames) throws Exception
+    {
+        List<Class<?>> classes = retransformer.loadedClasses(classNames);
+        ReentrantLock updateLock = retransformer.getUpdateLock();
+        int batch = Transformer.getUninstallBatch();
+
+        for (int start = 0; start < classes.size(); start += batch) {
+            // back off again if rules have been updated since the last batch
+            awaitQuiet();
+            List<Class<?>> slice = classes.subList(start, Math.min(start + batch, classes.size()));
+            updateLock.lock();
+            try {
+                retransformer.retransformRemoved(slice, null);
+            } finally {
+                updateLock.unlock();
+            }
+        }
+
+        updateLock.lock();
+        try {
+            retransformer.completeRemoval(scripts);
+        } finally {
+            updateLock.unlock();
+        }
+
+        Helper.verbose("DeferredUninstaller : retransformed " + classes.size() + " classes for " + scripts.size() + " deleted rules");
+    }
+
+    /**
+     * wait until no rules have been loaded or deleted for the configured quiet period
+     */
+    private void awaitQuiet() throws InterruptedException
+    {
+        while (true) {
+            long quiet = Transformer.getUninstallQuiet();
+            long idle = System.currentTimeMillis() - retransformer.getLastUpdate();
+            if (idle >= quiet) {
+                return;
+            }
+            Thread.sleep(quiet - idle);
+        }
+    }
+}
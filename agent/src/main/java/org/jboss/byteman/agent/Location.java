@@ -62,12 +62,18 @@ public abstract class Location
                 return SynchronizeLocation.create(parameters, false);
             case SYNCHRONIZE_COMPLETED:
                 return SynchronizeLocation.create(parameters, true);
+            case NEW:
+                return NewLocation.create(parameters, false);
+            case NEW_COMPLETED:
+                return NewLocation.create(parameters, true);
             case THROW:
                 return ThrowLocation.create(parameters);
             case EXIT:
                 return ExitLocation.create(parameters);
             case EXCEPTION_EXIT:
                 return ExceptionExitLocation.create(parameters);
+            case TIMED_EXIT:
+                return TimedExitLocation.create(parameters);
         }
 
         return null;
@@ -806,6 +812,146 @@ public abstract class Location
             return text;
         }
     }
+    /**
+     * location identifying an object or array allocation trigger point
+     */
+    private static class NewLocation extends Location
+    {
+        /**
+         * the name of the allocated type, possibly including array suffixes, or null if any type will do
+         */
+        private String typeName;
+
+        /**
+         * count identifying which allocation should be taken as the trigger point. if not specified
+         * as a parameter this defaults to the first allocation.
+         */
+        private int count;
+
+        /**
+         * flag which is false if the trigger should be inserted before the allocation is performed
+         * and true if it should be inserted after
+         */
+        private boolean whenComplete;
+
+        /**
+         * construct a location identifying an allocation trigger point
+         * @param typeName the name of the allocated type or null if any type will do
+         * @param count count identifying which allocation should be taken as the trigger point
+         * @param whenComplete false if the trigger should be inserted before the allocation is
+         * performed and true if it should be inserted after
+         */
+        private NewLocation(String typeName, int count, boolean whenComplete)
+        {
+            this.typeName = typeName;
+            this.count = count;
+            this.whenComplete = whenComplete;
+        }
+
+        /**
+         * create a location identifying an allocation trigger point
+         * @param parameters the text of the parameters appended to the location specifier
+         * @param whenComplete false if the trigger should be inserted before the allocation is
+         * performed and true if it should be inserted after
+         * @return an allocation location or null if the parameters are not valid
+         */
+        protected static Location create(String parameters, boolean whenComplete)
+        {
+            String text = parameters.trim();
+            String typeName;
+            int count;
+
+            // check for trailing count
+            if (text.contains(" ")) {
+                int tailIdx = text.lastIndexOf(" ");
+                String countText = text.substring(tailIdx + 1).trim();
+                if (countText.equals("ALL")) {
+                    // a zero count means all
+                    count = 0;
+                } else {
+                    try {
+                        count = Integer.valueOf(countText);
+                    } catch (NumberFormatException nfe) {
+                        return null;
+                    }
+                }
+                text = text.substring(0, tailIdx).trim();
+            } else if (text.equals("ALL")) {
+                // a zero count means all
+                count = 0;
+                text = "";
+            } else if (text.length() > 0 && Character.isDigit(text.charAt(0))) {
+                try {
+                    count = Integer.valueOf(text);
+                } catch (NumberFormatException nfe) {
+                    return null;
+                }
+                text = "";
+            } else {
+                count = 1;
+            }
+
+            if (text.length() == 0) {
+                typeName = null;
+            } else if (text.contains(" ")) {
+                return null;
+            } else {
+                typeName = text;
+            }
+
+            return new NewLocation(typeName, count, whenComplete);
+        }
+
+        /**
+         * return an adapter which can be used to check whether a method contains a trigger point whose position
+         * matches this location
+         * @return the required adapter
+         */
+        public RuleCheckAdapter getRuleCheckAdapter(ClassVisitor cv, TransformContext transformContext) {
+            return new NewCheckAdapter(cv, transformContext, typeName, count, whenComplete);
+        }
+
+        /**
+         * return an adapter which can be used to insert a trigger call in a method containing a trigger point whose
+         * position matches this location
+         * @return the required adapter
+         */
+        public RuleTriggerAdapter getRuleAdapter(ClassVisitor cv, TransformContext transformContext) {
+            return new NewTriggerAdapter(cv, transformContext, typeName, count, whenComplete);
+        }
+
+        public LocationType getLocationType() {
+            if (whenComplete) {
+                return LocationType.NEW_COMPLETED;
+            } else {
+                return LocationType.NEW;
+            }
+        }
+
+        public String toString() {
+            String text;
+
+            if (whenComplete) {
+                text = "AFTER NEW";
+            } else {
+                text = "AT NEW";
+            }
+
+            if (typeName != null) {
+                text += " " + typeName;
+            }
+
+            if (count != 1) {
+                if (count == 0) {
+                    text += " ALL";
+                } else {
+                    text += " " + count;
+                }
+            }
+
+            return text;
+        }
+    }
     /**
      * location identifying a throw trigger point
      */
@@ -998,4 +1144,48 @@ public abstract class Location
         }
     }
 
+    /**
+     * location identifying normal and exceptional exit trigger points for a timed method
+     */
+    private static class TimedExitLocation extends Location
+    {
+        /**
+         * create a location identifying normal and exceptional exit trigger points for a timed method
+         * @param parameters the text of the parameters appended to the location specifier
+         * @return a timed exit location or null if the parameters is not a blank String
+         */
+        protected static Location create(String parameters) {
+            if (!parameters.trim().equals("")) {
+                // hmm, not expecting any parameters here
+                return null;
+            }
+            return new TimedExitLocation();
+        }
+
+        /**
+         * return an adapter which can be used to check whether a method contains a trigger point whose position
+         * matches this location
+         * @return the required adapter
+         */
+        public RuleCheckAdapter getRuleCheckAdapter(ClassVisitor cv, TransformContext transformContext) {
+            return new TimedExitCheckAdapter(cv, transformContext);
+        }
+
+        /**
+         * return an adapter which can be used to insert a trigger call in a method containing a trigger point whose
+         * position matches this location
+         * @return the required adapter
+         */
+        public RuleTriggerAdapter getRuleAdapter(ClassVisitor cv, TransformContext transformContext) {
+            return new TimedExitTriggerAdapter(cv, transformContext);
+        }
+
+        public LocationType getLocationType() {
+            return LocationType.TIMED_EXIT;
+        }
+
+        public String toString() {
+            return "AT TIMED EXIT";
+        }
+    }
 }
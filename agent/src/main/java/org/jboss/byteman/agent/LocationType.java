@@ -101,6 +101,21 @@ public enum LocationType
      * script syntax : 'AFTER' 'SYNCHRONIZE' [ {count} | 'ALL' ]
      */
     SYNCHRONIZE_COMPLETED,
+    /**
+     * specifies a location for trigger insertion by identifying an object or array allocation or the nth such
+     * allocation if a count is supplied or all allocations if ALL is specified.
+     *
+     * script syntax : 'AT' 'NEW' [{typename}] [ {count} | 'ALL' ]
+     */
+    NEW,
+    /**
+     * specifies a location for trigger insertion by identifying completion of an object or array allocation
+     * or the nth such allocation if a count is supplied or all allocations if ALL is specified. for an object
+     * allocation completion means return from the constructor call which initialises the new instance.
+     *
+     * script syntax : 'AFTER' 'NEW' [{typename}] [ {count} | 'ALL' ]
+     */
+    NEW_COMPLETED,
 
     /**
      * specifies a location for trigger insertion by identifying throw of an exception of the nth such throw
@@ -121,7 +136,15 @@ public enum LocationType
      * specifies a location for trigger insertion on exception exit from the trigger method
      * script syntax : 'AT' 'EXCEPTION' 'EXIT'
      */
-    EXCEPTION_EXIT;
+    EXCEPTION_EXIT,
+
+    /**
+     * specifies a location for trigger insertion at both normal and exceptional exit from the trigger method
+     * where the time elapsed since entry to the method is available as $ELAPSED n.b. a trigger will be
+     * injected at ALL return points and at exception exit
+     * script syntax : 'AT' 'TIMED' 'EXIT'
+     */
+    TIMED_EXIT;
 
     public String specifierText()
     {
@@ -185,8 +208,11 @@ public enum LocationType
             "AFTER[ \t]*INVOKE",
             "AT[ \t]*SYNCHRONIZE",
             "AFTER[ \t]*SYNCHRONIZE",
+            "AT[ \t]*NEW",
+            "AFTER[ \t]*NEW",
             "AT[ \t]*THROW",
             "AT[ \t]*EXIT",
+            "AT[ \t]*TIMED[ \t]*EXIT",
             "LINE", // for compatibility
             "AT[ \t]*CALL", // for ambiguity :-)
             "AFTER[ \t]*CALL", // for ambiguity :-)
@@ -207,8 +233,11 @@ public enum LocationType
             INVOKE_COMPLETED,
             SYNCHRONIZE,
             SYNCHRONIZE_COMPLETED,
+            NEW,
+            NEW_COMPLETED,
             THROW,
             EXIT,
+            TIMED_EXIT,
             LINE,
             INVOKE,
             INVOKE_COMPLETED,
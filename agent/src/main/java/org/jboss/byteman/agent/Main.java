@@ -87,6 +87,14 @@ public class Main {
                     } catch (Exception e) {
                         System.err.println("Invalid port specified [" + arg + "]. Cause: " + e);
                     }
+                } else if (arg.startsWith(SOCKET_PREFIX)) {
+                    socketPath = arg.substring(SOCKET_PREFIX.length(), arg.length());
+                    if (socketPath.length() == 0) {
+                        System.err.println("Invalid socket path specified [" + arg + "]");
+                        socketPath = null;
+                    } else if (managerClassName == null) {
+                        managerClassName=MANAGER_NAME;
+                    }
                 } else if (arg.startsWith(SCRIPT_PREFIX)) {
                     scriptPaths.add(arg.substring(SCRIPT_PREFIX.length(), arg.length()));
                 } else if (arg.startsWith(RESOURCE_SCRIPT_PREFIX)) {
@@ -160,7 +168,7 @@ public class Main {
                     System.err.println("org.jboss.byteman.agent.Main:\n" +
                             "  illegal agent argument : " + arg + "\n" +
                             "  valid arguments are boot:<path-to-jar>, sys:<path-to-jar>, script:<path-to-script>, resourcescript:<scripts-prefix>,"
-                            + "prop:<property-to-set>, address:<address-for-agent>, port:<port-for-agent>, modules:<module-system-class>, "
+                            + "prop:<property-to-set>, address:<address-for-agent>, port:<port-for-agent>, socket:<socket-path-for-agent>, modules:<module-system-class>, "
                             + "policy:<agent-security-policy>, manager:<manager-class> or listener:<true-or-false>");
                 }
             }
@@ -281,12 +289,23 @@ public class Main {
         if (managerClassName != null && isRedefine) {
             Class managerClazz = loader.loadClass(managerClassName);
 
-            try {
-                Method method = managerClazz.getMethod("initialize", transformerClazz, String.class, Integer.class);
-                method.invoke(null, transformer, hostname, port);
-            } catch (NoSuchMethodException e) {
-                Method method = managerClazz.getMethod("initialize", transformerClazz);
-                method.invoke(null, transformer);
+            Method method = null;
+            if (socketPath != null) {
+                try {
+                    method = managerClazz.getMethod("initialize", transformerClazz, String.class, Integer.class, String.class);
+                    method.invoke(null, transformer, hostname, port, socketPath);
+                } catch (NoSuchMethodException e) {
+                    System.err.println("org.jboss.byteman.agent.Main : manager class " + managerClassName + " does not support option socket:" + socketPath);
+                }
+            }
+            if (method == null) {
+                try {
+                    method = managerClazz.getMethod("initialize", transformerClazz, String.class, Integer.class);
+                    method.invoke(null, transformer, hostname, port);
+                } catch (NoSuchMethodException e) {
+                    method = managerClazz.getMethod("initialize", transformerClazz);
+                    method.invoke(null, transformer);
+                }
             }
         }
 
@@ -318,6 +337,11 @@ public class Main {
      */
     private static final String ADDRESS_PREFIX = "address:";
 
+    /**
+     * prefix used to specify unix domain socket path argument for agent
+     */
+    private static final String SOCKET_PREFIX = "socket:";
+
     /**
      * prefix used to specify boot jar argument for agent
      */
@@ -435,6 +459,12 @@ public class Main {
      */
     private static Integer port = null;
 
+    /**
+     * The path of the unix domain socket file that the listener will listen on, supplied on the
+     * command line (optional argument)
+     */
+    private static String socketPath = null;
+
     /**
      * The name of the manager class responsible for loading/unloading scripts, supplied on the
      * command line (optional argument)
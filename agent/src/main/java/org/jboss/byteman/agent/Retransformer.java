@@ -23,16 +23,27 @@
 */
 package org.jboss.byteman.agent;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.JarFile;
+import java.util.regex.Pattern;
 
 import org.jboss.byteman.modules.ModuleSystem;
+import org.jboss.byteman.rule.Rule;
+import org.jboss.byteman.rule.exception.ParseException;
+import org.jboss.byteman.rule.exception.TypeException;
 import org.jboss.byteman.rule.helper.Helper;
 
 /**
@@ -42,6 +53,18 @@ public class Retransformer extends Transformer {
 
     private Set<String> sysJars = new HashSet<String>();  // jar files that were loaded in the sys CL
     private Set<String> bootJars = new HashSet<String>(); // jar files that were loaded in the boot CL
+    /**
+     * lock used to serialize updates to the rule set, jar lists or system properties
+     */
+    private final ReentrantLock updateLock = new ReentrantLock();
+    /**
+     * time in milliseconds at which rules were last loaded or deleted
+     */
+    private volatile long lastUpdate = System.currentTimeMillis();
+    /**
+     * thread which retransforms classes after rules are lazily uninstalled or null if it has not yet been started
+     */
+    private DeferredUninstaller deferredUninstaller = null;
 
     /**
      * constructor allowing this transformer to be provided with access to the JVM's instrumentation
@@ -63,6 +86,8 @@ public class Retransformer extends Transformer {
 
     public void installScript(List<String> scriptTexts, List<String> scriptNames, PrintWriter out) throws Exception
     {
+        lastUpdate = System.currentTimeMillis();
+
         int length = scriptTexts.size();
         List<RuleScript> toBeAdded = new LinkedList<RuleScript>();
         List<RuleScript> toBeRemoved = new LinkedList<RuleScript>();
@@ -201,6 +226,151 @@ public class Retransformer extends Transformer {
         }
     }
 
+    /**
+     * install rules from a bundle of scripts as a single transaction. the scripts are first
+     * processed by a staging transformer which is not registered with the JVM but which shares
+     * this transformer's helper manager and access enabler. each loaded class
+     * which matches a rule in the bundle is transformed offline using its original bytecode and
+     * every resulting rule is type checked against its trigger method. rules which do not match
+     * any loaded class are parsed and created without a trigger method. if any rule fails to parse, inject or type check then the
+     * failures are reported and nothing is installed, otherwise the bundle is installed using a
+     * single retransformation pass. n.b. classes loaded after the check are transformed in the
+     * normal way so rule failures are still possible for them.
+     * @param scriptTexts the texts of the scripts in the bundle
+     * @param scriptNames the names of the scripts in the bundle
+     * @param out a writer used to report the outcome
+     * @throws Exception if an error occurs during installation
+     */
+    public void installScriptTransactionally(List<String> scriptTexts, List<String> scriptNames, PrintWriter out) throws Exception
+    {
+        List<String> failures = checkScripts(scriptTexts, scriptNames);
+
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                out.print("ERROR ");
+                out.println(failure);
+            }
+            out.println("ERROR transaction rejected : no rules were installed");
+            return;
+        }
+
+        installScript(scriptTexts, scriptNames, out);
+    }
+
+    /**
+     * check the rules in a bundle of scripts against the currently loaded classes without
+     * modifying the installed rule set or any loaded class
+     * @param scriptTexts the texts of the scripts in the bundle
+     * @param scriptNames the names of the scripts in the bundle
+     * @return a list describing each failure which is empty if all the rules passed the check
+     */
+    private List<String> checkScripts(List<String> scriptTexts, List<String> scriptNames)
+    {
+        List<String> failures = new LinkedList<String>();
+        Transformer staging;
+
+        try {
+            // this also rejects scripts with invalid structure or duplicate rule names
+            staging = new Transformer(null, helperManager, accessEnabler, scriptNames, scriptTexts, false);
+        } catch (Exception e) {
+            failures.add(e.getMessage());
+            return failures;
+        }
+
+        for (Class<?> clazz : inst.getAllLoadedClasses()) {
+            if (isSkipClass(clazz)) {
+                continue;
+            }
+            try {
+                if (!staging.scriptRepository.matchClass(clazz)) {
+                    continue;
+                }
+            } catch (Exception e) {
+                failures.add("unable to match rules against class " + clazz.getName() + " : " + e);
+                continue;
+            }
+            byte[] bytes = loadClassBytes(clazz);
+            if (bytes == null) {
+                Helper.verbose("Retransformer.checkScripts : unable to load bytecode for class " + clazz.getName());
+                continue;
+            }
+            try {
+                staging.transform(clazz.getClassLoader(), clazz.getName().replace('.', '/'), clazz, clazz.getProtectionDomain(), bytes);
+            } catch (IllegalClassFormatException e) {
+                failures.add("unable to check rules against class " + clazz.getName() + " : " + e);
+            }
+        }
+
+        for (RuleScript ruleScript : staging.scriptRepository.currentRules()) {
+            List<Transform> transforms = ruleScript.allTransforms();
+            if (transforms.isEmpty()) {
+                // nothing to inject into yet so we can only check that the rule parses
+                try {
+                    Rule.create(ruleScript, ClassLoader.getSystemClassLoader(), helperManager, accessEnabler);
+                } catch (ParseException e) {
+                    failures.add("failed to parse rule " + ruleScript.getName() + " : " + e.getMessage());
+                } catch (Exception e) {
+                    // n.b. type errors which depend on the trigger method cannot be identified here
+                    failures.add("failed to create rule " + ruleScript.getName() + " : " + e);
+                }
+                continue;
+            }
+            for (Transform transform : transforms) {
+                Rule rule = transform.getRule();
+                Throwable throwable = transform.getThrowable();
+                String target = transform.getInternalClassName() + (transform.getTriggerMethodName() == null ? "" : "." + transform.getTriggerMethodName());
+                if (throwable != null) {
+                    failures.add("failed to inject rule " + ruleScript.getName() + " into " + target + " : " + throwable);
+                } else if (rule != null) {
+                    try {
+                        rule.typeCheck();
+                    } catch (TypeException e) {
+                        failures.add("failed to type check rule " + ruleScript.getName() + " against " + target + " : " + e.getMessage());
+                    }
+                }
+                if (rule != null) {
+                    // drop the key allocated during injection
+                    rule.purge();
+                }
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * read the original bytecode for a loaded class
+     * @param clazz the class
+     * @return the bytecode or null if it cannot be found
+     */
+    private static byte[] loadClassBytes(Class<?> clazz)
+    {
+        String resourceName = clazz.getName().replace('.', '/') + ".class";
+        ClassLoader loader = clazz.getClassLoader();
+        InputStream is = (loader == null ? ClassLoader.getSystemResourceAsStream(resourceName) : loader.getResourceAsStream(resourceName));
+        if (is == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read = is.read(buffer);
+            while (read >= 0) {
+                bytes.write(buffer, 0, read);
+                read = is.read(buffer);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
     protected void collectAffectedNames(List<RuleScript> ruleScripts, List<String> classList, List<String> interfaceList,
                                    List<String> superClassList, List<String> superInterfaceList)
     {
@@ -236,6 +406,11 @@ public class Retransformer extends Transformer {
             while (iterator.hasNext()) {
                 RuleScript ruleScript = iterator.next();
                 ruleScript.writeTo(out);
+                RuleBreaker breaker = ruleScript.getBreaker();
+                if (breaker.isTripped()) {
+                    out.print("Rule ");
+                    out.println(breaker);
+                }
                 synchronized (ruleScript) {
                     List<Transform> transforms = ruleScript.allTransforms();
                     for (Transform transform : transforms) {
@@ -246,6 +421,287 @@ public class Retransformer extends Transformer {
         }
     }
 
+    /**
+     * write a summary of the installed rules which match the supplied filters, one line per rule. the
+     * rules are listed in rule name order so that a client can list a large rule set a page at a time,
+     * passing the name of the last rule in the previous page to obtain the next one. the output starts
+     * with a line "MATCHED n" giving the number of rules which match the filters. each rule is written as
+     *
+     * <pre>RULEINFO name targetClass targetMethod file detail status line transformed failed</pre>
+     *
+     * where the first five fields are written as "length:text" with any backslash, newline or carriage
+     * return in the text escaped as "\\", "\n" or "\r". detail is the first transform failure reported
+     * for the rule or an empty string. status is one of pending, transformed, failed or disabled.
+     * transformed and failed count the successful and failed transforms. if the listing stops because
+     * the limit has been reached and more rules match then the output ends with a line "NEXT name" where
+     * name is written in the same format as the first field of a RULEINFO line.
+     * @param after the name of the last rule listed in the previous page or null to start at the first rule
+     * @param limit the maximum number of rules to list or zero if all rules should be listed
+     * @param namePattern a regular expression which must be found in the rule name or null
+     * @param classPattern a regular expression which must be found in the rule target class or null
+     * @param status the status of the rules to be listed or null if rules with any status are to be listed
+     * @param out a writer used to report the rules
+     */
+    public void listRuleInfo(String after, int limit, String namePattern, String classPattern, String status, PrintWriter out)
+    {
+        Pattern nameRegex = (namePattern == null ? null : Pattern.compile(namePattern));
+        Pattern classRegex = (classPattern == null ? null : Pattern.compile(classPattern));
+        List<RuleScript> ruleScripts = scriptRepository.currentRulesByName();
+        List<RuleScript> page = new ArrayList<RuleScript>();
+        List<String> statuses = new ArrayList<String>();
+        int matched = 0;
+        boolean more = false;
+
+        // every matching rule is counted but only the rules in the requested page are retained
+
+        for (RuleScript ruleScript : ruleScripts) {
+            if (nameRegex != null && !nameRegex.matcher(ruleScript.getName()).find()) {
+                continue;
+            }
+            if (classRegex != null && !classRegex.matcher(ruleScript.getTargetClass()).find()) {
+                continue;
+            }
+            String ruleStatus = ruleStatus(ruleScript);
+            if (status != null && !status.equals(ruleStatus)) {
+                continue;
+            }
+            matched++;
+            if (after != null && ruleScript.getName().compareTo(after) <= 0) {
+                continue;
+            }
+            if (limit > 0 && page.size() == limit) {
+                more = true;
+                continue;
+            }
+            page.add(ruleScript);
+            statuses.add(ruleStatus);
+        }
+
+        out.print("MATCHED ");
+        out.println(matched);
+
+        int size = page.size();
+        for (int i = 0; i < size; i++) {
+            writeRuleInfo(page.get(i), statuses.get(i), out);
+        }
+
+        if (more) {
+            // more rules match so tell the client where to start the next page
+            out.print("NEXT ");
+            writeField(page.get(size - 1).getName(), out);
+            out.println();
+        }
+    }
+
+    private static String ruleStatus(RuleScript ruleScript)
+    {
+        if (!ruleScript.isEnabled() || ruleScript.getBreaker().isTripped()) {
+            return "disabled";
+        }
+        String status = "pending";
+        synchronized (ruleScript) {
+            for (Transform transform : ruleScript.allTransforms()) {
+                if (isFailed(transform)) {
+                    return "failed";
+                }
+                status = "transformed";
+            }
+        }
+        return status;
+    }
+
+    private static boolean isFailed(Transform transform)
+    {
+        return !transform.isTransformed() || (transform.isCompiled() && !transform.isCompiledOk());
+    }
+
+    private static void writeRuleInfo(RuleScript ruleScript, String status, PrintWriter out)
+    {
+        int transformed = 0;
+        int failed = 0;
+        String detail = "";
+        synchronized (ruleScript) {
+            for (Transform transform : ruleScript.allTransforms()) {
+                if (isFailed(transform)) {
+                    if (failed == 0) {
+                        Throwable th = transform.getThrowable();
+                        detail = (th != null ? th.toString() : transform.getDetail());
+                    }
+                    failed++;
+                } else {
+                    transformed++;
+                }
+            }
+        }
+        out.print("RULEINFO ");
+        writeField(ruleScript.getName(), out);
+        out.print(' ');
+        writeField(ruleScript.getTargetClass(), out);
+        out.print(' ');
+        writeField(ruleScript.getTargetMethod(), out);
+        out.print(' ');
+        writeField(ruleScript.getFile(), out);
+        out.print(' ');
+        writeField(detail, out);
+        out.print(' ');
+        out.print(status);
+        out.print(' ');
+        out.print(ruleScript.getLine());
+        out.print(' ');
+        out.print(transformed);
+        out.print(' ');
+        out.println(failed);
+    }
+
+    /**
+     * write a text field as "length:text" escaping any backslash, newline or carriage return
+     * @param text the text to write or null for an empty field
+     * @param out the writer to write to
+     */
+    static void writeField(String text, PrintWriter out)
+    {
+        if (text == null) {
+            text = "";
+        }
+        if (text.indexOf('\\') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            text = text.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+        }
+        out.print(text.length());
+        out.print(':');
+        out.print(text);
+    }
+
+    /**
+     * compare the rules a client wants installed with the rules which are actually installed.
+     * for each client rule which is not installed a line "ADDED name" is written. for each client
+     * rule whose content hash differs from that of the installed rule a line "CHANGED name" is
+     * written. for each installed rule which the client did not mention a line "REMOVED name" is
+     * written. finally a line "UNCHANGED n" gives the number of rules which need no update. the
+     * client can then load and delete just the rules which differ. n.b. this only reports the
+     * differences, it does not modify the installed rule set.
+     * @param ruleHashes a map from the name of each rule the client wants installed to its content hash
+     * @param out a writer used to report the differences
+     */
+    public void compareScripts(Map<String, String> ruleHashes, PrintWriter out)
+    {
+        int unchanged = 0;
+
+        for (Map.Entry<String, String> entry : ruleHashes.entrySet()) {
+            String name = entry.getKey();
+            RuleScript ruleScript = scriptRepository.scriptForRuleName(name);
+            if (ruleScript == null) {
+                out.print("ADDED ");
+                out.println(name);
+            } else if (!entry.getValue().equals(ruleScript.getContentHash())) {
+                out.print("CHANGED ");
+                out.println(name);
+            } else {
+                unchanged++;
+            }
+        }
+
+        for (RuleScript ruleScript : scriptRepository.currentRules()) {
+            if (!ruleHashes.containsKey(ruleScript.getName())) {
+                out.print("REMOVED ");
+                out.println(ruleScript.getName());
+            }
+        }
+
+        out.print("UNCHANGED ");
+        out.println(unchanged);
+    }
+
+    /**
+     * write execution metrics for all currently installed rules, one line per rule
+     * @param reset true if the metrics should be reset to zero after they have been written
+     * @param out a writer used to report the metrics
+     */
+    public void listMetrics(boolean reset, PrintWriter out)
+    {
+        for (RuleScript ruleScript : scriptRepository.currentRules()) {
+            RuleMetrics metrics = ruleScript.getMetrics();
+            metrics.writeTo(ruleScript.getName(), out);
+            if (reset) {
+                metrics.reset();
+            }
+        }
+    }
+
+    /**
+     * re-enable rules which have been disabled by their circuit breaker
+     * @param ruleNames the names of the rules to be re-enabled or null if all disabled rules
+     * should be re-enabled
+     * @param out a writer used to report the outcome
+     */
+    public void rearmScripts(List<String> ruleNames, PrintWriter out)
+    {
+        List<RuleScript> toBeRearmed;
+
+        if (ruleNames != null) {
+            toBeRearmed = new LinkedList<RuleScript>();
+            for (String name : ruleNames) {
+                RuleScript ruleScript = scriptRepository.scriptForRuleName(name);
+                if (ruleScript == null) {
+                    out.print("ERROR failed to find loaded rule with name ");
+                    out.println(name);
+                } else {
+                    toBeRearmed.add(ruleScript);
+                }
+            }
+        } else {
+            toBeRearmed = scriptRepository.currentRules();
+        }
+
+        for (RuleScript ruleScript : toBeRearmed) {
+            if (ruleScript.getBreaker().rearm()) {
+                out.print("re-enabled RULE ");
+                out.println(ruleScript.getName());
+            } else if (ruleNames != null) {
+                out.print("WARNING rule was not disabled ");
+                out.println(ruleScript.getName());
+            }
+        }
+    }
+
+    /**
+     * suspend or resume execution of rules without retransforming the classes into which they
+     * have been injected. a disabled rule's trigger code returns before preparing the trigger
+     * call so it costs no more than a check of the rule's enabled flag.
+     * @param ruleNames the names of the rules to be enabled or disabled or null if all rules
+     * should be enabled or disabled
+     * @param enable true if the rules should be enabled or false if they should be disabled
+     * @param out a writer used to report the outcome
+     */
+    public void enableScripts(List<String> ruleNames, boolean enable, PrintWriter out)
+    {
+        List<RuleScript> toBeSwitched;
+
+        if (ruleNames != null) {
+            toBeSwitched = new LinkedList<RuleScript>();
+            for (String name : ruleNames) {
+                RuleScript ruleScript = scriptRepository.scriptForRuleName(name);
+                if (ruleScript == null) {
+                    out.print("ERROR failed to find loaded rule with name ");
+                    out.println(name);
+                } else {
+                    toBeSwitched.add(ruleScript);
+                }
+            }
+        } else {
+            toBeSwitched = scriptRepository.currentRules();
+        }
+
+        for (RuleScript ruleScript : toBeSwitched) {
+            if (ruleScript.setEnabled(enable)) {
+                out.print(enable ? "enabled RULE " : "disabled RULE ");
+                out.println(ruleScript.getName());
+            } else if (ruleNames != null) {
+                out.print(enable ? "WARNING rule was already enabled " : "WARNING rule was already disabled ");
+                out.println(ruleScript.getName());
+            }
+        }
+    }
+
     public void removeScripts(List<String> scriptTexts, PrintWriter out) throws Exception
     {
         List<RuleScript> toBeRemoved;
@@ -282,6 +738,8 @@ public class Retransformer extends Transformer {
             return;
         }
 
+        lastUpdate = System.currentTimeMillis();
+
         for (RuleScript ruleScript : toBeRemoved) {
             if (scriptRepository.removeScript(ruleScript) != ruleScript) {
                 out.println("ERROR remove failed to find script " + ruleScript.getName());
@@ -292,10 +750,6 @@ public class Retransformer extends Transformer {
         // we need to find all classes which were transformed by
         // the scripts and retransform them
 
-
-        // now look for loaded classes whose names are in the list
-
-        List<Class<?>> transformed = new LinkedList<Class<?>>();
         List<String> deletedClassNames = new LinkedList<String>();
 
         for (RuleScript ruleScript : toBeRemoved) {
@@ -312,18 +766,74 @@ public class Retransformer extends Transformer {
             }
         }
 
+        if (isUninstallLazy()) {
+            // purging the keys now means the trigger code still injected for the deleted
+            // rules finds no rule and skips the call. the trigger code itself is removed
+            // later when the background thread retransforms the classes
+            for (RuleScript ruleScript : toBeRemoved) {
+                synchronized (ruleScript) {
+                    for (Transform transform : ruleScript.allTransforms()) {
+                        Rule rule = transform.getRule();
+                        if (rule != null) {
+                            rule.purge();
+                        }
+                    }
+                }
+                out.println("uninstall RULE " + ruleScript.getName());
+            }
+            ensureDeferredUninstaller().defer(toBeRemoved, deletedClassNames);
+            return;
+        }
+
+        // retransform all classes affected by the change
+
+        retransformRemoved(loadedClasses(deletedClassNames), out);
+
+        // now we can safely purge keys for all the deleted scripts -- we need to do this
+        // after the retransform because the latter removes the trigger code which uses
+        // the rule key
+
+        completeRemoval(toBeRemoved);
+
+        for (RuleScript oldRuleScript : toBeRemoved) {
+            out.println("uninstall RULE " + oldRuleScript.getName());
+        }
+    }
+
+    /**
+     * find the loaded classes with the given names
+     * @param classNames the names of the classes
+     * @return the loaded classes, omitting any which Byteman cannot transform
+     */
+    List<Class<?>> loadedClasses(List<String> classNames)
+    {
+        List<Class<?>> loaded = new LinkedList<Class<?>>();
+
+        if (classNames.isEmpty()) {
+            return loaded;
+        }
+
         for (Class clazz : inst.getAllLoadedClasses()) {
             if (isSkipClass(clazz)) {
                 continue;
             }
 
-            if (deletedClassNames.contains(clazz.getName())) {
-                transformed.add(clazz);
+            if (classNames.contains(clazz.getName())) {
+                loaded.add(clazz);
             }
         }
 
-        // retransform all classes affected by the change
+        return loaded;
+    }
 
+    /**
+     * retransform classes to remove the trigger code for deleted rules
+     * @param transformed the classes to retransform
+     * @param out a writer to which retransformation errors are reported or null if they should only be logged
+     * @throws Exception if the classes cannot be retransformed
+     */
+    void retransformRemoved(List<Class<?>> transformed, PrintWriter out) throws Exception
+    {
         if (!transformed.isEmpty()) {
             Class<?>[] transformedArray = new Class<?>[transformed.size()];
             transformed.toArray(transformedArray);
@@ -335,15 +845,22 @@ public class Retransformer extends Transformer {
             } catch(VerifyError ve) {
                 Helper.err("Retransformer : VerifyError during retransformation : some rules may not have been correctly uninjected!");
                 Helper.errTraceException(ve);
-                out.println("VerifyError during retransformation : some rules may not have been correctly uninjected!");
-                ve.printStackTrace(out);
+                if (out != null) {
+                    out.println("VerifyError during retransformation : some rules may not have been correctly uninjected!");
+                    ve.printStackTrace(out);
+                }
             }
         }
+    }
 
-        // now we can safely purge keys for all the deleted scripts -- we need to do this
-        // after the retransform because the latter removes the trigger code which uses
-        // the rule key
-
+    /**
+     * run the uninstall lifecycle for deleted scripts once their trigger code has been removed. if a
+     * script with the same name has since been installed and not yet injected the previously installed
+     * rule is handed on to it so that it can be uninstalled later.
+     * @param toBeRemoved the deleted scripts
+     */
+    void completeRemoval(List<RuleScript> toBeRemoved)
+    {
         for (RuleScript oldRuleScript : toBeRemoved) {
             RuleScript newRuleScript = scriptRepository.scriptForRuleName(oldRuleScript.getName());
             // new script may not exist!
@@ -379,10 +896,42 @@ public class Retransformer extends Transformer {
                     }
                 }
             }
-            out.println("uninstall RULE " + oldRuleScript.getName());
         }
     }
 
+    /**
+     * @return the lock used to serialize updates to the rule set, jar lists or system properties
+     */
+    ReentrantLock getUpdateLock()
+    {
+        return updateLock;
+    }
+
+    /**
+     * @return the time in milliseconds at which rules were last loaded or deleted
+     */
+    long getLastUpdate()
+    {
+        return lastUpdate;
+    }
+
+    /**
+     * @return the number of deleted rules whose classes are still waiting to be retransformed
+     */
+    public synchronized int getDeferredUninstallCount()
+    {
+        return (deferredUninstaller != null ? deferredUninstaller.pendingCount() : 0);
+    }
+
+    private synchronized DeferredUninstaller ensureDeferredUninstaller()
+    {
+        if (deferredUninstaller == null) {
+            deferredUninstaller = new DeferredUninstaller(this);
+            deferredUninstaller.start();
+        }
+        return deferredUninstaller;
+    }
+
     public void appendJarFile(PrintWriter out, JarFile jarfile, boolean isBoot) throws Exception
     {
         if (isBoot) {
@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.byteman.agent;
+
+import org.jboss.byteman.rule.helper.Helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a circuit breaker attached to a rule script which disables execution of the rule when it exceeds
+ * the execution rate or execution time budget configured via system properties
+ * org.jboss.byteman.breaker.rate and org.jboss.byteman.breaker.budget. a disabled rule remains
+ * injected but its triggers return without executing the rule. it is re-enabled either automatically
+ * once the cool-down period configured via org.jboss.byteman.breaker.cooldown has passed or manually
+ * via the agent listener.
+ *
+ * execution counts and times are accumulated over a one second window. note that execution time is
+ * measured as elapsed time in the rule engine so it includes any time spent blocked in builtins like
+ * waitFor or delay.
+ */
+public class RuleBreaker
+{
+    private final static long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * the name of the rule whose execution is monitored
+     */
+    private final String name;
+    /**
+     * the time at which the current monitoring window started
+     */
+    private final AtomicLong windowStart;
+    /**
+     * count of executions in the current monitoring window
+     */
+    private final AtomicLong windowFires;
+    /**
+     * total nanoseconds spent executing the rule in the current monitoring window
+     */
+    private final AtomicLong windowNanos;
+    /**
+     * true if the rule has been disabled by this breaker
+     */
+    private volatile boolean tripped;
+    /**
+     * the time at which the breaker was tripped
+     */
+    private volatile long trippedAt;
+    /**
+     * a description of why the breaker was tripped
+     */
+    private volatile String reason;
+
+    public RuleBreaker(String name)
+    {
+        this.name = name;
+        this.windowStart = new AtomicLong(System.nanoTime());
+        this.windowFires = new AtomicLong();
+        this.windowNanos = new AtomicLong();
+        this.tripped = false;
+        this.reason = null;
+    }
+
+    /**
+     * called before the rule is executed to check whether execution is allowed. if an execution
+     * rate limit is configured then the execution is counted and the breaker tripped if the
+     * limit is exceeded.
+     * @return true if the rule may be executed otherwise false
+     */
+    public boolean allow()
+    {
+        if (isDisabled()) {
+            return false;
+        }
+
+        int maxFires = Transformer.getBreakerRate();
+
+        if (maxFires > 0) {
+            long now = System.nanoTime();
+            roll(now);
+            long fires = windowFires.incrementAndGet();
+            if (fires > maxFires) {
+                trip(now, "executed more than " + maxFires + " times per second");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * called after the rule has been executed to record how long the execution took. if an
+     * execution time budget is configured then the breaker is tripped if the budget is exceeded.
+     * @param elapsed the time taken to execute the rule in nanoseconds
+     */
+    public void record(long elapsed)
+    {
+        int budget = Transformer.getBreakerBudget();
+
+        if (budget > 0) {
+            long now = System.nanoTime();
+            roll(now);
+            long nanos = windowNanos.addAndGet(elapsed);
+            if (nanos > (NANOS_PER_SECOND / 100) * budget) {
+                trip(now, "exceeded CPU budget of " + budget + "%");
+            }
+        }
+    }
+
+    /**
+     * check whether the breaker currently prevents execution of the rule, re-enabling it first if it
+     * was tripped and the cool-down period has passed. this is cheap enough to be called every time
+     * the rule is triggered.
+     * @return true if the rule is disabled otherwise false
+     */
+    public boolean isDisabled()
+    {
+        return tripped && !cooledDown();
+    }
+
+    /**
+     * check whether the breaker has been tripped
+     * @return true if the rule is disabled otherwise false
+     */
+    public boolean isTripped()
+    {
+        return tripped;
+    }
+
+    /**
+     * re-enable execution of the rule
+     * @return true if the rule was disabled otherwise false
+     */
+    public synchronized boolean rearm()
+    {
+        if (!tripped) {
+            return false;
+        }
+        windowStart.set(System.nanoTime());
+        windowFires.set(0);
+        windowNanos.set(0);
+        reason = null;
+        tripped = false;
+        return true;
+    }
+
+    public String toString()
+    {
+        String currentReason = reason;
+        if (currentReason == null) {
+            return "enabled";
+        }
+        return "disabled by circuit breaker : " + currentReason;
+    }
+
+    /**
+     * start a new monitoring window if the current one has expired. resetting the window
+     * counts is not atomic with the window switch so the counts may occasionally include
+     * a few values belonging to the previous window.
+     * @param now the current time in nanoseconds
+     */
+    private void roll(long now)
+    {
+        long start = windowStart.get();
+        if (now - start >= NANOS_PER_SECOND && windowStart.compareAndSet(start, now)) {
+            windowFires.set(0);
+            windowNanos.set(0);
+        }
+    }
+
+    private synchronized void trip(long now, String why)
+    {
+        if (tripped) {
+            return;
+        }
+        trippedAt = now;
+        reason = why;
+        tripped = true;
+        int cooldown = Transformer.getBreakerCooldown();
+        if (cooldown > 0) {
+            Helper.err("Rule " + name + " disabled for " + cooldown + " seconds because it " + why);
+        } else {
+            Helper.err("Rule " + name + " disabled because it " + why);
+        }
+    }
+
+    private boolean cooledDown()
+    {
+        int cooldown = Transformer.getBreakerCooldown();
+        if (cooldown <= 0 || System.nanoTime() - trippedAt < cooldown * NANOS_PER_SECOND) {
+            return false;
+        }
+        if (rearm()) {
+            Helper.verbose("Rule " + name + " re-enabled after cool-down");
+        }
+        return true;
+    }
+}
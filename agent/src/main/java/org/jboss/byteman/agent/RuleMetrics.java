@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.byteman.agent;
+
+import org.jboss.byteman.synchronization.StripedCounter;
+
+import java.io.PrintWriter;
+
+/**
+ * execution statistics for a rule script accumulated across all of the trigger points into
+ * which the rule has been injected. counts are kept in striped counters so that recording an
+ * execution does not introduce contention between threads triggering the same rule.
+ */
+public class RuleMetrics
+{
+    /**
+     * count of the number of times the rule has been executed by the rule engine
+     */
+    private final StripedCounter fires;
+    /**
+     * count of the number of times the rule condition has evaluated to true
+     */
+    private final StripedCounter hits;
+    /**
+     * total elapsed time in nanoseconds spent executing the rule
+     */
+    private final StripedCounter nanos;
+
+    public RuleMetrics()
+    {
+        fires = new StripedCounter();
+        hits = new StripedCounter();
+        nanos = new StripedCounter();
+    }
+
+    /**
+     * record one execution of the rule
+     * @param elapsed the time taken to execute the rule in nanoseconds
+     */
+    public void recordExecution(long elapsed)
+    {
+        fires.increment();
+        nanos.add(elapsed);
+    }
+
+    /**
+     * record one execution of the rule in which the condition evaluated to true
+     */
+    public void recordHit()
+    {
+        hits.increment();
+    }
+
+    public long getFires()
+    {
+        return fires.sum();
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getNanos()
+    {
+        return nanos.sum();
+    }
+
+    /**
+     * reset all counts to zero
+     */
+    public void reset()
+    {
+        fires.reset();
+        hits.reset();
+        nanos.reset();
+    }
+
+    /**
+     * write the metrics for a rule as a single line in the format used by the agent listener
+     * i.e. "fires n hits n nanos n RULE name"
+     * @param name the name of the rule
+     * @param writer the writer to which the metrics should be written
+     */
+    public void writeTo(String name, PrintWriter writer)
+    {
+        writer.print("fires ");
+        writer.print(getFires());
+        writer.print(" hits ");
+        writer.print(getHits());
+        writer.print(" nanos ");
+        writer.print(getNanos());
+        writer.print(" RULE ");
+        writer.println(name);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.byteman.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a filter attached to a rule script by a SAMPLE or RATE clause which decides whether a given
+ * trigger call should be passed on to the rule engine. sampling is checked by the injected
+ * trigger code before the rule arguments are boxed and before Rule.execute is called so the cost
+ * of a rejected trigger is a map lookup and a counter update.
+ */
+public abstract class RuleSampler
+{
+    /**
+     * the keyword which introduces a sampling clause
+     */
+    public final static String SAMPLE = "SAMPLE";
+    /**
+     * the keyword which introduces a rate limiting clause
+     */
+    public final static String RATE = "RATE";
+
+    /**
+     * decide whether the current trigger call should be passed on to the rule engine
+     * @return true if the rule should be executed otherwise false
+     */
+    public abstract boolean sample();
+
+    /**
+     * create a sampler from the text following a SAMPLE keyword. the text must have the form
+     * "m IN n" where 0 &lt; m &lt;= n, meaning that m out of every n triggerings by a given
+     * thread are passed on to the rule engine.
+     * @param parameters the text following the SAMPLE keyword
+     * @return the sampler or null if the text is not valid
+     */
+    public static RuleSampler createSample(String parameters)
+    {
+        String[] words = parameters.trim().split("\\s+");
+        if (words.length != 3 || !words[1].equals("IN")) {
+            return null;
+        }
+        try {
+            int count = Integer.parseInt(words[0]);
+            int interval = Integer.parseInt(words[2]);
+            if (count <= 0 || interval < count) {
+                return null;
+            }
+            return new Sample(count, interval);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * create a rate limiter from the text following a RATE keyword. the text must have the form
+     * "n/s" or just "n" where n &gt; 0, meaning that at most n triggerings per second across all
+     * threads are passed on to the rule engine.
+     * @param parameters the text following the RATE keyword
+     * @return the rate limiter or null if the text is not valid
+     */
+    public static RuleSampler createRate(String parameters)
+    {
+        String text = parameters.trim();
+        int slashIdx = text.indexOf('/');
+        if (slashIdx >= 0) {
+            if (!text.substring(slashIdx + 1).trim().equals("s")) {
+                return null;
+            }
+            text = text.substring(0, slashIdx).trim();
+        }
+        try {
+            int rate = Integer.parseInt(text);
+            if (rate <= 0) {
+                return null;
+            }
+            return new Rate(rate);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * a sampler which passes on m out of every n triggerings made by a given thread. counts
+     * are kept per thread so that sampling does not involve any shared writes.
+     */
+    private static class Sample extends RuleSampler
+    {
+        private final int count;
+        private final int interval;
+        private final ThreadLocal<int[]> counter = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        Sample(int count, int interval)
+        {
+            this.count = count;
+            this.interval = interval;
+        }
+
+        public boolean sample()
+        {
+            int[] current = counter.get();
+            int next = current[0];
+            current[0] = (next + 1 == interval ? 0 : next + 1);
+            return next < count;
+        }
+
+        public String toString()
+        {
+            return SAMPLE + " " + count + " IN " + interval;
+        }
+    }
+
+    /**
+     * a token bucket which passes on at most rate triggerings per second, allowing a burst of up
+     * to one second's worth of triggerings. the bucket is implemented as a single theoretical
+     * arrival time updated using compare and swap so it does not need any locking.
+     */
+    private static class Rate extends RuleSampler
+    {
+        private final static long NANOS_PER_SECOND = 1000000000L;
+        private final int rate;
+        private final long interval;
+        private final long tolerance;
+        private final AtomicLong nextArrival;
+
+        Rate(int rate)
+        {
+            this.rate = rate;
+            this.interval = Math.max(NANOS_PER_SECOND / rate, 1L);
+            this.tolerance = (rate - 1) * interval;
+            this.nextArrival = new AtomicLong(System.nanoTime());
+        }
+
+        public boolean sample()
+        {
+            long now = System.nanoTime();
+            while (true) {
+                long arrival = nextArrival.get();
+                // the bucket is empty if the theoretical arrival time is further ahead than
+                // the time it takes to refill all but one token
+                if (arrival - now > tolerance) {
+                    return false;
+                }
+                // a bucket which has been idle only refills to one second's worth of tokens
+                long next = (arrival - now < 0 ? now : arrival) + interval;
+                if (nextArrival.compareAndSet(arrival, next)) {
+                    return true;
+                }
+            }
+        }
+
+        public String toString()
+        {
+            return RATE + " " + rate + "/s";
+        }
+    }
+}
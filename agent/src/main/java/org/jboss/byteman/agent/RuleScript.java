@@ -99,6 +99,37 @@ public class RuleScript
      * true if this rule should be compiled to bytecode otherwise false
      */
     private final boolean compileToBytecode;
+    /**
+     * a sampler defined by a SAMPLE clause which selects which triggerings are passed to
+     * the rule engine or null if the rule is executed at every triggering
+     */
+    private final RuleSampler sampler;
+    /**
+     * a rate limiter defined by a RATE clause which bounds how often triggerings are passed
+     * to the rule engine or null if the rule execution rate is unbounded
+     */
+    private final RuleSampler rateLimiter;
+    /**
+     * a circuit breaker which disables execution of the rule when it exceeds the configured
+     * execution rate or execution time budget
+     */
+    private final RuleBreaker breaker;
+    /**
+     * execution statistics for the rule accumulated across all its trigger points
+     */
+    private final RuleMetrics metrics;
+    /**
+     * switch which allows execution of the rule to be suspended and resumed without retransforming
+     * the classes into which it has been injected. this is checked by the trigger code before the
+     * trigger arguments are boxed.
+     */
+    private volatile boolean enabled;
+    /**
+     * a hash of the rule definition and the script level settings which precede it or null if
+     * the rule was not created from script text. this allows a client to check whether the rule
+     * it would load is the same as the one already installed.
+     */
+    private String contentHash;
     /**
      * a list of records identifying transforms associated with a specific class.
      * each set is identified by the name of a trigger class and the class's
@@ -132,6 +163,28 @@ public class RuleScript
      * @param compileToBytecode true if the rule should be compiled otherwise false
      */
     public RuleScript(String name, String targetClass, boolean isInterface, boolean isOverride, String targetMethod, String targetHelper, String[] imports, Location targetLocation, String ruleText, int line, String file, boolean compileToBytecode)
+    {
+        this(name, targetClass, isInterface, isOverride, targetMethod, targetHelper, imports, targetLocation, ruleText, line, file, compileToBytecode, null, null);
+    }
+
+    /**
+     * constructor for a rule whose triggerings are filtered by a SAMPLE and/or RATE clause
+     * @param name the name of the rule
+     * @param targetClass the name of the class or interface to which the rule applies
+     * @param isInterface true if the ruel applies to an interface false if it appies ot a class
+     * @param isOverride true if the rule should inject down class hierarchies false if it should inly inject into direct implementations
+     * @param targetMethod the name of the method to which the rule applies
+     * @param targetHelper the name of the helper class to be used
+     * @param imports the list of imports for the module system
+     * @param targetLocation description of where the rule should be injected
+     * @param ruleText the body of the rule as text including the BIND, IF and DO clasue
+     * @param line the line at which the rule starts in it's rule script
+     * @param file the path to the file containing the rule
+     * @param compileToBytecode true if the rule should be compiled otherwise false
+     * @param sampler the sampler derived from the SAMPLE clause or null if there is no such clause
+     * @param rateLimiter the rate limiter derived from the RATE clause or null if there is no such clause
+     */
+    public RuleScript(String name, String targetClass, boolean isInterface, boolean isOverride, String targetMethod, String targetHelper, String[] imports, Location targetLocation, String ruleText, int line, String file, boolean compileToBytecode, RuleSampler sampler, RuleSampler rateLimiter)
     {
         this.name = name;
         this.targetClass = targetClass;
@@ -145,6 +198,11 @@ public class RuleScript
         this.line = line;
         this.file = file;
         this.compileToBytecode = compileToBytecode;
+        this.sampler = sampler;
+        this.rateLimiter = rateLimiter;
+        this.breaker = new RuleBreaker(name);
+        this.metrics = new RuleMetrics();
+        this.enabled = true;
         this.transformSets = new ArrayList<TransformSet>();
     }
 
@@ -196,6 +254,52 @@ public class RuleScript
 
     public boolean isCompileToBytecode() { return compileToBytecode; }
 
+    public RuleSampler getSampler() { return sampler; }
+
+    public RuleSampler getRateLimiter() { return rateLimiter; }
+
+    public RuleBreaker getBreaker() { return breaker; }
+
+    public RuleMetrics getMetrics() { return metrics; }
+
+    public String getContentHash() { return contentHash; }
+
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * suspend or resume execution of the rule at all its trigger points
+     * @param enabled true if the rule should be executed when triggered otherwise false
+     * @return true if the setting was changed or false if the rule was already in the requested state
+     */
+    public boolean setEnabled(boolean enabled)
+    {
+        boolean changed = (this.enabled != enabled);
+        this.enabled = enabled;
+        return changed;
+    }
+
+    /**
+     * does this rule filter its triggerings using a SAMPLE or RATE clause
+     * @return true if trigger calls need to be sampled before executing the rule otherwise false
+     */
+    public boolean isSampled()
+    {
+        return sampler != null || rateLimiter != null;
+    }
+
+    /**
+     * decide whether a trigger call for this rule should be passed on to the rule engine.
+     * the sampler is consulted before the rate limiter so that only sampled triggerings
+     * consume rate tokens.
+     * @return true if the rule should be executed otherwise false
+     */
+    public boolean sample()
+    {
+        return (sampler == null || sampler.sample()) && (rateLimiter == null || rateLimiter.sample());
+    }
+
     /**
      * getter for list of transforms applied for this script. must be called synchronized on the script.
      * @return the list of transforms
@@ -466,6 +570,12 @@ public class RuleScript
         } else {
             writer.write("NOCOMPILE\n");
         }
+        if (sampler != null) {
+            writer.println(sampler.toString());
+        }
+        if (rateLimiter != null) {
+            writer.println(rateLimiter.toString());
+        }
         writer.println(targetLocation.toString());
         writer.println(ruleText);
         writer.println("ENDRULE");
@@ -27,7 +27,10 @@ package org.jboss.byteman.agent;
 import org.jboss.byteman.rule.helper.Helper;
 
 import java.util.*;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Class to manage indexing and lookup of rule scripts by rule name and by either class or interface name
@@ -72,15 +75,31 @@ public class ScriptRepository
             boolean ruleCompileToBytecode = scriptCompileToBytecode;
             LocationType locationType = null;
             Location targetLocation = null;
+            RuleSampler sampler = null;
+            RuleSampler rateLimiter = null;
             boolean isInterface = false;
             boolean isOverride = false;
             int lineNumber = 0;
             int startNumber = -1;
             int maxLines = lines.length;
             boolean inRule = false;
+            // the script level settings and the text of the current rule used to compute its content hash
+            StringBuilder scriptContent = new StringBuilder();
+            StringBuilder ruleContent = new StringBuilder();
             for (String line : lines) {
                 line = line.trim();
                 lineNumber++;
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    if (line.startsWith("RULE ")) {
+                        ruleContent.setLength(0);
+                        ruleContent.append(scriptContent);
+                        ruleContent.append(line).append('\n');
+                    } else if (inRule) {
+                        ruleContent.append(line).append('\n');
+                    } else {
+                        scriptContent.append(line).append('\n');
+                    }
+                }
                 if (line.startsWith("#")) {
                     if (inRule) {
                         // add a blank line in place of the comment so the line numbers
@@ -172,6 +191,16 @@ public class ScriptRepository
                     }
                 } else if (line.startsWith("METHOD ")) {
                     targetMethod = line.substring(7).trim();
+                } else if (line.startsWith("SAMPLE ")) {
+                    sampler = RuleSampler.createSample(line.substring(7));
+                    if (sampler == null) {
+                        throw new Exception("org.jboss.byteman.agent.Transformer : invalid SAMPLE clause at line " + lineNumber + " in script " + scriptFile);
+                    }
+                } else if (line.startsWith("RATE ")) {
+                    rateLimiter = RuleSampler.createRate(line.substring(5));
+                    if (rateLimiter == null) {
+                        throw new Exception("org.jboss.byteman.agent.Transformer : invalid RATE clause at line " + lineNumber + " in script " + scriptFile);
+                    }
                 } else if ((locationType = LocationType.type(line)) != null) {
                     String parameters = LocationType.parameterText(line);
                     targetLocation = Location.create(locationType, parameters);
@@ -195,13 +224,16 @@ public class ScriptRepository
                         if (targetImports == null) {
                             targetImports = (defaultImports != null) ? defaultImports : new String[0];
                         }
-                        RuleScript ruleScript = new RuleScript(name, targetClass, isInterface, isOverride, targetMethod, targetHelper, targetImports, targetLocation, nextRule, startNumber, scriptFile, ruleCompileToBytecode);
+                        RuleScript ruleScript = new RuleScript(name, targetClass, isInterface, isOverride, targetMethod, targetHelper, targetImports, targetLocation, nextRule, startNumber, scriptFile, ruleCompileToBytecode, sampler, rateLimiter);
+                        ruleScript.setContentHash(contentHash(ruleContent.toString()));
                         ruleScripts.add(ruleScript);
                     }
                     name = null;
                     targetClass = null;
                     targetMethod = null;
                     targetLocation = null;
+                    sampler = null;
+                    rateLimiter = null;
                     targetHelper = null;
                     targetImports = null;
                     // reset rule level compilation to script level setting
@@ -228,6 +260,35 @@ public class ScriptRepository
         return ruleScripts;
     }
 
+    /**
+     * compute the content hash for a rule. the content is made up of the trimmed lines of the script
+     * which precede the rule and lie outside any rule, i.e. script level HELPER, IMPORT, COMPILE and
+     * NOCOMPILE settings, followed by the trimmed lines of the rule from RULE to ENDRULE. blank lines
+     * and comments are omitted and each line is terminated with a newline. the hash is the SHA-256
+     * digest of the UTF-8 encoded content written as lower case hex. n.b. the submit client computes
+     * the same hash when synchronizing rules so the two must be kept in step.
+     * @param content the rule content
+     * @return the hash as a hex string
+     */
+    private static String contentHash(String content)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            // every JVM is required to support UTF-8
+            return null;
+        }
+    }
+
     /**
      * add a rule script to the repository returning any existing script with the same name or null
      * if no such script can be found. if a script is returned it will have been deactivated.
@@ -249,6 +310,7 @@ public class ScriptRepository
 
         synchronized (ruleNameIndex) {
             previous = ruleNameIndex.put(name, script);
+            rulesByName = null;
             if (previous != null) {
                 boolean isDeleted = previous.setDeleted();
                 if (isDeleted) {
@@ -321,6 +383,7 @@ public class ScriptRepository
             current = ruleNameIndex.get(name);
             if (current == script) {
                 ruleNameIndex.remove(current.getName());
+                rulesByName = null;
                 boolean isDeleted = current.setDeleted();
                 if (isDeleted) {
                     // it is some other thread's responsibility to remove the script
@@ -509,7 +572,34 @@ public class ScriptRepository
      */
     public List<RuleScript> currentRules()
     {
-        return new ArrayList(ruleNameIndex.values());
+        // n.b. listener commands which only read the rule set may call this while a load or delete
+        // is updating the index so the copy must be made holding the same lock as the updates
+        synchronized (ruleNameIndex) {
+            return new ArrayList<RuleScript>(ruleNameIndex.values());
+        }
+    }
+
+    /**
+     * return a list containing all the currently installed rule scripts sorted by rule name. the
+     * list is only sorted again after a rule has been added or removed so a client which lists the
+     * rules a page at a time does not pay for a sort on every page.
+     * @return an unmodifiable list of all installed scripts in rule name order
+     */
+    public List<RuleScript> currentRulesByName()
+    {
+        synchronized (ruleNameIndex) {
+            if (rulesByName == null) {
+                List<RuleScript> sorted = new ArrayList<RuleScript>(ruleNameIndex.values());
+                Collections.sort(sorted, new Comparator<RuleScript>() {
+                    public int compare(RuleScript r1, RuleScript r2)
+                    {
+                        return r1.getName().compareTo(r2.getName());
+                    }
+                });
+                rulesByName = Collections.unmodifiableList(sorted);
+            }
+            return rulesByName;
+        }
     }
 
     /**
@@ -727,6 +817,13 @@ public class ScriptRepository
 
     private final Map<String, RuleScript> ruleNameIndex;
 
+    /**
+     * the scripts in ruleNameIndex sorted by rule name or null if they need to be sorted again.
+     * guarded by the lock on ruleNameIndex.
+     */
+
+    private List<RuleScript> rulesByName;
+
     /**
      * a flag derived from the transformer which enables us to avoid testing superclass rules for
      * matches if it is set
@@ -93,6 +93,10 @@ public class Transform
         return (throwable == null);
     }
     
+    public boolean isCompiled() {
+        return compiled;
+    }
+
     public boolean isCompiledOk() {
         return compiled && successful;
     }
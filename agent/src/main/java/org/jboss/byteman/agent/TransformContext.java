@@ -65,6 +65,7 @@ public class TransformContext
         this.loader = loader;
         this.helperManager = helperManager;
         this.ruleMap = new HashMap<String, Rule>();
+        this.maxLocalsMap = new HashMap<String, Integer>();
         this.firstRule = null;
         this.accessEnabler = accessEnabler;
         this.failed = false;
@@ -225,6 +226,32 @@ public class TransformContext
         return rule;
     }
 
+    /**
+     * called by a check adapter to record the number of local variable slots employed by a
+     * candidate trigger method. this allows a trigger adapter to allocate a slot which does
+     * not clash with the method's own local variables before it has seen the whole method.
+     * @param triggerMethodName the name of a candidate method for injection
+     * @param triggerMethodDescriptor the descriptor of a candidate method for injection
+     * @param maxLocals the number of local variable slots employed by the method
+     */
+    public void recordMaxLocals(String triggerMethodName, String triggerMethodDescriptor, int maxLocals)
+    {
+        maxLocalsMap.put(getRuleKey(triggerMethodName, triggerMethodDescriptor), maxLocals);
+    }
+
+    /**
+     * called by a trigger adapter to retrieve the number of local variable slots employed by
+     * a trigger method as recorded by the corresponding check adapter
+     * @param triggerMethodName the name of a candidate method for injection
+     * @param triggerMethodDescriptor the descriptor of a candidate method for injection
+     * @return the number of local variable slots or -1 if this was not recorded
+     */
+    public int lookupMaxLocals(String triggerMethodName, String triggerMethodDescriptor)
+    {
+        Integer maxLocals = maxLocalsMap.get(getRuleKey(triggerMethodName, triggerMethodDescriptor));
+        return (maxLocals != null ? maxLocals : -1);
+    }
+
     /**
      * called by a check adapter to warn that a transform was not possible for a potential match
      * target. this inhibits injection into the method being warned about allowing other injection
@@ -630,5 +657,12 @@ public class TransformContext
      */
     private HashMap<String, Rule> ruleMap;
 
+    /**
+     * a hashmap recording the number of local variable slots employed by each candidate trigger
+     * method using the same keys as ruleMap. this is only populated by check adapters whose
+     * trigger adapters need to allocate a local variable slot on method entry
+     */
+    private HashMap<String, Integer> maxLocalsMap;
+
     private Rule firstRule;
 }
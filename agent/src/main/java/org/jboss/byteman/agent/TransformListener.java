@@ -35,30 +35,93 @@ import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.JarFile;
+import java.util.regex.PatternSyntaxException;
 
 import org.jboss.byteman.rule.Rule;
+import org.jboss.byteman.rule.helper.EventHub;
 import org.jboss.byteman.rule.helper.Helper;
 
 /**
- * a socket based listener class which reads scripts from stdin and installs them in the current runtime
+ * a socket based listener class which reads scripts from stdin and installs them in the current runtime.
+ * each accepted connection is handled by its own daemon thread. a connection either carries a single
+ * command, after which it is closed, or it starts with a SESSION command, in which case it stays open
+ * and carries any number of commands, each one tagged with a client supplied request id. commands
+ * which update the rule set or class path are serialized. read only commands are handled as soon as
+ * they arrive so they are not held up by a long running retransformation. the listener normally accepts
+ * TCP connections. if a socket path is configured and the JDK supports unix domain sockets then it
+ * accepts connections on a unix domain socket bound to that path instead. a connection which starts
+ * with a SUBSCRIBE command carries a stream of events published by rules until the client closes it.
  */
 public class TransformListener extends Thread
 {
     public static int DEFAULT_PORT = 9091;
     public static String DEFAULT_HOST = "localhost";
+    /**
+     * system property set while the listener is running to tell clients which discover the JVM via
+     * the attach API where to connect. the value is either host:port or socket:path.
+     */
+    public final static String LISTENER_ENDPOINT = "org.jboss.byteman.agent.listener";
     private static TransformListener theTransformListener = null;
     private static ServerSocket theServerSocket;
+    private static ServerSocketChannel theServerChannel;
+    private static String theSocketPath;
+    /**
+     * the maximum number of events written to a subscriber before the output is flushed
+     */
+    private final static int EVENT_BATCH_SIZE = 256;
+    /**
+     * how long a subscription thread waits for events before checking whether to send a PING
+     */
+    private final static long EVENT_WAIT_NANOS = 100 * 1000000L;
+    /**
+     * how long a subscription may be idle before a PING is sent
+     */
+    private final static long EVENT_PING_NANOS = 1000 * 1000000L;
+    /**
+     * the maximum number of connections handled at once. once this many connections are open the
+     * listener stops accepting until one of them is closed so further clients wait in the socket
+     * backlog rather than each being given a new thread
+     */
+    private final static int MAX_CONNECTIONS = 32;
+    /**
+     * how long the listener waits for a connection to close before checking whether it has been shut down
+     */
+    private final static long HANDLER_WAIT_MILLIS = 100;
     private Retransformer retransformer;
+    /**
+     * lock used to serialize commands which update the rule set, jar lists or system properties
+     */
+    private final ReentrantLock updateLock;
+    /**
+     * all currently open connections so they can be closed at shutdown
+     */
+    private final Set<Connection> connections;
+    /**
+     * one permit for each connection which may be handled alongside the currently open connections
+     */
+    private final Semaphore handlerPermits;
 
     private TransformListener(Retransformer retransformer)
     {
         this.retransformer = retransformer;
+        // share the retransformer's lock so background retransformation is also serialized with updates
+        this.updateLock = retransformer.getUpdateLock();
+        this.connections = new HashSet<Connection>();
+        this.handlerPermits = new Semaphore(MAX_CONNECTIONS);
         setDaemon(true);
     }
 
@@ -68,23 +131,56 @@ public class TransformListener extends Thread
     }
 
     public static synchronized boolean initialize(Retransformer retransformer, String hostname, Integer port)
+    {
+        return (initialize(retransformer, hostname, port, null));
+    }
+
+    /**
+     * start the listener
+     * @param retransformer the retransformer used to install and remove rules
+     * @param hostname the host to listen on or null if the default host should be used
+     * @param port the port to listen on or null if the default port should be used
+     * @param socketPath the path of a unix domain socket file to listen on or null if the listener
+     * should use TCP. if unix domain sockets are not supported by the JDK then TCP is used.
+     * @return true if the listener was started otherwise false
+     */
+    public static synchronized boolean initialize(Retransformer retransformer, String hostname, Integer port, String socketPath)
     {
         if (theTransformListener == null) {
-            try {
-                if (hostname == null) {
-                    hostname = DEFAULT_HOST;
-                }
-                if (port == null) {
-                    port = Integer.valueOf(DEFAULT_PORT);
+            if (socketPath != null) {
+                if (UnixDomainSockets.isAvailable()) {
+                    try {
+                        theServerChannel = UnixDomainSockets.openServerChannel(socketPath);
+                        theSocketPath = socketPath;
+                        System.setProperty(LISTENER_ENDPOINT, "socket:" + socketPath);
+                        Helper.verbose("TransformListener() : accepting requests on socket " + socketPath);
+                    } catch (IOException e) {
+                        Helper.err("TransformListener() : unexpected exception opening server socket " + socketPath + " " + e);
+                        Helper.errTraceException(e);
+                        return false;
+                    }
+                } else {
+                    Helper.err("TransformListener() : unix domain sockets require JDK 16 or later : falling back to TCP");
                 }
-                theServerSocket = new ServerSocket();
-                theServerSocket.bind(new InetSocketAddress(hostname, port.intValue()));
-                Helper.verbose("TransformListener() : accepting requests on " + hostname + ":" + port);
+            }
+            if (theServerChannel == null) {
+                try {
+                    if (hostname == null) {
+                        hostname = DEFAULT_HOST;
+                    }
+                    if (port == null) {
+                        port = Integer.valueOf(DEFAULT_PORT);
+                    }
+                    theServerSocket = new ServerSocket();
+                    theServerSocket.bind(new InetSocketAddress(hostname, port.intValue()));
+                    System.setProperty(LISTENER_ENDPOINT, hostname + ":" + port);
+                    Helper.verbose("TransformListener() : accepting requests on " + hostname + ":" + port);
 
-            } catch (IOException e) {
-                Helper.err("TransformListener() : unexpected exception opening server socket " + e);
-                Helper.errTraceException(e);
-                return false;
+                } catch (IOException e) {
+                    Helper.err("TransformListener() : unexpected exception opening server socket " + e);
+                    Helper.errTraceException(e);
+                    return false;
+                }
             }
 
             theTransformListener = new TransformListener(retransformer);
@@ -104,9 +200,14 @@ public class TransformListener extends Thread
 
         if (theTransformListener != null) {
             try {
-                theServerSocket.close();
-                Helper.verbose("TransformListener() :  closing port " + DEFAULT_PORT);
-
+                if (theServerChannel != null) {
+                    theServerChannel.close();
+                    new File(theSocketPath).delete();
+                    Helper.verbose("TransformListener() :  closing socket " + theSocketPath);
+                } else {
+                    theServerSocket.close();
+                    Helper.verbose("TransformListener() :  closing port " + DEFAULT_PORT);
+                }
             } catch (IOException e) {
                 // ignore -- the thread should exit anyway
             }
@@ -115,9 +216,13 @@ public class TransformListener extends Thread
             } catch (InterruptedException e) {
                 // ignore
             }
+            theTransformListener.closeConnections();
+            System.clearProperty(LISTENER_ENDPOINT);
 
             theTransformListener = null;
             theServerSocket = null;
+            theServerChannel = null;
+            theSocketPath = null;
         }
 
         return true;
@@ -136,36 +241,212 @@ public class TransformListener extends Thread
         Rule.disableTriggersInternal();
 
         while (true) {
-            if (theServerSocket.isClosed()) {
+            if (!acquireHandler()) {
+                return;
+            }
+            Connection connection = accept();
+            if (connection == null) {
+                handlerPermits.release();
                 return;
             }
-            Socket socket = null;
+
+            Helper.verbose("TransformListener() : handling connection on " + connection);
+
+            synchronized (connections) {
+                connections.add(connection);
+            }
+            new ConnectionHandler(connection).start();
+        }
+    }
+
+    /**
+     * wait until fewer than MAX_CONNECTIONS connections are being handled
+     * @return true if a new connection may be accepted or false if the server socket has been closed
+     */
+    private boolean acquireHandler()
+    {
+        while (!isClosed()) {
+            try {
+                if (handlerPermits.tryAcquire(HANDLER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                // ignore -- we will check whether the server socket is closed
+            }
+        }
+        return false;
+    }
+
+    private boolean isClosed()
+    {
+        if (theServerChannel != null) {
+            return !theServerChannel.isOpen();
+        }
+        return theServerSocket.isClosed();
+    }
+
+    /**
+     * wait for a new connection
+     * @return the new connection or null if the server socket has been closed
+     */
+    private Connection accept()
+    {
+        if (theServerChannel != null) {
+            if (!theServerChannel.isOpen()) {
+                return null;
+            }
             try {
-                socket = theServerSocket.accept();
+                return new ChannelConnection(theServerChannel.accept(), theSocketPath);
             } catch (IOException e) {
-                if (!theServerSocket.isClosed()) {
+                if (theServerChannel.isOpen()) {
                     Helper.err("TransformListener.run : exception from server socket accept " + e);
                     Helper.errTraceException(e);
                 }
-                return;
+                return null;
+            }
+        }
+        if (theServerSocket.isClosed()) {
+            return null;
+        }
+        try {
+            return new SocketConnection(theServerSocket.accept());
+        } catch (IOException e) {
+            if (!theServerSocket.isClosed()) {
+                Helper.err("TransformListener.run : exception from server socket accept " + e);
+                Helper.errTraceException(e);
             }
+            return null;
+        }
+    }
+
+    /**
+     * a connection accepted either from a TCP server socket or from a unix domain socket channel
+     */
+    private static abstract class Connection
+    {
+        abstract InputStream getInputStream() throws IOException;
+        abstract OutputStream getOutputStream() throws IOException;
+        abstract void close() throws IOException;
+    }
+
+    private static class SocketConnection extends Connection
+    {
+        private Socket socket;
+
+        SocketConnection(Socket socket)
+        {
+            this.socket = socket;
+        }
+
+        InputStream getInputStream() throws IOException
+        {
+            return socket.getInputStream();
+        }
+
+        OutputStream getOutputStream() throws IOException
+        {
+            return socket.getOutputStream();
+        }
+
+        void close() throws IOException
+        {
+            socket.close();
+        }
+
+        public String toString()
+        {
+            return "port " + socket.getLocalPort();
+        }
+    }
+
+    private static class ChannelConnection extends Connection
+    {
+        private SocketChannel channel;
+        private String path;
+
+        ChannelConnection(SocketChannel channel, String path)
+        {
+            this.channel = channel;
+            this.path = path;
+        }
+
+        InputStream getInputStream() throws IOException
+        {
+            return new UnixDomainSockets.ChannelInputStream(channel);
+        }
+
+        OutputStream getOutputStream() throws IOException
+        {
+            return new UnixDomainSockets.ChannelOutputStream(channel);
+        }
 
-            Helper.verbose("TransformListener() : handling connection on port " + socket.getLocalPort());
+        void close() throws IOException
+        {
+            channel.close();
+        }
+
+        public String toString()
+        {
+            return "socket " + path;
+        }
+    }
+
+    /**
+     * a daemon thread which handles all the commands sent over a single connection
+     */
+    private class ConnectionHandler extends Thread
+    {
+        private Connection connection;
+
+        ConnectionHandler(Connection connection)
+        {
+            super("Byteman TransformListener connection");
+            this.connection = connection;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            // we don't want to see any triggers in the connection thread either
+
+            Rule.disableTriggersInternal();
 
             try {
-                handleConnection(socket);
+                handleConnection(connection);
             } catch (Exception e) {
-                Helper.err("TransformListener() : error handling connection on port " + socket.getLocalPort());
+                Helper.err("TransformListener() : error handling connection on " + connection);
                 try {
-                    socket.close();
+                    connection.close();
                 } catch (IOException e1) {
                     // do nothing
                 }
+            } finally {
+                synchronized (connections) {
+                    connections.remove(connection);
+                }
+                handlerPermits.release();
             }
         }
     }
 
-    private void handleConnection(Socket socket)
+    private void closeConnections()
+    {
+        List<Connection> toClose;
+        synchronized (connections) {
+            toClose = new ArrayList<Connection>(connections);
+            connections.clear();
+        }
+        for (Connection connection : toClose) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // ignore -- the connection thread should exit anyway
+            }
+        }
+    }
+
+    private void handleConnection(Connection socket)
     {
         InputStream is = null;
         try {
@@ -212,6 +493,203 @@ public class TransformListener extends Thread
             Helper.errTraceException(e);
         }
 
+        try {
+            if (line != null && line.equals("SESSION")) {
+                handleSession(in, out);
+            } else if (line != null && line.equals("SUBSCRIBE")) {
+                handleSubscription(in, out);
+            } else {
+                handleCommand(line, in, out);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e1) {
+                Helper.err("TransformListener.run : exception closing socket " + e1);
+                Helper.errTraceException(e1);
+            }
+        }
+    }
+
+    /**
+     * handle a persistent session. each request is introduced by a line REQUEST id followed by the
+     * command and its arguments just as they would be sent on a single command connection. the
+     * response starts with a line RESPONSE id followed by the command output and is terminated by a
+     * line OK just as for a single command connection. requests are handled in the order they are
+     * received so a client may pipeline several requests before reading the responses. the session
+     * ends when the client sends ENDSESSION or closes the connection.
+     * @param in the session input
+     * @param out the session output
+     */
+    private void handleSession(BufferedReader in, PrintWriter out)
+    {
+        out.println("OK");
+        out.flush();
+
+        while (true) {
+            String line;
+            try {
+                line = in.readLine();
+            } catch (IOException e) {
+                // the client has most likely gone away
+                Helper.verbose("TransformListener.handleSession : exception " + e + " while reading request");
+                return;
+            }
+            if (line == null || line.equals("ENDSESSION")) {
+                return;
+            }
+            if (!line.startsWith("REQUEST ")) {
+                // we cannot be sure where the next request starts so give up
+                out.println("ERROR");
+                out.println("Expecting REQUEST but got " + line);
+                out.println("OK");
+                out.flush();
+                return;
+            }
+            String requestId = line.substring("REQUEST ".length()).trim();
+            String command = null;
+            try {
+                command = in.readLine();
+            } catch (IOException e) {
+                Helper.verbose("TransformListener.handleSession : exception " + e + " while reading request " + requestId);
+                return;
+            }
+            out.println("RESPONSE " + requestId);
+            if (!handleCommand(command, in, out)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * handle a subscription to events published by rules using the emit builtins. the SUBSCRIBE
+     * command is followed by one or more lines TOPIC name and optionally a line CAPACITY n giving
+     * the number of events to queue per topic and a line SAMPLE n asking for only every nth event
+     * to be queued. the argument lines are terminated by ENDSUBSCRIBE. once the subscription is in
+     * place a line OK is written, after which the connection only carries events. each event is
+     * written as a line
+     *
+     * <pre>EVENT timestamp topic rule count value ...</pre>
+     *
+     * where topic, rule and each value are written as "length:text" with any backslash, newline or
+     * carriage return in the text escaped. a line "DROPPED topic n" reports that n events published
+     * to topic were discarded because the client was not keeping up. a line PING is written when
+     * there have been no events for a while. the subscription ends when the client closes the
+     * connection.
+     * @param in the subscription input
+     * @param out the subscription output
+     */
+    private void handleSubscription(BufferedReader in, PrintWriter out)
+    {
+        List<String> topics = new ArrayList<String>();
+        int capacity = 0;
+        int sampleRate = 1;
+        try {
+            String line = in.readLine();
+            while (line != null && !line.trim().equals("ENDSUBSCRIBE")) {
+                line = line.trim();
+                if (line.startsWith("TOPIC ")) {
+                    topics.add(line.substring("TOPIC ".length()).trim());
+                } else if (line.startsWith("CAPACITY ")) {
+                    capacity = Integer.parseInt(line.substring("CAPACITY ".length()).trim());
+                } else if (line.startsWith("SAMPLE ")) {
+                    sampleRate = Integer.parseInt(line.substring("SAMPLE ".length()).trim());
+                } else if (line.length() > 0) {
+                    out.println("ERROR");
+                    out.println("Unexpected subscription argument " + line);
+                    out.println("OK");
+                    out.flush();
+                    return;
+                }
+                line = in.readLine();
+            }
+            if (line == null) {
+                return;
+            }
+        } catch (IOException e) {
+            Helper.verbose("TransformListener.handleSubscription : exception " + e + " while reading subscription");
+            return;
+        } catch (NumberFormatException e) {
+            out.println("ERROR");
+            out.println("Invalid subscription argument " + e.getMessage());
+            out.println("OK");
+            out.flush();
+            return;
+        }
+        if (topics.isEmpty()) {
+            out.println("ERROR");
+            out.println("No topics supplied for subscription");
+            out.println("OK");
+            out.flush();
+            return;
+        }
+
+        EventHub.Subscription subscription = EventHub.subscribe(topics, capacity, sampleRate);
+        Helper.verbose("TransformListener.handleSubscription : subscribed to " + topics);
+        try {
+            out.println("OK");
+            out.flush();
+            List<EventHub.Event> events = new ArrayList<EventHub.Event>(EVENT_BATCH_SIZE);
+            long idleNanos = 0;
+            while (!out.checkError()) {
+                int count = subscription.drain(events, EVENT_BATCH_SIZE, EVENT_WAIT_NANOS);
+                List<Object> dropped = subscription.takeDropped();
+                for (int i = 0; i < dropped.size(); i += 2) {
+                    out.print("DROPPED ");
+                    Retransformer.writeField((String)dropped.get(i), out);
+                    out.print(' ');
+                    out.println(dropped.get(i + 1));
+                }
+                if (count == 0 && dropped.isEmpty()) {
+                    // let the client know we are still here and find out if it is
+                    idleNanos += EVENT_WAIT_NANOS;
+                    if (idleNanos < EVENT_PING_NANOS) {
+                        continue;
+                    }
+                    out.println("PING");
+                }
+                idleNanos = 0;
+                for (EventHub.Event event : events) {
+                    writeEvent(event, out);
+                }
+                events.clear();
+                out.flush();
+            }
+        } finally {
+            EventHub.unsubscribe(subscription);
+            Helper.verbose("TransformListener.handleSubscription : unsubscribed from " + topics);
+        }
+    }
+
+    private static void writeEvent(EventHub.Event event, PrintWriter out)
+    {
+        String[] values = event.getValues();
+        out.print("EVENT ");
+        out.print(event.getTimestamp());
+        out.print(' ');
+        Retransformer.writeField(event.getTopic(), out);
+        out.print(' ');
+        Retransformer.writeField(event.getRuleName(), out);
+        out.print(' ');
+        out.print(values.length);
+        for (String value : values) {
+            out.print(' ');
+            Retransformer.writeField(value, out);
+        }
+        out.println();
+    }
+
+    /**
+     * handle a single command. commands which update the rule set, jar lists or system properties
+     * read and check all their arguments before taking the update lock so that a client which
+     * stalls part way through sending a request cannot block other updates.
+     * @param line the command line or null if no command was read
+     * @param in the input from which the command arguments are read
+     * @param out the output to which the command response is written
+     * @return true if the command was handled or false if it failed with an exception
+     */
+    private boolean handleCommand(String line, BufferedReader in, PrintWriter out)
+    {
         try {
             if (line == null) {
                 out.println("ERROR");
@@ -223,11 +701,17 @@ public class TransformListener extends Thread
             } else if (line.equals("SYS")) {
                 loadJars(in, out, false);
             } else if (line.equals("LOAD")) {
-                loadScripts(in, out);
+                loadScripts(in, out, false);
+            } else if (line.equals("LOADTX")) {
+                loadScripts(in, out, true);
             } else if (line.equals("DELETE")) {
                 deleteScripts(in, out);
             } else if (line.equals("LIST")) {
                 listScripts(in, out);
+            } else if (line.equals("LISTRULES")) {
+                listRuleInfo(in, out);
+            } else if (line.equals("SYNC")) {
+                compareScripts(in, out);
             } else if (line.equals("DELETEALL")) {
                 purgeScripts(in, out);
             } else if (line.equals("VERSION")) {
@@ -240,22 +724,31 @@ public class TransformListener extends Thread
                 listSystemProperties(in, out);
             } else if (line.equals("SETSYSPROPS")) {
                 setSystemProperties(in, out);
+            } else if (line.equals("REARM")) {
+                rearmScripts(in, out);
+            } else if (line.equals("ENABLE")) {
+                enableScripts(in, out, true);
+            } else if (line.equals("DISABLE")) {
+                enableScripts(in, out, false);
+            } else if (line.equals("METRICS")) {
+                listMetrics(in, out, false);
+            } else if (line.equals("METRICSRESET")) {
+                listMetrics(in, out, true);
             } else {
                 out.println("ERROR");
                 out.println("Unexpected command " + line);
                 out.println("OK");
                 out.flush();
             }
+            return true;
         } catch (Exception e) {
             Helper.err("TransformListener.run : exception " + e + " processing command " + line);
             Helper.errTraceException(e);
-        } finally {
-            try {
-                socket.close();
-            } catch (IOException e1) {
-                Helper.err("TransformListener.run : exception closing socket " + e1);
-                Helper.errTraceException(e1);
-            }
+            // make sure the client sees the end of the response
+            out.println("EXCEPTION " + e);
+            out.println("OK");
+            out.flush();
+            return false;
         }
     }
 
@@ -269,31 +762,46 @@ public class TransformListener extends Thread
         out.flush();
     }
 
-    private void loadScripts(BufferedReader in, PrintWriter out) throws IOException
+    /**
+     * load the scripts which follow the command
+     * @param in the input from which the scripts are read
+     * @param out the output to which the response is written
+     * @param transactional true if none of the rules should be installed unless all of them can be
+     * injected into and type checked against the currently loaded classes
+     * @throws IOException if the scripts cannot be read
+     */
+    private void loadScripts(BufferedReader in, PrintWriter out, boolean transactional) throws IOException
     {
-        handleScripts(in, out, false);
+        handleScripts(in, out, false, transactional);
     }
 
     private void loadJars(BufferedReader in, PrintWriter out, boolean isBoot) throws IOException
     {
         final String endMarker = (isBoot) ? "ENDBOOT" : "ENDSYS";
-        String line = in.readLine().trim();
-        while (line != null && !line.equals(endMarker)) {
-            try {
-                JarFile jarfile = new JarFile(new File(line));
-                retransformer.appendJarFile(out, jarfile, isBoot);
-            } catch (Exception e) {
-                out.append("EXCEPTION ");
-                out.append("Unable to add jar file " + line + "\n");
-                out.append(e.toString());
-                out.append("\n");
-                e.printStackTrace(out);
-            }
-            line = in.readLine().trim();
-        }
-        if (line == null || !line.equals(endMarker)) {
+        List<String> jarPaths = readArguments(in, endMarker);
+        if (jarPaths == null) {
             out.append("ERROR\n");
             out.append("Unexpected end of line reading " + ((isBoot) ? "boot" : "system") + " jars\n");
+            out.println("OK");
+            out.flush();
+            return;
+        }
+        updateLock.lock();
+        try {
+            for (String jarPath : jarPaths) {
+                try {
+                    JarFile jarfile = new JarFile(new File(jarPath));
+                    retransformer.appendJarFile(out, jarfile, isBoot);
+                } catch (Exception e) {
+                    out.append("EXCEPTION ");
+                    out.append("Unable to add jar file " + jarPath + "\n");
+                    out.append(e.toString());
+                    out.append("\n");
+                    e.printStackTrace(out);
+                }
+            }
+        } finally {
+            updateLock.unlock();
         }
         out.println("OK");
         out.flush();
@@ -301,10 +809,10 @@ public class TransformListener extends Thread
 
     private void deleteScripts(BufferedReader in, PrintWriter out) throws IOException
     {
-        handleScripts(in, out, true);
+        handleScripts(in, out, true, false);
     }
 
-    private void handleScripts(BufferedReader in, PrintWriter out, boolean doDelete) throws IOException
+    private void handleScripts(BufferedReader in, PrintWriter out, boolean doDelete, boolean transactional) throws IOException
     {
         List<String> scripts = new LinkedList<String>();
         List<String> scriptNames = new LinkedList<String>();
@@ -324,7 +832,7 @@ public class TransformListener extends Thread
             if (line == null || !line.equals("ENDSCRIPT")) {
                 out.append("ERROR\n");
                 out.append("Unexpected end of line reading script " + scriptName + "\n");
-                out.append("OK");
+                out.println("OK");
                 out.flush();
                 return;
             }
@@ -344,9 +852,12 @@ public class TransformListener extends Thread
             return;
         }
 
+        updateLock.lock();
         try {
             if (doDelete) {
                 retransformer.removeScripts(scripts, out);
+            } else if (transactional) {
+                retransformer.installScriptTransactionally(scripts, scriptNames, out);
             } else {
                 retransformer.installScript(scripts, scriptNames, out);
             }
@@ -355,6 +866,8 @@ public class TransformListener extends Thread
             out.append(e.toString());
             out.append('\n');
             e.printStackTrace(out);
+        } finally {
+            updateLock.unlock();
         }
         out.println("OK");
         out.flush();
@@ -362,7 +875,12 @@ public class TransformListener extends Thread
 
     private void purgeScripts(BufferedReader in, PrintWriter out) throws Exception
     {
-        retransformer.removeScripts(null, out);
+        updateLock.lock();
+        try {
+            retransformer.removeScripts(null, out);
+        } finally {
+            updateLock.unlock();
+        }
         out.println("OK");
         out.flush();
     }
@@ -374,6 +892,160 @@ public class TransformListener extends Thread
         out.flush();
     }
 
+    /**
+     * compare the rules a client wants installed with the installed rules. the command is followed
+     * by one line RULE hash name for each rule and terminated by a line ENDSYNC. see
+     * {@link Retransformer#compareScripts} for the response format.
+     * @param in the input from which the rule hashes are read
+     * @param out the output to which the differences are written
+     * @throws Exception if an error occurs
+     */
+    private void compareScripts(BufferedReader in, PrintWriter out) throws Exception
+    {
+        final String endMarker = "ENDSYNC";
+        Map<String, String> ruleHashes = new LinkedHashMap<String, String>();
+        String error = null;
+        String line = in.readLine();
+        while (line != null && !line.trim().equals(endMarker)) {
+            line = line.trim();
+            int space = line.indexOf(' ', "RULE ".length());
+            if (line.startsWith("RULE ") && space > 0) {
+                ruleHashes.put(line.substring(space + 1).trim(), line.substring("RULE ".length(), space));
+            } else if (line.length() > 0) {
+                error = "Unexpected rule hash " + line;
+            }
+            line = in.readLine();
+        }
+        if (line == null) {
+            out.println("ERROR");
+            out.println("Unexpected end of line reading rule hashes");
+        } else if (error != null) {
+            out.println("ERROR");
+            out.println(error);
+        } else {
+            retransformer.compareScripts(ruleHashes, out);
+        }
+        out.println("OK");
+        out.flush();
+    }
+
+    /**
+     * list a page of rule summaries. the command is followed by any of the lines AFTER name,
+     * LIMIT count, RULE regexp, CLASS regexp and STATUS status and terminated by a line
+     * ENDLISTRULES. see {@link Retransformer#listRuleInfo} for the response format.
+     * @param in the input from which the arguments are read
+     * @param out the output to which the response is written
+     * @throws Exception if an error occurs
+     */
+    private void listRuleInfo(BufferedReader in, PrintWriter out) throws Exception
+    {
+        final String endMarker = "ENDLISTRULES";
+        String after = null;
+        int limit = 0;
+        String namePattern = null;
+        String classPattern = null;
+        String status = null;
+        String error = null;
+        String line = in.readLine();
+        while (line != null && !line.trim().equals(endMarker)) {
+            line = line.trim();
+            if (line.startsWith("AFTER ")) {
+                after = line.substring("AFTER ".length()).trim();
+            } else if (line.startsWith("LIMIT ")) {
+                try {
+                    limit = Integer.parseInt(line.substring("LIMIT ".length()).trim());
+                } catch (NumberFormatException e) {
+                    error = "Invalid limit " + line;
+                }
+            } else if (line.startsWith("RULE ")) {
+                namePattern = line.substring("RULE ".length()).trim();
+            } else if (line.startsWith("CLASS ")) {
+                classPattern = line.substring("CLASS ".length()).trim();
+            } else if (line.startsWith("STATUS ")) {
+                status = line.substring("STATUS ".length()).trim();
+            } else if (line.length() > 0) {
+                error = "Unexpected argument " + line;
+            }
+            line = in.readLine();
+        }
+        if (line == null) {
+            out.println("ERROR");
+            out.println("Unexpected end of line reading rule list arguments");
+        } else if (error != null) {
+            out.println("ERROR");
+            out.println(error);
+        } else {
+            try {
+                retransformer.listRuleInfo(after, limit, namePattern, classPattern, status, out);
+            } catch (PatternSyntaxException e) {
+                out.println("ERROR");
+                out.println("Invalid filter " + e.getPattern());
+            }
+        }
+        out.println("OK");
+        out.flush();
+    }
+
+    private void listMetrics(BufferedReader in, PrintWriter out, boolean reset) throws Exception
+    {
+        retransformer.listMetrics(reset, out);
+        out.println("OK");
+        out.flush();
+    }
+
+    private void rearmScripts(BufferedReader in, PrintWriter out) throws Exception
+    {
+        final String endMarker = "ENDREARM";
+        List<String> ruleNames = new LinkedList<String>();
+        String line = in.readLine();
+        while (line != null && !line.trim().equals(endMarker)) {
+            line = line.trim();
+            if (line.length() > 0) {
+                ruleNames.add(line);
+            }
+            line = in.readLine();
+        }
+        if (line == null) {
+            out.append("ERROR\n");
+            out.append("Unexpected end of line reading rule names\n");
+        } else {
+            // an empty list means re-enable every disabled rule
+            updateLock.lock();
+            try {
+                retransformer.rearmScripts((ruleNames.isEmpty() ? null : ruleNames), out);
+            } finally {
+                updateLock.unlock();
+            }
+        }
+        out.println("OK");
+        out.flush();
+    }
+
+    private void enableScripts(BufferedReader in, PrintWriter out, boolean enable) throws Exception
+    {
+        // n.b. this does not take the update lock. flipping a rule's enabled flag does not retransform
+        // anything so there is no need to wait for an in progress load or delete to complete
+        final String endMarker = (enable ? "ENDENABLE" : "ENDDISABLE");
+        List<String> ruleNames = new LinkedList<String>();
+        String line = in.readLine();
+        while (line != null && !line.trim().equals(endMarker)) {
+            line = line.trim();
+            if (line.length() > 0) {
+                ruleNames.add(line);
+            }
+            line = in.readLine();
+        }
+        if (line == null) {
+            out.append("ERROR\n");
+            out.append("Unexpected end of line reading rule names\n");
+        } else {
+            // an empty list means enable or disable every rule
+            retransformer.enableScripts((ruleNames.isEmpty() ? null : ruleNames), enable, out);
+        }
+        out.println("OK");
+        out.flush();
+    }
+
     private void listBootJars(BufferedReader in, PrintWriter out) throws Exception
     {
         Set<String> jars = retransformer.getLoadedBootJars();
@@ -421,48 +1093,78 @@ public class TransformListener extends Thread
         }
 
         final String endMarker = "ENDSETSYSPROPS";
-        String line = in.readLine().trim();
-        while (line != null && !line.equals(endMarker)) {
-            try {
-                String[] nameValuePair = line.split("=", 2);
-                if (nameValuePair.length != 2 ) {
-                    throw new Exception("missing '='");
-                }
-                String name = nameValuePair[0];
-                String value = nameValuePair[1];
-                if (strictMode && !name.startsWith("org.jboss.byteman.")) {
-                    throw new Exception("strict mode is enabled, cannot set non-byteman system property");
-                }
-                if (name.equals(Transformer.SYSPROPS_STRICT_MODE) && !value.equals("true")) {
-                    // nice try
-                    throw new Exception("cannot turn off strict mode");
-                }
-
-                // everything looks good and we are allowed to set the system property now
-                if (value.length() > 0) {
-                	// "some.sys.prop=" means the client wants to delete the system property
-                	System.setProperty(name, value);
-                	out.append("Set system property [" + name + "] to value [" + value + "]\n");
-                } else {
-                	System.clearProperty(name);
-                	out.append("Deleted system property [" + name + "]\n");
-                }
-                // ok, now tell the transformer a property has changed
-                retransformer.updateConfiguration(name);
-            } catch (Exception e) {
-                out.append("EXCEPTION ");
-                out.append("Unable to set system property [" + line + "]\n");
-                out.append(e.toString());
-                out.append("\n");
-                e.printStackTrace(out);
-            }
-            line = in.readLine().trim();
-        }
-        if (line == null || !line.equals(endMarker)) {
+        List<String> settings = readArguments(in, endMarker);
+        if (settings == null) {
             out.append("ERROR\n");
             out.append("Unexpected end of line reading system properties\n");
+            out.println("OK");
+            out.flush();
+            return;
+        }
+        updateLock.lock();
+        try {
+            for (String line : settings) {
+                setSystemProperty(line, strictMode, out);
+            }
+        } finally {
+            updateLock.unlock();
         }
         out.println("OK");
         out.flush();
     }
+
+    private void setSystemProperty(String line, boolean strictMode, PrintWriter out)
+    {
+        try {
+            String[] nameValuePair = line.split("=", 2);
+            if (nameValuePair.length != 2 ) {
+                throw new Exception("missing '='");
+            }
+            String name = nameValuePair[0];
+            String value = nameValuePair[1];
+            if (strictMode && !name.startsWith("org.jboss.byteman.")) {
+                throw new Exception("strict mode is enabled, cannot set non-byteman system property");
+            }
+            if (name.equals(Transformer.SYSPROPS_STRICT_MODE) && !value.equals("true")) {
+                // nice try
+                throw new Exception("cannot turn off strict mode");
+            }
+
+            // everything looks good and we are allowed to set the system property now
+            if (value.length() > 0) {
+            	// "some.sys.prop=" means the client wants to delete the system property
+            	System.setProperty(name, value);
+            	out.append("Set system property [" + name + "] to value [" + value + "]\n");
+            } else {
+            	System.clearProperty(name);
+            	out.append("Deleted system property [" + name + "]\n");
+            }
+            // ok, now tell the transformer a property has changed
+            retransformer.updateConfiguration(name);
+        } catch (Exception e) {
+            out.append("EXCEPTION ");
+            out.append("Unable to set system property [" + line + "]\n");
+            out.append(e.toString());
+            out.append("\n");
+            e.printStackTrace(out);
+        }
+    }
+
+    /**
+     * read the argument lines of a command up to its end marker
+     * @param in the input from which the arguments are read
+     * @param endMarker the line which ends the arguments
+     * @return the trimmed argument lines or null if the input ended before the end marker was read
+     * @throws IOException if the arguments cannot be read
+     */
+    private static List<String> readArguments(BufferedReader in, String endMarker) throws IOException
+    {
+        List<String> arguments = new LinkedList<String>();
+        String line = in.readLine();
+        while (line != null && !line.trim().equals(endMarker)) {
+            arguments.add(line.trim());
+            line = in.readLine();
+        }
+        return (line == null ? null : arguments);
+    }
 }
\ No newline at end of file
@@ -67,6 +67,41 @@ public class Transformer implements ClassFileTransformer {
         checkerCache = new CheckerCache();
         helperManager = new HelperManager(inst, moduleSystem);
 
+        indexScripts(scriptPaths, scriptTexts);
+
+        accessEnabler = AccessManager.init(inst);
+    }
+
+    /**
+     * constructor used to create a transformer which shares the helper manager and access enabler of
+     * a live transformer. this allows rules to be checked against loaded classes under exactly the
+     * same access rules as the live transformer applies without installing them.
+     *
+     * @param inst the instrumentation object used to interface to the JVM or null if the transformer
+     * will only be used to check rules
+     * @param helperManager the helper manager of the live transformer
+     * @param accessEnabler the access enabler of the live transformer
+     * @param scriptPaths list of file paths for each input script
+     * @param scriptTexts the text of each input script
+     * @param isRedefine true if class redefinition is allowed false if not
+     * @throws Exception if a script is in error
+     */
+    Transformer(Instrumentation inst, HelperManager helperManager, AccessEnabler accessEnabler, List<String> scriptPaths, List<String> scriptTexts, boolean isRedefine)
+            throws Exception
+    {
+        this.inst = inst;
+        this.isRedefine = isRedefine;
+        scriptRepository = new ScriptRepository(skipOverrideRules);
+        checkerCache = new CheckerCache();
+        this.helperManager = helperManager;
+
+        indexScripts(scriptPaths, scriptTexts);
+
+        this.accessEnabler = accessEnabler;
+    }
+
+    private void indexScripts(List<String> scriptPaths, List<String> scriptTexts) throws Exception
+    {
         Iterator<String> scriptsIter = scriptTexts.iterator();
         Iterator<String> filesIter = scriptPaths.iterator();
         while (scriptsIter.hasNext()) {
@@ -95,8 +130,6 @@ public class Transformer implements ClassFileTransformer {
                 }
             }
         }
-
-        accessEnabler = AccessManager.init(inst);
     }
 
     /**
@@ -500,6 +533,75 @@ public class Transformer implements ClassFileTransformer {
      */
     public static final String DISALLOW_DOWNCAST = BYTEMAN_PACKAGE_PREFIX + "disallow.downcast";
 
+    /**
+     * system property which sets the percentage of a single CPU which execution of any one rule may
+     * consume before the rule is disabled by its circuit breaker
+     */
+    public static final String BREAKER_BUDGET = BYTEMAN_PACKAGE_PREFIX + "breaker.budget";
+
+    /**
+     * system property which sets the maximum number of times per second any one rule may be executed
+     * before the rule is disabled by its circuit breaker
+     */
+    public static final String BREAKER_RATE = BYTEMAN_PACKAGE_PREFIX + "breaker.rate";
+
+    /**
+     * system property which sets the number of seconds after which a rule disabled by its circuit
+     * breaker is automatically re-enabled. if unset a disabled rule stays disabled until it is
+     * re-enabled via the agent listener.
+     */
+    public static final String BREAKER_COOLDOWN = BYTEMAN_PACKAGE_PREFIX + "breaker.cooldown";
+
+    /**
+     * system property which sets the number of messages which may be buffered by each trace file
+     * before further messages are dropped. a value of 0 means trace messages are written to the
+     * file synchronously by the thread which calls the trace builtin.
+     */
+    public static final String TRACE_BUFFER = BYTEMAN_PACKAGE_PREFIX + "trace.buffer";
+
+    /**
+     * default number of messages which may be buffered by each trace file
+     */
+    public static final int TRACE_BUFFER_DEFAULT = 8192;
+
+    /**
+     * system property which sets the size in kilobytes after which a trace file is rotated
+     */
+    public static final String TRACE_ROTATE_SIZE = BYTEMAN_PACKAGE_PREFIX + "trace.rotate.size";
+
+    /**
+     * system property which sets the number of seconds after which a trace file is rotated
+     */
+    public static final String TRACE_ROTATE_INTERVAL = BYTEMAN_PACKAGE_PREFIX + "trace.rotate.interval";
+
+    /**
+     * system property which causes deleted rules to be disabled immediately while the classes they
+     * were injected into are only retransformed later by a background thread
+     */
+    public static final String UNINSTALL_LAZY = BYTEMAN_PACKAGE_PREFIX + "uninstall.lazy";
+
+    /**
+     * system property which sets the number of milliseconds for which no rules must have been loaded
+     * or deleted before classes are retransformed to remove lazily uninstalled rules
+     */
+    public static final String UNINSTALL_QUIET = BYTEMAN_PACKAGE_PREFIX + "uninstall.quiet";
+
+    /**
+     * default quiet period in milliseconds before lazily uninstalled rules are removed
+     */
+    public static final int UNINSTALL_QUIET_DEFAULT = 1000;
+
+    /**
+     * system property which sets the maximum number of classes retransformed in one go when removing
+     * lazily uninstalled rules
+     */
+    public static final String UNINSTALL_BATCH = BYTEMAN_PACKAGE_PREFIX + "uninstall.batch";
+
+    /**
+     * default number of classes retransformed in one go when removing lazily uninstalled rules
+     */
+    public static final int UNINSTALL_BATCH_DEFAULT = 16;
+
     /**
      * disable triggering of rules inside the current thread
      * @param isUser true if this was called by rule code false if called internally by Byteman
@@ -664,6 +766,124 @@ public class Transformer implements ClassFileTransformer {
         return disallowDowncast;
     }
 
+    /**
+     * return the percentage of a single CPU which execution of any one rule may consume before it
+     * is disabled by its circuit breaker
+     * @return the budget or 0 if rule execution time is not limited
+     */
+    public static int getBreakerBudget()
+    {
+        // n.b. this is called on every rule execution so it reads a volatile rather than taking the config lock
+        return breakerBudget;
+    }
+
+    /**
+     * return the maximum number of times per second any one rule may be executed before it is
+     * disabled by its circuit breaker
+     * @return the rate or 0 if rule execution rate is not limited
+     */
+    public static int getBreakerRate()
+    {
+        // n.b. this is called on every rule execution so it reads a volatile rather than taking the config lock
+        return breakerRate;
+    }
+
+    /**
+     * return the number of seconds after which a rule disabled by its circuit breaker is re-enabled
+     * @return the cool-down period or 0 if disabled rules must be re-enabled via the agent listener
+     */
+    public static int getBreakerCooldown()
+    {
+        // n.b. this is called on every rule execution so it reads a volatile rather than taking the config lock
+        return breakerCooldown;
+    }
+
+    /**
+     * return the number of messages which may be buffered by each trace file
+     * @return the buffer size or 0 if trace messages are written synchronously
+     */
+    public static int getTraceBuffer()
+    {
+        if (allowConfigUpdate()) {
+            synchronized (configLock) {
+                return traceBuffer;
+            }
+        }
+        return traceBuffer;
+    }
+
+    /**
+     * return the size in kilobytes after which a trace file is rotated
+     * @return the size or 0 if trace files are not rotated because of their size
+     */
+    public static int getTraceRotateSize()
+    {
+        if (allowConfigUpdate()) {
+            synchronized (configLock) {
+                return traceRotateSize;
+            }
+        }
+        return traceRotateSize;
+    }
+
+    /**
+     * return the number of seconds after which a trace file is rotated
+     * @return the interval or 0 if trace files are not rotated because of their age
+     */
+    public static int getTraceRotateInterval()
+    {
+        if (allowConfigUpdate()) {
+            synchronized (configLock) {
+                return traceRotateInterval;
+            }
+        }
+        return traceRotateInterval;
+    }
+
+    /**
+     * check whether deleted rules are uninstalled lazily
+     * @return true if classes are retransformed in the background after rules are deleted or false if
+     * they are retransformed before the delete request completes
+     */
+    public static boolean isUninstallLazy()
+    {
+        if (allowConfigUpdate()) {
+            synchronized (configLock) {
+                return uninstallLazy;
+            }
+        }
+        return uninstallLazy;
+    }
+
+    /**
+     * return the number of milliseconds for which no rules must have been loaded or deleted before
+     * lazily uninstalled rules are removed
+     * @return the quiet period
+     */
+    public static int getUninstallQuiet()
+    {
+        if (allowConfigUpdate()) {
+            synchronized (configLock) {
+                return uninstallQuiet;
+            }
+        }
+        return uninstallQuiet;
+    }
+
+    /**
+     * return the maximum number of classes retransformed in one go when removing lazily uninstalled rules
+     * @return the batch size
+     */
+    public static int getUninstallBatch()
+    {
+        if (allowConfigUpdate()) {
+            synchronized (configLock) {
+                return uninstallBatch;
+            }
+        }
+        return uninstallBatch;
+    }
+
     /**
      * check whether compilation of rules is enabled or disabled
      * @return true if compilation of rules is enabled otherwise false
@@ -1192,6 +1412,51 @@ public class Transformer implements ClassFileTransformer {
      */
     private static boolean disallowDowncast = computeDisallowDowncast();
 
+    /**
+     * percentage of a CPU which any one rule may consume before being disabled or 0 if unlimited
+     */
+    private static volatile int breakerBudget = computeBreakerBudget();
+
+    /**
+     * executions per second which any one rule may perform before being disabled or 0 if unlimited
+     */
+    private static volatile int breakerRate = computeBreakerRate();
+
+    /**
+     * seconds after which a disabled rule is re-enabled or 0 if it must be re-enabled manually
+     */
+    private static volatile int breakerCooldown = computeBreakerCooldown();
+
+    /**
+     * number of messages buffered by each trace file or 0 if trace messages are written synchronously
+     */
+    private static int traceBuffer = computeTraceBuffer();
+
+    /**
+     * size in kilobytes after which a trace file is rotated or 0 if it is not rotated by size
+     */
+    private static int traceRotateSize = computeTraceRotateSize();
+
+    /**
+     * seconds after which a trace file is rotated or 0 if it is not rotated by age
+     */
+    private static int traceRotateInterval = computeTraceRotateInterval();
+
+    /**
+     * true if deleted rules are disabled at once and their classes retransformed in the background
+     */
+    private static boolean uninstallLazy = computeUninstallLazy();
+
+    /**
+     * milliseconds without rule updates before lazily uninstalled rules are removed
+     */
+    private static int uninstallQuiet = computeUninstallQuiet();
+
+    /**
+     * maximum number of classes retransformed in one go when removing lazily uninstalled rules
+     */
+    private static int uninstallBatch = computeUninstallBatch();
+
     /**
      * master switch which determines whether or not config values can be updated
      */
@@ -1275,6 +1540,76 @@ public class Transformer implements ClassFileTransformer {
         return (System.getProperty(DISALLOW_DOWNCAST) != null);
     }
 
+    private static int computeBreakerBudget()
+    {
+        return computePositiveInt(BREAKER_BUDGET);
+    }
+
+    private static int computeBreakerRate()
+    {
+        return computePositiveInt(BREAKER_RATE);
+    }
+
+    private static int computeBreakerCooldown()
+    {
+        return computePositiveInt(BREAKER_COOLDOWN);
+    }
+
+    private static int computeTraceBuffer()
+    {
+        if (System.getProperty(TRACE_BUFFER) == null) {
+            return TRACE_BUFFER_DEFAULT;
+        }
+        return computePositiveInt(TRACE_BUFFER);
+    }
+
+    private static int computeTraceRotateSize()
+    {
+        return computePositiveInt(TRACE_ROTATE_SIZE);
+    }
+
+    private static int computeTraceRotateInterval()
+    {
+        return computePositiveInt(TRACE_ROTATE_INTERVAL);
+    }
+
+    private static boolean computeUninstallLazy()
+    {
+        return System.getProperty(UNINSTALL_LAZY) != null;
+    }
+
+    private static int computeUninstallQuiet()
+    {
+        if (System.getProperty(UNINSTALL_QUIET) == null) {
+            return UNINSTALL_QUIET_DEFAULT;
+        }
+        return computePositiveInt(UNINSTALL_QUIET);
+    }
+
+    private static int computeUninstallBatch()
+    {
+        if (System.getProperty(UNINSTALL_BATCH) == null) {
+            return UNINSTALL_BATCH_DEFAULT;
+        }
+        int value = computePositiveInt(UNINSTALL_BATCH);
+        return (value > 0 ? value : UNINSTALL_BATCH_DEFAULT);
+    }
+
+    private static int computePositiveInt(String property)
+    {
+        String value = System.getProperty(property);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            int result = Integer.parseInt(value.trim());
+            return (result > 0 ? result : 0);
+        } catch (NumberFormatException e) {
+            Helper.err("org.jboss.byteman.agent.Transformer : invalid value " + value + " for property " + property);
+            return 0;
+        }
+    }
+
     private void checkConfiguration(String property)
     {
         // n.b. this needs to be kept up to date with each new config setting that is added
@@ -1372,6 +1707,69 @@ public class Transformer implements ClassFileTransformer {
                 disallowDowncast = value;
             }
         }
+
+        if (BREAKER_BUDGET.equals(property)) {
+            int value = computeBreakerBudget();
+            synchronized (configLock) {
+                breakerBudget = value;
+            }
+        }
+
+        if (BREAKER_RATE.equals(property)) {
+            int value = computeBreakerRate();
+            synchronized (configLock) {
+                breakerRate = value;
+            }
+        }
+
+        if (BREAKER_COOLDOWN.equals(property)) {
+            int value = computeBreakerCooldown();
+            synchronized (configLock) {
+                breakerCooldown = value;
+            }
+        }
+
+        if (TRACE_BUFFER.equals(property)) {
+            int value = computeTraceBuffer();
+            synchronized (configLock) {
+                traceBuffer = value;
+            }
+        }
+
+        if (TRACE_ROTATE_SIZE.equals(property)) {
+            int value = computeTraceRotateSize();
+            synchronized (configLock) {
+                traceRotateSize = value;
+            }
+        }
+
+        if (TRACE_ROTATE_INTERVAL.equals(property)) {
+            int value = computeTraceRotateInterval();
+            synchronized (configLock) {
+                traceRotateInterval = value;
+            }
+        }
+
+        if (UNINSTALL_LAZY.equals(property)) {
+            boolean value = computeUninstallLazy();
+            synchronized (configLock) {
+                uninstallLazy = value;
+            }
+        }
+
+        if (UNINSTALL_QUIET.equals(property)) {
+            int value = computeUninstallQuiet();
+            synchronized (configLock) {
+                uninstallQuiet = value;
+            }
+        }
+
+        if (UNINSTALL_BATCH.equals(property)) {
+            int value = computeUninstallBatch();
+            synchronized (configLock) {
+                uninstallBatch = value;
+            }
+        }
     }
 
     /* helper methods to dump class files */
@@ -0,0 +1,275 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.byteman.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * support for opening a listener server socket bound to a unix domain socket file. unix domain
+ * socket channels were only added in JDK 16 so the relevant classes and methods are looked up
+ * reflectively. when they are not available the listener falls back to using TCP.
+ */
+class UnixDomainSockets
+{
+    private static Object unixFamily;
+    private static Method addressOf;
+    private static Method openServer;
+    private static Method bind;
+    private static Method openClient;
+    private static Method connect;
+
+    static {
+        try {
+            Class<?> familyClass = Class.forName("java.net.StandardProtocolFamily");
+            Class<?> protocolFamilyClass = Class.forName("java.net.ProtocolFamily");
+            Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+            Object family = familyClass.getField("UNIX").get(null);
+            Method of = addressClass.getMethod("of", String.class);
+            Method open = ServerSocketChannel.class.getMethod("open", protocolFamilyClass);
+            Method bindMethod = ServerSocketChannel.class.getMethod("bind", SocketAddress.class);
+            Method openClientMethod = SocketChannel.class.getMethod("open", protocolFamilyClass);
+            Method connectMethod = SocketChannel.class.getMethod("connect", SocketAddress.class);
+            unixFamily = family;
+            addressOf = of;
+            openServer = open;
+            bind = bindMethod;
+            openClient = openClientMethod;
+            connect = connectMethod;
+        } catch (Exception e) {
+            // unix domain sockets are not supported by this JDK
+        }
+    }
+
+    /**
+     * @return true if unix domain socket channels are supported by the current JDK
+     */
+    static boolean isAvailable()
+    {
+        return unixFamily != null;
+    }
+
+    /**
+     * open a server socket channel bound to the supplied unix domain socket file. an existing file
+     * is only replaced if it is a stale socket left behind by a listener which is no longer running.
+     * the socket is bound inside a staging directory which only the user who owns the JVM can access
+     * and it is restricted to that user before it is moved into place, so other users can never
+     * connect to it.
+     * @param path the path of the socket file
+     * @return the bound server socket channel
+     * @throws IOException if the path is in use or the channel cannot be opened or bound
+     */
+    static ServerSocketChannel openServerChannel(String path) throws IOException
+    {
+        File file = new File(path).getAbsoluteFile();
+        if (file.exists()) {
+            removeStaleSocket(file);
+        }
+        File stagingDir = createPrivateDirectory(file.getParentFile());
+        File stagingFile = new File(stagingDir, "s");
+        ServerSocketChannel channel = (ServerSocketChannel) invoke(openServer, null, unixFamily);
+        try {
+            invoke(bind, channel, invoke(addressOf, null, stagingFile.getPath()));
+            // restrict access to the owner
+            if (!restrictToOwner(stagingFile, false)) {
+                throw new IOException("unable to restrict access to socket file " + path);
+            }
+            if (!stagingFile.renameTo(file)) {
+                throw new IOException("unable to move socket file into place at " + path);
+            }
+        } catch (IOException e) {
+            channel.close();
+            stagingFile.delete();
+            throw e;
+        } finally {
+            stagingDir.delete();
+        }
+        return channel;
+    }
+
+    /**
+     * delete a file found at the socket path if it is a socket which no longer accepts connections
+     * @param file the file found at the socket path
+     * @throws IOException if the file is a regular file or directory, if a listener is still
+     * accepting connections on it or if it cannot be deleted
+     */
+    private static void removeStaleSocket(File file) throws IOException
+    {
+        if (file.isFile() || file.isDirectory()) {
+            throw new IOException("socket path " + file + " is already in use by a file or directory");
+        }
+        SocketChannel probe = (SocketChannel) invoke(openClient, null, unixFamily);
+        boolean connected;
+        try {
+            invoke(connect, probe, invoke(addressOf, null, file.getPath()));
+            connected = true;
+        } catch (IOException e) {
+            connected = false;
+        } finally {
+            probe.close();
+        }
+        if (connected) {
+            throw new IOException("socket " + file + " is already in use by another listener");
+        }
+        if (!file.delete()) {
+            throw new IOException("unable to delete stale socket file " + file);
+        }
+    }
+
+    /**
+     * create a new directory which only the user who owns the JVM can access
+     * @param parent the directory in which to create it
+     * @return the new directory
+     * @throws IOException if the directory cannot be created or restricted
+     */
+    private static File createPrivateDirectory(File parent) throws IOException
+    {
+        for (int i = 0; i < 10; i++) {
+            File dir = new File(parent, ".byteman-" + Long.toHexString(System.nanoTime()));
+            if (dir.mkdir()) {
+                boolean restricted = restrictToOwner(dir, true);
+                // check nothing was added to the directory before access was restricted
+                String[] entries = dir.list();
+                if (!restricted || entries == null || entries.length != 0) {
+                    dir.delete();
+                    throw new IOException("unable to create private directory in " + parent);
+                }
+                return dir;
+            }
+        }
+        throw new IOException("unable to create private directory in " + parent);
+    }
+
+    /**
+     * make a file accessible only to the user who owns it. file modes cannot be restricted on
+     * windows so there the file keeps the access granted by its directory's ACL.
+     * @param file the file
+     * @param isDirectory true if the file is a directory which the owner needs to search
+     * @return true if access was restricted or cannot be restricted using file modes
+     */
+    private static boolean restrictToOwner(File file, boolean isDirectory)
+    {
+        boolean restricted = file.setReadable(false, false) & file.setWritable(false, false)
+                & file.setExecutable(false, false) & file.setReadable(true, true)
+                & file.setWritable(true, true) & (!isDirectory || file.setExecutable(true, true));
+        return restricted || File.separatorChar == '\\';
+    }
+
+    private static Object invoke(Method method, Object target, Object arg) throws IOException
+    {
+        try {
+            return method.invoke(target, arg);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.toString());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /**
+     * an input stream which reads directly from a socket channel. the streams returned by
+     * Channels.newInputStream lock the channel's blocking lock while reading which, on JDK 16 and
+     * later, stops a response being written while the connection handler waits for the next request.
+     */
+    static class ChannelInputStream extends InputStream
+    {
+        private final SocketChannel channel;
+
+        ChannelInputStream(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] bytes = new byte[1];
+            int count = read(bytes, 0, 1);
+            return (count < 0 ? -1 : bytes[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException
+        {
+            if (length == 0) {
+                return 0;
+            }
+            return channel.read(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * an output stream which writes directly to a socket channel without locking the channel's
+     * blocking lock
+     */
+    static class ChannelOutputStream extends OutputStream
+    {
+        private final SocketChannel channel;
+
+        ChannelOutputStream(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.agent.adapter;
+
+import org.objectweb.asm.*;
+import org.jboss.byteman.agent.TransformContext;
+import org.jboss.byteman.rule.helper.Helper;
+
+/**
+ * asm Adapter class used to check that the target method for a rule exists in a class
+ */
+public class NewCheckAdapter extends RuleCheckAdapter
+{
+     public NewCheckAdapter(ClassVisitor cv, TransformContext transformContext, String typeName, int count, boolean whenComplete)
+    {
+        super(cv, transformContext);
+        this.typeName = typeName;
+        this.count = count;
+        this.whenComplete = whenComplete;
+        this.visitedCount = 0;
+    }
+
+    public MethodVisitor visitMethod(
+        final int access,
+        final String name,
+        final String desc,
+        final String signature,
+        final String[] exceptions)
+    {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (matchTargetMethod(access, name, desc)) {
+            setVisited();
+            return new NewCheckMethodAdapter(mv, getTransformContext(), access, name, desc, signature, exceptions);
+        }
+
+        return mv;
+    }
+
+    /**
+     * compute the descriptor of the value created by an allocation instruction
+     * @param opcode one of NEW, ANEWARRAY, NEWARRAY or MULTIANEWARRAY
+     * @param operand the type operand of the instruction, an internal class name for NEW and ANEWARRAY,
+     * an array descriptor for MULTIANEWARRAY or null for NEWARRAY
+     * @param primitiveType the primitive element type code employed by NEWARRAY
+     * @return the descriptor of the allocated object or array
+     */
+    static String allocatedDescriptor(int opcode, String operand, int primitiveType)
+    {
+        switch (opcode) {
+            case Opcodes.NEW:
+                return Type.getObjectType(operand).getDescriptor();
+            case Opcodes.ANEWARRAY:
+                return "[" + Type.getObjectType(operand).getDescriptor();
+            case Opcodes.NEWARRAY:
+                switch (primitiveType) {
+                    case Opcodes.T_BOOLEAN:
+                        return "[Z";
+                    case Opcodes.T_CHAR:
+                        return "[C";
+                    case Opcodes.T_FLOAT:
+                        return "[F";
+                    case Opcodes.T_DOUBLE:
+                        return "[D";
+                    case Opcodes.T_BYTE:
+                        return "[B";
+                    case Opcodes.T_SHORT:
+                        return "[S";
+                    case Opcodes.T_INT:
+                        return "[I";
+                    case Opcodes.T_LONG:
+                        return "[J";
+                }
+                return null;
+            case Opcodes.MULTIANEWARRAY:
+                return operand;
+        }
+        return null;
+    }
+
+    /**
+     * check whether an allocated type matches the type name supplied in an AT NEW or AFTER NEW location
+     * @param typeName the type name supplied in the location, possibly with trailing [] array suffixes,
+     * or null if any type will do
+     * @param descriptor the descriptor of the allocated object or array
+     * @return true if the allocation matches otherwise false
+     */
+    static boolean matchAllocation(String typeName, String descriptor)
+    {
+        if (typeName == null) {
+            return true;
+        }
+        String className = Type.getType(descriptor).getClassName();
+        if (typeName.equals(className)) {
+            return true;
+        }
+        // if the type name has no package qualification then we can still match if
+        // the unqualified allocated class name equals the type name
+        int baseIdx = typeName.indexOf('[');
+        String baseName = (baseIdx < 0 ? typeName : typeName.substring(0, baseIdx));
+        if (baseName.indexOf('.') >= 0) {
+            return false;
+        }
+        int classPackageIdx = className.lastIndexOf('.');
+        if (classPackageIdx < 0) {
+            return false;
+        }
+        return className.substring(classPackageIdx + 1).equals(typeName);
+    }
+
+    /**
+     * a method visitor used to check for allocation trigger points in a method
+     */
+
+    private class NewCheckMethodAdapter extends RuleCheckMethodAdapter
+    {
+        private int access;
+        private String name;
+        private String descriptor;
+        private String signature;
+        private String[] exceptions;
+
+        /**
+         * the descriptor of an object allocation matched by an AFTER NEW rule which has not yet been
+         * checked to see whether the next instruction duplicates the new instance
+         */
+        private String awaitingDuplicate;
+
+        /**
+         * the descriptor of an object allocation matched by an AFTER NEW rule which was not immediately
+         * duplicated and so cannot be used as a trigger point
+         */
+        private String unduplicatedAllocation;
+
+        NewCheckMethodAdapter(MethodVisitor mv, TransformContext transformContext, int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            super(mv, transformContext, access, name, descriptor);
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.signature = signature;
+            this.exceptions = exceptions;
+            visitedCount = 0;
+            awaitingDuplicate = null;
+            unduplicatedAllocation = null;
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type)
+        {
+            checkDuplicated(false);
+            if (opcode == Opcodes.NEW || opcode == Opcodes.ANEWARRAY) {
+                checkAllocation(opcode, allocatedDescriptor(opcode, type, 0));
+            }
+            super.visitTypeInsn(opcode, type);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand)
+        {
+            checkDuplicated(false);
+            if (opcode == Opcodes.NEWARRAY) {
+                checkAllocation(opcode, allocatedDescriptor(opcode, null, operand));
+            }
+            super.visitIntInsn(opcode, operand);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc, int dims)
+        {
+            checkDuplicated(false);
+            checkAllocation(Opcodes.MULTIANEWARRAY, allocatedDescriptor(Opcodes.MULTIANEWARRAY, desc, 0));
+            super.visitMultiANewArrayInsn(desc, dims);
+        }
+
+        @Override
+        public void visitInsn(int opcode)
+        {
+            checkDuplicated(opcode == Opcodes.DUP);
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var)
+        {
+            checkDuplicated(false);
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc)
+        {
+            checkDuplicated(false);
+            super.visitFieldInsn(opcode, owner, name, desc);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf)
+        {
+            checkDuplicated(false);
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs)
+        {
+            checkDuplicated(false);
+            super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label)
+        {
+            checkDuplicated(false);
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst)
+        {
+            checkDuplicated(false);
+            super.visitLdcInsn(cst);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment)
+        {
+            checkDuplicated(false);
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label[] labels)
+        {
+            checkDuplicated(false);
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels)
+        {
+            checkDuplicated(false);
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        private void checkAllocation(int opcode, String allocatedDescriptor)
+        {
+            if ((count == 0 || visitedCount < count) && matchAllocation(typeName, allocatedDescriptor)) {
+                // a relevant allocation occurs in the called method
+                visitedCount++;
+                if (count == 0 || visitedCount == count) {
+                    // and we have enough occurences to match the count
+                    if (whenComplete && opcode == Opcodes.NEW) {
+                        // AFTER NEW also needs the next instruction to duplicate the new instance
+                        awaitingDuplicate = allocatedDescriptor;
+                    } else {
+                        setTriggerPoint();
+                    }
+                }
+            }
+        }
+
+        /**
+         * called before visiting each instruction. if the preceding instruction was an object allocation
+         * matched by an AFTER NEW rule then it is only a trigger point when this instruction is a DUP.
+         * otherwise the initialised instance is not left on the stack by the constructor call.
+         * @param isDuplicate true if the instruction is a DUP
+         */
+        private void checkDuplicated(boolean isDuplicate)
+        {
+            if (awaitingDuplicate != null) {
+                if (isDuplicate) {
+                    setTriggerPoint();
+                } else {
+                    Helper.verbose("NewCheckAdapter.checkDuplicated : allocation of " + awaitingDuplicate + " in method " + name + descriptor + " is not followed by DUP so AFTER NEW trigger will not be injected");
+                    unduplicatedAllocation = awaitingDuplicate;
+                }
+                awaitingDuplicate = null;
+            }
+        }
+
+        @Override
+        protected void checkBindings()
+        {
+            checkDuplicated(false);
+            if (!isTriggerPoint() && unduplicatedAllocation != null) {
+                transformContext.warn(name, descriptor, "allocation of " + unduplicatedAllocation + " is not followed by DUP so AFTER NEW trigger cannot be injected");
+                return;
+            }
+            super.checkBindings();
+        }
+
+        @Override
+        protected String getReturnBindingType()
+        {
+            // an allocation never produces a void value
+            return "java.lang.Object";
+        }
+    }
+
+    private String typeName;
+    private int count;
+    private boolean whenComplete;
+    private int visitedCount;
+}
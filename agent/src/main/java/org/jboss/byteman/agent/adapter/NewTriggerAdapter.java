@@ -0,0 +1,410 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.agent.adapter;
+
+import org.jboss.byteman.agent.TransformContext;
+import org.objectweb.asm.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * asm Adapter class used to add a rule event trigger call to a method of some given class
+ */
+public class NewTriggerAdapter extends RuleTriggerAdapter
+{
+    public NewTriggerAdapter(ClassVisitor cv, TransformContext transformContext, String typeName, int count, boolean whenComplete)
+    {
+        super(cv, transformContext);
+        this.typeName = typeName;
+        this.count = count;
+        this.whenComplete = whenComplete;
+        this.visitedCount = 0;
+    }
+
+    public MethodVisitor visitMethod(
+        final int access,
+        final String name,
+        final String desc,
+        final String signature,
+        final String[] exceptions)
+    {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (injectIntoMethod(name, desc)) {
+            if (name.equals("<init>")) {
+                return new NewTriggerConstructorAdapter(mv, getTransformContext(), access, name, desc, signature, exceptions);
+            } else {
+                return new NewTriggerMethodAdapter(mv, getTransformContext(), access, name, desc, signature, exceptions);
+            }
+        }
+        return mv;
+    }
+
+    /**
+     * a method visitor used to add a rule event trigger call to a method
+     */
+
+    private class NewTriggerMethodAdapter extends RuleTriggerMethodAdapter
+    {
+        /**
+         * flag used by subclass to avoid inserting trigger until after super constructor has been called
+         */
+        protected boolean latched;
+
+        /**
+         * a stack recording the owner of each object allocation whose constructor call has not yet been
+         * visited. allocations may be nested in the argument lists of constructor calls so the next
+         * constructor call for the owner on top of the stack is the one which initialises it.
+         */
+        private List<String> pendingOwners;
+
+        /**
+         * a stack recording for each pending object allocation whether a trigger should be injected
+         * once the constructor returns. this is only needed for an AFTER NEW rule.
+         */
+        private List<Boolean> pendingInits;
+
+        /**
+         * flag set when the most recently visited constructor call initialised a pending allocation
+         * rather than invoking a super or sibling constructor
+         */
+        protected boolean completedAllocation;
+
+        /**
+         * flag set when the last instruction visited was an allocation matched by an AFTER NEW rule. the
+         * trigger can only be injected if the next instruction duplicates the new instance because
+         * otherwise the initialised instance will not be on the stack when the constructor returns.
+         */
+        private boolean awaitingDuplicate;
+
+        NewTriggerMethodAdapter(MethodVisitor mv, TransformContext transformContext, int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            super(mv, transformContext, access, name, descriptor, signature, exceptions);
+            visitedCount = 0;
+            latched = false;
+            pendingOwners = new ArrayList<String>();
+            pendingInits = new ArrayList<Boolean>();
+            completedAllocation = false;
+            awaitingDuplicate = false;
+        }
+
+        /**
+         * method overridden to allow the array dimensions of an AT NEW rule to be bound to $@. the first
+         * entry is always null because an allocation has no receiver.
+         * @return the types of the dimension values currently on the stack
+         */
+        @Override
+        public Type[] getInvokedTypes()
+        {
+            int dims = 0;
+            if (matchedOpcode == Opcodes.MULTIANEWARRAY) {
+                dims = matchedDimensions;
+            } else if (matchedOpcode != Opcodes.NEW) {
+                dims = 1;
+            }
+            Type[] result = new Type[dims + 1];
+            result[0] = null;
+            for (int i = 0; i < dims; i++) {
+                result[i + 1] = Type.INT_TYPE;
+            }
+
+            return result;
+        }
+
+        /**
+         * method overridden to allow the type of the $! binding in an AFTER NEW rule to be identified
+         * @return the type of the allocated object or array
+         */
+        @Override
+        public Type getReturnBindingType()
+        {
+            return Type.getType(matchedDescriptor);
+        }
+
+        // n.b. allocations and constructor calls made by trigger code, whether generated for this rule
+        // or previously injected for some other rule, must not be mistaken for trigger method allocations
+
+        @Override
+        public void visitTypeInsn(int opcode, String type)
+        {
+            if (inBytemanTrigger()) {
+                super.visitTypeInsn(opcode, type);
+                return;
+            }
+            checkDuplicated(false);
+            if (opcode == Opcodes.NEW) {
+                boolean inject = matchAllocation(opcode, type, 0, 0);
+                pendingOwners.add(type);
+                // for AFTER NEW we cannot inject until the constructor call has initialised the instance
+                pendingInits.add(whenComplete && inject);
+                awaitingDuplicate = whenComplete && inject;
+                if (!whenComplete && inject) {
+                    injectTriggerPoint();
+                }
+                super.visitTypeInsn(opcode, type);
+            } else if (opcode == Opcodes.ANEWARRAY) {
+                visitArrayAllocation(opcode, type, 0, 0);
+            } else {
+                super.visitTypeInsn(opcode, type);
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand)
+        {
+            if (inBytemanTrigger()) {
+                super.visitIntInsn(opcode, operand);
+                return;
+            }
+            checkDuplicated(false);
+            if (opcode == Opcodes.NEWARRAY) {
+                visitArrayAllocation(opcode, null, operand, 0);
+            } else {
+                super.visitIntInsn(opcode, operand);
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc, int dims)
+        {
+            if (inBytemanTrigger()) {
+                super.visitMultiANewArrayInsn(desc, dims);
+            } else {
+                checkDuplicated(false);
+                visitArrayAllocation(Opcodes.MULTIANEWARRAY, desc, 0, dims);
+            }
+        }
+
+        @Override
+        public void visitInsn(int opcode)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(opcode == Opcodes.DUP);
+            }
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitFieldInsn(opcode, owner, name, desc);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitLdcInsn(cst);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label[] labels)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMethodInsn(
+            final int opcode,
+            final String owner,
+            final String name,
+            final String desc,
+            boolean itf)
+        {
+            if (!inBytemanTrigger()) {
+                checkDuplicated(false);
+            }
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+            if (inBytemanTrigger()) {
+                return;
+            }
+            completedAllocation = false;
+            if (opcode == Opcodes.INVOKESPECIAL && name.equals("<init>")) {
+                // a constructor call either completes the most recent pending allocation or is a
+                // call to a super or sibling constructor in which case there will be no pending
+                // allocation for the owner on top of the stack
+                int last = pendingOwners.size() - 1;
+                if (last >= 0 && pendingOwners.get(last).equals(owner)) {
+                    pendingOwners.remove(last);
+                    boolean inject = pendingInits.remove(last);
+                    completedAllocation = true;
+                    if (inject) {
+                        // the new instance was duplicated before calling its constructor so the
+                        // initialised instance is now on top of the stack
+                        matchedOpcode = Opcodes.NEW;
+                        matchedDescriptor = Type.getObjectType(owner).getDescriptor();
+                        matchedDimensions = 0;
+                        injectTriggerPoint();
+                    }
+                }
+            }
+        }
+
+        private void visitArrayAllocation(int opcode, String type, int primitiveType, int dims)
+        {
+            boolean inject = matchAllocation(opcode, type, primitiveType, dims);
+            if (!whenComplete && inject) {
+                injectTriggerPoint();
+            }
+            if (opcode == Opcodes.MULTIANEWARRAY) {
+                super.visitMultiANewArrayInsn(type, dims);
+            } else if (opcode == Opcodes.NEWARRAY) {
+                super.visitIntInsn(opcode, primitiveType);
+            } else {
+                super.visitTypeInsn(opcode, type);
+            }
+            if (whenComplete && inject) {
+                // the new array is on top of the stack
+                injectTriggerPoint();
+            }
+        }
+
+        /**
+         * called before visiting each instruction of the trigger method. if the preceding instruction was
+         * an allocation matched by an AFTER NEW rule then the trigger is only injected after the
+         * constructor call when this instruction duplicates the new instance. the check adapter warns
+         * when the rule cannot be injected for this reason.
+         * @param isDuplicate true if the instruction is a DUP
+         */
+        private void checkDuplicated(boolean isDuplicate)
+        {
+            if (awaitingDuplicate) {
+                awaitingDuplicate = false;
+                if (!isDuplicate) {
+                    pendingInits.set(pendingInits.size() - 1, Boolean.FALSE);
+                }
+            }
+        }
+
+        /**
+         * count a matching allocation, recording its details for use when binding $@ and $!
+         * @return true if a trigger should be injected for this allocation
+         */
+        private boolean matchAllocation(int opcode, String type, int primitiveType, int dims)
+        {
+            String descriptor = NewCheckAdapter.allocatedDescriptor(opcode, type, primitiveType);
+            if ((count == 0 || visitedCount < count) && NewCheckAdapter.matchAllocation(typeName, descriptor)) {
+                // a relevant allocation occurs in the trigger method
+                visitedCount++;
+                if (!latched && (count == 0 || visitedCount == count)) {
+                    matchedOpcode = opcode;
+                    matchedDescriptor = descriptor;
+                    matchedDimensions = dims;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * a method visitor used to add a rule event trigger call to a constructor -- this has to make sure
+     * the super constructor has been called before allowing a trigger call to be compiled
+     */
+
+    private class NewTriggerConstructorAdapter extends NewTriggerMethodAdapter
+    {
+        NewTriggerConstructorAdapter(MethodVisitor mv, TransformContext transformContext, int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            super(mv, transformContext, access, name, descriptor, signature, exceptions);
+            // ensure we don't transform allocations before the super constructor is called
+            latched = true;
+        }
+
+        public void visitMethodInsn(
+            final int opcode,
+            final String owner,
+            final String name,
+            final String desc,
+            boolean itf)
+        {
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+            if (latched && !completedAllocation && isSuperOrSiblingConstructorCall(opcode, owner, name)) {
+                latched = false;
+            }
+        }
+    }
+
+    private String typeName;
+    private int count;
+    private boolean whenComplete;
+    private int matchedOpcode;
+    private String matchedDescriptor;
+    private int matchedDimensions;
+
+    private int visitedCount;
+}
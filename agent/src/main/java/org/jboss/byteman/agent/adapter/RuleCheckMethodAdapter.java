@@ -113,6 +113,8 @@ public class RuleCheckMethodAdapter extends RuleMethodAdapter {
 
                         transformContext.warn(name, descriptor, "found return value binding " + binding + " checking void called method in AFTER INVOKE rule");
                     }
+                } else if (locationType == LocationType.NEW_COMPLETED) {
+                    // this is the newly allocated object or array
                 } else {
                     Helper.verbose("RuleCheckMethodAdapter.checkBindings : found return value binding " + binding + " in rule which is neither AT EXIT nor AFTER INVOKE " + rule.getName());
 
@@ -133,11 +135,20 @@ public class RuleCheckMethodAdapter extends RuleMethodAdapter {
                 // this is ok
             } else if (binding.isInvokeParamArray()) {
                 // we can only allow reference to the invoked method parameters in an AT INVOKE rule
-                if (rule.getTargetLocation().getLocationType() != LocationType.INVOKE) {
+                // or to the array dimensions in an AT NEW rule
+                LocationType locationType = rule.getTargetLocation().getLocationType();
+                if (locationType != LocationType.INVOKE && locationType != LocationType.NEW) {
                     Helper.verbose("RuleCheckMethodAdapter.checkBindings : found invoke parameter array binding $@ in non-AT INVOKE rule " + rule.getName());
 
                     transformContext.warn(name, descriptor, "found invoke parameter array binding $@ in non-AT INVOKE rule ");
                 }
+            } else if (binding.isElapsedTime()) {
+                // we can only allow reference to the elapsed time in an AT TIMED EXIT rule
+                if (rule.getTargetLocation().getLocationType() != LocationType.TIMED_EXIT) {
+                    Helper.verbose("RuleCheckMethodAdapter.checkBindings : found elapsed time binding $ELAPSED in non-AT TIMED EXIT rule " + rule.getName());
+
+                    transformContext.warn(name, descriptor, "found elapsed time binding $ELAPSED in non-AT TIMED EXIT rule ");
+                }
             } else if (binding.isTriggerClass() || binding.isTriggerMethod()) {
                 // this is ok
             } else if (binding.isLocalVar()){
@@ -1527,6 +1527,40 @@ public class RuleGeneratorAdapter extends RuleMethodAdapter {
         return localIndex;
     }
 
+    /**
+     * mark a specific local slot at or above the current local high water mark as in use so that
+     * it is neither handed out by newLocal nor forgotten when a frame resets the local types. this
+     * is needed when a slot is allocated outside a trigger section and must survive across frames.
+     * @param local the slot to be reserved
+     * @param valueType the type of the value stored in the local slot
+     */
+    public void reserveLocal(int local, Type valueType)
+    {
+        for (int i = localTypes.size(); i < local; i++) {
+            localTypes.add(null);
+        }
+        if (local < localTypes.size()) {
+            localTypes.set(local, valueType);
+        } else {
+            localTypes.add(valueType);
+        }
+        if (valueType.getSize() > 1) {
+            if (local + 1 < localTypes.size()) {
+                localTypes.set(local + 1, null);
+            } else {
+                localTypes.add(null);
+            }
+        }
+
+        if (nextLocal < local + valueType.getSize()) {
+            nextLocal = local + valueType.getSize();
+        }
+
+        if (nextLocal > localHighWater) {
+            localHighWater = nextLocal;
+        }
+    }
+
     /**
      * free a previously allocated local slot
      * @param local the slot to be released
@@ -81,6 +81,16 @@ public class RuleTriggerMethodAdapter extends RuleGeneratorAdapter
         return returnBindingType;
     }
 
+    /**
+     * method overridden by AT TIMED EXIT method adapter allowing the local variable slot in which the trigger
+     * method entry time was saved to be identified. this default version should never get invoked
+     * @return the local variable slot holding the entry time
+     */
+    public int getEntryTimeSlot()
+    {
+        throw new RuntimeException("RuleTriggerMethodAdapter.getEntryTimeSlot() : should never get called!");
+    }
+
     private void setBindingIndices()
     {
         if (bindingIndicesSet) {
@@ -160,6 +170,9 @@ public class RuleTriggerMethodAdapter extends RuleGeneratorAdapter
             } else if (binding.isTriggerClass() || binding.isTriggerMethod()) {
                 callArrayBindings.add(binding);
                 binding.setDescriptor("java.lang.String");
+            } else if (binding.isElapsedTime()) {
+                callArrayBindings.add(binding);
+                binding.setDescriptor("long");
             }
         }
         // we don't have to do this but it makes debugging easier
@@ -245,6 +258,15 @@ public class RuleTriggerMethodAdapter extends RuleGeneratorAdapter
                         } else {
                             return -1;
                         }
+                    } else if (b1.isElapsedTime()) {
+                        if (b2.isParam() || b2.isLocalVar() || b2.isParamCount() || b2.isParamArray() || b2.isInvokeParamArray() || b2.isTriggerClass() || b2.isTriggerMethod()) {
+                            // all other bindings bar the return or throwable value precede elapsed time
+                            return 1;
+                        } else if (b2.isElapsedTime()) {
+                            return 0;
+                        } else {
+                            return -1;
+                        }
                     } else {
                         // return var always sorts last
                         return 1;
@@ -482,6 +504,12 @@ public class RuleTriggerMethodAdapter extends RuleGeneratorAdapter
             } else if (binding.isTriggerMethod()){
                 String triggerMethodName = name + TypeHelper.internalizeDescriptor(descriptor);
                 visitLdcInsn(triggerMethodName);
+            } else if (binding.isElapsedTime()){
+                // compute the time since the entry time was saved
+                invokeStatic(Type.getType(TypeHelper.externalizeType("java.lang.System")), Method.getMethod("long nanoTime()"));
+                loadLocal(getEntryTimeSlot());
+                math(SUB, Type.LONG_TYPE);
+                box(Type.LONG_TYPE);
             } else if (binding.isThrowable() | binding.isReturn()){
                 loadLocal(saveSlot);
                 box(saveValueType);
@@ -1075,15 +1103,29 @@ public class RuleTriggerMethodAdapter extends RuleGeneratorAdapter
         rule.setTypeInfo(getTriggerClassName(), access, name, descriptor, exceptions);
         String key = rule.getKey();
         Type ruleType = Type.getType(TypeHelper.externalizeType("org.jboss.byteman.rule.Rule"));
-        Method method = Method.getMethod("void execute(String, Object, Object[])");
+        Method method = Method.getMethod("void execute(org.jboss.byteman.rule.Rule, Object, Object[])");
         // we are at the relevant line in the method -- so add a trigger call here
 
         Helper.verbose("RuleTriggerMethodAdapter.injectTriggerPoint : inserting trigger into " + getTriggerClassName() + "." + getMethodName() + " for rule " + rule.getName());
 
         Label startLabel = newLabel();
         Label endLabel = newLabel();
+        Label skipLabel = newLabel();
         visitTriggerStart(startLabel);
 
+        // ask the rule whether it wants to be executed before we do any work preparing the call.
+        // the answer is no (null) if the rule has been disabled or if it employs a SAMPLE or RATE
+        // clause which rejects this triggering. the trigger sequence leaves the stack as it found
+        // it so we can branch straight to the end when the answer is no. otherwise the rule is
+        // saved in a local var slot and passed to execute
+
+        push(key);
+        invokeStatic(ruleType, Method.getMethod("org.jboss.byteman.rule.Rule admit(String)"));
+        int ruleSlot = newLocal(ruleType);
+        storeLocal(ruleSlot);
+        loadLocal(ruleSlot);
+        ifNull(skipLabel);
+
         // ensure binding indices have been installed
         
         setBindingIndices();
@@ -1100,7 +1142,7 @@ public class RuleTriggerMethodAdapter extends RuleGeneratorAdapter
         } else {
             saveValueSlot = -1;
         }
-        push(key);
+        loadLocal(ruleSlot);
         if ((access & Opcodes.ACC_STATIC) == 0) {
             loadThis();
         } else {
@@ -1117,6 +1159,8 @@ public class RuleTriggerMethodAdapter extends RuleGeneratorAdapter
         if (handleUpdates) {
             doArgUpdate();
         }
+        visitLabel(skipLabel);
+        popLocal(ruleSlot);
         visitTriggerEnd(endLabel);
     }
 }
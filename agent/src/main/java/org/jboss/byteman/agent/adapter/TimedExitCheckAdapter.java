@@ -0,0 +1,91 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.agent.adapter;
+
+import org.objectweb.asm.*;
+import org.jboss.byteman.agent.TransformContext;
+
+/**
+ * asm Adapter class used to check that the target method for a rule exists in a class
+ */
+public class TimedExitCheckAdapter extends RuleCheckAdapter
+{
+    public TimedExitCheckAdapter(ClassVisitor cv, TransformContext transformContext)
+    {
+        super(cv, transformContext);
+    }
+
+    public MethodVisitor visitMethod(
+        final int access,
+        final String name,
+        final String desc,
+        final String signature,
+        final String[] exceptions)
+    {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (matchTargetMethod(access, name, desc)) {
+            setVisited();
+            return new TimedExitCheckMethodAdapter(mv, getTransformContext(), access, name, desc, signature, exceptions);
+        }
+
+        return mv;
+    }
+
+    /**
+     * a method visitor used to add a rule event trigger call to a method
+     */
+
+    private class TimedExitCheckMethodAdapter extends RuleCheckMethodAdapter
+    {
+        private int access;
+        private String name;
+        private String descriptor;
+        private String signature;
+        private String[] exceptions;
+
+        TimedExitCheckMethodAdapter(MethodVisitor mv, TransformContext transformContext, int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            super(mv, transformContext, access, name, descriptor);
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.signature = signature;
+            this.exceptions = exceptions;
+        }
+
+        public void visitMaxs(int maxStack, int maxLocals)
+        {
+            // the trigger adapter saves the entry time in a slot above all the method's own locals
+            transformContext.recordMaxLocals(name, descriptor, maxLocals);
+
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        public void visitEnd() {
+            setTriggerPoint();
+
+            super.visitEnd();
+        }
+    }
+}
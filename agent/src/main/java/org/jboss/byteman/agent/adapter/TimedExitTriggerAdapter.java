@@ -0,0 +1,230 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.agent.adapter;
+
+import org.jboss.byteman.agent.TransformContext;
+import org.jboss.byteman.rule.type.TypeHelper;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * asm Adapter class used to add a rule event trigger call to a method of some given class. the
+ * method entry time is saved in a local variable slot on entry and the trigger is injected at
+ * every normal return and on exceptional exit, allowing the elapsed time to be bound to $ELAPSED
+ */
+public class TimedExitTriggerAdapter extends RuleTriggerAdapter
+{
+    public TimedExitTriggerAdapter(ClassVisitor cv, TransformContext transformContext)
+    {
+        super(cv, transformContext);
+    }
+
+    public MethodVisitor visitMethod(
+        final int access,
+        final String name,
+        final String desc,
+        final String signature,
+        final String[] exceptions)
+    {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (injectIntoMethod(name, desc)) {
+            if (name.equals("<init>")) {
+                return new TimedExitTriggerConstructorAdapter(mv, getTransformContext(), access, name, desc, signature, exceptions);
+            } else {
+                return new TimedExitTriggerMethodAdapter(mv, getTransformContext(), access, name, desc, signature, exceptions);
+            }
+        }
+        return mv;
+    }
+
+    /**
+     * a method visitor used to add a rule event trigger call to a method
+     */
+
+    private class TimedExitTriggerMethodAdapter extends RuleTriggerMethodAdapter
+    {
+        /**
+         * flag used by subclass to avoid catching exceptions until after super constructor has been called
+         */
+        protected boolean latched;
+
+        /**
+         * the local variable slot in which the method entry time is saved
+         */
+        private int entryTimeSlot;
+
+        /**
+         * label for the exceptional exit handler. this covers a series of ranges which span the
+         * complete method apart from the normal exit triggers so that a rule which throws from a
+         * normal exit is not triggered a second time on the way out
+         */
+        private Label throwableCatch;
+
+        /**
+         * start label of the currently open range or null if no range is open
+         */
+        private Label rangeStart;
+
+        TimedExitTriggerMethodAdapter(MethodVisitor mv, TransformContext transformContext, int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            super(mv, transformContext, access, name, descriptor, signature, exceptions);
+            latched = false;
+            entryTimeSlot = -1;
+            throwableCatch = null;
+            rangeStart = null;
+        }
+
+        @Override
+        public int getEntryTimeSlot()
+        {
+            return entryTimeSlot;
+        }
+
+        @Override
+        public void visitCode()
+        {
+            // call the super method first so we have a valid CFG and start label
+            super.visitCode();
+
+            // save the entry time in a slot above all the locals employed by the method
+            // n.b. this is legitimate even in a constructor before the super constructor is called
+            entryTimeSlot = transformContext.lookupMaxLocals(name, descriptor);
+            invokeStatic(Type.getType(TypeHelper.externalizeType("java.lang.System")), Method.getMethod("long nanoTime()"));
+            visitVarInsn(Opcodes.LSTORE, entryTimeSlot);
+            reserveLocal(entryTimeSlot, Type.LONG_TYPE);
+
+            if (!latched) {
+                openRange();
+            }
+        }
+
+        @Override
+        public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack)
+        {
+            super.visitFrame(type, nLocal, local, nStack, stack);
+            // frames from the original code know nothing about the entry time slot
+            if (entryTimeSlot >= 0) {
+                reserveLocal(entryTimeSlot, Type.LONG_TYPE);
+            }
+        }
+
+        /**
+         * we need to identify return instructions which are inserted because of other rules
+         *
+         * @param opcode
+         */
+        public void visitInsn(final int opcode) {
+            switch (opcode) {
+                case Opcodes.RETURN: // empty stack
+                case Opcodes.IRETURN: // 1 before n/a after
+                case Opcodes.FRETURN: // 1 before n/a after
+                case Opcodes.ARETURN: // 1 before n/a after
+                case Opcodes.LRETURN: // 2 before n/a after
+                case Opcodes.DRETURN: // 2 before n/a after
+                {
+                    if (!latched && !inBytemanHandler()) {
+                        closeRange();
+                        injectTriggerPoint();
+                        super.visitInsn(opcode);
+                        openRange();
+                        return;
+                    }
+                }
+                break;
+            }
+
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals)
+        {
+            closeRange();
+
+            // plant the catch handler for throwable unless the method never got as far as opening a range
+
+            if (throwableCatch != null) {
+                visitLabel(throwableCatch);
+
+                injectTriggerPoint();
+
+                throwException();
+            }
+
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        protected void openRange()
+        {
+            rangeStart = newLabel();
+            visitLabel(rangeStart);
+            // ensure the range is never empty
+            super.visitInsn(Opcodes.NOP);
+        }
+
+        private void closeRange()
+        {
+            if (rangeStart != null) {
+                // the try catch block must be notified before its end label is visited
+                Label rangeEnd = newLabel();
+                if (throwableCatch == null) {
+                    throwableCatch = newLabel();
+                }
+                visitTryCatchBlock(rangeStart, rangeEnd, throwableCatch,
+                        Type.getType(TypeHelper.externalizeType("java.lang.Throwable")).getInternalName());
+                visitLabel(rangeEnd);
+                rangeStart = null;
+            }
+        }
+    }
+
+    /**
+     * a method visitor used to add a rule event trigger call to a constructor -- this has to make sure
+     * the super constructor has been called before allowing the exceptional exit handler to take effect
+     */
+
+    private class TimedExitTriggerConstructorAdapter extends TimedExitTriggerMethodAdapter
+    {
+        TimedExitTriggerConstructorAdapter(MethodVisitor mv, TransformContext transformContext, int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            super(mv, transformContext, access, name, descriptor, signature, exceptions);
+            // ensure we don't catch exceptions before the super constructor is called
+            latched = true;
+        }
+
+        public void visitMethodInsn(
+            final int opcode,
+            final String owner,
+            final String name,
+            final String desc,
+            boolean itf)
+        {
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+            if (latched && isSuperOrSiblingConstructorCall(opcode, owner, name)) {
+                latched = false;
+                openRange();
+            }
+        }
+    }
+}
@@ -484,7 +484,11 @@ public class RuleCheck {
                         binding.setDescriptor(paramTypes.get(idx - 1));
                     }
                 } else if (binding.isReturn()) {
-                    if (rule.getTargetLocation().getLocationType() != LocationType.INVOKE_COMPLETED) {
+                    LocationType locationType = rule.getTargetLocation().getLocationType();
+                    if (locationType == LocationType.NEW_COMPLETED) {
+                        warning("WARNING : Cannot infer type for $! in AFTER NEW rule \"" + rule.getName() + "\"");
+                        binding.setDescriptor("void");
+                    } else if (locationType != LocationType.INVOKE_COMPLETED) {
                         // return type is on end of list
                         String returnType = paramTypes.get(paramCount);
                         if ("void".equals(returnType)) {
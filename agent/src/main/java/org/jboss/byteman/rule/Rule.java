@@ -46,6 +46,7 @@ import org.jboss.byteman.rule.helper.InterpretedHelper;
 import org.jboss.byteman.agent.Location;
 import org.jboss.byteman.agent.Transformer;
 import org.jboss.byteman.agent.RuleScript;
+import org.jboss.byteman.agent.RuleBreaker;
 import org.objectweb.asm.Opcodes;
 
 import org.jboss.byteman.rule.compiler.Compiler;
@@ -55,6 +56,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
@@ -739,42 +741,95 @@ public class Rule
                 binding.setType(Type.OBJECT.arrayType());
             } else if (binding.isTriggerClass() || binding.isTriggerMethod()) {
                 binding.setType(Type.STRING);
+            } else if (binding.isElapsedTime()) {
+                binding.setType(Type.J);
             }
         }
     }
 
     /**
-     * forward an execute request a rule identified by its unique key
+     * decide whether a trigger call for a rule should be passed on to the rule engine. the call
+     * is skipped if the rule has been disabled, either explicitly or by its circuit breaker, or,
+     * for a rule which employs a SAMPLE or RATE clause, if the triggering is not selected. this is
+     * called from the injected trigger code before the trigger arguments are boxed so that skipped
+     * triggerings incur minimal overhead. the trigger code passes the returned rule straight to
+     * execute so the checks made here are not repeated.
      * @param key a string key identifying the rule instance to be fired
+     * @return the rule if execute should be called for it otherwise null
+     */
+    public static Rule admit(String key)
+    {
+        if (!isTriggeringEnabled()) {
+            // we don't trigger code while we are doing rule housekeeping
+            return null;
+        }
+
+        Rule rule = ruleKeyMap.get(key);
+
+        // if the key is no longer present the rule has been decommissioned so skip the call
+        if (rule == null) {
+            Helper.verbose("Rule.admit for decommissioned key " + key);
+            return null;
+        }
+
+        RuleScript ruleScript = rule.ruleScript;
+
+        if (!ruleScript.isEnabled()) {
+            Helper.verbose("Rule.admit for disabled key " + key);
+            return null;
+        }
+
+        if (ruleScript.isSampled() && !ruleScript.sample()) {
+            return null;
+        }
+
+        // skip a rule disabled by its circuit breaker before the trigger boxes its arguments
+
+        if (!ruleScript.getBreaker().allow()) {
+            Helper.verbose("Rule.admit for disabled key " + key);
+            return null;
+        }
+
+        return rule;
+    }
+
+    /**
+     * does this rule filter its triggerings using a SAMPLE or RATE clause
+     * @return true if the trigger code needs to call sample before calling execute otherwise false
+     */
+    public boolean isSampled()
+    {
+        return ruleScript.isSampled();
+    }
+
+    /**
+     * forward an execute request to a rule which has been admitted by the trigger code
+     * @param rule the rule returned by the call to admit
      * @param recipient the recipient of the method from which execution of the rule was
      * triggered or null if it was a static method
      * @param args the arguments of the method from which execution of the rule was
      * triggered
      */
-    public static void execute(String key, Object recipient, Object[] args) throws ExecuteException
+    public static void execute(Rule rule, Object recipient, Object[] args) throws ExecuteException
     {
-        boolean enabled = isTriggeringEnabled();
-        if (!enabled) {
-            // we don't trigger code while we are doing rule housekeeping
-            return;
-        }
-
         // disable triggering until we get into actual rule code
-        
+        // n.b. admit only returns a rule when triggering is enabled
+
         disableTriggersInternal();
 
         try {
-        Rule rule = ruleKeyMap.get(key);
-        Helper.verbose("Rule.execute called for " + key);
+        Helper.verbose("Rule.execute called for " + rule.key);
 
+        RuleBreaker breaker = rule.ruleScript.getBreaker();
 
-        // if the key is no longer present it just means the rule has been decommissioned so return
-        if (rule == null) {
-            Helper.verbose("Rule.execute for decommissioned key " + key);
-            return;
+        long start = System.nanoTime();
+        try {
+            rule.execute(recipient, args);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            rule.ruleScript.getMetrics().recordExecution(elapsed);
+            breaker.record(elapsed);
         }
-
-        rule.execute(recipient, args);
         } finally {
             // restore the status quo -- we must have been enabled if we got to this method
             enableTriggers();
@@ -842,6 +897,15 @@ public class Rule
         }
     }
 
+    /**
+     * called from the helper executing the rule when the rule condition has evaluated to true
+     * so that the hit can be recorded in the rule's metrics
+     */
+    public void recordHit()
+    {
+        ruleScript.getMetrics().recordHit();
+    }
+
     /**
      * called when a trigger is compiled for the rule to provide a String key which can be used
      * at execution time to obtain a handle on the rule instance
@@ -885,7 +949,7 @@ public class Rule
     /**
      * a hash map used to identify rules from their keys
      */
-    private static HashMap<String, Rule> ruleKeyMap = new HashMap<String, Rule>();
+    private static ConcurrentHashMap<String, Rule> ruleKeyMap = new ConcurrentHashMap<String, Rule>();
 
     /**
      * a counter used to ensure rule identifiers are unique
@@ -947,6 +1011,14 @@ public class Rule
         } else {
             stringWriter.write("NOCOMPILE\n");
         }
+        if (ruleScript.getSampler() != null) {
+            stringWriter.write(ruleScript.getSampler().toString());
+            stringWriter.write('\n');
+        }
+        if (ruleScript.getRateLimiter() != null) {
+            stringWriter.write(ruleScript.getRateLimiter().toString());
+            stringWriter.write('\n');
+        }
         if (event != null) {
             event.writeTo(stringWriter);
         } else {
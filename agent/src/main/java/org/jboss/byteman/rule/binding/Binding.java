@@ -99,6 +99,10 @@ public class Binding extends RuleElement
         } else if (name.equals("$METHOD")) {
             // $* refers to the parameters for the trigger method supplied as an Object array
             index = DollarExpression.TRIGGER_METHOD_IDX;
+        } else if (name.equals("$ELAPSED")) {
+            // $ELAPSED refers to the time elapsed since entry to the trigger method and is only valid when
+            // the rule is triggered AT TIMED EXIT
+            index = DollarExpression.ELAPSED_TIME_IDX;
         } else if (name.matches("\\$[A-Za-z].*")) {
            // $AAAAA refers  to a local variable in the trigger method
             index = DollarExpression.LOCAL_IDX;
@@ -490,6 +494,11 @@ public class Binding extends RuleElement
         return index == DollarExpression.TRIGGER_METHOD_IDX;
     }
 
+    public boolean isElapsedTime()
+    {
+        return index == DollarExpression.ELAPSED_TIME_IDX;
+    }
+
     public int getIndex()
     {
         return index;
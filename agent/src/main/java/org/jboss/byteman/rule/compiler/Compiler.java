@@ -569,6 +569,12 @@ public class Compiler implements Opcodes
             mv.visitJumpInsn(IFEQ, l0);
             cc.addStackCount(-1);
             // then
+            // rule.recordHit();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, compiledHelperName, "rule", "Lorg/jboss/byteman/rule/Rule;");
+            cc.addStackCount(1);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "org/jboss/byteman/rule/Rule", "recordHit", "()V");
+            cc.addStackCount(-1);
             rule.getAction().compile(mv, cc);
             // fire();
             // end if
@@ -598,6 +604,10 @@ public class Compiler implements Opcodes
             Label l0 = new Label();
             mv.visitJumpInsn(IFEQ, l0);
             // then
+            // rule.recordHit();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, compiledHelperName, "rule", "Lorg/jboss/byteman/rule/Rule;");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "org/jboss/byteman/rule/Rule", "recordHit", "()V");
             // fire();
             mv.visitVarInsn(ALOAD, 0);
             mv.visitMethodInsn(INVOKESPECIAL, compiledHelperName, "fire", "()V");
@@ -78,6 +78,8 @@ public class DollarExpression extends AssignableExpression
             name = "$CLASS";
         } else if (index == TRIGGER_METHOD_IDX){
             name = "$METHOD";
+        } else if (index == ELAPSED_TIME_IDX){
+            name = "$ELAPSED";
         } else {
             name = "$" + Integer.toString(index);
         }
@@ -145,6 +147,9 @@ public class DollarExpression extends AssignableExpression
         if (name.equals("$METHOD")){
             throw new TypeException("invalid assignment to invoke param array variable " + name + getPos());
         }
+        if (name.equals("$ELAPSED")){
+            throw new TypeException("invalid assignment to elapsed time variable " + name + getPos());
+        }
         bind(true);
     }
 
@@ -349,4 +354,9 @@ public class DollarExpression extends AssignableExpression
      * index of $METHOD variable which is bound to a String identifying the trigger method and signature
      */
     public final static int TRIGGER_METHOD_IDX = -10;
+    /**
+     * index of $ELAPSED variable which is bound to the nanoseconds elapsed since entry to the trigger method
+     * in an AT TIMED EXIT rule
+     */
+    public final static int ELAPSED_TIME_IDX = -11;
 }
@@ -222,6 +222,8 @@ public class ExpressionHelper
                     expr = new DollarExpression(rule, rule.getTypeGroup().createArray(Type.OBJECT), exprTree, DollarExpression.TRIGGER_CLASS_IDX);
                 } else if (text.equals("$METHOD")) {
                     expr = new DollarExpression(rule, rule.getTypeGroup().createArray(Type.OBJECT), exprTree, DollarExpression.TRIGGER_METHOD_IDX);
+                } else if (text.equals("$ELAPSED")) {
+                    expr = new DollarExpression(rule, Type.J, exprTree, DollarExpression.ELAPSED_TIME_IDX);
                 } else {
                     expr = new DollarExpression(rule, type, exprTree, text.substring(1));
                 }
@@ -490,6 +492,8 @@ public class ExpressionHelper
                         expr = new DollarExpression(rule, rule.getTypeGroup().createArray(Type.OBJECT), exprTree, DollarExpression.TRIGGER_CLASS_IDX);
                     } else if (child1.getText().equals("METHOD")) {
                         expr = new DollarExpression(rule, rule.getTypeGroup().createArray(Type.OBJECT), exprTree, DollarExpression.TRIGGER_METHOD_IDX);
+                    } else if (child1.getText().equals("ELAPSED")) {
+                        expr = new DollarExpression(rule, Type.J, exprTree, DollarExpression.ELAPSED_TIME_IDX);
                     } else {
                         expr = new DollarExpression(rule, type, exprTree, child1.getText());
                     }
@@ -756,6 +760,8 @@ public class ExpressionHelper
                     expr = new DollarExpression(rule, rule.getTypeGroup().createArray(Type.OBJECT), exprTree, DollarExpression.TRIGGER_CLASS_IDX);
                 } else if (text.equals("$METHOD")) {
                     expr = new DollarExpression(rule, rule.getTypeGroup().createArray(Type.OBJECT), exprTree, DollarExpression.TRIGGER_METHOD_IDX);
+                } else if (text.equals("$ELAPSED")) {
+                    expr = new DollarExpression(rule, Type.J, exprTree, DollarExpression.ELAPSED_TIME_IDX);
                 } else {
                     expr = new DollarExpression(rule, type, exprTree, text.substring(1));
                 }
@@ -0,0 +1,399 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.byteman.rule.helper;
+
+import org.jboss.byteman.rule.Rule;
+import org.jboss.byteman.synchronization.DistinctCounter;
+import org.jboss.byteman.synchronization.RateMeter;
+import org.jboss.byteman.synchronization.TopK;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a helper class which adds builtins for characterising a stream of rule triggerings using fixed
+ * memory. top-K summaries track the most frequently offered keys, rate meters track decaying
+ * event rates and distinct counters estimate the number of distinct values seen. unlike the
+ * counter builtins the memory used does not grow with the number of distinct keys so these
+ * builtins are safe to use on unbounded key spaces such as callers, request paths or user ids.
+ * all updates are lock-free. summaries of every aggregate can be written to a trace stream on
+ * demand or periodically. all aggregates are discarded when the helper is deactivated.
+ */
+public class AggregationHelper extends Helper
+{
+    /**
+     * the number of keys tracked by a top-K summary created implicitly
+     */
+    public final static int DEFAULT_TOPK_CAPACITY = 64;
+
+    public AggregationHelper(Rule rule)
+    {
+        super(rule);
+    }
+
+    // top-K support
+
+    /**
+     * create a top-K summary tracking a given number of keys
+     * @param identifier an identifier for the summary
+     * @param capacity the number of keys tracked by the summary
+     * @return true if a new summary was created and false if one already existed under the
+     * given identifier
+     */
+    public boolean createTopK(Object identifier, int capacity)
+    {
+        return (topKMap.putIfAbsent(mapKey(identifier), new TopK(capacity)) == null);
+    }
+
+    /**
+     * count an occurrence of a key in a top-K summary, creating a summary with the default
+     * capacity if none exists
+     * @param identifier the identifier for the summary
+     * @param key the key to count
+     * @return true
+     */
+    public boolean offerTopK(Object identifier, Object key)
+    {
+        return offerTopK(identifier, key, 1);
+    }
+
+    /**
+     * count a weighted occurrence of a key in a top-K summary, creating a summary with the
+     * default capacity if none exists
+     * @param identifier the identifier for the summary
+     * @param key the key to count
+     * @param weight the number of occurrences to count
+     * @return true
+     */
+    public boolean offerTopK(Object identifier, Object key, long weight)
+    {
+        ensureTopK(identifier).offer(key, weight);
+        return true;
+    }
+
+    /**
+     * render the most frequent keys in a top-K summary. the reported counts never underestimate
+     * and may overestimate the true counts.
+     * @param identifier the identifier for the summary
+     * @param n the maximum number of keys to include
+     * @return a String of the form "key=count key=count ..." listing keys in decreasing order of
+     * count or null if no summary exists
+     */
+    public String readTopK(Object identifier, int n)
+    {
+        TopK topK = topKMap.get(mapKey(identifier));
+        return (topK == null ? null : topK.toString(n));
+    }
+
+    /**
+     * return the most frequent keys in a top-K summary
+     * @param identifier the identifier for the summary
+     * @param n the maximum number of keys to return
+     * @return a list of keys in decreasing order of count or null if no summary exists
+     */
+    public List<Object> readTopKKeys(Object identifier, int n)
+    {
+        TopK topK = topKMap.get(mapKey(identifier));
+        if (topK == null) {
+            return null;
+        }
+        List<Object> keys = new ArrayList<Object>();
+        for (TopK.Item item : topK.top(n)) {
+            keys.add(item.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * delete a top-K summary
+     * @param identifier the identifier for the summary
+     * @return true if the summary was deleted and false if no summary exists
+     */
+    public boolean deleteTopK(Object identifier)
+    {
+        return (topKMap.remove(mapKey(identifier)) != null);
+    }
+
+    // rate meter support
+
+    /**
+     * count an event in a rate meter, creating the meter if it does not exist
+     * @param identifier the identifier for the meter
+     * @return true
+     */
+    public boolean markRate(Object identifier)
+    {
+        return markRate(identifier, 1);
+    }
+
+    /**
+     * count some events in a rate meter, creating the meter if it does not exist
+     * @param identifier the identifier for the meter
+     * @param n the number of events
+     * @return true
+     */
+    public boolean markRate(Object identifier, long n)
+    {
+        ensureRateMeter(identifier).mark(n);
+        return true;
+    }
+
+    /**
+     * render the count and rates of a rate meter
+     * @param identifier the identifier for the meter
+     * @return a String of the form "count N mean R m1 R m5 R m15 R" giving the total event count
+     * and the mean, one, five and fifteen minute rates in events per second or null if no meter
+     * exists
+     */
+    public String readRate(Object identifier)
+    {
+        RateMeter meter = rateMap.get(mapKey(identifier));
+        return (meter == null ? null : meter.toString());
+    }
+
+    /**
+     * read a moving average rate from a rate meter
+     * @param identifier the identifier for the meter
+     * @param minutes the averaging period which must be 1, 5 or 15
+     * @return the rate in events per second or -1 if no meter exists or minutes is not a
+     * supported averaging period
+     */
+    public double readRate(Object identifier, int minutes)
+    {
+        RateMeter meter = rateMap.get(mapKey(identifier));
+        return (meter == null ? -1.0 : meter.getRate(minutes));
+    }
+
+    /**
+     * delete a rate meter
+     * @param identifier the identifier for the meter
+     * @return true if the meter was deleted and false if no meter exists
+     */
+    public boolean deleteRate(Object identifier)
+    {
+        return (rateMap.remove(mapKey(identifier)) != null);
+    }
+
+    // distinct count support
+
+    /**
+     * create a distinct counter with a given precision
+     * @param identifier an identifier for the counter
+     * @param precision the log base 2 of the number of registers used by the counter, between 4
+     * and 16. higher values use more memory and give more accurate estimates.
+     * @return true if a new counter was created and false if one already existed under the
+     * given identifier
+     */
+    public boolean createDistinct(Object identifier, int precision)
+    {
+        return (distinctMap.putIfAbsent(mapKey(identifier), new DistinctCounter(precision)) == null);
+    }
+
+    /**
+     * add a value to a distinct counter, creating a counter with the default precision if none
+     * exists
+     * @param identifier the identifier for the counter
+     * @param value the value to add
+     * @return true
+     */
+    public boolean addDistinct(Object identifier, Object value)
+    {
+        ensureDistinct(identifier).add(value);
+        return true;
+    }
+
+    /**
+     * estimate the number of distinct values added to a distinct counter
+     * @param identifier the identifier for the counter
+     * @return the estimate or 0 if no counter exists
+     */
+    public long readDistinct(Object identifier)
+    {
+        DistinctCounter counter = distinctMap.get(mapKey(identifier));
+        return (counter == null ? 0 : counter.estimate());
+    }
+
+    /**
+     * delete a distinct counter
+     * @param identifier the identifier for the counter
+     * @return true if the counter was deleted and false if no counter exists
+     */
+    public boolean deleteDistinct(Object identifier)
+    {
+        return (distinctMap.remove(mapKey(identifier)) != null);
+    }
+
+    // snapshot support
+
+    /**
+     * write a summary of every aggregate to the trace stream identified by identifier, one line
+     * per aggregate
+     * @param identifier an identifier used to identify the trace output stream
+     * @return true
+     */
+    public boolean dumpAggregates(Object identifier)
+    {
+        doDumpAggregates(identifier);
+        return true;
+    }
+
+    /**
+     * periodically write a summary of every aggregate to the trace stream identified by
+     * identifier, replacing any periodic dump already scheduled
+     * @param identifier an identifier used to identify the trace output stream
+     * @param millis the period between dumps or 0 to cancel periodic dumps
+     * @return true if a previously scheduled periodic dump was cancelled otherwise false
+     */
+    public boolean dumpAggregates(final Object identifier, long millis)
+    {
+        synchronized (dumpLock) {
+            boolean cancelled = cancelDump();
+            if (millis > 0) {
+                if (dumper == null) {
+                    dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "Byteman aggregate dump") {
+                                public void run() {
+                                    // we don't want to see any triggers in the dump thread
+                                    Rule.disableTriggersInternal();
+                                    super.run();
+                                }
+                            };
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+                dump = dumper.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        doDumpAggregates(identifier);
+                    }
+                }, millis, millis, TimeUnit.MILLISECONDS);
+            }
+            return cancelled;
+        }
+    }
+
+    // lifecycle management
+
+    public static void deactivated()
+    {
+        synchronized (dumpLock) {
+            cancelDump();
+            if (dumper != null) {
+                dumper.shutdown();
+                dumper = null;
+            }
+        }
+        topKMap.clear();
+        rateMap.clear();
+        distinctMap.clear();
+    }
+
+    private static boolean cancelDump()
+    {
+        if (dump != null) {
+            dump.cancel(false);
+            dump = null;
+            return true;
+        }
+        return false;
+    }
+
+    private static void doDumpAggregates(Object identifier)
+    {
+        for (Map.Entry<Object, TopK> entry : topKMap.entrySet()) {
+            dotraceln(identifier, "topk " + name(entry.getKey()) + " : " + entry.getValue());
+        }
+        for (Map.Entry<Object, RateMeter> entry : rateMap.entrySet()) {
+            dotraceln(identifier, "rate " + name(entry.getKey()) + " : " + entry.getValue());
+        }
+        for (Map.Entry<Object, DistinctCounter> entry : distinctMap.entrySet()) {
+            dotraceln(identifier, "distinct " + name(entry.getKey()) + " : " + entry.getValue());
+        }
+    }
+
+    private static String name(Object key)
+    {
+        return (key == mapKey(null) ? "null" : key.toString());
+    }
+
+    private static TopK ensureTopK(Object identifier)
+    {
+        Object key = mapKey(identifier);
+        TopK topK = topKMap.get(key);
+        if (topK == null) {
+            TopK newTopK = new TopK(DEFAULT_TOPK_CAPACITY);
+            topK = topKMap.putIfAbsent(key, newTopK);
+            if (topK == null) {
+                topK = newTopK;
+            }
+        }
+        return topK;
+    }
+
+    private static RateMeter ensureRateMeter(Object identifier)
+    {
+        Object key = mapKey(identifier);
+        RateMeter meter = rateMap.get(key);
+        if (meter == null) {
+            RateMeter newMeter = new RateMeter();
+            meter = rateMap.putIfAbsent(key, newMeter);
+            if (meter == null) {
+                meter = newMeter;
+            }
+        }
+        return meter;
+    }
+
+    private static DistinctCounter ensureDistinct(Object identifier)
+    {
+        Object key = mapKey(identifier);
+        DistinctCounter counter = distinctMap.get(key);
+        if (counter == null) {
+            DistinctCounter newCounter = new DistinctCounter();
+            counter = distinctMap.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    private static ConcurrentHashMap<Object, TopK> topKMap = new ConcurrentHashMap<Object, TopK>();
+    private static ConcurrentHashMap<Object, RateMeter> rateMap = new ConcurrentHashMap<Object, RateMeter>();
+    private static ConcurrentHashMap<Object, DistinctCounter> distinctMap = new ConcurrentHashMap<Object, DistinctCounter>();
+
+    private static final Object dumpLock = new Object();
+    private static ScheduledExecutorService dumper = null;
+    private static ScheduledFuture<?> dump = null;
+}
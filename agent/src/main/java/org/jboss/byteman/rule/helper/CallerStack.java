@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.rule.helper;
+
+/**
+ * Class providing access to the frames of the current thread's stack starting from the trigger
+ * method frame, i.e. the frame below which the rule engine was entered. The default Helper
+ * implementation materializes the whole stack using Thread.getStackTrace() and then searches it
+ * for the trigger frame. On JDK9+ runtimes an implementation based on StackWalker is provided
+ * by the byteman-jigsaw jar. It walks the stack lazily, skipping the Byteman frames without
+ * materializing them and stopping as soon as the requested frames have been seen.
+ */
+public abstract class CallerStack
+{
+    /**
+     * value returned by matchFrame when it is not called below Rule.execute
+     */
+    public final static int NO_TRIGGER_FRAME = -2;
+
+    /**
+     * interface used to select stack frames by class and method name
+     */
+    public interface FrameMatcher
+    {
+        /**
+         * test whether a stack frame should be selected
+         * @param className the name of the class for the frame's method
+         * @param methodName the name of the frame's method
+         * @return true if the frame should be selected otherwise false
+         */
+        public boolean matches(String className, String methodName);
+    }
+
+    /**
+     * find the first frame in a range of frames starting from the trigger method frame which
+     * is selected by the supplied matcher.
+     * @param matcher the matcher used to select a frame
+     * @param startFrame the index of the first frame to test with 0 identifying the trigger
+     * method frame
+     * @param frameCount the number of frames to test or 0 if all frames from startFrame
+     * should be tested
+     * @return the index of the first selected frame, -1 if no frame is selected or
+     * NO_TRIGGER_FRAME if this was not called below Rule.execute
+     */
+    public abstract int matchFrame(FrameMatcher matcher, int startFrame, int frameCount);
+
+    /**
+     * return the frames of the current thread's stack starting from the trigger method frame
+     * @param maxFrames the maximum number of frames required or 0 if all frames are required
+     * @return an array containing at most maxFrames + 1 frames, the extra frame being included
+     * when there are more than maxFrames frames so the caller can tell the stack was truncated,
+     * or null if this was not called below Rule.execute
+     */
+    public abstract StackTraceElement[] getFrames(int maxFrames);
+
+    /**
+     * create a CallerStack if the runtime supports StackWalker
+     * @return a CallerStack based on StackWalker or null if StackWalker is not available
+     */
+    public static CallerStack create()
+    {
+        ClassLoader loader = CallerStack.class.getClassLoader();
+        try {
+            Class.forName("java.lang.StackWalker");
+        } catch (ClassNotFoundException e) {
+            // a pre-JDK9 runtime so use the default implementation
+            return null;
+        }
+        try {
+            Class<?> clazz = Class.forName("org.jboss.byteman.rule.helper.JigsawCallerStack", true, loader);
+            return (CallerStack) clazz.newInstance();
+        } catch (ClassNotFoundException e) {
+            // this can happen legitimately when we test the base agent jar
+            Helper.verbose("CallerStack:create JigsawCallerStack not present in Jigsaw runtime");
+            return null;
+        } catch (Exception e) {
+            Helper.err("CallerStack:create unexpected error creating JigsawCallerStack");
+            Helper.errTraceException(e);
+            return null;
+        }
+    }
+}
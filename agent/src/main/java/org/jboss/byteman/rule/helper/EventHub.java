@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+package org.jboss.byteman.rule.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * a registry of topics to which rules publish events via the emit builtins and to which agent
+ * listener clients subscribe. each subscription owns one bounded queue per topic. publishing
+ * threads append to the queue without locking and never wait. if a queue is full the oldest
+ * event in it is discarded and counted so the subscriber can be told how many events it missed.
+ * a subscription may also ask for only every nth event on its topics to be queued. queues are
+ * drained by the thread which serves the subscriber so a slow subscriber only loses events, it
+ * never holds up the application. when a topic has no subscribers emitting to it costs a single
+ * map lookup.
+ */
+public class EventHub
+{
+    /**
+     * the number of events queued per topic for a subscription unless it asks for some other number
+     */
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    private final static ConcurrentHashMap<String, CopyOnWriteArrayList<TopicQueue>> topics =
+            new ConcurrentHashMap<String, CopyOnWriteArrayList<TopicQueue>>();
+
+    /**
+     * check whether anyone is listening to a topic
+     * @param topic the topic name
+     * @return true if the topic has at least one subscriber otherwise false
+     */
+    public static boolean hasSubscribers(String topic)
+    {
+        CopyOnWriteArrayList<TopicQueue> queues = topics.get(topic);
+        return queues != null && !queues.isEmpty();
+    }
+
+    /**
+     * publish an event to every subscriber of a topic
+     * @param topic the topic name
+     * @param ruleName the name of the rule which emitted the event
+     * @param values the event values
+     * @return true if the event was queued for at least one subscriber otherwise false
+     */
+    public static boolean publish(String topic, String ruleName, String[] values)
+    {
+        CopyOnWriteArrayList<TopicQueue> queues = topics.get(topic);
+        if (queues == null || queues.isEmpty()) {
+            return false;
+        }
+        Event event = new Event(topic, ruleName, System.currentTimeMillis(), values);
+        boolean queued = false;
+        for (TopicQueue queue : queues) {
+            if (queue.offer(event)) {
+                queued = true;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * subscribe to one or more topics
+     * @param topicNames the names of the topics
+     * @param capacity the number of events which may be queued per topic or 0 for the default
+     * @param sampleRate 1 if every event should be queued or n if only every nth event published to
+     * each topic should be queued
+     * @return the new subscription
+     */
+    public static Subscription subscribe(List<String> topicNames, int capacity, int sampleRate)
+    {
+        Subscription subscription = new Subscription();
+        int size = (capacity > 0 ? capacity : DEFAULT_CAPACITY);
+        int rate = (sampleRate > 1 ? sampleRate : 1);
+        for (String topicName : topicNames) {
+            TopicQueue queue = new TopicQueue(topicName, subscription, size, rate);
+            subscription.queues.add(queue);
+        }
+        for (TopicQueue queue : subscription.queues) {
+            CopyOnWriteArrayList<TopicQueue> queues = topics.get(queue.topic);
+            if (queues == null) {
+                queues = new CopyOnWriteArrayList<TopicQueue>();
+                CopyOnWriteArrayList<TopicQueue> existing = topics.putIfAbsent(queue.topic, queues);
+                if (existing != null) {
+                    queues = existing;
+                }
+            }
+            queues.add(queue);
+        }
+        return subscription;
+    }
+
+    /**
+     * remove a subscription from all its topics. any queued events are discarded.
+     * @param subscription the subscription
+     */
+    public static void unsubscribe(Subscription subscription)
+    {
+        for (TopicQueue queue : subscription.queues) {
+            CopyOnWriteArrayList<TopicQueue> queues = topics.get(queue.topic);
+            if (queues != null) {
+                queues.remove(queue);
+                // n.b. empty lists are left in place. removing them would race with a concurrent subscribe
+            }
+        }
+    }
+
+    /**
+     * an event published by a rule
+     */
+    public static class Event
+    {
+        private final String topic;
+        private final String ruleName;
+        private final long timestamp;
+        private final String[] values;
+
+        Event(String topic, String ruleName, long timestamp, String[] values)
+        {
+            this.topic = topic;
+            this.ruleName = ruleName;
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+
+        public String getTopic()
+        {
+            return topic;
+        }
+
+        public String getRuleName()
+        {
+            return ruleName;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public String[] getValues()
+        {
+            return values;
+        }
+    }
+
+    /**
+     * a set of per topic queues drained by a single consumer thread
+     */
+    public static class Subscription
+    {
+        private final List<TopicQueue> queues;
+        private volatile Thread waiter;
+        private int next;
+
+        private Subscription()
+        {
+            queues = new ArrayList<TopicQueue>();
+            waiter = null;
+            next = 0;
+        }
+
+        /**
+         * remove queued events, taking them from each topic in turn. this must only be called from
+         * the thread which consumes the subscription.
+         * @param events a list to which the events are appended
+         * @param max the maximum number of events to remove
+         * @param timeoutNanos how long to wait if no events are queued
+         * @return the number of events removed
+         */
+        public int drain(List<Event> events, int max, long timeoutNanos)
+        {
+            int count = drainQueues(events, max);
+            if (count == 0 && timeoutNanos > 0) {
+                waiter = Thread.currentThread();
+                try {
+                    // check again in case an event was queued before the waiter was visible
+                    count = drainQueues(events, max);
+                    if (count == 0) {
+                        LockSupport.parkNanos(this, timeoutNanos);
+                        count = drainQueues(events, max);
+                    }
+                } finally {
+                    waiter = null;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * collect the counts of events discarded because a queue was full since the last call
+         * @return a list of alternating topic names and counts for each topic which dropped events
+         */
+        public List<Object> takeDropped()
+        {
+            List<Object> result = new ArrayList<Object>();
+            for (TopicQueue queue : queues) {
+                long count = queue.dropped.getAndSet(0);
+                if (count > 0) {
+                    result.add(queue.topic);
+                    result.add(count);
+                }
+            }
+            return result;
+        }
+
+        private int drainQueues(List<Event> events, int max)
+        {
+            int count = 0;
+            int size = queues.size();
+            if (size == 0) {
+                return 0;
+            }
+            boolean found = true;
+            while (count < max && found) {
+                found = false;
+                for (int i = 0; i < size && count < max; i++) {
+                    TopicQueue queue = queues.get((next + i) % size);
+                    Event event = queue.poll();
+                    if (event != null) {
+                        events.add(event);
+                        count++;
+                        found = true;
+                    }
+                }
+                next = (next + 1) % size;
+            }
+            return count;
+        }
+
+        private void wake()
+        {
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * a bounded queue of events for one topic of one subscription. publishers add events without
+     * locking. when the queue is full the oldest event is discarded.
+     */
+    private static class TopicQueue
+    {
+        private final String topic;
+        private final Subscription subscription;
+        private final int capacity;
+        private final int sampleRate;
+        private final ConcurrentLinkedQueue<Event> events;
+        private final AtomicInteger size;
+        private final AtomicLong dropped;
+        private final AtomicLong published;
+
+        TopicQueue(String topic, Subscription subscription, int capacity, int sampleRate)
+        {
+            this.topic = topic;
+            this.subscription = subscription;
+            this.capacity = capacity;
+            this.sampleRate = sampleRate;
+            this.events = new ConcurrentLinkedQueue<Event>();
+            this.size = new AtomicInteger(0);
+            this.dropped = new AtomicLong(0);
+            this.published = new AtomicLong(0);
+        }
+
+        boolean offer(Event event)
+        {
+            if (sampleRate > 1 && published.getAndIncrement() % sampleRate != 0) {
+                return false;
+            }
+            events.offer(event);
+            if (size.incrementAndGet() > capacity) {
+                // make room by discarding the oldest event
+                if (events.poll() != null) {
+                    size.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+            }
+            subscription.wake();
+            return true;
+        }
+
+        Event poll()
+        {
+            Event event = events.poll();
+            if (event != null) {
+                size.decrementAndGet();
+            }
+            return event;
+        }
+    }
+}
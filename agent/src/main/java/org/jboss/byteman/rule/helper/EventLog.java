@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.rule.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a binary event log which appends fixed layout event records to a memory-mapped file. the file
+ * is divided into fixed size chunks. each thread claims a chunk for its own exclusive use and
+ * writes records into it with absolute puts, claiming a new chunk when the current one fills up,
+ * so recording an event needs no locking and no string formatting. once all chunks have been
+ * claimed further events are dropped.
+ *
+ * the file starts with a header of HEADER_SIZE bytes laid out as follows
+ * <pre>
+ *   long magic      MAGIC
+ *   int version     VERSION
+ *   int chunkSize   size of each chunk in bytes
+ *   int chunkCount  number of chunks in the file
+ *   int unused
+ *   long baseMillis wall clock time when the log was opened
+ *   long baseNanos  System.nanoTime() when the log was opened
+ * </pre>
+ * each chunk starts with an int giving the number of bytes of records written to the chunk
+ * followed by an unused int. this count is updated after each record is written so a reader
+ * only ever sees complete records. a chunk contains two types of record.
+ * <pre>
+ *   EVENT : int type, int keyId, int ruleId, int count,
+ *           long timestamp (nanos since baseNanos), long threadId, long value[count]
+ *   NAME  : int type, int id, int length, byte utf8[length]
+ * </pre>
+ * rule names and event keys are written once as NAME records and identified in EVENT records by
+ * their id. a NAME record may appear after the first event which refers to it. if two threads see a
+ * name for the first time at once both write a NAME record but only one of the ids is used. EventLogDecoder
+ * can be used to convert a log file to text or CSV.
+ */
+public class EventLog
+{
+    public final static long MAGIC = 0x424d45564c4f4731L; // "BMEVLOG1"
+    public final static int VERSION = 1;
+    public final static int HEADER_SIZE = 64;
+    public final static int CHUNK_SIZE = 64 * 1024;
+    public final static int CHUNK_HEADER_SIZE = 8;
+    public final static int EVENT = 1;
+    public final static int NAME = 2;
+    public final static int EVENT_HEADER_SIZE = 32;
+    public final static int NAME_HEADER_SIZE = 12;
+    public final static int MAX_NAME_LENGTH = 1024;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int chunkCount;
+    private final long baseNanos;
+    private final AtomicInteger nextChunk;
+    private final ConcurrentHashMap<String, Integer> names;
+    private final AtomicInteger nextName;
+    private final AtomicLong dropped;
+    private volatile boolean closed;
+
+    /**
+     * per thread state recording the start of the thread's current chunk and the offset at which
+     * its next record will be written. a chunk start of -1 means no chunk has been claimed.
+     */
+    private final ThreadLocal<int[]> cursor = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[] { -1, 0 };
+        }
+    };
+
+    /**
+     * create a new event log, truncating any existing file with the same name
+     * @param file the file to write to
+     * @param size the maximum size of the file in bytes, rounded up to a whole number of chunks
+     * @throws IOException if the file cannot be created and mapped
+     */
+    public EventLog(File file, long size) throws IOException
+    {
+        long chunks = (size - HEADER_SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks <= 0) {
+            chunks = 1;
+        }
+        if (HEADER_SIZE + chunks * CHUNK_SIZE > Integer.MAX_VALUE) {
+            chunks = (Integer.MAX_VALUE - HEADER_SIZE) / CHUNK_SIZE;
+        }
+        this.file = file;
+        this.chunkCount = (int)chunks;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)chunkCount * CHUNK_SIZE);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        baseNanos = System.nanoTime();
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, VERSION);
+        buffer.putInt(12, CHUNK_SIZE);
+        buffer.putInt(16, chunkCount);
+        buffer.putLong(24, System.currentTimeMillis());
+        buffer.putLong(32, baseNanos);
+        nextChunk = new AtomicInteger(0);
+        names = new ConcurrentHashMap<String, Integer>();
+        nextName = new AtomicInteger(0);
+        dropped = new AtomicLong(0);
+    }
+
+    /**
+     * append an event record to the log
+     * @param ruleName the name of the rule recording the event
+     * @param key a key identifying the event
+     * @param count the number of values to record, between 0 and 4
+     * @param v0 the first value
+     * @param v1 the second value
+     * @param v2 the third value
+     * @param v3 the fourth value
+     * @return true if the event was recorded or dropped because the log is full, false if the log
+     * has been closed
+     */
+    public boolean record(String ruleName, String key, int count, long v0, long v1, long v2, long v3)
+    {
+        if (closed) {
+            return false;
+        }
+        long timestamp = System.nanoTime() - baseNanos;
+        int[] current = cursor.get();
+        int keyId = nameId(key, current);
+        int ruleId = nameId(ruleName, current);
+        int pos = (keyId < 0 || ruleId < 0 ? -1 : reserve(current, EVENT_HEADER_SIZE + 8 * count));
+        if (pos < 0) {
+            dropped.incrementAndGet();
+            return true;
+        }
+        buffer.putInt(pos, EVENT);
+        buffer.putInt(pos + 4, keyId);
+        buffer.putInt(pos + 8, ruleId);
+        buffer.putInt(pos + 12, count);
+        buffer.putLong(pos + 16, timestamp);
+        buffer.putLong(pos + 24, Thread.currentThread().getId());
+        switch (count) {
+            case 4:
+                buffer.putLong(pos + EVENT_HEADER_SIZE + 24, v3);
+            case 3:
+                buffer.putLong(pos + EVENT_HEADER_SIZE + 16, v2);
+            case 2:
+                buffer.putLong(pos + EVENT_HEADER_SIZE + 8, v1);
+            case 1:
+                buffer.putLong(pos + EVENT_HEADER_SIZE, v0);
+        }
+        commit(current, pos + EVENT_HEADER_SIZE + 8 * count);
+        return true;
+    }
+
+    /**
+     * return the number of events which were dropped because the log was full
+     * @return the number of dropped events
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * return the file this log writes to
+     * @return the file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * close the log, forcing all records out to disk
+     */
+    public synchronized void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // nothing more we can do
+        }
+    }
+
+    /**
+     * lookup the id for a name, allocating a new id and writing a NAME record if this is the first
+     * time the name has been seen. a new id is only made visible to other threads once its NAME
+     * record has been committed so no event can refer to an id which has no NAME record.
+     * @return the id or -1 if the log is full and the NAME record could not be written
+     */
+    private int nameId(String name, int[] current)
+    {
+        if (name == null) {
+            name = "null";
+        }
+        Integer id = names.get(name);
+        if (id != null) {
+            return id.intValue();
+        }
+        byte[] bytes;
+        try {
+            bytes = name.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            bytes = name.getBytes();
+        }
+        int length = Math.min(bytes.length, MAX_NAME_LENGTH);
+        int pos = reserve(current, NAME_HEADER_SIZE + length);
+        if (pos < 0) {
+            return -1;
+        }
+        Integer newId = Integer.valueOf(nextName.incrementAndGet());
+        buffer.putInt(pos, NAME);
+        buffer.putInt(pos + 4, newId.intValue());
+        buffer.putInt(pos + 8, length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(pos + NAME_HEADER_SIZE + i, bytes[i]);
+        }
+        commit(current, pos + NAME_HEADER_SIZE + length);
+        id = names.putIfAbsent(name, newId);
+        if (id != null) {
+            // another thread published its id first so our NAME record is never referred to
+            return id.intValue();
+        }
+        return newId.intValue();
+    }
+
+    /**
+     * find space for a record of the given size in the current thread's chunk, claiming a new
+     * chunk if needed
+     * @return the offset at which to write the record or -1 if all chunks have been claimed
+     */
+    private int reserve(int[] current, int size)
+    {
+        if (current[0] < 0 || current[1] + size > current[0] + CHUNK_SIZE) {
+            if (nextChunk.get() >= chunkCount) {
+                return -1;
+            }
+            int idx = nextChunk.getAndIncrement();
+            if (idx >= chunkCount) {
+                return -1;
+            }
+            current[0] = HEADER_SIZE + idx * CHUNK_SIZE;
+            current[1] = current[0] + CHUNK_HEADER_SIZE;
+        }
+        return current[1];
+    }
+
+    /**
+     * publish a record by updating the count of bytes written to the current thread's chunk
+     */
+    private void commit(int[] current, int end)
+    {
+        current[1] = end;
+        buffer.putInt(current[0], end - current[0] - CHUNK_HEADER_SIZE);
+    }
+}
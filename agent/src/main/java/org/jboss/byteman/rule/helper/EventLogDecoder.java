@@ -0,0 +1,230 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.rule.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * offline tool which converts a binary event log written by EventLog into text or CSV, printing
+ * events in timestamp order.
+ *
+ * usage: java org.jboss.byteman.rule.helper.EventLogDecoder [-csv] logfile
+ */
+public class EventLogDecoder
+{
+    public static void main(String[] args)
+    {
+        boolean csv = false;
+        String fileName = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-csv")) {
+                csv = true;
+            } else if (fileName == null && !args[i].startsWith("-")) {
+                fileName = args[i];
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (fileName == null) {
+            usage();
+            return;
+        }
+        try {
+            decode(new File(fileName), System.out, csv);
+        } catch (IOException e) {
+            System.err.println("EventLogDecoder : " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void usage()
+    {
+        System.err.println("usage: EventLogDecoder [-csv] logfile");
+        System.exit(1);
+    }
+
+    /**
+     * decode an event log printing one line per event
+     * @param file the event log file
+     * @param out the stream to print to
+     * @param csv true if the output should be comma separated values with a header line
+     * otherwise false
+     * @throws IOException if the file cannot be read or is not a valid event log
+     */
+    public static void decode(File file, PrintStream out, boolean csv) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < EventLog.HEADER_SIZE) {
+                throw new IOException("file " + file + " is too short to be an event log");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getLong(0) != EventLog.MAGIC) {
+                throw new IOException("file " + file + " is not an event log");
+            }
+            if (buffer.getInt(8) != EventLog.VERSION) {
+                throw new IOException("file " + file + " has unsupported event log version " + buffer.getInt(8));
+            }
+            int chunkSize = buffer.getInt(12);
+            int chunkCount = buffer.getInt(16);
+            long baseMillis = buffer.getLong(24);
+            // tolerate files which were truncated by copying
+            long available = (length - EventLog.HEADER_SIZE) / chunkSize;
+            if (available < chunkCount) {
+                chunkCount = (int)available;
+            }
+
+            HashMap<Integer, String> names = new HashMap<Integer, String>();
+            List<Event> events = new ArrayList<Event>();
+
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                int start = EventLog.HEADER_SIZE + chunk * chunkSize;
+                int used = buffer.getInt(start);
+                if (used <= 0 || used > chunkSize - EventLog.CHUNK_HEADER_SIZE) {
+                    continue;
+                }
+                int pos = start + EventLog.CHUNK_HEADER_SIZE;
+                int end = pos + used;
+                while (pos < end) {
+                    int type = buffer.getInt(pos);
+                    if (type == EventLog.EVENT) {
+                        Event event = new Event();
+                        event.keyId = buffer.getInt(pos + 4);
+                        event.ruleId = buffer.getInt(pos + 8);
+                        int count = buffer.getInt(pos + 12);
+                        event.timestamp = buffer.getLong(pos + 16);
+                        event.threadId = buffer.getLong(pos + 24);
+                        event.values = new long[count];
+                        for (int i = 0; i < count; i++) {
+                            event.values[i] = buffer.getLong(pos + EventLog.EVENT_HEADER_SIZE + 8 * i);
+                        }
+                        events.add(event);
+                        pos += EventLog.EVENT_HEADER_SIZE + 8 * count;
+                    } else if (type == EventLog.NAME) {
+                        int id = buffer.getInt(pos + 4);
+                        int nameLength = buffer.getInt(pos + 8);
+                        byte[] bytes = new byte[nameLength];
+                        for (int i = 0; i < nameLength; i++) {
+                            bytes[i] = buffer.get(pos + EventLog.NAME_HEADER_SIZE + i);
+                        }
+                        names.put(id, new String(bytes, "UTF-8"));
+                        pos += EventLog.NAME_HEADER_SIZE + nameLength;
+                    } else {
+                        // corrupt chunk so skip the rest of it
+                        break;
+                    }
+                }
+            }
+
+            Collections.sort(events, new Comparator<Event>() {
+                public int compare(Event e1, Event e2) {
+                    return (e1.timestamp < e2.timestamp ? -1 : (e1.timestamp == e2.timestamp ? 0 : 1));
+                }
+            });
+
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            if (csv) {
+                out.println("timestamp,nanos,thread,rule,key,values");
+            }
+            for (Event event : events) {
+                String rule = name(names, event.ruleId);
+                String key = name(names, event.keyId);
+                StringBuilder builder = new StringBuilder();
+                if (csv) {
+                    builder.append(baseMillis + event.timestamp / 1000000L);
+                    builder.append(',');
+                    builder.append(event.timestamp);
+                    builder.append(',');
+                    builder.append(event.threadId);
+                    builder.append(',');
+                    builder.append(quote(rule));
+                    builder.append(',');
+                    builder.append(quote(key));
+                    for (long value : event.values) {
+                        builder.append(',');
+                        builder.append(value);
+                    }
+                } else {
+                    long millis = baseMillis + event.timestamp / 1000000L;
+                    String nanos = Long.toString(1000000L + event.timestamp % 1000000L).substring(1);
+                    builder.append(format.format(new Date(millis)));
+                    builder.append(nanos);
+                    builder.append(" thread ");
+                    builder.append(event.threadId);
+                    builder.append(" rule ");
+                    builder.append(rule);
+                    builder.append(" : ");
+                    builder.append(key);
+                    for (long value : event.values) {
+                        builder.append(' ');
+                        builder.append(value);
+                    }
+                }
+                out.println(builder.toString());
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String name(HashMap<Integer, String> names, int id)
+    {
+        String name = names.get(id);
+        return (name != null ? name : "#" + id);
+    }
+
+    private static String quote(String text)
+    {
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0) {
+            return text;
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    private static class Event
+    {
+        long timestamp;
+        long threadId;
+        int ruleId;
+        int keyId;
+        long[] values;
+    }
+}
@@ -28,22 +28,36 @@ import org.jboss.byteman.rule.Rule;
 import org.jboss.byteman.rule.exception.ExecuteException;
 import org.jboss.byteman.synchronization.CountDown;
 import org.jboss.byteman.synchronization.Counter;
+import org.jboss.byteman.synchronization.Histogram;
 import org.jboss.byteman.synchronization.Joiner;
+import org.jboss.byteman.synchronization.LinkMap;
 import org.jboss.byteman.synchronization.Rendezvous;
 import org.jboss.byteman.synchronization.Timer;
 import org.jboss.byteman.synchronization.Waiter;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -196,6 +210,237 @@ public class Helper
         return traceClose(identifier);
     }
 
+    // binary event log support
+    /**
+     * builtin to open a binary event log which is written to a memory-mapped file located in the
+     * current directory using the given file name or a generated name if the supplied name is null.
+     * the file is limited to 64 MB. any existing file with the same name is overwritten.
+     * @param fileName the name of the event log file or null if a name should be generated
+     * @return true if the log was opened, false if a log is already open or the file could not
+     * be created
+     */
+    public boolean recordOpen(String fileName)
+    {
+        return doRecordOpen(fileName, EVENT_LOG_SIZE_DEFAULT);
+    }
+
+    /**
+     * builtin to open a binary event log which is written to a memory-mapped file located in the
+     * current directory using the given file name or a generated name if the supplied name is null.
+     * any existing file with the same name is overwritten.
+     * @param fileName the name of the event log file or null if a name should be generated
+     * @param size the maximum size of the file in kilobytes
+     * @return true if the log was opened, false if a log is already open or the file could not
+     * be created
+     */
+    public boolean recordOpen(String fileName, int size)
+    {
+        return doRecordOpen(fileName, size * 1024L);
+    }
+
+    /**
+     * builtin to close the binary event log forcing all recorded events out to disk
+     * @return true if the log was closed, false if no log was open
+     */
+    public boolean recordClose()
+    {
+        return doRecordClose();
+    }
+
+    /**
+     * builtin to append an event identified by key to the binary event log, opening a log with a
+     * generated name if none is open. the event record includes a timestamp, the current thread
+     * id and the name of the rule. if the log is full the event is dropped.
+     * @param key a key identifying the event
+     * @return true
+     */
+    public boolean record(String key)
+    {
+        return doRecord(key, 0, 0L, 0L, 0L, 0L);
+    }
+
+    /**
+     * builtin to append an event identified by key with one value to the binary event log.
+     * @param key a key identifying the event
+     * @param v0 a value to record with the event
+     * @return true
+     */
+    public boolean record(String key, long v0)
+    {
+        return doRecord(key, 1, v0, 0L, 0L, 0L);
+    }
+
+    /**
+     * builtin to append an event identified by key with two values to the binary event log.
+     * @param key a key identifying the event
+     * @param v0 a value to record with the event
+     * @param v1 a value to record with the event
+     * @return true
+     */
+    public boolean record(String key, long v0, long v1)
+    {
+        return doRecord(key, 2, v0, v1, 0L, 0L);
+    }
+
+    /**
+     * builtin to append an event identified by key with three values to the binary event log.
+     * @param key a key identifying the event
+     * @param v0 a value to record with the event
+     * @param v1 a value to record with the event
+     * @param v2 a value to record with the event
+     * @return true
+     */
+    public boolean record(String key, long v0, long v1, long v2)
+    {
+        return doRecord(key, 3, v0, v1, v2, 0L);
+    }
+
+    /**
+     * builtin to append an event identified by key with four values to the binary event log.
+     * @param key a key identifying the event
+     * @param v0 a value to record with the event
+     * @param v1 a value to record with the event
+     * @param v2 a value to record with the event
+     * @param v3 a value to record with the event
+     * @return true
+     */
+    public boolean record(String key, long v0, long v1, long v2, long v3)
+    {
+        return doRecord(key, 4, v0, v1, v2, v3);
+    }
+
+    private boolean doRecord(String key, int count, long v0, long v1, long v2, long v3)
+    {
+        EventLog log = eventLog;
+        if (log == null) {
+            doRecordOpen(null, EVENT_LOG_SIZE_DEFAULT);
+            log = eventLog;
+            if (log == null) {
+                return true;
+            }
+        }
+        log.record(rule.getName(), key, count, v0, v1, v2, v3);
+        return true;
+    }
+
+    private static boolean doRecordOpen(String fileName, long size)
+    {
+        synchronized (eventLogLock) {
+            if (eventLog != null) {
+                return false;
+            }
+            String name = (fileName != null ? fileName : nextFileName("events", ".bin"));
+            try {
+                eventLog = new EventLog(new File(name), size);
+            } catch (IOException e) {
+                err("Helper.recordOpen : unable to open event log " + name + " : " + e);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static boolean doRecordClose()
+    {
+        synchronized (eventLogLock) {
+            EventLog log = eventLog;
+            if (log == null) {
+                return false;
+            }
+            eventLog = null;
+            log.close();
+            return true;
+        }
+    }
+
+    // live event stream support
+    /**
+     * builtin to publish an event with no values to the agent listener clients which have
+     * subscribed to the given topic. the event includes a timestamp and the name of the rule.
+     * if no client has subscribed to the topic the call returns straight away.
+     * @param topic the topic to which the event is published
+     * @return true if the event was queued for at least one subscriber otherwise false
+     */
+    public boolean emit(String topic)
+    {
+        return doEmit(topic, 0, null, null, null, null);
+    }
+
+    /**
+     * builtin to publish an event with one value to the agent listener clients which have
+     * subscribed to the given topic. the value is converted to a String when the event is
+     * published.
+     * @param topic the topic to which the event is published
+     * @param v0 a value to include in the event
+     * @return true if the event was queued for at least one subscriber otherwise false
+     */
+    public boolean emit(String topic, Object v0)
+    {
+        return doEmit(topic, 1, v0, null, null, null);
+    }
+
+    /**
+     * builtin to publish an event with two values to the agent listener clients which have
+     * subscribed to the given topic.
+     * @param topic the topic to which the event is published
+     * @param v0 a value to include in the event
+     * @param v1 a value to include in the event
+     * @return true if the event was queued for at least one subscriber otherwise false
+     */
+    public boolean emit(String topic, Object v0, Object v1)
+    {
+        return doEmit(topic, 2, v0, v1, null, null);
+    }
+
+    /**
+     * builtin to publish an event with three values to the agent listener clients which have
+     * subscribed to the given topic.
+     * @param topic the topic to which the event is published
+     * @param v0 a value to include in the event
+     * @param v1 a value to include in the event
+     * @param v2 a value to include in the event
+     * @return true if the event was queued for at least one subscriber otherwise false
+     */
+    public boolean emit(String topic, Object v0, Object v1, Object v2)
+    {
+        return doEmit(topic, 3, v0, v1, v2, null);
+    }
+
+    /**
+     * builtin to publish an event with four values to the agent listener clients which have
+     * subscribed to the given topic.
+     * @param topic the topic to which the event is published
+     * @param v0 a value to include in the event
+     * @param v1 a value to include in the event
+     * @param v2 a value to include in the event
+     * @param v3 a value to include in the event
+     * @return true if the event was queued for at least one subscriber otherwise false
+     */
+    public boolean emit(String topic, Object v0, Object v1, Object v2, Object v3)
+    {
+        return doEmit(topic, 4, v0, v1, v2, v3);
+    }
+
+    private boolean doEmit(String topic, int count, Object v0, Object v1, Object v2, Object v3)
+    {
+        // avoid formatting the values when nobody is listening
+        if (!EventHub.hasSubscribers(topic)) {
+            return false;
+        }
+        String[] values = new String[count];
+        switch (count) {
+            case 4:
+                values[3] = String.valueOf(v3);
+            case 3:
+                values[2] = String.valueOf(v2);
+            case 2:
+                values[1] = String.valueOf(v1);
+            case 1:
+                values[0] = String.valueOf(v0);
+        }
+        return EventHub.publish(topic, rule.getName(), values);
+    }
+
     // public static methods (i.e. non-builtins) allowing Byteman agent to access trace capability
 
     /**
@@ -310,25 +555,16 @@ public class Helper
     	if (identifier == null) {
             return false;
         }
-        // out and err cannot be redirected
-        if (identifier.equals("out") || identifier.equals("err")) {
+        // out, err, dbg, vrb and nzy cannot be redirected
+        if (isConsoleTrace(identifier)) {
     	    return false;
         }
 
         synchronized(traceMap) {
-            PrintStream stream = traceMap.get(identifier);
-            if (stream != null) {
+            TraceFile traceFile = traceMap.get(identifier);
+            if (traceFile != null) {
                 return false;
             }
-            // dbg, vrb and nzy can be redirected
-            // but if not they default to System.out
-            if (stream == null) {
-                if (identifier.equals("dbg") ||
-                        identifier.equals("vrb") ||
-                        identifier.equals(("nzy"))) {
-                    return false;
-                }
-            }
             String name = fileName;
             if (fileName == null) {
                 name = nextFileName();
@@ -348,22 +584,31 @@ public class Helper
                 }
             }
 
-            FileOutputStream fos;
-
             try {
-                if (file.exists()) {
-                    fos = new FileOutputStream(file, true);
-                } else {
-                    fos = new FileOutputStream(file, true);
-                }
+                traceFile = new TraceFile(identifier, file,
+                        Transformer.getTraceBuffer(),
+                        Transformer.getTraceRotateSize() * 1024L,
+                        Transformer.getTraceRotateInterval() * 1000000000L);
             } catch (FileNotFoundException e) {
                 // oops, just return false
                 return false;
             }
 
-            PrintStream ps = new PrintStream(fos, true);
-
-            traceMap.put(identifier, ps);
+            traceMap.put(identifier, traceFile);
+
+            if (!traceShutdownHookInstalled) {
+                // make sure buffered trace output gets written if the JVM exits
+                try {
+                    Runtime.getRuntime().addShutdownHook(new Thread("Byteman trace shutdown") {
+                        public void run() {
+                            closeAllTraceFiles();
+                        }
+                    });
+                } catch (IllegalStateException e) {
+                    // JVM is already shutting down
+                }
+                traceShutdownHookInstalled = true;
+            }
 
             return true;
         }
@@ -378,19 +623,16 @@ public class Helper
     private static boolean doTraceClose(Object identifier)
     {
         // we never need to deal with these cases
-        if (identifier == null ||
-                identifier.equals("out") ||
-                identifier.equals("err")) {
+        if (identifier == null || isConsoleTrace(identifier)) {
             return false;
         }
 
         synchronized(traceMap) {
             // need to do the close while synchronized so we ensure an open cannot
             // proceed until we have flushed all changes to disk
-            PrintStream ps = traceMap.get(identifier);
-            if (ps != null) {
-                ps.close();
-                traceMap.remove(identifier);
+            TraceFile traceFile = traceMap.remove(identifier);
+            if (traceFile != null) {
+                traceFile.close();
                 return true;
             }
         }
@@ -398,6 +640,17 @@ public class Helper
         return false;
     }
 
+    /**
+     * close all open trace output streams flushing any pending output.
+     */
+    private static void closeAllTraceFiles()
+    {
+        List<Object> keyset = new ArrayList<Object>(traceMap.keySet());
+        for (Object key : keyset) {
+            doTraceClose(key);
+        }
+    }
+
     /**
      * write the supplied message to the trace stream identified by identifier, creating a new stream
      * if none exists
@@ -410,23 +663,7 @@ public class Helper
      */
     private static boolean dotrace(Object identifier, String message)
     {
-        synchronized(traceMap) {
-            PrintStream ps = traceMap.get(identifier);
-            if (ps == null) {
-                if (doTraceOpen(identifier, null)) {
-                    ps = traceMap.get(identifier);
-                } else {
-                    if (identifier.equals("err")) {
-                        ps = System.err;
-                    } else {
-                        ps = System.out;
-                    }
-                }
-            }
-            ps.print(message);
-            ps.flush();
-        }
-        return true;
+        return doTraceWrite(identifier, message, false);
     }
 
     /**
@@ -439,27 +676,71 @@ public class Helper
      * caveat: if identifier is the string "out" or null the message will be written to System.out.
      * if identifier is the string "err" the message will be written to System.err.
      */
-    private static boolean dotraceln(Object identifier, String message)
+    static boolean dotraceln(Object identifier, String message)
     {
-        synchronized(traceMap) {
-            PrintStream ps = traceMap.get(identifier);
-            if (ps == null) {
-                if (doTraceOpen(identifier, null)) {
-                    ps = traceMap.get(identifier);
-                } else {
-                    if (identifier.equals("err")) {
-                        ps = System.err;
-                    } else {
-                        ps = System.out;
+        return doTraceWrite(identifier, message, true);
+    }
+
+    /**
+     * write the supplied message to the trace stream identified by identifier, creating a new stream
+     * if none exists. file output is handed on to the trace file without taking any global lock.
+     * console output is written directly to System.out or System.err.
+     * @param identifier an identifier used subsequently to identify the trace output stream
+     * @param message the message to be traced
+     * @param newline true if a new line should be appended to the message
+     * @return true
+     */
+    private static boolean doTraceWrite(Object identifier, String message, boolean newline)
+    {
+        if (identifier != null && !isConsoleTrace(identifier)) {
+            while (true) {
+                TraceFile traceFile = traceMap.get(identifier);
+                if (traceFile == null) {
+                    synchronized (traceMap) {
+                        traceFile = traceMap.get(identifier);
+                        if (traceFile == null && doTraceOpen(identifier, null)) {
+                            traceFile = traceMap.get(identifier);
+                        }
+                    }
+                }
+                if (traceFile == null) {
+                    break;
+                }
+                if (traceFile.write(message, newline)) {
+                    return true;
+                }
+                // the file was closed under our feet so make sure it is unmapped and retry
+                synchronized (traceMap) {
+                    if (traceMap.get(identifier) == traceFile) {
+                        traceMap.remove(identifier);
                     }
                 }
             }
+        }
+        PrintStream ps = ("err".equals(identifier) ? System.err : System.out);
+        if (newline) {
             ps.println(message);
-            ps.flush();
+        } else {
+            ps.print(message);
         }
+        ps.flush();
         return true;
     }
 
+    /**
+     * check whether a trace stream is always written to System.out or System.err
+     * @param identifier an identifier used to identify the trace output stream
+     * @return true if identifier is "out", "err", "dbg", "vrb" or "nzy" otherwise false
+     */
+    private static boolean isConsoleTrace(Object identifier)
+    {
+        return identifier.equals("out") ||
+                identifier.equals("err") ||
+                identifier.equals("dbg") ||
+                identifier.equals("vrb") ||
+                identifier.equals("nzy");
+    }
+
     /**
      *
      * @param id the tracestream to write to
@@ -467,18 +748,13 @@ public class Helper
      */
     private static void doTraceException(Object id, Throwable th)
     {
-        PrintStream ps;
-        synchronized (traceMap) {
-            ps = traceMap.get(id);
-            if (ps == null) {
-                if (id.equals("err")) {
-                    ps = System.err;
-                } else {
-                    ps = System.out;
-                }
-            }
+        if (id != null && traceMap.containsKey(id)) {
+            StringWriter writer = new StringWriter();
+            th.printStackTrace(new PrintWriter(writer));
+            doTraceWrite(id, writer.toString(), false);
+        } else {
+            th.printStackTrace("err".equals(id) ? System.err : System.out);
         }
-        th.printStackTrace(ps);
     }
 
     // flag support
@@ -489,9 +765,7 @@ public class Helper
      */
     public boolean flag(Object identifier)
     {
-        synchronized (flagSet) {
-            return flagSet.add(identifier);
-        }
+        return flagSet.add(mapKey(identifier));
     }
 
     /**
@@ -501,9 +775,7 @@ public class Helper
      */
     public boolean flagged(Object identifier)
     {
-        synchronized (flagSet) {
-            return flagSet.contains(identifier);
-        }
+        return flagSet.contains(mapKey(identifier));
     }
 
     /**
@@ -513,9 +785,189 @@ public class Helper
      */
     public boolean clear(Object identifier)
     {
-        synchronized (flagSet) {
-            return flagSet.remove(identifier);
+        return flagSet.remove(mapKey(identifier));
+    }
+
+    // thread scoped state support
+    /**
+     * set a flag keyed by the supplied object which is private to the current thread if it is
+     * not already set
+     * @param identifier the object identifying the relevant flag
+     * @return true if the flag was clear before this call otherwise false
+     */
+    public boolean threadFlag(Object identifier)
+    {
+        return getThreadState(true).flag(identifier);
+    }
+
+    /**
+     * test the state of the flag keyed by the supplied object which is private to the current
+     * thread
+     * @param identifier the object identifying the relevant flag
+     * @return true if the flag is set otherwise false
+     */
+    public boolean threadFlagged(Object identifier)
+    {
+        ThreadState state = getThreadState(false);
+        return (state != null && state.flagged(identifier));
+    }
+
+    /**
+     * clear the flag keyed by the supplied object which is private to the current thread if it
+     * is not already clear
+     * @param identifier the object identifying the relevant flag
+     * @return true if the flag was set before this call otherwise false
+     */
+    public boolean threadClear(Object identifier)
+    {
+        ThreadState state = getThreadState(false);
+        return (state != null && state.clear(identifier));
+    }
+
+    /**
+     * read the value of a counter private to the current thread
+     * @param o an identifier used to refer to the counter
+     * @return the value of the counter or 0 if it has not been incremented by this thread
+     */
+    public int readThreadCounter(Object o)
+    {
+        return readThreadCounter(o, false);
+    }
+
+    /**
+     * read and optionally reset to zero the value of a counter private to the current thread
+     * @param o an identifier used to refer to the counter
+     * @param zero if true then zero the counter
+     * @return the value of the counter before any reset or 0 if it has not been incremented by
+     * this thread
+     */
+    public int readThreadCounter(Object o, boolean zero)
+    {
+        ThreadState state = getThreadState(false);
+        return (state != null ? state.readCounter(o, zero) : 0);
+    }
+
+    /**
+     * increment the value of a counter private to the current thread, creating it with initial
+     * value 0 if it does not exist
+     * @param o an identifier used to refer to the counter
+     * @return the value of the counter after the increment
+     */
+    public int incrementThreadCounter(Object o)
+    {
+        return incrementThreadCounter(o, 1);
+    }
+
+    /**
+     * decrement the value of a counter private to the current thread, creating it with initial
+     * value 0 if it does not exist
+     * @param o an identifier used to refer to the counter
+     * @return the value of the counter after the decrement
+     */
+    public int decrementThreadCounter(Object o)
+    {
+        return incrementThreadCounter(o, -1);
+    }
+
+    /**
+     * add an amount to a counter private to the current thread, creating it with initial value 0
+     * if it does not exist
+     * @param o an identifier used to refer to the counter
+     * @param amount the amount to add to the counter
+     * @return the value of the counter after the increment
+     */
+    public int incrementThreadCounter(Object o, int amount)
+    {
+        return getThreadState(true).incrementCounter(o, amount);
+    }
+
+    /**
+     * delete a counter private to the current thread
+     * @param o an identifier used to refer to the counter
+     * @return true if the counter existed otherwise false
+     */
+    public boolean deleteThreadCounter(Object o)
+    {
+        ThreadState state = getThreadState(false);
+        return (state != null && state.deleteCounter(o));
+    }
+
+    /**
+     * add a link from name to value which is private to the current thread
+     * @param name the name of the link
+     * @param value the value to be linked
+     * @return the value previously linked to name by this thread or null
+     */
+    public Object threadLink(Object name, Object value)
+    {
+        return getThreadState(true).link(name, value);
+    }
+
+    /**
+     * retrieve the value linked to name by the current thread
+     * @param name the name of the link
+     * @return the value linked to name by this thread or null
+     */
+    public Object threadLinked(Object name)
+    {
+        ThreadState state = getThreadState(false);
+        return (state != null ? state.linked(name) : null);
+    }
+
+    /**
+     * remove any link from name made by the current thread
+     * @param name the name of the link
+     * @return the value previously linked to name by this thread or null
+     */
+    public Object threadUnlink(Object name)
+    {
+        ThreadState state = getThreadState(false);
+        return (state != null ? state.unlink(name) : null);
+    }
+
+    /**
+     * return a list of the names of all links made by the current thread
+     * @return a possibly zero-length list of names
+     */
+    public List<Object> threadLinkNames()
+    {
+        ThreadState state = getThreadState(false);
+        return (state != null ? state.linkNames() : new ArrayList<Object>());
+    }
+
+    /**
+     * discard all flags, counters and links private to the current thread
+     * @return true if the current thread had any flags, counters or links otherwise false
+     */
+    public boolean clearThreadState()
+    {
+        ThreadState state = getThreadState(false);
+        if (state == null || state.isEmpty()) {
+            return false;
         }
+        state.clear();
+        return true;
+    }
+
+    /**
+     * lookup the flags, counters and links private to the current thread. thread state
+     * belonging to an earlier generation is discarded because static resources have been
+     * cleared since it was created.
+     * @param create true if thread state should be created if it does not exist
+     * @return the thread state or null if it does not exist and create was false
+     */
+    private static ThreadState getThreadState(boolean create)
+    {
+        ThreadState state = threadStates.get();
+        int generation = threadStateGeneration.get();
+        if (state == null || state.getGeneration() != generation) {
+            if (!create) {
+                return null;
+            }
+            state = new ThreadState(generation);
+            threadStates.set(state);
+        }
+        return state;
     }
 
     // countdown support
@@ -536,9 +988,7 @@ public class Helper
      */
     public boolean isCountDown(Object identifier)
     {
-        synchronized (countDownMap) {
-            return (countDownMap.get(identifier) != null);
-        }
+        return countDownMap.containsKey(mapKey(identifier));
     }
 
     /**
@@ -568,14 +1018,7 @@ public class Helper
      */
     public boolean createCountDown(Object identifier, int count)
     {
-        synchronized (countDownMap) {
-            if (countDownMap.get(identifier) == null) {
-                countDownMap.put(identifier, new CountDown(count));
-                return true;
-            }
-        }
-
-        return false;
+        return (countDownMap.putIfAbsent(mapKey(identifier), new CountDown(count)) == null);
     }
 
     /**
@@ -586,20 +1029,14 @@ public class Helper
      */
     public boolean countDown(Object identifier)
     {
-        synchronized (countDownMap) {
-            CountDown countDown = countDownMap.get(identifier);
+        CountDown countDown = countDownMap.get(mapKey(identifier));
 
-            if (countDown != null) {
-                boolean result = countDown.decrement();
-                if (result) {
-                    countDownMap.remove(identifier);
-                }
-                return result;
-            }
+        if (countDown != null && countDown.decrement()) {
+            // we must only fire a decrement event once for a given counter so only
+            // the thread which succeeds in uninstalling the countdown returns true
+            return countDownMap.remove(mapKey(identifier), countDown);
         }
 
-        // we must only fire a decrement event once for a given counter
-
         return false;
     }
 
@@ -702,36 +1139,27 @@ public class Helper
             return false;
         } else {
             Waiter waiter;
-            // may need to do test and insert atomically
-            synchronized (waitMap) {
+            // either signal an existing waiter or atomically insert a pre-signalled waiter
+            while (true) {
                 // see if we have a waiter
-                 waiter = removeWaiter(identifier);
+                waiter = removeWaiter(identifier);
 
                 if (waiter != null) {
                     return waiter.signalWake();
-                } else {
-                    // insert a pre-signalled waiter
-                    waiter = new Waiter(identifier, true, false);
-                    waitMap.put(identifier, waiter);
+                }
+                // insert a pre-signalled waiter
+                waiter = new Waiter(identifier, true, false);
+                if (waitMap.putIfAbsent(mapKey(identifier), waiter) == null) {
+                    break;
                 }
             }
 
             // ok, so we need to wait until a wait has happened
 
-            synchronized (waiter) {
-                while (!waiter.waiting()) {
-                    try {
-                        waiter.wait();
-                    } catch (InterruptedException e) {
-                        // do nothing
-                    }
-                }
-            }
+            waiter.awaitWaiting();
 
             // remove the association between the waiter and the wait map
-            synchronized (waitMap) {
-                removeWaiter(identifier);
-            }
+            waitMap.remove(mapKey(identifier), waiter);
             return true;
         }
     }
@@ -820,35 +1248,27 @@ public class Helper
             return false;
         } else {
             Waiter waiter;
-            // may need to do test and insert atomically
-            synchronized (waitMap) {
+            // either signal an existing waiter or atomically insert a pre-signalled waiter
+            while (true) {
                 // see if we have a waiter
-                 waiter = removeWaiter(identifier);
+                waiter = removeWaiter(identifier);
 
                 if (waiter != null) {
                     return waiter.signalThrow();
-                } else {
-                    // insert a pre-signalled waiter
-                    waiter = new Waiter(identifier, true, false);
-                    waitMap.put(identifier, waiter);
+                }
+                // insert a pre-signalled waiter
+                waiter = new Waiter(identifier, true, false);
+                if (waitMap.putIfAbsent(mapKey(identifier), waiter) == null) {
+                    break;
                 }
             }
 
             // ok, so we need to wait until a wait has happened
 
-            synchronized (waiter) {
-                while (!waiter.waiting()) {
-                    try {
-                        waiter.wait();
-                    } catch (InterruptedException e) {
-                        // do nothing
-                    }
-                }
-            }
+            waiter.awaitWaiting();
+
             // remove the association between the waiter and the wait map
-            synchronized (waitMap) {
-                removeWaiter(identifier);
-            }
+            waitMap.remove(mapKey(identifier), waiter);
             return true;
         }
     }
@@ -895,16 +1315,7 @@ public class Helper
     public boolean createRendezvous(Object identifier, int expected, boolean restartable)
     {
         // need to do this atomically
-        synchronized (rendezvousMap) {
-            Rendezvous rendezvous = rendezvousMap.get(identifier);
-            if (rendezvous !=  null) {
-                return false;
-            }
-            rendezvous = new Rendezvous(expected, restartable);
-            rendezvousMap.put(identifier, rendezvous);
-        }
-
-        return true;
+        return (rendezvousMap.putIfAbsent(mapKey(identifier), new Rendezvous(expected, restartable)) == null);
     }
 
     /**
@@ -929,12 +1340,15 @@ public class Helper
      */
     public int getRendezvous(Object identifier, int expected)
     {
-        Rendezvous rendezvous = rendezvousMap.get(identifier);
+        Rendezvous rendezvous = rendezvousMap.get(mapKey(identifier));
         if (rendezvous == null || rendezvous.getExpected() != expected) {
             return -1;
         }
-        synchronized (rendezvous) {
+        rendezvous.lock();
+        try {
             return rendezvous.getArrived();
+        } finally {
+            rendezvous.unlock();
         }
     }
 
@@ -962,20 +1376,23 @@ public class Helper
      */
     public int rendezvous(Object identifier, long millis)
     {
-        Rendezvous rendezvous = rendezvousMap.get(identifier);
+        Rendezvous rendezvous = rendezvousMap.get(mapKey(identifier));
 
         if (rendezvous !=  null) {
-            synchronized(rendezvous) {
+            rendezvous.lock();
+            try {
                 int result = rendezvous.rendezvous(millis);
                 // make sure the rendezvous is removed from the map if required
                 // n.b. this implementation makes sure the remove happens before any thread
                 // successfully passes the rendezvous call
                 if (rendezvous.needsRemove()) {
-                    rendezvousMap.remove(identifier);
+                    rendezvousMap.remove(mapKey(identifier), rendezvous);
                     rendezvous.setRemoved();
                 }
 
                 return result;
+            } finally {
+                rendezvous.unlock();
             }
         }
 
@@ -991,17 +1408,20 @@ public class Helper
     */
     public boolean deleteRendezvous(Object identifier, int expected)
     {
-        Rendezvous rendezvous = rendezvousMap.get(identifier);
+        Rendezvous rendezvous = rendezvousMap.get(mapKey(identifier));
         if (rendezvous == null || rendezvous.getExpected() != expected) {
             return false;
         }
-        synchronized (rendezvous) {
+        rendezvous.lock();
+        try {
             if (rendezvous.delete()) {
                 if (rendezvous.needsRemove()) {
-                    rendezvousMap.remove(identifier);
+                    rendezvousMap.remove(mapKey(identifier), rendezvous);
                 }
                 return true;
             }
+        } finally {
+            rendezvous.unlock();
         }
         // hmm, completed before we got there
         return false;
@@ -1013,36 +1433,19 @@ public class Helper
             return false;
         }
 
-        synchronized(joinerMap) {
-            if (joinerMap.get(key) != null) {
-                return false;
-            }
-            joinerMap.put(key, new Joiner(max));
-        }
-
-        return true;
+        return (joinerMap.putIfAbsent(mapKey(key), new Joiner(max)) == null);
     }
 
     public boolean isJoin(Object key, int max)
     {
-        synchronized(joinerMap) {
-            Joiner joiner = joinerMap.get(key);
+        Joiner joiner = joinerMap.get(mapKey(key));
 
-            if (joiner == null || joiner.getMax() != max) {
-                return false;
-            }
-        }
-
-        return true;
+        return (joiner != null && joiner.getMax() == max);
     }
 
     public boolean joinEnlist(Object key)
     {
-        Joiner joiner;
-        synchronized (joinerMap)
-        {
-            joiner = joinerMap.get(key);
-        }
+        Joiner joiner = joinerMap.get(mapKey(key));
 
         if (joiner == null) {
             return false;
@@ -1067,9 +1470,7 @@ public class Helper
             default:
             {
                 // added child and parent was waiting so remove joiner from map now
-                synchronized (joinerMap) {
-                    joinerMap.remove(key);
-                }
+                joinerMap.remove(mapKey(key), joiner);
                 return true;
             }
         }
@@ -1081,11 +1482,7 @@ public class Helper
     }
     public boolean joinWait(Object key, int count, long millis)
     {
-        Joiner joiner;
-        synchronized (joinerMap)
-        {
-            joiner = joinerMap.get(key);
-        }
+        Joiner joiner = joinerMap.get(mapKey(key));
 
         if (joiner == null || joiner.getMax() != count) {
             return false;
@@ -1095,9 +1492,7 @@ public class Helper
 
         if (joiner.joinChildren(current, millis)) {
             // successfully joined all child threads so remove joiner form map
-            synchronized (joinerMap) {
-                joinerMap.remove(key);
-            }
+            joinerMap.remove(mapKey(key), joiner);
             return true;
         } else {
             // hmm, another thread must have done the join so leave it do the remove
@@ -1105,7 +1500,7 @@ public class Helper
         }
     }
 
-    private static HashMap<Object, Joiner> joinerMap = new HashMap<Object, Joiner>();
+    private static ConcurrentHashMap<Object, Joiner> joinerMap = new ConcurrentHashMap<Object, Joiner>();
 
     // counter support
     /**
@@ -1126,15 +1521,7 @@ public class Helper
      */
     public boolean createCounter(Object o, int value)
     {
-        synchronized (counterMap) {
-            Counter counter = counterMap.get(o);
-            if  (counter != null) {
-                return false;
-            } else {
-                counterMap.put(o, new Counter(value));
-                return true;
-            }
-        }
+        return counterMap.putIfAbsent(mapKey(o), new Counter(value)) == null;
     }
 
     /**
@@ -1144,15 +1531,7 @@ public class Helper
      */
     public boolean deleteCounter(Object o)
     {
-        synchronized (counterMap) {
-            Counter counter = counterMap.get(o);
-            if  (counter != null) {
-                counterMap.remove(o);
-                return true;
-            } else {
-                return false;
-            }
-        }
+        return counterMap.remove(mapKey(o)) != null;
     }
 
     /**
@@ -1173,129 +1552,406 @@ public class Helper
      * @param zero if true then zero the counter
      * @return the value of the counter
      */
-    public int readCounter(Object o, boolean zero)
+    public int readCounter(Object o, boolean zero)
+    {
+        return ensureCounter(o).count(zero);
+    }
+
+    /**
+     * increment the value of the counter associated with given identifier, creating a new one with count zero
+     * if none exists
+     * @param o the identifier for the counter
+     * @return the value of the counter after the increment
+     */
+    public int incrementCounter(Object o)
+    {
+        return incrementCounter(o, 1);
+    }
+
+    /**
+     * decrement the value of the counter associated with given identifier, creating a new one with count zero
+     * if none exists
+     * @param o the identifier for the counter
+     * @return the value of the counter after the decrement
+     */
+    public int decrementCounter(Object o)
+    {
+        return incrementCounter(o, -1);
+    }
+
+    /**
+     * increment the value of the counter associated with given identifier by the given amount, creating a new one
+     * with count zero if none exists
+     * @param o the identifier for the counter
+     * @param amount the amount to add to the counter
+     * @return the value of the counter after the increment
+     */
+    public int incrementCounter(Object o, int amount)
+    {
+        return ensureCounter(o).increment(amount);
+    }
+
+    /**
+     * read the values of all existing counters
+     * @return a map from counter identifier to counter value
+     */
+    public Map<Object, Integer> readAllCounters()
+    {
+        return readAllCounters(false);
+    }
+
+    /**
+     * read and optionally reset to zero the values of all existing counters. each counter is read
+     * and reset atomically but the counters are not all read at the same instant.
+     * @param zero if true then zero each counter as it is read
+     * @return a map from counter identifier to counter value
+     */
+    public Map<Object, Integer> readAllCounters(boolean zero)
+    {
+        HashMap<Object, Integer> result = new HashMap<Object, Integer>();
+        for (Map.Entry<Object, Counter> entry : counterMap.entrySet()) {
+            Object key = entry.getKey();
+            result.put((key == NULL_KEY ? null : key), entry.getValue().count(zero));
+        }
+        return result;
+    }
+
+    /**
+     * reset the values of all existing counters to zero
+     * @return the number of counters which were reset
+     */
+    public int resetAllCounters()
+    {
+        int reset = 0;
+        for (Counter counter : counterMap.values()) {
+            counter.count(true);
+            reset++;
+        }
+        return reset;
+    }
+
+    /**
+     * delete all existing counters
+     * @return the number of counters which were deleted
+     */
+    public int deleteAllCounters()
+    {
+        int deleted = 0;
+        for (Object key : counterMap.keySet()) {
+            if (counterMap.remove(key) != null) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * lookup the counter for a given identifier creating it with count zero if it does not exist
+     * @param o the identifier for the counter
+     * @return the counter
+     */
+    private static Counter ensureCounter(Object o)
+    {
+        Object key = mapKey(o);
+        Counter counter = counterMap.get(key);
+        if (counter == null) {
+            Counter newCounter = new Counter();
+            counter = counterMap.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * concurrent maps do not accept null keys so a null identifier is mapped to a private key
+     * @param o the identifier for a counter, timer, histogram or synchronization object
+     * @return the key used to index the map which holds the identified object
+     */
+    static Object mapKey(Object o)
+    {
+        return (o == null ? NULL_KEY : o);
+    }
+
+    // timer support
+    /**
+     * create a timer identified by the given object
+     * @param o an identifier used to refer to the timer in future
+     * @return true if a new timer was created and false if one already existed under the given identifier
+     */
+    public boolean createTimer(Object o)
+    {
+        return timerMap.putIfAbsent(mapKey(o), new Timer()) == null;
+    }
+
+    /**
+     * delete a timer identified by the given object
+     * @param o the identifier for the timer
+     * @return true if a timer was deleted and false if no timer existed under the given identifier
+     */
+    public boolean deleteTimer(Object o)
+    {
+        return timerMap.remove(mapKey(o)) != null;
+    }
+
+    /**
+     * get the elapsed time from the start (or last reset) of timer associated with given identifier,
+     * creating a new one if none exists
+     * @param o the identifier for the timer
+     * @return the elapsed time in milliseconds since the start (or reset) of the timer
+     */
+    public long getElapsedTimeFromTimer(Object o)
+    {
+        return ensureTimer(o).getElapsedTime();
+    }
+
+    /**
+     * get the elapsed time from the start (or last reset) of timer associated with given identifier,
+     * creating a new one if none exists
+     * @param o the identifier for the timer
+     * @return the elapsed time in nanoseconds since the start (or reset) of the timer
+     */
+    public long getElapsedNanosFromTimer(Object o)
+    {
+        return ensureTimer(o).getElapsedNanos();
+    }
+
+    /**
+     * reset the timer associated with given identifier, creating a new one
+     * if none exists
+     * @param o the identifier for the timer
+     * @return the current elapsed value of the timer in milliseconds before the reset
+     */
+    public long resetTimer(Object o)
+    {
+        return ensureTimer(o).reset();
+    }
+
+    /**
+     * reset the timer associated with given identifier, creating a new one
+     * if none exists
+     * @param o the identifier for the timer
+     * @return the current elapsed value of the timer in nanoseconds before the reset
+     */
+    public long resetTimerNanos(Object o)
+    {
+        return ensureTimer(o).resetNanos();
+    }
+
+    /**
+     * lookup the timer identified by the given object, creating a new one if none exists
+     * @param o the identifier for the timer
+     * @return the timer
+     */
+    private static Timer ensureTimer(Object o)
+    {
+        Object key = mapKey(o);
+        Timer timer = timerMap.get(key);
+        if (timer == null) {
+            Timer newTimer = new Timer();
+            timer = timerMap.putIfAbsent(key, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+
+    // histogram support
+    /**
+     * create a histogram identified by the given object
+     * @param o an identifier used to refer to the histogram in future
+     * @return true if a new histogram was created and false if one already existed under the given
+     * identifier
+     */
+    public boolean createHistogram(Object o)
+    {
+        return histogramMap.putIfAbsent(mapKey(o), new Histogram()) == null;
+    }
+
+    /**
+     * delete a histogram identified by the given object
+     * @param o the identifier for the histogram
+     * @return true if a histogram was deleted and false if no histogram existed under the given
+     * identifier
+     */
+    public boolean deleteHistogram(Object o)
+    {
+        return histogramMap.remove(mapKey(o)) != null;
+    }
+
+    /**
+     * record a value in the histogram identified by the given object, creating a new one if none
+     * exists
+     * @param o the identifier for the histogram
+     * @param value the value to record
+     * @return true
+     */
+    public boolean recordHistogram(Object o, long value)
+    {
+        ensureHistogram(o).record(value);
+        return true;
+    }
+
+    /**
+     * record the elapsed time in nanoseconds of the timer identified by timer in the histogram
+     * identified by the given object, resetting the timer and creating a new timer or histogram
+     * if none exists
+     * @param o the identifier for the histogram
+     * @param timer the identifier for the timer
+     * @return the elapsed time recorded
+     */
+    public long recordHistogramFromTimer(Object o, Object timer)
+    {
+        long elapsed = ensureTimer(timer).resetNanos();
+        ensureHistogram(o).record(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * read the number of values recorded in the histogram identified by the given object
+     * @param o the identifier for the histogram
+     * @return the number of values recorded or 0 if no histogram exists
+     */
+    public long readHistogramCount(Object o)
+    {
+        Histogram histogram = histogramMap.get(mapKey(o));
+        return (histogram == null ? 0 : histogram.getCount());
+    }
+
+    /**
+     * read an estimate of the given percentile of the values recorded in the histogram identified
+     * by the given object
+     * @param o the identifier for the histogram
+     * @param percentile the percentile required, between 0 and 100
+     * @return the estimated value or 0 if no histogram exists or no values have been recorded
+     */
+    public long readHistogramPercentile(Object o, double percentile)
     {
-        synchronized (counterMap) {
-            Counter counter = counterMap.get(o);
-            if (counter == null) {
-                counter = new Counter();
-                counterMap.put(o, counter);
-            }
-            return counter.count(zero);
-        }
+        Histogram histogram = histogramMap.get(mapKey(o));
+        return (histogram == null ? 0 : histogram.getPercentile(percentile));
     }
 
     /**
-     * increment the value of the counter associated with given identifier, creating a new one with count zero
-     * if none exists
-     * @param o the identifier for the counter
-     * @return the value of the counter after the increment
+     * return a summary of the values recorded in the histogram identified by the given object
+     * @param o the identifier for the histogram
+     * @return a summary listing count, min, mean, 50th, 90th, 99th and 99.9th percentile and max
+     * or null if no histogram exists
      */
-    public int incrementCounter(Object o)
+    public String readHistogram(Object o)
     {
-        return incrementCounter(o, 1);
+        return readHistogram(o, false);
     }
 
     /**
-     * decrement the value of the counter associated with given identifier, creating a new one with count zero
-     * if none exists
-     * @param o the identifier for the counter
-     * @return the value of the counter after the decrement
+     * return a summary of the values recorded in the histogram identified by the given object
+     * @param o the identifier for the histogram
+     * @param reset true if the histogram should be reset as it is read
+     * @return a summary listing count, min, mean, 50th, 90th, 99th and 99.9th percentile and max
+     * or null if no histogram exists
      */
-    public int decrementCounter(Object o)
+    public String readHistogram(Object o, boolean reset)
     {
-        return incrementCounter(o, -1);
+        Histogram histogram = histogramMap.get(mapKey(o));
+        return (histogram == null ? null : histogram.snapshot(reset).toString());
     }
 
     /**
-     * increment the value of the counter associated with given identifier by the given amount, creating a new one
-     * with count zero if none exists
-     * @param o the identifier for the counter
-     * @param amount the amount to add to the counter
-     * @return the value of the counter after the increment
+     * discard all values recorded in the histogram identified by the given object
+     * @param o the identifier for the histogram
+     * @return true if the histogram was reset and false if no histogram exists
      */
-    public int incrementCounter(Object o, int amount)
+    public boolean resetHistogram(Object o)
     {
-        synchronized (counterMap) {
-            Counter counter = counterMap.get(o);
-            if (counter == null) {
-                counter = new Counter();
-                counterMap.put(o, counter);
-            }
-            return counter.increment(amount);
+        Histogram histogram = histogramMap.get(mapKey(o));
+        if (histogram == null) {
+            return false;
         }
+        histogram.reset();
+        return true;
     }
 
-    // timer support
     /**
-     * create a timer identified by the given object
-     * @param o an identifier used to refer to the timer in future
-     * @return true if a new timer was created and false if one already existed under the given identifier
+     * write a summary of every histogram to the trace stream identified by identifier, one line
+     * per histogram
+     * @param identifier an identifier used to identify the trace output stream
+     * @return true
      */
-    public boolean createTimer(Object o)
+    public boolean dumpHistograms(Object identifier)
     {
-        synchronized (timerMap) {
-            Timer timer = timerMap.get(o);
-            if  (timer != null) {
-                return false;
-            } else {
-                timerMap.put(o, new Timer());
-                return true;
-            }
-        }
+        doDumpHistograms(identifier, false);
+        return true;
     }
 
     /**
-     * delete a timer identified by the given object
-     * @param o the identifier for the timer
-     * @return true if a timer was deleted and false if no timer existed under the given identifier
+     * periodically write a summary of every histogram to the trace stream identified by
+     * identifier, replacing any periodic dump already scheduled. each dump resets the histograms
+     * so every summary covers values recorded in the preceding period.
+     * @param identifier an identifier used to identify the trace output stream
+     * @param millis the period between dumps or 0 to cancel periodic dumps
+     * @return true if a previously scheduled periodic dump was cancelled otherwise false
      */
-    public boolean deleteTimer(Object o)
+    public boolean dumpHistograms(final Object identifier, long millis)
     {
-        synchronized (timerMap) {
-            Timer timer = timerMap.get(o);
-            if  (timer != null) {
-                timerMap.remove(o);
-                return true;
-            } else {
-                return false;
+        synchronized (histogramMap) {
+            boolean cancelled = false;
+            if (histogramDump != null) {
+                histogramDump.cancel(false);
+                histogramDump = null;
+                cancelled = true;
+            }
+            if (millis > 0) {
+                if (histogramDumper == null) {
+                    histogramDumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "Byteman histogram dump") {
+                                public void run() {
+                                    // we don't want to see any triggers in the dump thread
+                                    Rule.disableTriggersInternal();
+                                    super.run();
+                                }
+                            };
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+                histogramDump = histogramDumper.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        doDumpHistograms(identifier, true);
+                    }
+                }, millis, millis, TimeUnit.MILLISECONDS);
             }
+            return cancelled;
         }
     }
 
     /**
-     * get the elapsed time from the start (or last reset) of timer associated with given identifier,
-     * creating a new one if none exists
-     * @param o the identifier for the timer
-     * @return the elapsed time since the start (or reset) of the timer
+     * lookup the histogram identified by the given object, creating a new one if none exists
+     * @param o the identifier for the histogram
+     * @return the histogram
      */
-    public long getElapsedTimeFromTimer(Object o)
+    private static Histogram ensureHistogram(Object o)
     {
-        synchronized (timerMap) {
-            Timer timer = timerMap.get(o);
-            if (timer == null) {
-                timer = new Timer();
-                timerMap.put(o, timer);
+        Object key = mapKey(o);
+        Histogram histogram = histogramMap.get(key);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = histogramMap.putIfAbsent(key, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
             }
-            return timer.getElapsedTime();
         }
+        return histogram;
     }
 
-    /**
-     * reset the timer associated with given identifier, creating a new one
-     * if none exists
-     * @param o the identifier for the timer
-     * @return the current elapsed value of the timer before the reset
-     */
-    public long resetTimer(Object o)
+    private static void doDumpHistograms(Object identifier, boolean reset)
     {
-        synchronized (timerMap) {
-            Timer timer = timerMap.get(o);
-            if (timer == null) {
-                timer = new Timer();
-                timerMap.put(o, timer);
-            }
-            return timer.reset();
+        for (Map.Entry<Object, Histogram> entry : histogramMap.entrySet()) {
+            Object key = entry.getKey();
+            String name = (key == NULL_KEY ? "null" : key.toString());
+            dotraceln(identifier, "histogram " + name + " " + entry.getValue().snapshot(reset));
         }
     }
 
@@ -1308,7 +1964,38 @@ public class Helper
      */
     public boolean createLinkMap(Object mapName)
     {
-        return (linkMaps.putIfAbsent(mapName, new HashMap<Object, Object>()) == null);
+        return (linkMaps.putIfAbsent(mapName, new LinkMap()) == null);
+    }
+
+    /**
+     * create a LinkMap used to store links between names and values which discards links once it
+     * exceeds a maximum size or once they exceed a time to live
+     * @param mapName the identifier for the map
+     * @param maxSize the maximum number of links retained, oldest links being evicted first, or 0
+     * if the number of links is unbounded
+     * @param ttlMillis the time in milliseconds after which a link is discarded or 0 if links are
+     * retained until they are unlinked
+     * @return true if a new map was created and false if one already existed under the given identifier
+     */
+    public boolean createLinkMap(Object mapName, int maxSize, long ttlMillis)
+    {
+        return createLinkMap(mapName, maxSize, ttlMillis, false);
+    }
+
+    /**
+     * create a LinkMap used to store links between names and values which discards links once it
+     * exceeds a maximum size, once they exceed a time to live or once their name is garbage collected
+     * @param mapName the identifier for the map
+     * @param maxSize the maximum number of links retained, oldest links being evicted first, or 0
+     * if the number of links is unbounded
+     * @param ttlMillis the time in milliseconds after which a link is discarded or 0 if links are
+     * retained until they are unlinked
+     * @param weakKeys true if a link should be discarded once its name is no longer strongly reachable
+     * @return true if a new map was created and false if one already existed under the given identifier
+     */
+    public boolean createLinkMap(Object mapName, int maxSize, long ttlMillis, boolean weakKeys)
+    {
+        return (linkMaps.putIfAbsent(mapName, new LinkMap(maxSize, ttlMillis, weakKeys)) == null);
     }
 
     /**
@@ -1332,15 +2019,20 @@ public class Helper
      */
     public Object link(Object mapName, Object name, Object value)
     {
-        HashMap<Object, Object> map = linkMaps.get(mapName);
+        LinkMap map = linkMaps.get(mapName);
         if (map == null) {
-            HashMap<Object, Object> newMap = new HashMap<Object, Object>();
+            LinkMap newMap = new LinkMap();
             map  = linkMaps.putIfAbsent(mapName, newMap);
             if (map == null) {
                 map = newMap;
             }
         }
-        return map.put(name, value);
+        int evicted = (int) map.getEvicted();
+        Object result = map.put(name, value);
+        if (evicted == 0 && map.getEvicted() > 0) {
+            verbose("Helper.link : link map " + mapName + " has reached its maximum size and is evicting links");
+        }
+        return result;
     }
 
     /**
@@ -1353,11 +2045,9 @@ public class Helper
      */
     public Object linked(Object mapName, Object name)
     {
-        HashMap<Object, Object> map = linkMaps.get(mapName);
+        LinkMap map = linkMaps.get(mapName);
         if (map != null) {
-            synchronized (map) {
-                return map.get(name);
-            }
+            return map.get(name);
         }
         return null;
     }
@@ -1372,66 +2062,38 @@ public class Helper
      */
     public Object unlink(Object mapName, Object name)
     {
-        HashMap<Object, Object> map = linkMaps.get(mapName);
+        LinkMap map = linkMaps.get(mapName);
         if (map != null) {
-            synchronized (map) {
-                return map.remove(name);
-            }
+            return map.remove(name);
         }
         return null;
     }
 
     /**
-     * atomically return a list of all keys for current links in the map named by mapName
+     * return a list of all keys for current links in the map named by mapName
      * @param mapName the name of the map to retrieve keys from
      * @return a possibly zero-length list of all keys or null if the named map is not found
      */
     public List<Object> linkNames(Object mapName)
     {
-        HashMap<Object, Object> map = linkMaps.get(mapName);
+        LinkMap map = linkMaps.get(mapName);
         if (map != null) {
-            synchronized(map) {
-                Set<Object> keySet = map.keySet();
-
-                int size = keySet.size();
-                if(size == 0) {
-                    return Collections.EMPTY_LIST;
-                } else {
-                    ArrayList<Object> list = new ArrayList<Object>(size);
-                    for (Object key : keySet) {
-                        list.add(key);
-                    }
-                    return list;
-                }
-            }
+            return map.names();
         } else {
             return null;
         }
     }
 
     /**
-     * atomically return a list of all values for current links in the map named by mapName
+     * return a list of all values for current links in the map named by mapName
      * @param mapName the name of the map to retrieve values from
      * @return a possibly zero-length list of all values or null if the named map is not found
      */
     public List<Object> linkValues(Object mapName)
     {
-        HashMap<Object, Object> map = linkMaps.get(mapName);
+        LinkMap map = linkMaps.get(mapName);
         if (map != null) {
-            synchronized (map) {
-                Collection<Object> values = map.values();
-
-                int size = values.size();
-                if(size == 0) {
-                    return Collections.EMPTY_LIST;
-                } else {
-                    ArrayList<Object> list = new ArrayList<Object>(size);
-                    for (Object key : values) {
-                        list.add(key);
-                    }
-                    return list;
-                }
-            }
+            return map.values();
         } else {
             return null;
         }
@@ -1444,17 +2106,30 @@ public class Helper
      */
     public boolean clearLinks(Object mapName)
     {
-        HashMap<Object, Object> map = linkMaps.get(mapName);
+        LinkMap map = linkMaps.get(mapName);
         if(map != null) {
-            synchronized (map) {
-                boolean result = !map.isEmpty();
-                map.clear();
-                return result;
-            }
+            return map.clear();
         }
         return false;
     }
 
+    /**
+     * return a summary of the number of links in the map named by mapName and of the number of
+     * links which have been discarded because the map exceeded its maximum size, because they
+     * exceeded their time to live or because their name was garbage collected
+     * @param mapName the name of the map
+     * @return a String of the form "size N evicted N expired N collected N" or null if the named
+     * map is not found
+     */
+    public String linkMapStatistics(Object mapName)
+    {
+        LinkMap map = linkMaps.get(mapName);
+        if (map != null) {
+            return map.toString();
+        }
+        return null;
+    }
+
     // default link support
 
     /**
@@ -1855,19 +2530,32 @@ public class Helper
                                boolean includeClass, boolean includePackage,
                                int startFrame, int frameCount)
     {
+        if (startFrame < 0) {
+            return false;
+        }
+        if (callerStack != null) {
+            int matched = callerStack.matchFrame(new CallerMatcher(match, isRegExp, includeClass, includePackage),
+                    startFrame, frameCount);
+            if (matched == CallerStack.NO_TRIGGER_FRAME) {
+                // illegal usage
+                new ExecuteException("Helper.callerCheck : can only be called below Rule.execute()").printStackTrace();
+            }
+            return (matched >= 0);
+        }
         StackTraceElement[] stack = getStack();
         int triggerIndex = triggerIndex(stack);
-        if (startFrame < 0) {
+        if (triggerIndex < 0) {
             return false;
         }
-        int lastIndex;
+        int limit;
         if (frameCount <= 0) {
-            lastIndex = Integer.MAX_VALUE;
+            // n.b. adding triggerIndex to Integer.MAX_VALUE would overflow
+            limit = stack.length;
         } else {
-            lastIndex = startFrame + frameCount;
+            limit = triggerIndex + startFrame + frameCount;
         }
         int matched = matchIndex(stack, match, isRegExp, includeClass, includePackage,
-                triggerIndex + startFrame, triggerIndex + lastIndex);
+                triggerIndex + startFrame, limit);
 
         return (matched >= 0);
     }
@@ -2860,6 +3548,16 @@ public class Helper
     public String formatStack(String prefix, int maxFrames)
     {
         StringBuffer buffer = new StringBuffer();
+        if (callerStack != null) {
+            StackTraceElement[] frames = callerStack.getFrames(maxFrames);
+            if (frames == null) {
+                // illegal usage
+                new ExecuteException("Helper.formatStack : can only be called below Rule.execute()").printStackTrace();
+            } else {
+                appendFrames(buffer, prefix, maxFrames, Thread.currentThread(), frames, 0);
+            }
+            return buffer.toString();
+        }
         appendStack(buffer, prefix, maxFrames, Thread.currentThread(), getStack());
         return buffer.toString();
     }
@@ -2992,7 +3690,6 @@ public class Helper
     }
 
     private void appendStack(StringBuffer buffer, String prefix, int maxFrames, Thread thread, StackTraceElement[] stack) {
-        int l = stack.length;
         int i;
 
     	if (thread == Thread.currentThread()) {
@@ -3004,6 +3701,11 @@ public class Helper
     	} else {
     		i = 0;
     	}
+        appendFrames(buffer, prefix, maxFrames, thread, stack, i);
+    }
+
+    private void appendFrames(StringBuffer buffer, String prefix, int maxFrames, Thread thread, StackTraceElement[] stack, int i) {
+        int l = stack.length;
 
     	if (prefix != null) {
     		buffer.append(prefix);
@@ -3027,6 +3729,197 @@ public class Helper
         }
     }
 
+    //
+    // low allocation thread dumps
+
+    /**
+     * the number of threads whose details are retrieved from the thread MX bean in one call
+     * when generating a thread dump
+     */
+    private final static int THREAD_DUMP_BATCH_SIZE = 64;
+
+    /**
+     * print a dump of all threads' stacks to System.out by calling traceThreadDump("out")
+     * @return the number of threads included in the dump
+     */
+    public int traceThreadDump()
+    {
+        return traceThreadDump("out");
+    }
+
+    /**
+     * print a dump of all threads' stacks to the trace stream identified by key by calling
+     * traceThreadDump(key, 0)
+     * @param key an object identifying the trace stream to which output should be generated
+     * @return the number of threads included in the dump
+     */
+    public int traceThreadDump(Object key)
+    {
+        return traceThreadDump(key, 0);
+    }
+
+    /**
+     * print a dump of all threads' stacks to the trace stream identified by key by calling
+     * traceThreadDump(key, maxFrames, null, null, false)
+     * @param key an object identifying the trace stream to which output should be generated
+     * @param maxFrames the maximum number of frames to print for each thread or 0 if no limit
+     * should apply
+     * @return the number of threads included in the dump
+     */
+    public int traceThreadDump(Object key, int maxFrames)
+    {
+        return traceThreadDump(key, maxFrames, null, null, false);
+    }
+
+    /**
+     * print a dump of the stacks of selected threads to the trace stream identified by key. unlike
+     * traceAllStacks this retrieves thread details from the platform thread MX bean in small
+     * batches, only asks for as many frames as will be printed, filters threads before
+     * retrieving their stacks and writes each thread's details to the trace stream as soon as
+     * they have been formatted. so, the cost of the dump is proportional to the number of
+     * threads selected and no String containing the complete dump is ever created.
+     *
+     * @param key an object identifying the trace stream to which output should be generated
+     * @param maxFrames the maximum number of frames to print for each thread or 0 if no limit
+     * should apply
+     * @param nameRegExp a regular expression which must match the name of a thread for it to be
+     * included in the dump or null if threads should not be filtered by name
+     * @param state the name of a Thread.State which a thread must be in for it to be included in the
+     * dump, ignoring case, or null if threads should not be filtered by state
+     * @param lockInfo true if the monitors and ownable synchronizers locked by each thread should
+     * be included in the dump. n.b. the thread MX bean cannot bound the stack depth when
+     * asked for lock details so full stacks are retrieved in this case.
+     * @return the number of threads included in the dump
+     */
+    public int traceThreadDump(Object key, int maxFrames, String nameRegExp, String state, boolean lockInfo)
+    {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Pattern pattern = (nameRegExp == null ? null : Pattern.compile(nameRegExp));
+        Thread.State threadState = (state == null ? null : Thread.State.valueOf(state.toUpperCase()));
+        boolean filter = (pattern != null || threadState != null);
+        boolean lockedMonitors = lockInfo && threadBean.isObjectMonitorUsageSupported();
+        boolean lockedSynchronizers = lockInfo && threadBean.isSynchronizerUsageSupported();
+        int maxDepth = (maxFrames > 0 ? maxFrames : Integer.MAX_VALUE);
+        long currentId = Thread.currentThread().getId();
+
+        long[] allIds = threadBean.getAllThreadIds();
+        long[] batch = new long[THREAD_DUMP_BATCH_SIZE];
+        StringBuffer buffer = new StringBuffer();
+        int count = 0;
+
+        for (int start = 0; start < allIds.length; start += THREAD_DUMP_BATCH_SIZE) {
+            int end = Math.min(start + THREAD_DUMP_BATCH_SIZE, allIds.length);
+            int selected = 0;
+            if (filter) {
+                // retrieve details without any stack frames to decide which threads to dump
+                long[] ids = (end - start == batch.length ? batch : new long[end - start]);
+                System.arraycopy(allIds, start, ids, 0, end - start);
+                ThreadInfo[] infos = threadBean.getThreadInfo(ids, 0);
+                for (int i = 0; i < infos.length; i++) {
+                    ThreadInfo info = infos[i];
+                    if (info != null &&
+                            (pattern == null || pattern.matcher(info.getThreadName()).matches()) &&
+                            (threadState == null || info.getThreadState() == threadState)) {
+                        batch[selected++] = info.getThreadId();
+                    }
+                }
+            } else {
+                System.arraycopy(allIds, start, batch, 0, end - start);
+                selected = end - start;
+            }
+            if (selected == 0) {
+                continue;
+            }
+            long[] ids = batch;
+            if (selected < batch.length) {
+                ids = new long[selected];
+                System.arraycopy(batch, 0, ids, 0, selected);
+            }
+            ThreadInfo[] infos;
+            if (lockInfo) {
+                infos = threadBean.getThreadInfo(ids, lockedMonitors, lockedSynchronizers);
+            } else {
+                infos = threadBean.getThreadInfo(ids, maxDepth);
+            }
+            for (int i = 0; i < infos.length; i++) {
+                ThreadInfo info = infos[i];
+                if (info == null) {
+                    // thread has exited since we obtained its id
+                    continue;
+                }
+                int first = 0;
+                if (info.getThreadId() == currentId) {
+                    // the trigger frames sit on top of the stack so we need all of it to trim them off
+                    if (!lockInfo && maxDepth != Integer.MAX_VALUE) {
+                        info = threadBean.getThreadInfo(currentId, Integer.MAX_VALUE);
+                    }
+                    first = Math.max(triggerIndex(info.getStackTrace()), 0);
+                }
+                buffer.setLength(0);
+                appendThreadInfo(buffer, info, first, maxFrames);
+                buffer.append('\n');
+                dotrace(key, buffer.toString());
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private void appendThreadInfo(StringBuffer buffer, ThreadInfo info, int first, int maxFrames)
+    {
+        buffer.append('"');
+        buffer.append(info.getThreadName());
+        buffer.append("\" Id=");
+        buffer.append(info.getThreadId());
+        buffer.append(' ');
+        buffer.append(info.getThreadState());
+        if (info.getLockName() != null) {
+            buffer.append(" on ");
+            buffer.append(info.getLockName());
+        }
+        if (info.getLockOwnerName() != null) {
+            buffer.append(" owned by \"");
+            buffer.append(info.getLockOwnerName());
+            buffer.append("\" Id=");
+            buffer.append(info.getLockOwnerId());
+        }
+        buffer.append('\n');
+
+        StackTraceElement[] stack = info.getStackTrace();
+        MonitorInfo[] monitors = info.getLockedMonitors();
+        int l = stack.length;
+        boolean dotdotdot = false;
+        if (maxFrames > 0 && (first + maxFrames) < l) {
+            l = first + maxFrames;
+            dotdotdot = true;
+        }
+
+        for (int i = first; i < l; i++) {
+            printlnFrame(buffer, stack[i]);
+            for (int j = 0; j < monitors.length; j++) {
+                if (monitors[j].getLockedStackDepth() == i) {
+                    buffer.append("  - locked ");
+                    buffer.append(monitors[j]);
+                    buffer.append('\n');
+                }
+            }
+        }
+        if (dotdotdot) {
+            buffer.append("  . . .\n");
+        }
+
+        LockInfo[] synchronizers = info.getLockedSynchronizers();
+        if (synchronizers.length > 0) {
+            buffer.append("Locked synchronizers\n");
+            for (int j = 0; j < synchronizers.length; j++) {
+                buffer.append("  - ");
+                buffer.append(synchronizers[j]);
+                buffer.append('\n');
+            }
+        }
+    }
+
     // retrieving caller frames which match a regular expression
 
     /**
@@ -3120,6 +4013,7 @@ public class Helper
     public String formatStackMatching(String regExp, boolean includeClass, boolean includePackage, String prefix)
     {
         StringBuffer buffer = new StringBuffer();
+        Pattern pattern = compilePattern(regExp);
         StackTraceElement[] stack = getStack();
         int l = stack.length;
         int i = triggerIndex(stack);
@@ -3152,7 +4046,7 @@ public class Helper
                 fullName = stack[i].getMethodName();
             }
 
-            if (fullName.matches(regExp)) {
+            if (pattern.matcher(fullName).matches()) {
                 printlnFrame(buffer, stack[i]);
             }
         }
@@ -3665,6 +4559,84 @@ public class Helper
         return stack;
     }
 
+    /**
+     * StackWalker based access to the trigger method's callers or null if
+     * the runtime does not support StackWalker
+     */
+    private static final CallerStack callerStack = CallerStack.create();
+
+    /**
+     * maximum number of compiled regular expressions retained by the
+     * pattern cache
+     */
+    private static final int PATTERN_CACHE_SIZE = 256;
+
+    /**
+     * cache of compiled regular expressions used to match stack frames
+     */
+    private static final ConcurrentHashMap<String, Pattern> patternCache = new ConcurrentHashMap<String, Pattern>();
+
+    /**
+     * return a compiled version of a regular expression, reusing a
+     * previously compiled version if available
+     * @param regExp the regular expression
+     * @return the compiled pattern
+     */
+    protected static Pattern compilePattern(String regExp)
+    {
+        Pattern pattern = patternCache.get(regExp);
+        if (pattern == null) {
+            pattern = Pattern.compile(regExp);
+            if (patternCache.size() >= PATTERN_CACHE_SIZE) {
+                // crude but it stops rules which build patterns dynamically using up memory
+                patternCache.clear();
+            }
+            patternCache.put(regExp, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * matcher used to select caller frames by method name, optionally qualified by class and
+     * package name
+     */
+    private static class CallerMatcher implements CallerStack.FrameMatcher
+    {
+        private final String match;
+        private final Pattern pattern;
+        private final boolean includeClass;
+        private final boolean includePackage;
+
+        CallerMatcher(String match, boolean isRegExp, boolean includeClass, boolean includePackage)
+        {
+            this.match = match;
+            this.pattern = (isRegExp ? compilePattern(match) : null);
+            this.includeClass = includeClass;
+            this.includePackage = includePackage;
+        }
+
+        public boolean matches(String className, String methodName)
+        {
+            String fullName;
+            if (includeClass) {
+                if (!includePackage) {
+                    int dotIdx = className.lastIndexOf('.');
+                    if (dotIdx >= 0) {
+                        className = className.substring(dotIdx + 1);
+                    }
+                }
+                fullName = className + "." + methodName;
+            } else {
+                fullName = methodName;
+            }
+            if (pattern != null) {
+                return pattern.matcher(fullName).matches();
+            } else {
+                return fullName.equals(match);
+            }
+        }
+    }
+
     private static String RULE_CLASS_NAME = Rule.class.getCanonicalName();
     private static String RULE_EXECUTE_METHOD_NAME = "execute";
 
@@ -3749,7 +4721,7 @@ public class Helper
             }
 
             if (isRegExp) {
-                if (fullName.matches(pattern)) {
+                if (compilePattern(pattern).matcher(fullName).matches()) {
                     return i;
                 }
             } else {
@@ -3808,13 +4780,13 @@ public class Helper
      */
     private Waiter getWaiter(Object object, boolean createIfAbsent)
     {
-        Waiter waiter;
+        Waiter waiter = waitMap.get(mapKey(object));
 
-        synchronized(waitMap) {
-            waiter = waitMap.get(object);
-            if (waiter == null && createIfAbsent) {
-                waiter = new Waiter(object);
-                waitMap.put(object, waiter);
+        if (waiter == null && createIfAbsent) {
+            Waiter newWaiter = new Waiter(object);
+            waiter = waitMap.putIfAbsent(mapKey(object), newWaiter);
+            if (waiter == null) {
+                waiter = newWaiter;
             }
         }
 
@@ -3830,7 +4802,7 @@ public class Helper
      */
     private Waiter removeWaiter(Object object)
     {
-        return waitMap.remove(object);
+        return waitMap.remove(mapKey(object));
     }
 
     private static int nextFileIndex = 0;
@@ -3851,8 +4823,19 @@ public class Helper
         // if we are writing to the debug, verbose or noisy trace streams
         // then start the file name with the that name as prefix otherwise
         // juts start it with the prefix "trace"
-        String prefix = "trace";
-        
+        return nextFileName("trace", ".log");
+    }
+
+    /**
+     * generate a name for an output file. the name will start with the given
+     * prefix followed by a 9 digit number followed by the given suffix.
+     * @param prefix the prefix for the file name
+     * @param suffix the suffix for the file name
+     * @return a name to be used for the file.
+     */
+    private static String nextFileName(String prefix, String suffix)
+    {
+
         StringWriter writer = new StringWriter();
         String digits = Integer.toString(nextFileIndex());
         int numDigits = digits.length();
@@ -3866,7 +4849,7 @@ public class Helper
         }
 
         writer.write(digits);
-        writer.write(".log");
+        writer.write(suffix);
         return writer.toString();
     }
 
@@ -3880,24 +4863,51 @@ public class Helper
         // it is up to the program to ensure
         // nothing is depending or waiting on them
         flagSet.clear();
+        threadStateGeneration.incrementAndGet();
         countDownMap.clear();
         counterMap.clear();
         waitMap.clear();
         rendezvousMap.clear();
         timerMap.clear();
+        synchronized (histogramMap) {
+            if (histogramDump != null) {
+                histogramDump.cancel(false);
+                histogramDump = null;
+            }
+            histogramMap.clear();
+        }
         linkMaps.clear();
         // close all open trace streams
-        List<Object> keyset = new ArrayList<Object>(traceMap.keySet());
-        for (Object key : keyset) {
-            doTraceClose(key);
-        }
+        closeAllTraceFiles();
+        // close any open event log
+        doRecordClose();
     }
 
     /**
      * a hash map used to identify trace streams from their
      * identifying objects
      */
-    private static HashMap<Object, PrintStream> traceMap = new HashMap<Object, PrintStream>();
+    private static ConcurrentHashMap<Object, TraceFile> traceMap = new ConcurrentHashMap<Object, TraceFile>();
+
+    /**
+     * default maximum size in bytes of a binary event log
+     */
+    private static final long EVENT_LOG_SIZE_DEFAULT = 64 * 1024 * 1024L;
+
+    /**
+     * the currently open binary event log or null if no log is open
+     */
+    private static volatile EventLog eventLog = null;
+
+    /**
+     * lock used to serialize opening and closing of the binary event log
+     */
+    private static final Object eventLogLock = new Object();
+
+    /**
+     * true once a shutdown hook has been registered to close open trace files
+     */
+    private static boolean traceShutdownHookInstalled = false;
 
     /**
      * a set used to identify settings for boolean flags associated
@@ -3905,41 +4915,74 @@ public class Helper
      * flag associated with the object is set (true) otherwise it is
      * clear (false).
      */
-    private static Set<Object> flagSet = new HashSet<Object>();
+    private static Set<Object> flagSet = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /**
+     * flags, counters and links private to each thread. a thread's state is discarded
+     * automatically when the thread exits.
+     */
+    private static final ThreadLocal<ThreadState> threadStates = new ThreadLocal<ThreadState>();
+
+    /**
+     * the current generation of thread state. this is incremented when static resources are
+     * cleared so that any thread state created before the clear is discarded on next use.
+     */
+    private static final AtomicInteger threadStateGeneration = new AtomicInteger(0);
 
     /**
      * a hash map used to identify countdowns from their identifying
      * objects
      */
-    private static HashMap<Object, CountDown> countDownMap = new HashMap<Object, CountDown>();
+    private static ConcurrentHashMap<Object, CountDown> countDownMap = new ConcurrentHashMap<Object, CountDown>();
 
     /**
      * a hash map used to identify counters from their identifying
      * objects
      */
-    private static HashMap<Object, Counter> counterMap = new HashMap<Object, Counter>();
+    private static ConcurrentHashMap<Object, Counter> counterMap = new ConcurrentHashMap<Object, Counter>();
+
+    /**
+     * a key used in place of null to identify an entry in one of the builtin maps
+     */
+    private static final Object NULL_KEY = new Object();
 
     /**
      * a hash map used to identify waiters from their identifying
      * objects
      */
-    private static HashMap<Object, Waiter> waitMap = new HashMap<Object, Waiter>();
+    private static ConcurrentHashMap<Object, Waiter> waitMap = new ConcurrentHashMap<Object, Waiter>();
 
     /**
      * a hash map used to identify rendezvous from their identifying
      * objects
      */
-    private static HashMap<Object, Rendezvous> rendezvousMap = new HashMap<Object, Rendezvous>();
+    private static ConcurrentHashMap<Object, Rendezvous> rendezvousMap = new ConcurrentHashMap<Object, Rendezvous>();
 
     /**
      * a hash map used to identify timer from their identifying
      * objects
      */
-    private static HashMap<Object, Timer> timerMap = new HashMap<Object, Timer>();
+    private static ConcurrentHashMap<Object, Timer> timerMap = new ConcurrentHashMap<Object, Timer>();
+
+    /**
+     * a hash map used to identify histograms from their identifying
+     * objects
+     */
+    private static ConcurrentHashMap<Object, Histogram> histogramMap = new ConcurrentHashMap<Object, Histogram>();
+
+    /**
+     * executor used to run periodic histogram dumps, created on demand
+     */
+    private static ScheduledExecutorService histogramDumper = null;
+
+    /**
+     * the currently scheduled periodic histogram dump or null if none is scheduled
+     */
+    private static ScheduledFuture<?> histogramDump = null;
 
     /**
      * a hash map used to identify maps from their identifying
      * objects
      */
-    private static ConcurrentHashMap<Object, HashMap<Object, Object>> linkMaps = new ConcurrentHashMap<Object, HashMap<Object, Object>>();
+    private static ConcurrentHashMap<Object, LinkMap> linkMaps = new ConcurrentHashMap<Object, LinkMap>();
 }
@@ -135,6 +135,7 @@ public class InterpretedHelper extends Helper implements HelperAdapter
         // System.out.println(rule.getName() + " execute0");
         bind();
         if (test()) {
+            rule.recordHit();
             fire();
         }
     }
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+package org.jboss.byteman.rule.helper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * flags, counters and links private to a single thread. an instance is only ever accessed by the
+ * thread which owns it so none of its operations need to be synchronized. instances are held in a
+ * ThreadLocal which means they are discarded automatically when the owning thread exits.
+ */
+public class ThreadState
+{
+    /**
+     * the generation of thread state to which this instance belongs. a thread state belonging
+     * to an earlier generation has been invalidated and must be replaced.
+     */
+    private final int generation;
+    private final HashSet<Object> flags;
+    private final HashMap<Object, int[]> counters;
+    private final HashMap<Object, Object> links;
+
+    public ThreadState(int generation)
+    {
+        this.generation = generation;
+        this.flags = new HashSet<Object>();
+        this.counters = new HashMap<Object, int[]>();
+        this.links = new HashMap<Object, Object>();
+    }
+
+    public int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * set a flag
+     * @param identifier the object identifying the flag
+     * @return true if the flag was clear before this call otherwise false
+     */
+    public boolean flag(Object identifier)
+    {
+        return flags.add(identifier);
+    }
+
+    /**
+     * test a flag
+     * @param identifier the object identifying the flag
+     * @return true if the flag is set otherwise false
+     */
+    public boolean flagged(Object identifier)
+    {
+        return flags.contains(identifier);
+    }
+
+    /**
+     * clear a flag
+     * @param identifier the object identifying the flag
+     * @return true if the flag was set before this call otherwise false
+     */
+    public boolean clear(Object identifier)
+    {
+        return flags.remove(identifier);
+    }
+
+    /**
+     * read a counter, creating it with value 0 if it does not exist
+     * @param identifier the object identifying the counter
+     * @param zero true if the counter should be reset to zero
+     * @return the value of the counter before any reset
+     */
+    public int readCounter(Object identifier, boolean zero)
+    {
+        int[] count = counters.get(identifier);
+        if (count == null) {
+            return 0;
+        }
+        int result = count[0];
+        if (zero) {
+            count[0] = 0;
+        }
+        return result;
+    }
+
+    /**
+     * add an amount to a counter, creating it with value 0 if it does not exist
+     * @param identifier the object identifying the counter
+     * @param amount the amount to add
+     * @return the value of the counter after the increment
+     */
+    public int incrementCounter(Object identifier, int amount)
+    {
+        int[] count = counters.get(identifier);
+        if (count == null) {
+            count = new int[1];
+            counters.put(identifier, count);
+        }
+        count[0] += amount;
+        return count[0];
+    }
+
+    /**
+     * delete a counter
+     * @param identifier the object identifying the counter
+     * @return true if the counter existed otherwise false
+     */
+    public boolean deleteCounter(Object identifier)
+    {
+        return (counters.remove(identifier) != null);
+    }
+
+    /**
+     * add a link from name to value
+     * @param name the name of the link
+     * @param value the value to be linked
+     * @return the value previously linked to name or null
+     */
+    public Object link(Object name, Object value)
+    {
+        return links.put(name, value);
+    }
+
+    /**
+     * @param name the name of the link
+     * @return the value linked to name or null
+     */
+    public Object linked(Object name)
+    {
+        return links.get(name);
+    }
+
+    /**
+     * remove any link from name
+     * @param name the name of the link
+     * @return the value previously linked to name or null
+     */
+    public Object unlink(Object name)
+    {
+        return links.remove(name);
+    }
+
+    /**
+     * @return a list of the names of all current links
+     */
+    public List<Object> linkNames()
+    {
+        return new ArrayList<Object>(links.keySet());
+    }
+
+    /**
+     * @return true if this thread state holds no flags, counters or links otherwise false
+     */
+    public boolean isEmpty()
+    {
+        return flags.isEmpty() && counters.isEmpty() && links.isEmpty();
+    }
+
+    /**
+     * discard all flags, counters and links
+     */
+    public void clear()
+    {
+        flags.clear();
+        counters.clear();
+        links.clear();
+    }
+}
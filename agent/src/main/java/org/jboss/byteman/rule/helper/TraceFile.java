@@ -0,0 +1,385 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.rule.helper;
+
+import org.jboss.byteman.rule.Rule;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * a trace output stream which sinks trace messages to a file. when buffering is enabled messages
+ * are appended to a bounded lock-free ring buffer and written to the file in batches by a
+ * dedicated background writer thread so that tracing threads never block on file i/o. if the
+ * ring buffer is full the message is dropped and a count of dropped messages is written to the
+ * file once space becomes available. when buffering is disabled messages are written directly to
+ * the file by the tracing thread. the file may optionally be rotated once it exceeds a given size
+ * or has been open for a given time.
+ */
+public class TraceFile
+{
+    /**
+     * size of the buffer used by the writer thread to batch up writes to the file
+     */
+    private final static int BATCH_SIZE = 64 * 1024;
+
+    /**
+     * how long the writer thread waits for new messages before checking again
+     */
+    private final static long IDLE_NANOS = 10 * 1000000L;
+
+    /**
+     * bit set in the tail count once the file has been closed. no slots can be claimed after it is
+     * set so the writer thread knows that every message reported as buffered has been stored once
+     * it has drained the ring up to the marked tail.
+     */
+    private final static long CLOSED_BIT = 1L << 62;
+
+    private final static byte[] LINE_SEPARATOR = System.getProperty("line.separator", "\n").getBytes();
+
+    private final Object identifier;
+    private final File file;
+    private final long rotateSize;
+    private final long rotateInterval;
+    private FileOutputStream fos;
+    private FileChannel channel;
+    private long written;
+    private long openTime;
+    private int rotateCount;
+
+    private final AtomicReferenceArray<Object> ring;
+    private final int mask;
+    /**
+     * count of slots claimed by tracing threads
+     */
+    private final AtomicLong tail;
+    /**
+     * count of slots consumed by the writer thread
+     */
+    private volatile long head;
+    private final AtomicLong dropped;
+    private volatile boolean closed;
+    private Thread writer;
+
+    /**
+     * open a trace file
+     * @param identifier the identifier of the trace stream
+     * @param file the file to write to
+     * @param bufferSize the number of messages which may be buffered or 0 if messages should be
+     * written synchronously
+     * @param rotateSize the size in bytes after which the file is rotated or 0 if it should not
+     * be rotated because of its size
+     * @param rotateInterval the time in nanoseconds after which the file is rotated or 0 if it
+     * should not be rotated because of its age
+     * @throws FileNotFoundException if the file cannot be opened for writing
+     */
+    public TraceFile(Object identifier, File file, int bufferSize, long rotateSize, long rotateInterval)
+            throws FileNotFoundException
+    {
+        this.identifier = identifier;
+        this.file = file;
+        this.rotateSize = rotateSize;
+        this.rotateInterval = rotateInterval;
+        this.rotateCount = 0;
+        open();
+        if (bufferSize > 0) {
+            // round up to a power of two so slots can be indexed with a mask
+            int capacity = Integer.highestOneBit(bufferSize);
+            if (capacity < bufferSize) {
+                capacity <<= 1;
+            }
+            ring = new AtomicReferenceArray<Object>(capacity);
+            mask = capacity - 1;
+            tail = new AtomicLong(0);
+            head = 0;
+            dropped = new AtomicLong(0);
+            writer = new Thread("Byteman trace writer for " + identifier) {
+                public void run() {
+                    // we don't want to see any triggers from the file i/o performed by the writer thread
+                    Rule.disableTriggersInternal();
+                    drain();
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            ring = null;
+            mask = 0;
+            tail = null;
+            dropped = null;
+            writer = null;
+        }
+    }
+
+    /**
+     * write a message to the file
+     * @param message the message to be written
+     * @param newline true if a line separator should be appended to the message
+     * @return true if the message was written or buffered or dropped because the buffer is full,
+     * false if the file has been closed
+     */
+    public boolean write(String message, boolean newline)
+    {
+        if (closed) {
+            return false;
+        }
+        if (ring == null) {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                byte[] bytes = message.getBytes();
+                try {
+                    writeFully(ByteBuffer.wrap(bytes));
+                    if (newline) {
+                        writeFully(ByteBuffer.wrap(LINE_SEPARATOR));
+                    }
+                    checkRotate();
+                } catch (IOException e) {
+                    Helper.err("TraceFile.write : error writing to trace file " + file + " : " + e);
+                }
+            }
+            return true;
+        }
+        // newlines are appended by the writer thread so we only pay for string concatenation
+        // when it is not on the tracing thread's critical path
+        Object entry = (newline ? new Line(message) : message);
+        while (true) {
+            long t = tail.get();
+            if ((t & CLOSED_BIT) != 0) {
+                return false;
+            }
+            if (t - head >= ring.length()) {
+                dropped.incrementAndGet();
+                return true;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                ring.lazySet((int)(t & mask), entry);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * close the file after writing any buffered messages
+     */
+    public void close()
+    {
+        if (ring == null) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                closeChannel();
+            }
+            return;
+        }
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            markClosed();
+            thread = writer;
+            writer = null;
+        }
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * the loop run by the writer thread. messages are copied from the ring buffer into a batch
+     * buffer which is written to the file whenever it fills or the ring buffer becomes empty.
+     */
+    private void drain()
+    {
+        ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE);
+        try {
+            while (true) {
+                long h = head;
+                long t = tail.get();
+                if (h == (t & ~CLOSED_BIT)) {
+                    flush(batch);
+                    if ((t & CLOSED_BIT) != 0) {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                    continue;
+                }
+                int idx = (int)(h & mask);
+                Object entry = ring.get(idx);
+                if (entry == null) {
+                    // slot claimed but the message has not been stored yet
+                    Thread.yield();
+                    continue;
+                }
+                ring.lazySet(idx, null);
+                head = h + 1;
+                if (entry instanceof Line) {
+                    append(batch, ((Line)entry).message.getBytes());
+                    append(batch, LINE_SEPARATOR);
+                } else {
+                    append(batch, ((String)entry).getBytes());
+                }
+            }
+        } catch (IOException e) {
+            Helper.err("TraceFile.drain : error writing to trace file " + file + " : " + e);
+        } finally {
+            synchronized (this) {
+                // ensure any later writes fail so a new trace file gets opened
+                closed = true;
+                markClosed();
+                closeChannel();
+            }
+        }
+    }
+
+    /**
+     * stop any further slots in the ring buffer being claimed
+     */
+    private void markClosed()
+    {
+        while (true) {
+            long t = tail.get();
+            if ((t & CLOSED_BIT) != 0 || tail.compareAndSet(t, t | CLOSED_BIT)) {
+                return;
+            }
+        }
+    }
+
+    private void append(ByteBuffer batch, byte[] bytes) throws IOException
+    {
+        if (bytes.length > batch.remaining()) {
+            flush(batch);
+            if (bytes.length > batch.remaining()) {
+                writeFully(ByteBuffer.wrap(bytes));
+                return;
+            }
+        }
+        batch.put(bytes);
+    }
+
+    private void flush(ByteBuffer batch) throws IOException
+    {
+        long count = dropped.getAndSet(0);
+        if (batch.position() > 0) {
+            batch.flip();
+            writeFully(batch);
+            batch.clear();
+        }
+        if (count > 0) {
+            writeFully(ByteBuffer.wrap(("Byteman : dropped " + count + " trace messages for trace stream " + identifier).getBytes()));
+            writeFully(ByteBuffer.wrap(LINE_SEPARATOR));
+        }
+        checkRotate();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+    }
+
+    private void open() throws FileNotFoundException
+    {
+        fos = new FileOutputStream(file, true);
+        channel = fos.getChannel();
+        written = file.length();
+        openTime = System.nanoTime();
+    }
+
+    private void closeChannel()
+    {
+        if (fos == null) {
+            return;
+        }
+        try {
+            fos.close();
+        } catch (IOException e) {
+            // nothing more we can do
+        }
+        fos = null;
+        channel = null;
+    }
+
+    /**
+     * rotate the file if it has exceeded its size or age limit by renaming it with a numeric
+     * suffix and reopening it. devices, pipes etc are never rotated.
+     */
+    private void checkRotate() throws IOException
+    {
+        if (rotateSize <= 0 && rotateInterval <= 0) {
+            return;
+        }
+        boolean rotate = (rotateSize > 0 && written >= rotateSize) ||
+                (rotateInterval > 0 && System.nanoTime() - openTime >= rotateInterval);
+        if (!rotate || !file.isFile()) {
+            return;
+        }
+        File rotated;
+        do {
+            rotated = new File(file.getPath() + "." + (++rotateCount));
+        } while (rotated.exists());
+        closeChannel();
+        if (!file.renameTo(rotated)) {
+            Helper.err("TraceFile.checkRotate : unable to rename trace file " + file + " to " + rotated);
+        }
+        open();
+    }
+
+    /**
+     * a wrapper used to mark buffered messages which need to be followed by a line separator
+     */
+    private static class Line
+    {
+        final String message;
+
+        Line(String message)
+        {
+            this.message = message;
+        }
+    }
+}
@@ -23,6 +23,8 @@
 */
 package org.jboss.byteman.synchronization;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * class provided to support rule builtins getCounter, decrementCounter and addCounter
  */
@@ -30,18 +32,25 @@ public class CountDown
 {
     public CountDown(int count)
     {
-        this.count = (count < 1 ? 1 : count);
+        this.count = new AtomicInteger(count < 1 ? 1 : count);
     }
 
-    public synchronized boolean decrement()
+    /**
+     * decrement the count if it is not already zero
+     * @return false if the count was decremented or true if it had already reached zero
+     */
+    public boolean decrement()
     {
-        if (count > 0) {
-            count--;
-            return false;
+        while (true) {
+            int current = count.get();
+            if (current == 0) {
+                return true;
+            }
+            if (count.compareAndSet(current, current - 1)) {
+                return false;
+            }
         }
-
-        return true;
     }
 
-    private int count;
+    private final AtomicInteger count;
 }
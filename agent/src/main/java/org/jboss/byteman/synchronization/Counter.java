@@ -23,12 +23,15 @@
 */
 package org.jboss.byteman.synchronization;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * class used to associate a counter value with a given object
+ * class used to associate a counter value with a given object. updates use an atomic
+ * integer rather than a lock so concurrent increments do not block one another.
  */
 public class Counter
 {
-    private int count;
+    private final AtomicInteger count;
 
     public Counter()
     {
@@ -36,7 +39,7 @@ public class Counter
     }
     public Counter(int count)
     {
-        this.count = count;
+        this.count = new AtomicInteger(count);
     }
 
     /*
@@ -47,13 +50,12 @@ public class Counter
         return count(false);
     }
 
-    public synchronized int count(boolean zero)
+    public int count(boolean zero)
     {
-        int result = count;
         if (zero) {
-            count = 0;
+            return count.getAndSet(0);
         }
-        return result;
+        return count.get();
     }
 
     public int increment()
@@ -61,11 +63,9 @@ public class Counter
         return increment(1);
     }
 
-    public synchronized int increment(int amount)
+    public int increment(int amount)
     {
-        count += amount;
-
-        return count;
+        return count.addAndGet(amount);
     }
 
     public int decrement()
@@ -0,0 +1,137 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.synchronization;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * a HyperLogLog sketch which estimates the number of distinct values added to it using a fixed
+ * amount of memory. a sketch with precision p uses 2^p registers and has a standard error of
+ * about 1.04 / sqrt(2^p) e.g. about 1.6% for the default precision of 12. values are hashed
+ * from their hashCode so values which are equal are counted once. registers are updated using
+ * compare and swap so values can be added concurrently without locking.
+ */
+public class DistinctCounter
+{
+    public final static int DEFAULT_PRECISION = 12;
+    public final static int MIN_PRECISION = 4;
+    public final static int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final AtomicIntegerArray registers;
+
+    public DistinctCounter()
+    {
+        this(DEFAULT_PRECISION);
+    }
+
+    public DistinctCounter(int precision)
+    {
+        if (precision < MIN_PRECISION) {
+            precision = MIN_PRECISION;
+        } else if (precision > MAX_PRECISION) {
+            precision = MAX_PRECISION;
+        }
+        this.precision = precision;
+        this.registers = new AtomicIntegerArray(1 << precision);
+    }
+
+    /**
+     * add a value to the sketch
+     * @param value the value to add
+     * @return true if the sketch was updated otherwise false
+     */
+    public boolean add(Object value)
+    {
+        long hash = hash(value == null ? 0 : value.hashCode());
+        int idx = (int) (hash >>> (64 - precision));
+        // the guard bit bounds the rank when the remaining hash bits are all zero
+        long rest = (hash << precision) | (1L << (precision - 1));
+        int rank = Long.numberOfLeadingZeros(rest) + 1;
+        while (true) {
+            int current = registers.get(idx);
+            if (rank <= current) {
+                return false;
+            }
+            if (registers.compareAndSet(idx, current, rank)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return an estimate of the number of distinct values added to the sketch
+     */
+    public long estimate()
+    {
+        int m = registers.length();
+        double sum = 0.0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            int register = registers.get(i);
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // use linear counting for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * discard all values added to the sketch
+     */
+    public void reset()
+    {
+        for (int i = 0; i < registers.length(); i++) {
+            registers.set(i, 0);
+        }
+    }
+
+    public String toString()
+    {
+        return Long.toString(estimate());
+    }
+
+    /**
+     * spread a 32 bit hash code across 64 bits using the murmur3 finalizer
+     * @param h the hash code
+     * @return the mixed hash
+     */
+    private static long hash(int h)
+    {
+        long k = h;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
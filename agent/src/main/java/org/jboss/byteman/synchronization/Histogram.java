@@ -0,0 +1,217 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.synchronization;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a fixed size log-linear histogram of long values. values below 2^SUB_BITS are counted exactly.
+ * larger values are counted in buckets whose width doubles with each power of two, each power of
+ * two being split into 2^SUB_BITS linear sub-buckets, so a value is counted with a relative error
+ * of at most 1 in 2^SUB_BITS. recording a value is a single atomic add plus updates to the running
+ * totals so histograms can be updated concurrently without locking. negative values are counted
+ * as zero.
+ */
+public class Histogram
+{
+    private final static int SUB_BITS = 5;
+    private final static int SUB_COUNT = 1 << SUB_BITS;
+    private final static int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    public Histogram()
+    {
+        buckets = new AtomicLongArray(BUCKET_COUNT);
+        count = new AtomicLong(0);
+        sum = new AtomicLong(0);
+        min = new AtomicLong(Long.MAX_VALUE);
+        max = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * record a value
+     * @param value the value to record
+     */
+    public void record(long value)
+    {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.getAndIncrement(index(value));
+        count.getAndIncrement();
+        sum.getAndAdd(value);
+        long current = min.get();
+        while (value < current && !min.compareAndSet(current, value)) {
+            current = min.get();
+        }
+        current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the smallest value recorded or 0 if no values have been recorded
+     */
+    public long getMin()
+    {
+        long value = min.get();
+        return (value == Long.MAX_VALUE ? 0 : value);
+    }
+
+    /**
+     * @return the largest value recorded or 0 if no values have been recorded
+     */
+    public long getMax()
+    {
+        long value = max.get();
+        return (value == Long.MIN_VALUE ? 0 : value);
+    }
+
+    /**
+     * @return the mean of the values recorded or 0 if no values have been recorded
+     */
+    public long getMean()
+    {
+        long n = count.get();
+        return (n == 0 ? 0 : sum.get() / n);
+    }
+
+    /**
+     * return an estimate of the value below which the given percentage of recorded values fall.
+     * the estimate is the highest value counted in the same bucket as the exact percentile.
+     * @param percentile the percentile required, between 0 and 100
+     * @return the estimated value or 0 if no values have been recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        if (percentile < 0) {
+            percentile = 0;
+        } else if (percentile > 100) {
+            percentile = 100;
+        }
+        long target = (long)Math.ceil(total * percentile / 100.0);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * copy the current contents of this histogram into a new histogram
+     * @param reset true if this histogram should be reset as the values are copied
+     * @return the copy
+     */
+    public Histogram snapshot(boolean reset)
+    {
+        Histogram copy = new Histogram();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy.buckets.set(i, (reset ? buckets.getAndSet(i, 0) : buckets.get(i)));
+        }
+        copy.count.set(reset ? count.getAndSet(0) : count.get());
+        copy.sum.set(reset ? sum.getAndSet(0) : sum.get());
+        copy.min.set(reset ? min.getAndSet(Long.MAX_VALUE) : min.get());
+        copy.max.set(reset ? max.getAndSet(Long.MIN_VALUE) : max.get());
+        return copy;
+    }
+
+    /**
+     * discard all recorded values. values recorded concurrently with a reset may be partially
+     * discarded.
+     */
+    public void reset()
+    {
+        snapshot(true);
+    }
+
+    public String toString()
+    {
+        return "count " + getCount() +
+                " min " + getMin() +
+                " mean " + getMean() +
+                " p50 " + getPercentile(50) +
+                " p90 " + getPercentile(90) +
+                " p99 " + getPercentile(99) +
+                " p999 " + getPercentile(99.9) +
+                " max " + getMax();
+    }
+
+    private static int index(long value)
+    {
+        if (value < SUB_COUNT) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long lowestValue(int index)
+    {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        long sub = index % SUB_COUNT;
+        return (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+
+    private static long highestValue(int index)
+    {
+        if (index + 1 >= BUCKET_COUNT) {
+            return Long.MAX_VALUE;
+        }
+        return lowestValue(index + 1) - 1;
+    }
+}
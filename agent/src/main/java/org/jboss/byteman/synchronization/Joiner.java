@@ -27,6 +27,9 @@ import org.jboss.byteman.rule.exception.ExecuteException;
 
 import java.util.List;
 import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * class used by default helper to implement join dependencies between threads
@@ -67,12 +70,17 @@ public class Joiner
     private List<Thread> children;
     private int max;
     private Thread parent;
+    private final ReentrantLock lock;
+    private final Condition filled;
 
     public Joiner(int max)
     {
         this.max = max;
         this.children = new LinkedList<Thread>();
         this.parent =  null;
+        // a lock is used rather than a monitor so a waiting virtual thread does not pin its carrier
+        this.lock = new ReentrantLock();
+        this.filled = lock.newCondition();
     }
 
     public int getMax()
@@ -80,36 +88,42 @@ public class Joiner
         return max;
     }
 
-    public synchronized Status addChild(Thread thread)
+    public Status addChild(Thread thread)
     {
-        if (children.contains(thread)) {
-            return Status.DUPLICATE;
-        }
+        lock.lock();
+        try {
+            if (children.contains(thread)) {
+                return Status.DUPLICATE;
+            }
 
-        int size = children.size();
+            int size = children.size();
 
-        if (size == max) {
-            return Status.EXCESS;
-        }
+            if (size == max) {
+                return Status.EXCESS;
+            }
 
-        children.add(thread);
-        size++;
+            children.add(thread);
+            size++;
 
-        if (size == max) {
-            if (parent ==  null) {
-                return Status.FILLED;
-            } else {
-                notifyAll();
-                return Status.DONE;
+            if (size == max) {
+                if (parent ==  null) {
+                    return Status.FILLED;
+                } else {
+                    filled.signalAll();
+                    return Status.DONE;
+                }
             }
+            return Status.ADDED;
+        } finally {
+            lock.unlock();
         }
-        return Status.ADDED;
     }
 
     public boolean joinChildren(Thread thread, long millis)
     {
         long target_time=System.currentTimeMillis() + millis;
-        synchronized (this) {
+        lock.lock();
+        try {
             if (parent != null) {
                 return false;
             }
@@ -117,11 +131,11 @@ public class Joiner
             while (children.size() < max) {
                 try {
                     if (millis <= 0) {
-                        this.wait();
+                        filled.await();
                     } else {
                         long wait_time=target_time - System.currentTimeMillis();
                         if(wait_time > 0) {
-                            this.wait(wait_time);
+                            filled.await(wait_time, TimeUnit.MILLISECONDS);
                         } else {
                             throw new ExecuteException("timeout occurred in joinWait");
                         }
@@ -130,9 +144,11 @@ public class Joiner
                     // do nothing
                 }
             }
+        } finally {
+            lock.unlock();
         }
 
-        // since we are the parent and the waiting is over we don't need to stay synchronized
+        // since we are the parent and the waiting is over we don't need to hold the lock
         for (int i = 0; i < max;) {
             Thread child = children.get(i);
             try {
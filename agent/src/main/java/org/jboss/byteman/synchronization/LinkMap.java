@@ -0,0 +1,387 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.synchronization;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a concurrent map used to implement the link builtins. a LinkMap may optionally be bounded by a
+ * maximum size, in which case the oldest links are evicted once the map grows beyond that size,
+ * and by a time to live, in which case links are discarded once they are older than the time to
+ * live. a LinkMap may also be created with weak keys, in which case a link is discarded once its
+ * key is no longer strongly reachable. note that a value which refers to its own key will stop
+ * the key being collected. null is allowed both as a key and as a value.
+ *
+ * counts of links which have been evicted, expired or collected are maintained so they can be
+ * reported.
+ */
+public class LinkMap
+{
+    /**
+     * a key used in place of null in the backing map
+     */
+    private static final Object NULL_KEY = new Object();
+
+    private final int maxSize;
+    private final long ttl;
+    private final boolean weakKeys;
+    private final ConcurrentHashMap<Object, Entry> map;
+    /**
+     * entries in insertion order, only maintained when the map is bounded by size or time
+     */
+    private final ConcurrentLinkedQueue<Entry> order;
+    private final AtomicInteger ordered;
+    private final ReferenceQueue<Object> collected;
+    private final AtomicLong evictedCount;
+    private final AtomicLong expiredCount;
+    private final AtomicLong collectedCount;
+
+    /**
+     * create an unbounded LinkMap
+     */
+    public LinkMap()
+    {
+        this(0, 0, false);
+    }
+
+    /**
+     * create a LinkMap
+     * @param maxSize the maximum number of links retained or 0 if the number of links is unbounded
+     * @param ttlMillis the time in milliseconds after which a link is discarded or 0 if links are
+     * retained until they are removed
+     * @param weakKeys true if a link should be discarded once its key is no longer strongly
+     * reachable otherwise false
+     */
+    public LinkMap(int maxSize, long ttlMillis, boolean weakKeys)
+    {
+        this.maxSize = (maxSize > 0 ? maxSize : 0);
+        this.ttl = (ttlMillis > 0 ? ttlMillis * 1000000L : 0);
+        this.weakKeys = weakKeys;
+        this.map = new ConcurrentHashMap<Object, Entry>();
+        if (this.maxSize > 0 || this.ttl > 0) {
+            order = new ConcurrentLinkedQueue<Entry>();
+            ordered = new AtomicInteger(0);
+        } else {
+            order = null;
+            ordered = null;
+        }
+        collected = (weakKeys ? new ReferenceQueue<Object>() : null);
+        evictedCount = new AtomicLong(0);
+        expiredCount = new AtomicLong(0);
+        collectedCount = new AtomicLong(0);
+    }
+
+    /**
+     * add a link from name to value
+     * @param name the name of the key
+     * @param value the value to be stored in the map
+     * @return the previous value stored under name, if any, or null
+     */
+    public Object put(Object name, Object value)
+    {
+        expunge();
+        Object key = wrap(name, true);
+        Entry entry = new Entry(key, value, (ttl > 0 ? System.nanoTime() + ttl : 0));
+        Entry previous = map.put(key, entry);
+        if (order != null) {
+            order.add(entry);
+            ordered.incrementAndGet();
+            evict();
+        }
+        return value(previous);
+    }
+
+    /**
+     * retrieve the value linked to name
+     * @param name the name of the key
+     * @return the value stored in the map under the given key or null
+     */
+    public Object get(Object name)
+    {
+        Object key = wrap(name, false);
+        Entry entry = map.get(key);
+        if (entry != null && entry.isExpired(ttl)) {
+            if (map.remove(key, entry)) {
+                expiredCount.incrementAndGet();
+            }
+            return null;
+        }
+        return value(entry);
+    }
+
+    /**
+     * remove any link from name
+     * @param name the name of the key
+     * @return the previous value stored under name, if any, or null
+     */
+    public Object remove(Object name)
+    {
+        expunge();
+        return value(map.remove(wrap(name, false)));
+    }
+
+    /**
+     * @return a list of the names of all current links
+     */
+    public List<Object> names()
+    {
+        expunge();
+        List<Object> list = new ArrayList<Object>(map.size());
+        for (Map.Entry<Object, Entry> mapEntry : map.entrySet()) {
+            if (!mapEntry.getValue().isExpired(ttl)) {
+                Object key = mapEntry.getKey();
+                if (key instanceof WeakKey) {
+                    key = ((WeakKey)key).get();
+                    if (key == null) {
+                        continue;
+                    }
+                }
+                list.add(key == NULL_KEY ? null : key);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return a list of the values of all current links
+     */
+    public List<Object> values()
+    {
+        expunge();
+        List<Object> list = new ArrayList<Object>(map.size());
+        for (Entry entry : map.values()) {
+            if (!entry.isExpired(ttl)) {
+                list.add(entry.value);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * remove all links
+     * @return true if the map was not empty otherwise false
+     */
+    public boolean clear()
+    {
+        expunge();
+        boolean result = !map.isEmpty();
+        map.clear();
+        if (order != null) {
+            order.clear();
+            ordered.set(0);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of links in the map including any which have expired but have not yet
+     * been discarded
+     */
+    public int size()
+    {
+        return map.size();
+    }
+
+    /**
+     * @return the number of links evicted because the map exceeded its maximum size
+     */
+    public long getEvicted()
+    {
+        return evictedCount.get();
+    }
+
+    /**
+     * @return the number of links discarded because they exceeded the time to live
+     */
+    public long getExpired()
+    {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return the number of links discarded because their keys were garbage collected
+     */
+    public long getCollected()
+    {
+        return collectedCount.get();
+    }
+
+    public String toString()
+    {
+        return "size " + size() +
+                " evicted " + getEvicted() +
+                " expired " + getExpired() +
+                " collected " + getCollected();
+    }
+
+    /**
+     * convert a name to the key used to index the backing map
+     * @param name the name of the key
+     * @param register true if a weak key is to be stored in the map and so needs to be
+     * registered with the reference queue, false if it is only used for a lookup
+     * @return the key
+     */
+    private Object wrap(Object name, boolean register)
+    {
+        if (name == null) {
+            return NULL_KEY;
+        }
+        if (weakKeys) {
+            return new WeakKey(name, (register ? collected : null));
+        }
+        return name;
+    }
+
+    private Object value(Entry entry)
+    {
+        if (entry == null || entry.isExpired(ttl)) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * discard links whose weak keys have been collected
+     */
+    private void expunge()
+    {
+        if (collected == null) {
+            return;
+        }
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            // a cleared key only matches itself so this removes exactly its own link
+            if (map.remove(ref) != null) {
+                collectedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * discard expired links and evict the oldest links while the map is too big. entries in the
+     * order queue which no longer identify a current link are discarded as they are found and
+     * the queue is compacted if it grows much larger than the map.
+     */
+    private void evict()
+    {
+        if (ttl > 0) {
+            Entry head;
+            while ((head = order.peek()) != null && head.isExpired(ttl)) {
+                if (order.remove(head)) {
+                    ordered.decrementAndGet();
+                    if (map.remove(head.key, head)) {
+                        expiredCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+        if (maxSize > 0) {
+            while (map.size() > maxSize) {
+                Entry head = order.poll();
+                if (head == null) {
+                    break;
+                }
+                ordered.decrementAndGet();
+                if (map.remove(head.key, head)) {
+                    evictedCount.incrementAndGet();
+                }
+            }
+        }
+        int limit = 2 * Math.max(map.size(), 16);
+        if (ordered.get() > limit) {
+            Iterator<Entry> iterator = order.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (map.get(entry.key) != entry) {
+                    iterator.remove();
+                    ordered.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * a link value together with the time it expires
+     */
+    private static class Entry
+    {
+        final Object key;
+        final Object value;
+        final long expiry;
+
+        Entry(Object key, Object value, long expiry)
+        {
+            this.key = key;
+            this.value = value;
+            this.expiry = expiry;
+        }
+
+        boolean isExpired(long ttl)
+        {
+            return (ttl > 0 && System.nanoTime() - expiry > 0);
+        }
+    }
+
+    /**
+     * a weak reference to a key which compares equal to any other WeakKey whose referent is equal
+     * to its own referent. once cleared a WeakKey only compares equal to itself.
+     */
+    private static class WeakKey extends WeakReference<Object>
+    {
+        private final int hash;
+
+        WeakKey(Object referent, ReferenceQueue<Object> queue)
+        {
+            super(referent, queue);
+            hash = referent.hashCode();
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object other)
+        {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof WeakKey)) {
+                return false;
+            }
+            Object referent = get();
+            return (referent != null && referent.equals(((WeakKey)other).get()));
+        }
+    }
+}
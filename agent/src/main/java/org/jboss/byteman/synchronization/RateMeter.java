@@ -0,0 +1,150 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.synchronization;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a meter which tracks the rate at which events occur as exponentially weighted moving averages
+ * over one, five and fifteen minutes in the style of the unix load average. events are counted
+ * using atomic adds. the averages are brought up to date in five second ticks by whichever thread
+ * first notices that a tick is due so the meter does not need a background thread or any locking.
+ */
+public class RateMeter
+{
+    private final static long TICK_NANOS = 5000000000L;
+    private final static double TICK_SECONDS = 5.0;
+
+    private final AtomicLong count;
+    private final AtomicLong uncounted;
+    private final AtomicLong lastTick;
+    private final long start;
+    private final Average[] averages;
+
+    public RateMeter()
+    {
+        count = new AtomicLong(0);
+        uncounted = new AtomicLong(0);
+        start = System.nanoTime();
+        lastTick = new AtomicLong(start);
+        averages = new Average[] { new Average(1), new Average(5), new Average(15) };
+    }
+
+    /**
+     * count some events
+     * @param n the number of events
+     */
+    public void mark(long n)
+    {
+        tickIfNecessary();
+        count.getAndAdd(n);
+        uncounted.getAndAdd(n);
+    }
+
+    /**
+     * @return the total number of events counted
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the mean number of events per second since the meter was created
+     */
+    public double getMeanRate()
+    {
+        double elapsed = (System.nanoTime() - start) / 1000000000.0;
+        return (elapsed <= 0 ? 0.0 : count.get() / elapsed);
+    }
+
+    /**
+     * @param minutes 1, 5 or 15
+     * @return the moving average of events per second over the given number of minutes or -1 if
+     * minutes is not one of the supported periods
+     */
+    public double getRate(int minutes)
+    {
+        tickIfNecessary();
+        for (Average average : averages) {
+            if (average.minutes == minutes) {
+                return average.rate;
+            }
+        }
+        return -1.0;
+    }
+
+    public String toString()
+    {
+        tickIfNecessary();
+        return String.format("count %d mean %.3f m1 %.3f m5 %.3f m15 %.3f",
+                count.get(), getMeanRate(), averages[0].rate, averages[1].rate, averages[2].rate);
+    }
+
+    private void tickIfNecessary()
+    {
+        long old = lastTick.get();
+        long now = System.nanoTime();
+        long age = now - old;
+        if (age > TICK_NANOS) {
+            long next = now - age % TICK_NANOS;
+            // only the thread which advances the tick time updates the averages
+            if (lastTick.compareAndSet(old, next)) {
+                long ticks = age / TICK_NANOS;
+                long n = uncounted.getAndSet(0);
+                for (long i = 0; i < ticks; i++) {
+                    for (Average average : averages) {
+                        average.tick(n);
+                    }
+                    n = 0;
+                }
+            }
+        }
+    }
+
+    private static class Average
+    {
+        final int minutes;
+        final double alpha;
+        volatile double rate;
+        boolean initialized;
+
+        Average(int minutes)
+        {
+            this.minutes = minutes;
+            this.alpha = 1 - Math.exp(-TICK_SECONDS / (60.0 * minutes));
+        }
+
+        void tick(long n)
+        {
+            double instant = n / TICK_SECONDS;
+            if (initialized) {
+                rate += alpha * (instant - rate);
+            } else {
+                rate = instant;
+                initialized = true;
+            }
+        }
+    }
+}
@@ -25,6 +25,10 @@ package org.jboss.byteman.synchronization;
 
 import org.jboss.byteman.rule.exception.ExecuteException;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * class used to manage rule rendezvous operations
  */
@@ -42,14 +46,34 @@ public class Rendezvous
         this.needsRemove = false;
         this.isDeleted = false;
         this.counter = new Counter();
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
     }
 
     /**
-     * enter this rendezvous. n.b. this must be called synchronized on the rendezvous object
-     * in question
+     * acquire the lock which guards this rendezvous. a lock is used rather than a monitor so
+     * that a virtual thread which waits at the rendezvous does not pin its carrier thread.
+     */
+    public void lock()
+    {
+        lock.lock();
+    }
+
+    /**
+     * release the lock which guards this rendezvous
+     */
+    public void unlock()
+    {
+        lock.unlock();
+    }
+
+    /**
+     * enter this rendezvous. n.b. this must be called while holding the lock on the rendezvous
+     * object in question
      * @param millis how long to wait (wait forever if 0)
      * @return the index in arrival order from 0 to expected of the calling thread or -1 if
      * either the rendezvous has completed and is not restartable or the rendezvous has been deleted
+     * @throws ExecuteException if the timeout expires before the expected number of threads arrive
      */
     public int rendezvous(long millis)
     {
@@ -66,16 +90,16 @@ public class Rendezvous
         int index = currentCounter.arrived++;
 
         if (currentCounter.arrived < expected) {
-            long target_time=System.currentTimeMillis() + millis;
+            long target_time=System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
             // make sure we don't return before the rendezvous has actually happened
             while (currentCounter.arrived < expected) {
                 try {
                     if(millis <= 0) {
-                        this.wait();
+                        changed.await();
                     } else {
-                        long wait_time=target_time - System.currentTimeMillis();
+                        long wait_time=target_time - System.nanoTime();
                         if(wait_time > 0) {
-                            this.wait(wait_time);
+                            changed.awaitNanos(wait_time);
                         } else {
                             throw new ExecuteException("timeout occurred in rendezvous");
                         }
@@ -102,7 +126,7 @@ public class Rendezvous
                 isDeleted = true;
                 needsRemove = true;
             }
-            this.notifyAll();
+            changed.signalAll();
         }
 
         return index;
@@ -112,7 +136,7 @@ public class Rendezvous
 
     /**
      * delete this rendezvous causing any waiting threads to return -1 form the rendezvous call. n.b. this
-     * must be called synchronized on the rendezvous object in question
+     * must be called while holding the lock on the rendezvous object in question
      * @return false if a delete has already been requested otherwise true
      */
     public boolean delete()
@@ -126,7 +150,7 @@ public class Rendezvous
         // if any threads arrived then make sure they are *all* poisoned
         if (counter.arrived > 0 && counter.arrived < expected) {
             counter.isPoisoned = true;
-            this.notifyAll();
+            changed.signalAll();
         }
 
         return true;
@@ -135,6 +159,16 @@ public class Rendezvous
     public int getExpected() {
         return expected;
     }
+    /**
+     * lock used to guard the state of this rendezvous
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * condition signalled when the rendezvous completes or is deleted
+     */
+    private final Condition changed;
+
     /**
      * the number of threads which are expected to arrive at this rendezvous
      */
@@ -0,0 +1,130 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.synchronization;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a long counter which spreads updates across several cells so that threads incrementing the
+ * counter concurrently do not all contend on the same memory location. reading the counter sums
+ * the cells so it is more expensive than an update. cells are spaced out in the backing array to
+ * avoid false sharing between cache lines.
+ */
+public class StripedCounter
+{
+    /**
+     * number of array slots per cell -- 8 longs fill a typical 64 byte cache line
+     */
+    private final static int SPACING = 8;
+
+    /**
+     * number of cells, always a power of 2
+     */
+    private final static int CELLS = computeCells();
+
+    private final AtomicLongArray cells;
+
+    public StripedCounter()
+    {
+        cells = new AtomicLongArray(CELLS * SPACING);
+    }
+
+    /**
+     * add a value to the counter
+     * @param amount the value to add
+     */
+    public void add(long amount)
+    {
+        cells.getAndAdd(index(), amount);
+    }
+
+    /**
+     * add one to the counter
+     */
+    public void increment()
+    {
+        add(1L);
+    }
+
+    /**
+     * return the current value of the counter. the result is not an atomic snapshot if
+     * updates happen concurrently with the call.
+     * @return the sum of all cells
+     */
+    public long sum()
+    {
+        long sum = 0L;
+        for (int i = 0; i < CELLS; i++) {
+            sum += cells.get(i * SPACING);
+        }
+        return sum;
+    }
+
+    /**
+     * return the current value of the counter and reset it to zero. updates which happen
+     * concurrently with the call are either included in the result or retained in the counter.
+     * @return the sum of all cells before they were reset
+     */
+    public long sumThenReset()
+    {
+        long sum = 0L;
+        for (int i = 0; i < CELLS; i++) {
+            sum += cells.getAndSet(i * SPACING, 0L);
+        }
+        return sum;
+    }
+
+    /**
+     * reset the counter to zero
+     */
+    public void reset()
+    {
+        for (int i = 0; i < CELLS; i++) {
+            cells.set(i * SPACING, 0L);
+        }
+    }
+
+    public String toString()
+    {
+        return Long.toString(sum());
+    }
+
+    private static int index()
+    {
+        // scramble the thread id so consecutively numbered threads land on different cells
+        long id = Thread.currentThread().getId();
+        int hash = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & (CELLS - 1)) * SPACING;
+    }
+
+    private static int computeCells()
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int cells = 1;
+        while (cells < processors * 2 && cells < 64) {
+            cells <<= 1;
+        }
+        return cells;
+    }
+}
@@ -23,29 +23,54 @@
 */
 package org.jboss.byteman.synchronization;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * Class used to capture elapsed time.
+ * Class used to capture elapsed time. Elapsed time is measured using System.nanoTime() and the
+ * start time is updated atomically so timers can be read and reset without locking.
  */
 public class Timer {
-    private long start;
+    private final AtomicLong start;
 
     public Timer() {
-        reset();
+        start = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return the wall clock time in milliseconds at which the timer was started or last reset
+     */
+    public long getStartTime() {
+        return System.currentTimeMillis() - getElapsedTime();
     }
-    
-    public synchronized long getStartTime() {
-    	return start;
+
+    /**
+     * @return the elapsed time in milliseconds since the timer was started or last reset
+     */
+    public long getElapsedTime() {
+        return getElapsedNanos() / 1000000L;
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds since the timer was started or last reset
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - start.get();
     }
 
-    public synchronized long getElapsedTime() {
-        return System.currentTimeMillis() - start;
+    /**
+     * restart the timer
+     * @return the elapsed time in milliseconds before the reset
+     */
+    public long reset() {
+        return resetNanos() / 1000000L;
     }
 
-    public synchronized long reset() {
-        try {
-            return getElapsedTime();
-        } finally {
-            start = System.currentTimeMillis();
-        }
+    /**
+     * restart the timer
+     * @return the elapsed time in nanoseconds before the reset
+     */
+    public long resetNanos() {
+        long now = System.nanoTime();
+        return now - start.getAndSet(now);
     }
 }
@@ -0,0 +1,227 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019 Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.synchronization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * a fixed size summary of the most frequently offered keys in a stream implemented using the
+ * Space-Saving algorithm. the summary holds a fixed number of slots. an offered key which is
+ * already in a slot has its count incremented. a key which is not in a slot takes over the slot
+ * with the lowest count, inheriting that count as its error bound. the reported count for a key
+ * never underestimates its true count and overestimates it by at most its error. any key whose
+ * true count exceeds the total offered divided by the capacity is guaranteed to be retained.
+ * slots are updated with compare and swap so offers do not need to lock. offers which race for
+ * the same slot may briefly attribute an increment to the wrong key so counts are approximate
+ * under heavy contention.
+ */
+public class TopK
+{
+    private final static Object NULL_KEY = new Object();
+
+    private final Slot[] slots;
+    private final ConcurrentHashMap<Object, Slot> index;
+    private final AtomicLong total;
+
+    public TopK(int capacity)
+    {
+        slots = new Slot[capacity < 1 ? 1 : capacity];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        index = new ConcurrentHashMap<Object, Slot>();
+        total = new AtomicLong(0);
+    }
+
+    /**
+     * count an occurrence of a key
+     * @param key the key
+     * @param weight the number of occurrences to count
+     */
+    public void offer(Object key, long weight)
+    {
+        if (key == null) {
+            key = NULL_KEY;
+        }
+        total.getAndAdd(weight);
+        while (true) {
+            Slot slot = index.get(key);
+            if (slot != null) {
+                if (key.equals(slot.key.get())) {
+                    slot.count.getAndAdd(weight);
+                    return;
+                }
+                // the slot has been taken over by some other key
+                index.remove(key, slot);
+                continue;
+            }
+            Slot min = slots[0];
+            long minCount = min.count.get();
+            for (int i = 1; i < slots.length && minCount > 0; i++) {
+                long count = slots[i].count.get();
+                if (count < minCount) {
+                    min = slots[i];
+                    minCount = count;
+                }
+            }
+            Object old = min.key.get();
+            if (min.key.compareAndSet(old, key)) {
+                if (old != null) {
+                    index.remove(old, min);
+                }
+                min.error = minCount;
+                min.count.getAndAdd(weight);
+                index.putIfAbsent(key, min);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the total number of occurrences offered
+     */
+    public long getTotal()
+    {
+        return total.get();
+    }
+
+    /**
+     * return the most frequent keys in decreasing order of count
+     * @param n the maximum number of keys to return
+     * @return a list of at most n items
+     */
+    public List<Item> top(int n)
+    {
+        // a key may transiently occupy two slots so merge them
+        HashMap<Object, Item> merged = new HashMap<Object, Item>();
+        for (Slot slot : slots) {
+            Object key = slot.key.get();
+            if (key == null) {
+                continue;
+            }
+            long count = slot.count.get();
+            Item item = merged.get(key);
+            if (item == null) {
+                merged.put(key, new Item((key == NULL_KEY ? null : key), count, slot.error));
+            } else {
+                item.count += count;
+            }
+        }
+        List<Item> items = new ArrayList<Item>(merged.values());
+        Collections.sort(items, new Comparator<Item>() {
+            public int compare(Item i1, Item i2) {
+                return (i1.count < i2.count ? 1 : (i1.count == i2.count ? 0 : -1));
+            }
+        });
+        if (items.size() > n) {
+            return new ArrayList<Item>(items.subList(0, (n < 0 ? 0 : n)));
+        }
+        return items;
+    }
+
+    /**
+     * discard all keys and counts
+     */
+    public void reset()
+    {
+        for (Slot slot : slots) {
+            slot.key.set(null);
+            slot.count.set(0);
+            slot.error = 0;
+        }
+        index.clear();
+        total.set(0);
+    }
+
+    /**
+     * render the most frequent keys
+     * @param n the maximum number of keys to include
+     * @return a String of the form "key=count key=count ..."
+     */
+    public String toString(int n)
+    {
+        StringBuilder builder = new StringBuilder();
+        String sep = "";
+        for (Item item : top(n)) {
+            builder.append(sep);
+            builder.append(item.key);
+            builder.append('=');
+            builder.append(item.count);
+            sep = " ";
+        }
+        return builder.toString();
+    }
+
+    public String toString()
+    {
+        return toString(slots.length);
+    }
+
+    /**
+     * a key in the summary together with its estimated count and the maximum amount by which
+     * that count may exceed its true count
+     */
+    public static class Item
+    {
+        private final Object key;
+        private long count;
+        private final long error;
+
+        Item(Object key, long count, long error)
+        {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public Object getKey()
+        {
+            return key;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getError()
+        {
+            return error;
+        }
+    }
+
+    private static class Slot
+    {
+        final AtomicReference<Object> key = new AtomicReference<Object>();
+        final AtomicLong count = new AtomicLong(0);
+        volatile long error;
+    }
+}
@@ -25,8 +25,14 @@ package org.jboss.byteman.synchronization;
 
 import org.jboss.byteman.rule.exception.ExecuteException;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
- * class used to manage rule wait operations
+ * class used to manage rule wait operations. waiting and signalling threads are suspended using a
+ * lock and condition rather than a monitor so that a virtual thread which waits does not pin its
+ * carrier thread.
  */
 public class Waiter
 {
@@ -41,35 +47,37 @@ public class Waiter
         this.signalled = signalled;
         this.killed = killed;
         this.waiting = false;
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
     }
 
     public void waitFor(long millisecs)
     {
-        long start = System.currentTimeMillis();
-        long waitForMillis = millisecs;
-        synchronized(this) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millisecs);
+        lock.lock();
+        try {
             waiting = true;
-            while (!signalled && waitForMillis >= 0){
+            // wake any signalling thread which is waiting for a waiter to arrive
+            changed.signalAll();
+            while (!signalled) {
                 try {
-                	if (waitForMillis == 0 && millisecs > 0) {
-                		break;
-                	}
-                	this.wait(waitForMillis);
+                    if (millisecs == 0) {
+                        changed.await();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        changed.awaitNanos(remaining);
+                    }
                 } catch (InterruptedException e) {
                     // ignore
                 }
-                
-                if (!signalled)
-                {
-                   waitForMillis = (millisecs == 0) ? 0 : millisecs + start - System.currentTimeMillis();
-                }
-            }
-            if (signalled) {
-               // notify in case a signalling thread was waiting
-               this.notifyAll();
             }
+        } finally {
+            lock.unlock();
         }
-        
+
         // if a signalKill was used then we have to throw an exception otherwise we just return
         if (killed) {
             throw new ExecuteException("Waiter.waitFor : killed thread waiting for " + waiterFor);
@@ -78,33 +86,53 @@ public class Waiter
 
     public boolean signalWake()
     {
-        boolean result;
-
-        synchronized (this) {
-            result = signalled;
+        lock.lock();
+        try {
+            boolean result = signalled;
             if (!signalled) {
                 signalled = true;
-                this.notifyAll();
+                changed.signalAll();
             }
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
 
     public boolean signalThrow()
     {
-        boolean result;
-
-        synchronized (this) {
-            result = signalled;
+        lock.lock();
+        try {
+            boolean result = signalled;
             if (!signalled) {
                 signalled = true;
                 killed = true;
-                this.notifyAll();
+                changed.signalAll();
             }
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return result;
+    /**
+     * suspend the calling thread until some other thread has called waitFor on this waiter. this
+     * is used by a signalling thread which must meet a waiting thread.
+     */
+    public void awaitWaiting()
+    {
+        lock.lock();
+        try {
+            while (!waiting) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     public boolean waiting()
@@ -119,22 +147,34 @@ public class Waiter
     private Object waiterFor;
 
     /**
-     * true if this waiter has been signalled by a call to signalKill
+     * true if this waiter has been signalled by a call to signal or signalKill
      */
 
-    private boolean signalled;
+    private volatile boolean signalled;
 
     /**
-     * true if this waiter has been signalled by a call to signal or signalKill
+     * true if this waiter has been signalled by a call to signalKill
      */
 
-    private boolean killed;
+    private volatile boolean killed;
 
     /**
      * true if waitFor has been called
      */
 
-    private boolean waiting;
+    private volatile boolean waiting;
+
+    /**
+     * lock used to guard updates to the signalled, killed and waiting flags
+     */
+
+    private final ReentrantLock lock;
+
+    /**
+     * condition signalled whenever a thread starts waiting or this waiter is signalled
+     */
+
+    private final Condition changed;
 
     /**
      * getter for signalled flag
@@ -52,6 +52,7 @@ public class TestRuleCheck extends Test
         checker.addPackage("org.jboss.byteman.tests.bugfixes");
         checker.addPackage("org.jboss.byteman.tests.javaops");
         checker.addPackage("org.jboss.byteman.tests.helpertests");
+        checker.addPackage("org.jboss.byteman.tests.location");
         checker.checkRules();
         RuleCheckResult result= checker.getResult();
         if(result.hasError() || result.hasWarning()) {
@@ -0,0 +1,114 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure the aggregation helper builtins track frequent keys, event counts and distinct
+ * values
+ */
+public class TestAggregation extends Test
+{
+    public TestAggregation()
+    {
+        super(TestAggregation.class.getCanonicalName());
+    }
+
+    public final static int THREAD_COUNT = 4;
+    public final static int DISTINCT_COUNT = 10000;
+
+    public void test()
+    {
+        try {
+            createAggregates();
+            log("offering keys to top-K summary");
+            offer("a", 10);
+            offer("b", 5);
+            offer("c", 3);
+            offer("d", 1);
+            offer("e", 1);
+            offer("f", 1);
+            readTopK(2);
+
+            log("adding distinct values from " + THREAD_COUNT + " threads");
+            Thread[] threads = new Thread[THREAD_COUNT];
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < DISTINCT_COUNT; j++) {
+                            triggerMethod(j);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i].join();
+            }
+            readAggregates();
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    private void offer(String key, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            offerKey(key);
+        }
+    }
+
+    public void createAggregates()
+    {
+    }
+
+    public void offerKey(String key)
+    {
+    }
+
+    public void readTopK(int n)
+    {
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    public void readAggregates()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("offering keys to top-K summary");
+        logExpected("readTopK(2) : a=10 b=5");
+        logExpected("adding distinct values from " + THREAD_COUNT + " threads");
+        logExpected("readAggregates : count " + (THREAD_COUNT * DISTINCT_COUNT) + " distinct within 5% true");
+
+        return super.getExpected();
+    }
+}
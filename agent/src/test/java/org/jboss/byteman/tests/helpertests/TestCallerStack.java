@@ -0,0 +1,81 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure caller matching and stack formatting builtins select the correct frames when
+ * triggered from a deep stack
+ */
+public class TestCallerStack extends Test
+{
+    public TestCallerStack()
+    {
+        super(TestCallerStack.class.getCanonicalName());
+    }
+
+    public final static int DEPTH = 200;
+
+    public void test()
+    {
+        try {
+            recurse(DEPTH);
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public void recurse(int depth)
+    {
+        if (depth > 0) {
+            recurse(depth - 1);
+        } else {
+            triggerMethod();
+        }
+    }
+
+    public void triggerMethod()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("callerEquals(\"recurse\") true");
+        logExpected("callerEquals(\"triggerMethod\") false");
+        logExpected("callerEquals(\"triggerMethod\", 0, 1) true");
+        logExpected("callerEquals(\"test\", 1, 10) false");
+        logExpected("callerEquals(\"TestCallerStack.test\", true, 0) true");
+        logExpected("callerMatches(\"rec.*\") true");
+        logExpected("callerMatches(\"org\\.jboss\\.byteman\\.tests\\.helpertests\\.TestCallerStack\\.te.*\", true, true, 0) true");
+        logExpected("callerMatches(\"te.*\", 1, 100) false");
+        logExpected("formatStack(\"\", 2) lines 3");
+        logExpected("formatStack(\"\", 2) starts with trigger method true");
+        logExpected("formatStack(\"\", 2) ends with . . . true");
+
+        return super.getExpected();
+    }
+}
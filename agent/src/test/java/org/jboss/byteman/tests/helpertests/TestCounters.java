@@ -0,0 +1,100 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure counter builtins count correctly when updated from multiple threads
+ */
+public class TestCounters extends Test
+{
+    public TestCounters()
+    {
+        super(TestCounters.class.getCanonicalName());
+    }
+
+    public final static int THREAD_COUNT = 4;
+    public final static int CALL_COUNT = 1000;
+
+    public void test()
+    {
+        try {
+            log("calling TestCounters.triggerMethod from " + THREAD_COUNT + " threads");
+            Thread[] threads = new Thread[THREAD_COUNT];
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < CALL_COUNT; j++) {
+                            triggerMethod(j);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i].join();
+            }
+            log("called TestCounters.triggerMethod from " + THREAD_COUNT + " threads");
+
+            readCounts();
+            readAndResetAllCounts();
+            readCounts();
+            deleteAllCounts();
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    public void readCounts()
+    {
+    }
+
+    public void readAndResetAllCounts()
+    {
+    }
+
+    public void deleteAllCounts()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("calling TestCounters.triggerMethod from " + THREAD_COUNT + " threads");
+        logExpected("called TestCounters.triggerMethod from " + THREAD_COUNT + " threads");
+        logExpected("readCounts : calls == 4000");
+        logExpected("readAndResetAllCounts : even == 2000");
+        logExpected("readAndResetAllCounts : odd == 2000");
+        logExpected("readCounts : calls == 0");
+        logExpected("deleteAllCounts : deleted 3");
+
+        return super.getExpected();
+    }
+}
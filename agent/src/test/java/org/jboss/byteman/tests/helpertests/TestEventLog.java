@@ -0,0 +1,134 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.rule.helper.EventLogDecoder;
+import org.jboss.byteman.tests.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+/**
+ * Test to ensure events recorded to a binary event log from multiple threads can be decoded
+ */
+public class TestEventLog extends Test
+{
+    public TestEventLog()
+    {
+        super(TestEventLog.class.getCanonicalName());
+    }
+
+    public final static int THREAD_COUNT = 4;
+    public final static int CALL_COUNT = 1000;
+
+    public void test()
+    {
+        File file = null;
+        try {
+            file = File.createTempFile("TestEventLog", ".bin");
+            openLog(file.getPath());
+            Thread[] threads = new Thread[THREAD_COUNT];
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                final int threadIdx = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < CALL_COUNT; j++) {
+                            recordEvent(threadIdx, j);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i].join();
+            }
+            closeLog();
+            checkLog(file);
+        } catch (Exception e) {
+            log(e);
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+
+        checkOutput(true);
+    }
+
+    public void openLog(String fileName)
+    {
+    }
+
+    public void recordEvent(int threadIdx, int callIdx)
+    {
+    }
+
+    public void closeLog()
+    {
+    }
+
+    private void checkLog(File file) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        EventLogDecoder.decode(file, out, true);
+        out.close();
+        int[] next = new int[THREAD_COUNT];
+        int events = 0;
+        boolean ordered = true;
+        BufferedReader reader = new BufferedReader(new StringReader(bytes.toString()));
+        String line = reader.readLine();
+        log("header " + line);
+        while ((line = reader.readLine()) != null) {
+            // timestamp,nanos,thread,rule,key,v0,v1
+            String[] fields = line.split(",");
+            if (!fields[3].equals("record event") || !fields[4].equals("call")) {
+                log("unexpected event " + line);
+            }
+            int threadIdx = Integer.parseInt(fields[5]);
+            int callIdx = Integer.parseInt(fields[6]);
+            if (next[threadIdx] != callIdx) {
+                ordered = false;
+            }
+            next[threadIdx] = callIdx + 1;
+            events++;
+        }
+        log("event log contains " + events + " events");
+        log("event log ordered " + ordered);
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("openLog : opened true");
+        logExpected("closeLog : closed true");
+        logExpected("header timestamp,nanos,thread,rule,key,values");
+        logExpected("event log contains " + (THREAD_COUNT * CALL_COUNT) + " events");
+        logExpected("event log ordered true");
+
+        return super.getExpected();
+    }
+}
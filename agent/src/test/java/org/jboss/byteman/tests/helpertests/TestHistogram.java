@@ -0,0 +1,82 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure nanosecond timers and histogram builtins record and report values correctly
+ */
+public class TestHistogram extends Test
+{
+    public TestHistogram()
+    {
+        super(TestHistogram.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            for (int i = 1; i <= 1000; i++) {
+                recordValue(i);
+            }
+            readPercentiles();
+            readSummary();
+            readPercentiles();
+            timeCall();
+            timeCall();
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public void recordValue(int value)
+    {
+    }
+
+    public void readPercentiles()
+    {
+    }
+
+    public void readSummary()
+    {
+    }
+
+    public void timeCall()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("readPercentiles : count 1000 p50 503 p99 991 p100 1000");
+        logExpected("readSummary : count 1000 min 1 mean 500 p50 503 p90 911 p99 991 p999 1000 max 1000");
+        logExpected("readPercentiles : count 0 p50 0 p99 0 p100 0");
+        logExpected("timeCall : elapsed positive true count 1");
+        logExpected("timeCall : elapsed positive true count 2");
+
+        return super.getExpected();
+    }
+}
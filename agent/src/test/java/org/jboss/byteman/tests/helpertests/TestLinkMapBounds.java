@@ -0,0 +1,106 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure bounded link maps evict and expire links and report what they have discarded
+ */
+public class TestLinkMapBounds extends Test
+{
+    public TestLinkMapBounds()
+    {
+        super(TestLinkMapBounds.class.getCanonicalName());
+    }
+
+    public final static int MAX_SIZE = 10;
+    public final static int LINK_COUNT = 25;
+
+    public void test()
+    {
+        try {
+            createMaps();
+            log("linking " + LINK_COUNT + " names into bounded map");
+            for (int i = 0; i < LINK_COUNT; i++) {
+                linkBounded(i);
+            }
+            checkBounded(0);
+            checkBounded(LINK_COUNT - 1);
+            readStatistics("bounded");
+
+            log("linking names into expiring map");
+            linkExpiring("one");
+            linkExpiring("two");
+            checkExpiring("one");
+            Thread.sleep(200);
+            checkExpiring("one");
+            checkExpiring("two");
+            readStatistics("expiring");
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public void createMaps()
+    {
+    }
+
+    public void linkBounded(int i)
+    {
+    }
+
+    public void checkBounded(int i)
+    {
+    }
+
+    public void linkExpiring(String name)
+    {
+    }
+
+    public void checkExpiring(String name)
+    {
+    }
+
+    public void readStatistics(String mapName)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("linking " + LINK_COUNT + " names into bounded map");
+        logExpected("checkBounded(0) : null");
+        logExpected("checkBounded(" + (LINK_COUNT - 1) + ") : " + (LINK_COUNT - 1));
+        logExpected("readStatistics(bounded) : size " + MAX_SIZE + " evicted " + (LINK_COUNT - MAX_SIZE) + " expired 0 collected 0");
+        logExpected("linking names into expiring map");
+        logExpected("checkExpiring(one) : 1");
+        logExpected("checkExpiring(one) : null");
+        logExpected("checkExpiring(two) : null");
+        logExpected("readStatistics(expiring) : size 0 evicted 0 expired 2 collected 0");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure countdown, rendezvous, wait/signal and join builtins behave correctly when
+ * used from multiple threads
+ */
+public class TestSynchronization extends Test
+{
+    public TestSynchronization()
+    {
+        super(TestSynchronization.class.getCanonicalName());
+    }
+
+    public final static int THREAD_COUNT = 4;
+    public final static int CALL_COUNT = 50;
+
+    public void test()
+    {
+        try {
+            createAll();
+
+            log("counting down from " + THREAD_COUNT + " threads");
+            runThreads(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < CALL_COUNT; j++) {
+                        countDownTrigger();
+                    }
+                }
+            });
+            readCount("fired");
+
+            log("meeting at rendezvous from " + THREAD_COUNT + " threads");
+            runThreads(new Runnable() {
+                public void run() {
+                    rendezvousTrigger();
+                    rendezvousTrigger();
+                }
+            });
+            readCount("index0");
+            readCount("index" + (THREAD_COUNT - 1));
+
+            log("waiting for signal with null identifier");
+            Thread waiter = new Thread() {
+                public void run() {
+                    waitTrigger();
+                }
+            };
+            waiter.start();
+            signalTrigger();
+            waiter.join();
+            readCount("woken");
+
+            log("joining " + THREAD_COUNT + " threads");
+            Thread[] children = new Thread[THREAD_COUNT];
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                children[i] = new Thread() {
+                    public void run() {
+                        enlistTrigger();
+                    }
+                };
+                children[i].start();
+            }
+            joinTrigger();
+            readCount("joined");
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    private void runThreads(Runnable runnable) throws InterruptedException
+    {
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new Thread(runnable);
+            threads[i].start();
+        }
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].join();
+        }
+    }
+
+    public void createAll()
+    {
+    }
+
+    public void countDownTrigger()
+    {
+    }
+
+    public void rendezvousTrigger()
+    {
+    }
+
+    public void waitTrigger()
+    {
+    }
+
+    public void signalTrigger()
+    {
+    }
+
+    public void enlistTrigger()
+    {
+    }
+
+    public void joinTrigger()
+    {
+    }
+
+    public void readCount(String name)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("counting down from " + THREAD_COUNT + " threads");
+        logExpected("readCount(fired) : 1");
+        logExpected("meeting at rendezvous from " + THREAD_COUNT + " threads");
+        logExpected("readCount(index0) : 2");
+        logExpected("readCount(index" + (THREAD_COUNT - 1) + ") : 2");
+        logExpected("waiting for signal with null identifier");
+        logExpected("readCount(woken) : 1");
+        logExpected("joining " + THREAD_COUNT + " threads");
+        logExpected("readCount(joined) : 1");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
+
+/**
+ * Test to ensure the thread dump builtins select threads by name and state and include lock
+ * details when requested
+ */
+public class TestThreadDump extends Test
+{
+    public TestThreadDump()
+    {
+        super(TestThreadDump.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        File file = null;
+        final Object lock = new Object();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread("dump-holder") {
+            public void run() {
+                synchronized (lock) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            }
+        };
+        Thread blocked = new Thread("dump-blocked") {
+            public void run() {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        };
+        try {
+            file = File.createTempFile("TestThreadDump", ".log");
+            file.delete();
+            holder.start();
+            locked.await();
+            blocked.start();
+            while (blocked.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(10);
+            }
+            dumpThreads(file.getPath(), Pattern.quote(Thread.currentThread().getName()));
+            release.countDown();
+            holder.join();
+            blocked.join();
+            checkDump(file);
+        } catch (Exception e) {
+            log(e);
+        } finally {
+            release.countDown();
+            if (file != null) {
+                file.delete();
+            }
+        }
+
+        checkOutput(true);
+    }
+
+    public void dumpThreads(String path, String currentThreadRegExp)
+    {
+    }
+
+    private void checkDump(File file) throws Exception
+    {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        boolean blockedHeader = false;
+        boolean lockedMonitor = false;
+        boolean currentTopFrame = false;
+        boolean checkTopFrame = false;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (checkTopFrame) {
+                    currentTopFrame = line.startsWith(TestThreadDump.class.getName() + ".dumpThreads(");
+                    checkTopFrame = false;
+                }
+                if (line.startsWith("\"dump-blocked\" Id=") &&
+                        line.contains(" BLOCKED on java.lang.Object@") &&
+                        line.contains(" owned by \"dump-holder\" Id=")) {
+                    blockedHeader = true;
+                } else if (line.startsWith("  - locked java.lang.Object@")) {
+                    lockedMonitor = true;
+                } else if (line.startsWith("\"" + Thread.currentThread().getName() + "\" Id=")) {
+                    checkTopFrame = true;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        log("checkDump : blocked thread header " + blockedHeader);
+        log("checkDump : locked monitor " + lockedMonitor);
+        log("checkDump : current thread top frame " + currentTopFrame);
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("dumpThreads : dumped 2 threads with lock info");
+        logExpected("dumpThreads : dumped 1 blocked threads");
+        logExpected("dumpThreads : dumped 1 current threads");
+        logExpected("checkDump : blocked thread header true");
+        logExpected("checkDump : locked monitor true");
+        logExpected("checkDump : current thread top frame true");
+
+        return super.getExpected();
+    }
+}
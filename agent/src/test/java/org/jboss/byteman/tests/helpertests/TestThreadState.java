@@ -0,0 +1,91 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure thread scoped flags, counters and links are only visible to the thread which
+ * created them
+ */
+public class TestThreadState extends Test
+{
+    public TestThreadState()
+    {
+        super(TestThreadState.class.getCanonicalName());
+    }
+
+    public final static int CALL_COUNT = 100;
+
+    public void test()
+    {
+        try {
+            log("updating thread state from child thread");
+            Thread child = new Thread() {
+                public void run() {
+                    for (int i = 0; i < CALL_COUNT; i++) {
+                        triggerMethod(i);
+                    }
+                    readState("child");
+                }
+            };
+            child.start();
+            child.join();
+
+            log("updating thread state from main thread");
+            triggerMethod(1);
+            readState("main");
+            clearState("main");
+            readState("main");
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    public void readState(String name)
+    {
+    }
+
+    public void clearState(String name)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("updating thread state from child thread");
+        logExpected("readState(child) : flagged true count " + CALL_COUNT + " linked " + (CALL_COUNT - 1));
+        logExpected("updating thread state from main thread");
+        logExpected("readState(main) : flagged true count 1 linked 1");
+        logExpected("clearState(main) : true");
+        logExpected("readState(main) : flagged false count 0 linked null");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.helpertests;
+
+import org.jboss.byteman.rule.helper.TraceFile;
+import org.jboss.byteman.tests.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test to ensure trace output written to a trace file from multiple threads is complete and
+ * preserves the order in which each thread traced its messages
+ */
+public class TestTraceFile extends Test
+{
+    public TestTraceFile()
+    {
+        super(TestTraceFile.class.getCanonicalName());
+    }
+
+    public final static int THREAD_COUNT = 4;
+    public final static int CALL_COUNT = 1000;
+    public final static int RACE_ROUNDS = 50;
+
+    public void test()
+    {
+        File file = null;
+        try {
+            file = File.createTempFile("TestTraceFile", ".log");
+            file.delete();
+            openTrace(file.getPath());
+            Thread[] threads = new Thread[THREAD_COUNT];
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                final int threadIdx = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < CALL_COUNT; j++) {
+                            writeTrace(threadIdx, j);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i].join();
+            }
+            closeTrace();
+            checkTrace(file);
+            checkCloseRace(file);
+        } catch (Exception e) {
+            log(e);
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+
+        checkOutput(true);
+    }
+
+    public void openTrace(String fileName)
+    {
+    }
+
+    public void writeTrace(int threadIdx, int callIdx)
+    {
+    }
+
+    public void closeTrace()
+    {
+    }
+
+    private void checkTrace(File file) throws Exception
+    {
+        int[] next = new int[THREAD_COUNT];
+        int lines = 0;
+        boolean ordered = true;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] words = line.split(" ");
+                int threadIdx = Integer.parseInt(words[1]);
+                int callIdx = Integer.parseInt(words[3]);
+                if (next[threadIdx] != callIdx) {
+                    ordered = false;
+                }
+                next[threadIdx] = callIdx + 1;
+                lines++;
+            }
+        } finally {
+            reader.close();
+        }
+        log("trace file contains " + lines + " lines");
+        log("trace file ordered " + ordered);
+    }
+
+    /**
+     * close buffered trace files while threads are still writing to them and check that every
+     * message reported as written reaches the file
+     */
+    private void checkCloseRace(File file) throws Exception
+    {
+        int lost = 0;
+        for (int round = 0; round < RACE_ROUNDS; round++) {
+            file.delete();
+            // the buffer holds every message the threads can write so none are dropped
+            final TraceFile traceFile = new TraceFile("race", file, THREAD_COUNT * CALL_COUNT, 0, 0);
+            final AtomicInteger accepted = new AtomicInteger();
+            Thread[] threads = new Thread[THREAD_COUNT];
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < CALL_COUNT && traceFile.write("race", true); j++) {
+                            accepted.incrementAndGet();
+                            Thread.yield();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            Thread.sleep(1);
+            traceFile.close();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                threads[i].join();
+            }
+            lost += accepted.get() - countLines(file, "race");
+        }
+        log("close race lost " + lost + " messages");
+    }
+
+    private static int countLines(File file, String message) throws Exception
+    {
+        int lines = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(message)) {
+                    lines++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("openTrace : opened true");
+        logExpected("closeTrace : closed true");
+        logExpected("trace file contains " + (THREAD_COUNT * CALL_COUNT) + " lines");
+        logExpected("trace file ordered true");
+        logExpected("close race lost 0 messages");
+
+        return super.getExpected();
+    }
+}
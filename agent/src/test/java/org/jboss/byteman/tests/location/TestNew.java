@@ -0,0 +1,96 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.location;
+
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test to ensure at new and after new trigger points are correctly identified
+ */
+public class TestNew extends Test
+{
+    public TestNew()
+    {
+        super(TestNew.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            log("calling TestNew.allocate");
+            allocate();
+            log("called TestNew.allocate");
+            log("calling TestNew.allocateAll");
+            allocateAll();
+            log("called TestNew.allocateAll");
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput();
+    }
+
+    public void allocate()
+    {
+        StringBuilder builder = new StringBuilder("abc");
+        int[] counts = new int[3];
+        String[][] grid = new String[2][4];
+        List<Object> list = new ArrayList<Object>(Arrays.asList(new Object[] { builder, counts, grid }));
+        log("allocated " + list.size() + " objects");
+    }
+
+    public void allocateAll()
+    {
+        Object first = new Object();
+        Object second = new long[5];
+        Object third = new Object();
+        // avoid string concatenation here as it may allocate a StringBuilder
+        log(first != third && second != null ? "allocated distinct objects" : "allocated shared objects");
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("calling TestNew.allocate");
+        logExpected("AT NEW StringBuilder");
+        logExpected("AFTER NEW StringBuilder abc");
+        logExpected("AT NEW int[] length 3");
+        logExpected("AFTER NEW int[] length 3");
+        logExpected("AT NEW String[][] dimensions 2 x 4");
+        // the Object[] is allocated while the ArrayList allocation is still pending
+        logExpected("AFTER NEW ArrayList size 3");
+        logExpected("allocated 3 objects");
+        logExpected("called TestNew.allocate");
+        logExpected("calling TestNew.allocateAll");
+        logExpected("AT NEW 2 long[] length 5");
+        logExpected("allocated distinct objects");
+        logExpected("AT NEW ALL count 3");
+        logExpected("called TestNew.allocateAll");
+
+        return super.getExpected();
+    }
+}
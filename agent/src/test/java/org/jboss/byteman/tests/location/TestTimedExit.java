@@ -0,0 +1,116 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.location;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure at timed exit trigger points are correctly identified and bind the elapsed time
+ */
+public class TestTimedExit extends Test
+{
+    public TestTimedExit()
+    {
+        super(TestTimedExit.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            log("calling TestTimedExit.compute(-1)");
+            log("compute(-1) returned " + compute(-1));
+            log("calling TestTimedExit.compute(3)");
+            log("compute(3) returned " + compute(3));
+            log("calling TestTimedExit.failAfterPause");
+            failAfterPause();
+        } catch (IllegalStateException e) {
+            log("caught " + e.getMessage());
+        } catch (Exception e) {
+            log(e);
+        }
+        log("creating TestTimedExit.Timed");
+        new Timed(this);
+        log("created TestTimedExit.Timed");
+
+        checkOutput();
+    }
+
+    public int compute(int n)
+    {
+        if (n < 0) {
+            return -1;
+        }
+        pause();
+        return n * 2;
+    }
+
+    public void failAfterPause()
+    {
+        pause();
+        throw new IllegalStateException("fail");
+    }
+
+    private static void pause()
+    {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    public static class Timed
+    {
+        private Test test;
+
+        public Timed(Test test)
+        {
+            this.test = test;
+            pause();
+        }
+
+        public Test getTest()
+        {
+            return test;
+        }
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("calling TestTimedExit.compute(-1)");
+        logExpected("TIMED EXIT compute(-1) elapsed time recorded true");
+        logExpected("compute(-1) returned -1");
+        logExpected("calling TestTimedExit.compute(3)");
+        logExpected("TIMED EXIT compute(3) took at least 10ms true");
+        logExpected("compute(3) returned 6");
+        logExpected("calling TestTimedExit.failAfterPause");
+        logExpected("TIMED EXIT failAfterPause took at least 10ms true");
+        logExpected("caught fail");
+        logExpected("creating TestTimedExit.Timed");
+        logExpected("TIMED EXIT Timed(Test) took at least 10ms true");
+        logExpected("created TestTimedExit.Timed");
+
+        return super.getExpected();
+    }
+}
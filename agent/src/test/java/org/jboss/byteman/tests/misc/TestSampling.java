@@ -0,0 +1,101 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.misc;
+
+import org.jboss.byteman.tests.Test;
+
+/**
+ * Test to ensure SAMPLE and RATE clauses filter triggerings before the rule is executed
+ */
+public class TestSampling extends Test
+{
+    public TestSampling()
+    {
+        super(TestSampling.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            log("calling TestSampling.triggerMethod1 10 times");
+            for (int i = 1; i <= 10; i++) {
+                triggerMethod1(i);
+            }
+            log("called TestSampling.triggerMethod1 10 times");
+
+            log("calling TestSampling.triggerMethod2 10 times");
+            long start = System.nanoTime();
+            for (int i = 1; i <= 10; i++) {
+                triggerMethod2(i);
+            }
+            long elapsed = System.nanoTime() - start;
+            log("called TestSampling.triggerMethod2 10 times");
+            // the calls normally complete within a second but a slow machine may take longer
+            // in which case the rate limit allows one more triggering for each elapsed second
+            long allowed = 1 + elapsed / 1000000000L;
+            log("triggerMethod2 : rate limited " + (rateLimitedCount >= 1 && rateLimitedCount <= allowed));
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public void triggerMethod1(int i)
+    {
+    }
+
+    public void triggerMethod2(int i)
+    {
+    }
+
+    private int rateLimitedCount = 0;
+
+    public void rateLimited(int i)
+    {
+        if (i == 1) {
+            log("triggerMethod2 : triggered with " + i);
+        }
+        rateLimitedCount++;
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("calling TestSampling.triggerMethod1 10 times");
+        logExpected("triggerMethod1 : triggered with 1");
+        logExpected("triggerMethod1 : triggered with 2");
+        logExpected("triggerMethod1 : triggered with 5");
+        logExpected("triggerMethod1 : triggered with 6");
+        logExpected("triggerMethod1 : triggered with 9");
+        logExpected("triggerMethod1 : triggered with 10");
+        logExpected("called TestSampling.triggerMethod1 10 times");
+
+        logExpected("calling TestSampling.triggerMethod2 10 times");
+        logExpected("triggerMethod2 : triggered with 1");
+        logExpected("called TestSampling.triggerMethod2 10 times");
+        logExpected("triggerMethod2 : rate limited true");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test to ensure a rule which exceeds the configured execution rate is disabled and can be
+ * re-enabled via the listener
+ */
+public class TestCircuitBreaker extends Test
+{
+    public TestCircuitBreaker()
+    {
+        super(TestCircuitBreaker.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("dynamic", getRuleText()));
+
+        try {
+            submit.addScripts(scripts);
+        } catch (Exception e) {
+            System.out.println("exception submitting script");
+            fail();
+        }
+
+        try {
+            log("calling TestCircuitBreaker.triggerMethod 10 times");
+            for (int i = 1; i <= 10; i++) {
+                triggerMethod(i);
+            }
+            log("called TestCircuitBreaker.triggerMethod 10 times");
+
+            String listing = submit.listAllRules();
+            if (listing.contains("disabled by circuit breaker")) {
+                log("rule disabled");
+            }
+
+            submit.rearmRules(Collections.singletonList("breaker rule"));
+
+            log("calling TestCircuitBreaker.triggerMethod");
+            triggerMethod(11);
+            log("called TestCircuitBreaker.triggerMethod");
+        } catch (Exception e) {
+            log(e);
+        }
+
+        try {
+            submit.deleteScripts(scripts);
+        } catch (Exception e) {
+            System.out.println("exception deleting script");
+            fail();
+        }
+
+        checkOutput(true);
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE breaker rule\n");
+        buffer.append("CLASS TestCircuitBreaker\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"triggered with \" + $1)\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("calling TestCircuitBreaker.triggerMethod 10 times");
+        logExpected("triggered with 1");
+        logExpected("triggered with 2");
+        logExpected("triggered with 3");
+        logExpected("called TestCircuitBreaker.triggerMethod 10 times");
+        logExpected("rule disabled");
+        logExpected("calling TestCircuitBreaker.triggerMethod");
+        logExpected("triggered with 11");
+        logExpected("called TestCircuitBreaker.triggerMethod");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.RuleMetrics;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure rule execution metrics are collected and can be retrieved via the listener
+ */
+public class TestRuleMetrics extends Test
+{
+    public TestRuleMetrics()
+    {
+        super(TestRuleMetrics.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("dynamic", getRuleText()));
+
+        try {
+            submit.addScripts(scripts);
+        } catch (Exception e) {
+            System.out.println("exception submitting script");
+            fail();
+        }
+
+        try {
+            log("calling TestRuleMetrics.triggerMethod 10 times");
+            for (int i = 1; i <= 10; i++) {
+                triggerMethod(i);
+            }
+            log("called TestRuleMetrics.triggerMethod 10 times");
+
+            for (RuleMetrics metrics : submit.getRuleMetrics(true)) {
+                log(metrics.getRuleName() + " fires " + metrics.getFires() + " hits " + metrics.getHits());
+                if (metrics.getNanos() > 0) {
+                    log(metrics.getRuleName() + " recorded execution time");
+                }
+            }
+            for (RuleMetrics metrics : submit.getRuleMetrics()) {
+                log(metrics.getRuleName() + " fires " + metrics.getFires() + " hits " + metrics.getHits());
+            }
+        } catch (Exception e) {
+            log(e);
+        }
+
+        try {
+            submit.deleteScripts(scripts);
+        } catch (Exception e) {
+            System.out.println("exception deleting script");
+            fail();
+        }
+
+        checkOutput(true);
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE metrics rule\n");
+        buffer.append("CLASS TestRuleMetrics\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF $1 > 7\n");
+        buffer.append("DO $0.log(\"triggered with \" + $1)\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("calling TestRuleMetrics.triggerMethod 10 times");
+        logExpected("triggered with 8");
+        logExpected("triggered with 9");
+        logExpected("triggered with 10");
+        logExpected("called TestRuleMetrics.triggerMethod 10 times");
+        logExpected("metrics rule fires 10 hits 3");
+        logExpected("metrics rule recorded execution time");
+        logExpected("metrics rule fires 0 hits 0");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.AsyncSubmit;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test to ensure requests submitted asynchronously are pipelined, time out and can be cancelled
+ */
+public class TestSubmitAsync extends Test
+{
+    public TestSubmitAsync()
+    {
+        super(TestSubmitAsync.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            AsyncSubmit async = new AsyncSubmit(new Submit());
+            try {
+                // all these requests are written before any response arrives
+                Future<String> version = async.getAgentVersion();
+                Future<String> load = async.addScripts(scripts(getRuleText()));
+                Future<String> list = async.listAllRules();
+                Future<String> bogus = async.submitRequest("BOGUS\n");
+
+                log("version " + (version.get().length() > 0));
+                log("load " + load.get().contains("install rule async test"));
+                log("list " + list.get().contains("RULE async test"));
+                try {
+                    bogus.get();
+                } catch (ExecutionException e) {
+                    log("bogus failed " + e.getCause().getMessage().contains("Unexpected command BOGUS"));
+                }
+                triggerMethod();
+                Future<String> delete = async.deleteScripts(scripts(getRuleText()));
+                log("delete " + delete.get().contains("uninstall RULE async test"));
+                triggerMethod();
+                log("connections " + async.getConnectionCount());
+            } finally {
+                async.close();
+            }
+
+            // an agent which accepts the connection but never replies
+            ServerSocket silent = new ServerSocket(0);
+            try {
+                AsyncSubmit stalled = new AsyncSubmit("localhost", silent.getLocalPort(), null, 1, 500);
+                try {
+                    Future<String> timed = stalled.listAllRules();
+                    Socket accepted = silent.accept();
+                    try {
+                        timed.get();
+                    } catch (ExecutionException e) {
+                        log("timed out " + (e.getCause() instanceof TimeoutException));
+                    }
+                    Future<String> cancelled = stalled.listAllRules();
+                    log("cancel " + cancelled.cancel(false));
+                    try {
+                        cancelled.get();
+                    } catch (CancellationException e) {
+                        log("cancelled " + cancelled.isCancelled());
+                    }
+                    accepted.close();
+                } finally {
+                    stalled.close();
+                }
+            } finally {
+                silent.close();
+            }
+
+            // an agent which answers LIST but never answers VERSION
+            final ServerSocket partial = new ServerSocket(0);
+            Thread server = new Thread() {
+                public void run() {
+                    try {
+                        while (true) {
+                            final Socket socket = partial.accept();
+                            Thread handler = new Thread() {
+                                public void run() {
+                                    serve(socket);
+                                }
+                            };
+                            handler.setDaemon(true);
+                            handler.start();
+                        }
+                    } catch (IOException e) {
+                        // server socket closed
+                    }
+                }
+            };
+            server.setDaemon(true);
+            server.start();
+            AsyncSubmit recovering = new AsyncSubmit("localhost", partial.getLocalPort(), null, 1, 500);
+            try {
+                try {
+                    recovering.getAgentVersion().get();
+                } catch (ExecutionException e) {
+                    log("version timed out " + (e.getCause() instanceof TimeoutException));
+                }
+                // the stuck connection must not be reused for later requests
+                long deadline = System.currentTimeMillis() + 5000;
+                while (recovering.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                log("stuck connections " + recovering.getConnectionCount());
+                log("recovered " + recovering.listAllRules().get().trim());
+            } finally {
+                recovering.close();
+                partial.close();
+            }
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    /**
+     * play the part of an agent listener session which only ever answers LIST requests
+     */
+    private static void serve(Socket socket)
+    {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+            String line = in.readLine();
+            while (line != null) {
+                if (line.equals("SESSION")) {
+                    out.println("OK");
+                } else if (line.startsWith("REQUEST ")) {
+                    String command = in.readLine();
+                    if ("LIST".equals(command)) {
+                        out.println("RESPONSE " + line.substring("REQUEST ".length()));
+                        out.println("no rules installed");
+                        out.println("OK");
+                    }
+                }
+                out.flush();
+                line = in.readLine();
+            }
+        } catch (IOException e) {
+            // client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static List<ScriptText> scripts(String text)
+    {
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("async", text));
+        return scripts;
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE async test\n");
+        buffer.append("CLASS TestSubmitAsync\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"triggered\")\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("version true");
+        logExpected("load true");
+        logExpected("list true");
+        logExpected("bogus failed true");
+        logExpected("triggered");
+        logExpected("delete true");
+        logExpected("connections 1");
+        logExpected("timed out true");
+        logExpected("cancel true");
+        logExpected("cancelled true");
+        logExpected("version timed out true");
+        logExpected("stuck connections 0");
+        logExpected("recovered no rules installed");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.RuleInfoIterator;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure rules can be listed while other rules are being loaded and deleted
+ */
+public class TestSubmitConcurrentList extends Test
+{
+    private final static int ROUNDS = 50;
+    private final static int RULES = 20;
+
+    private volatile boolean loading;
+    private volatile Exception listFailure;
+
+    public TestSubmitConcurrentList()
+    {
+        super(TestSubmitConcurrentList.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            final Submit submit = new Submit();
+            List<ScriptText> scripts = new ArrayList<ScriptText>();
+            scripts.add(new ScriptText("concurrent", getRuleText()));
+
+            loading = true;
+            Thread lister = new Thread() {
+                public void run() {
+                    try {
+                        while (loading) {
+                            submit.listAllRules();
+                            RuleInfoIterator iterator = submit.iterateRules();
+                            while (iterator.hasNext()) {
+                                iterator.next();
+                            }
+                            submit.getRuleMetrics();
+                        }
+                    } catch (Exception e) {
+                        listFailure = e;
+                    }
+                }
+            };
+            lister.start();
+
+            Exception loadFailure = null;
+            try {
+                for (int i = 0; i < ROUNDS && listFailure == null; i++) {
+                    submit.addScripts(scripts);
+                    submit.deleteScripts(scripts);
+                }
+            } catch (Exception e) {
+                loadFailure = e;
+            } finally {
+                loading = false;
+                lister.join();
+            }
+
+            log("load failure " + loadFailure);
+            log("list failure " + listFailure);
+            log("installed " + submit.iterateRules().getMatchedCount());
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        for (int i = 0; i < RULES; i++) {
+            buffer.append("RULE concurrent test " + i + "\n");
+            buffer.append("CLASS TestSubmitConcurrentList\n");
+            buffer.append("METHOD triggerMethod\n");
+            buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+            buffer.append("AT ENTRY\n");
+            buffer.append("IF TRUE\n");
+            buffer.append("DO $0.log(\"triggered\")\n");
+            buffer.append("ENDRULE\n");
+        }
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("load failure null");
+        logExpected("list failure null");
+        logExpected("installed 0");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.RuleInfo;
+import org.jboss.byteman.agent.submit.RuleInfoIterator;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test to ensure a rule can be disabled and enabled without retransforming its target class
+ */
+public class TestSubmitEnable extends Test
+{
+    public TestSubmitEnable()
+    {
+        super(TestSubmitEnable.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+        List<String> names = Collections.singletonList("enable rule");
+
+        try {
+            List<ScriptText> scripts = new ArrayList<ScriptText>();
+            scripts.add(new ScriptText("enable", getRuleText()));
+            submit.addScripts(scripts);
+
+            triggerMethod(1);
+            logStatus(submit);
+
+            String result = submit.disableRules(names);
+            log("disable " + result.contains("disabled RULE enable rule"));
+            triggerMethod(2);
+            logStatus(submit);
+
+            // a second disable is reported as a warning
+            result = submit.disableRules(names);
+            log("warning " + result.contains("WARNING rule was already disabled enable rule"));
+
+            result = submit.enableAllRules();
+            log("enable " + result.contains("enabled RULE enable rule"));
+            triggerMethod(3);
+            logStatus(submit);
+
+            submit.deleteAllRules();
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    private void logStatus(Submit submit) throws Exception
+    {
+        RuleInfoIterator iterator = submit.iterateRules();
+        while (iterator.hasNext()) {
+            RuleInfo info = iterator.next();
+            log(info.getRuleName() + " " + info.getStatus() + " " + info.getTransformedCount());
+        }
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE enable rule\n");
+        buffer.append("CLASS TestSubmitEnable\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"rule triggered with \" + $1)\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("rule triggered with 1");
+        logExpected("enable rule transformed 1");
+        logExpected("disable true");
+        logExpected("enable rule disabled 1");
+        logExpected("warning true");
+        logExpected("enable true");
+        logExpected("rule triggered with 3");
+        logExpected("enable rule transformed 1");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.EventSubscription;
+import org.jboss.byteman.agent.submit.RuleEvent;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test to ensure events emitted by a rule are streamed to subscribed clients
+ */
+public class TestSubmitEvents extends Test
+{
+    public TestSubmitEvents()
+    {
+        super(TestSubmitEvents.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+        List<String> topics = Collections.singletonList("test topic");
+        EventSubscription all = null;
+        EventSubscription sampled = null;
+
+        try {
+            List<ScriptText> scripts = new ArrayList<ScriptText>();
+            scripts.add(new ScriptText("events", getRuleText()));
+            submit.addScripts(scripts);
+
+            all = submit.subscribe(topics);
+            // only every 2nd event is delivered to this one
+            sampled = submit.subscribe(topics, 0, 2);
+
+            for (int i = 1; i <= 4; i++) {
+                triggerMethod(i);
+            }
+
+            for (int i = 0; i < 4; i++) {
+                logEvent("all", all.next());
+            }
+            for (int i = 0; i < 2; i++) {
+                logEvent("sampled", sampled.next());
+            }
+            log("dropped " + all.getDroppedCount());
+
+            all.close();
+            log("closed " + (all.next() == null));
+
+            submit.deleteAllRules();
+        } catch (Exception e) {
+            log(e);
+        } finally {
+            if (all != null) {
+                all.close();
+            }
+            if (sampled != null) {
+                sampled.close();
+            }
+        }
+
+        checkOutput(true);
+    }
+
+    private void logEvent(String subscription, RuleEvent event)
+    {
+        List<String> values = event.getValues();
+        log(subscription + " " + event.getTopic() + " : " + event.getRuleName() + " : " + values.get(0) +
+                " " + values.get(1).replace('\n', '|'));
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE events rule\n");
+        buffer.append("CLASS TestSubmitEvents\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"emitted \" + emit(\"test topic\", $1, \"two\\nlines\"));\n");
+        buffer.append("   $0.log(\"unheard \" + emit(\"no topic\", $1))\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        for (int i = 1; i <= 4; i++) {
+            logExpected("emitted true");
+            logExpected("unheard false");
+        }
+        for (int i = 1; i <= 4; i++) {
+            logExpected("all test topic : events rule : " + i + " two|lines");
+        }
+        logExpected("sampled test topic : events rule : 1 two|lines");
+        logExpected("sampled test topic : events rule : 3 two|lines");
+        logExpected("dropped 0");
+        logExpected("closed true");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.FanOutResult;
+import org.jboss.byteman.agent.submit.FanOutSubmit;
+import org.jboss.byteman.agent.submit.RuleInfoIterator;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure a request fanned out to several agents rolls back when it fails for one of them
+ */
+public class TestSubmitFanOut extends Test
+{
+    public TestSubmitFanOut()
+    {
+        super(TestSubmitFanOut.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            log("endpoint " + System.getProperty("org.jboss.byteman.agent.listener"));
+
+            Submit good = new Submit();
+            Submit bad = new Submit("localhost", unusedPort());
+            List<Submit> goodOnly = new ArrayList<Submit>();
+            goodOnly.add(good);
+            List<Submit> goodAndBad = new ArrayList<Submit>();
+            goodAndBad.add(good);
+            goodAndBad.add(bad);
+
+            List<FanOutResult> results = new FanOutSubmit(goodOnly).addScripts(scripts(getRuleText("first", 1)), true);
+            log("loaded " + FanOutSubmit.allSucceeded(results));
+            triggerMethod();
+
+            // the second agent cannot be reached so the load is undone, restoring the replaced rule
+            results = new FanOutSubmit(goodAndBad).addScripts(scripts(getRuleText("first", 2) + getRuleText("second", 2)), true);
+            logResults(results);
+            triggerMethod();
+            log("installed " + submitCount(good));
+
+            // without rollback the load sticks where it succeeded
+            results = new FanOutSubmit(goodAndBad).addScripts(scripts(getRuleText("first", 2)), false);
+            logResults(results);
+            triggerMethod();
+
+            results = new FanOutSubmit(goodOnly).deleteAllRules();
+            log("deleted " + FanOutSubmit.allSucceeded(results));
+            log("installed " + submitCount(good));
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    private void logResults(List<FanOutResult> results)
+    {
+        for (FanOutResult result : results) {
+            log("success " + result.isSuccess() + " rolled back " + result.isRolledBack());
+        }
+    }
+
+    private static int submitCount(Submit submit)
+    {
+        RuleInfoIterator iterator = submit.iterateRules();
+        return iterator.getMatchedCount();
+    }
+
+    private static int unusedPort() throws Exception
+    {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private static List<ScriptText> scripts(String text)
+    {
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("fanout", text));
+        return scripts;
+    }
+
+    public String getRuleText(String name, int version)
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE fanout " + name + "\n");
+        buffer.append("CLASS TestSubmitFanOut\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"" + name + " rule version " + version + "\")\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("endpoint localhost:9091");
+        logExpected("loaded true");
+        logExpected("first rule version 1");
+        logExpected("success true rolled back true");
+        logExpected("success false rolled back false");
+        logExpected("first rule version 1");
+        logExpected("installed 1");
+        logExpected("success true rolled back false");
+        logExpected("success false rolled back false");
+        logExpected("first rule version 2");
+        logExpected("deleted true");
+        logExpected("installed 0");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.FanOutResult;
+import org.jboss.byteman.agent.submit.FanOutSubmit;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure agents running in other local JVMs are found using the attach API and can be
+ * driven both from a FanOutSubmit and from the Submit command line using the -a flag
+ */
+public class TestSubmitFanOutDiscovery extends Test
+{
+    public TestSubmitFanOutDiscovery()
+    {
+        super(TestSubmitFanOutDiscovery.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Process target = null;
+        try {
+            int port = unusedPort();
+            target = startTarget(port);
+
+            Submit child = discover(port);
+            log("discovered " + (child != null));
+            if (child != null) {
+                List<Submit> childOnly = new ArrayList<Submit>();
+                childOnly.add(child);
+                FanOutSubmit fanOut = new FanOutSubmit(childOnly);
+
+                List<FanOutResult> results = fanOut.addScripts(scripts(getRuleText()), true);
+                log("loaded " + FanOutSubmit.allSucceeded(results));
+
+                String output = runSubmit("-a");
+                log("cli found target " + output.contains("== localhost:" + port + " OK"));
+                log("cli listed rule " + output.contains("RULE fanout discovery"));
+
+                results = fanOut.deleteAllRules();
+                log("deleted " + FanOutSubmit.allSucceeded(results));
+                log("installed " + child.iterateRules().getMatchedCount());
+            }
+        } catch (Exception e) {
+            log(e);
+        } finally {
+            if (target != null) {
+                target.destroy();
+            }
+        }
+
+        checkOutput(true);
+    }
+
+    /**
+     * start a JVM running the agent listener on the supplied port
+     */
+    private static Process startTarget(int port) throws Exception
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(javaCommand());
+        command.add("-javaagent:" + agentJar() + "=listener:true,port:" + port);
+        command.add("-cp");
+        command.add(codeSource(Target.class.getName()));
+        command.add(Target.class.getName());
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        return builder.start();
+    }
+
+    /**
+     * poll the attach API until the target JVM advertises its listener
+     */
+    private static Submit discover(int port) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            for (Submit submit : FanOutSubmit.discoverLocalAgents()) {
+                if (submit.getSocketPath() == null && submit.getPort() == port) {
+                    return submit;
+                }
+            }
+            Thread.sleep(200);
+        }
+        return null;
+    }
+
+    /**
+     * run the Submit command line in a separate JVM and return everything it prints
+     */
+    private static String runSubmit(String... args) throws Exception
+    {
+        List<String> classNames = new ArrayList<String>();
+        classNames.add(Submit.class.getName());
+        classNames.add("org.jboss.byteman.agent.install.Install");
+        if (System.getProperty("java.specification.version").startsWith("1.")) {
+            // before JDK 9 the attach API is only available from tools.jar
+            classNames.add("com.sun.tools.attach.VirtualMachine");
+        }
+        StringBuilder classPath = new StringBuilder();
+        for (String className : classNames) {
+            String path = codeSource(className);
+            if (path != null) {
+                if (classPath.length() > 0) {
+                    classPath.append(File.pathSeparator);
+                }
+                classPath.append(path);
+            }
+        }
+        List<String> command = new ArrayList<String>();
+        command.add(javaCommand());
+        command.add("-cp");
+        command.add(classPath.toString());
+        command.add(Submit.class.getName());
+        for (String arg : args) {
+            command.add(arg);
+        }
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        process.getOutputStream().close();
+        InputStream in = process.getInputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        process.waitFor();
+        return bytes.toString();
+    }
+
+    private static String javaCommand()
+    {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    /**
+     * locate the agent jar this JVM was started with so the target JVM can use the same one
+     */
+    private static String agentJar() throws Exception
+    {
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-javaagent:")) {
+                int end = arg.indexOf('=');
+                return arg.substring("-javaagent:".length(), (end < 0 ? arg.length() : end));
+            }
+        }
+        throw new Exception("test must be run with a byteman agent");
+    }
+
+    private static String codeSource(String className) throws Exception
+    {
+        CodeSource source = Class.forName(className).getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return null;
+        }
+        // classes loaded from a JDK module have a jrt: location
+        URI location = source.getLocation().toURI();
+        if (!"file".equals(location.getScheme())) {
+            return null;
+        }
+        return new File(location).getPath();
+    }
+
+    private static int unusedPort() throws Exception
+    {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private static List<ScriptText> scripts(String text)
+    {
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("fanout", text));
+        return scripts;
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE fanout discovery\n");
+        buffer.append("CLASS TestSubmitFanOutDiscovery$Target\n");
+        buffer.append("METHOD waitForExit\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO traceln(\"discovery rule fired\")\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    /**
+     * main class for the target JVM which runs until its standard input is closed
+     */
+    public static class Target
+    {
+        public static void main(String[] args) throws Exception
+        {
+            waitForExit();
+        }
+
+        public static void waitForExit() throws Exception
+        {
+            while (System.in.read() >= 0) {
+            }
+        }
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("discovered true");
+        logExpected("loaded true");
+        logExpected("cli found target true");
+        logExpected("cli listed rule true");
+        logExpected("deleted true");
+        logExpected("installed 0");
+
+        return super.getExpected();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+import org.jboss.byteman.tests.helpers.LifecycleHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure a lazily uninstalled rule stops firing as soon as it is deleted and is only
+ * uninstalled once its class has been retransformed in the background
+ */
+public class TestSubmitLazyUninstall extends Test
+{
+    public TestSubmitLazyUninstall()
+    {
+        super(TestSubmitLazyUninstall.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        try {
+            Submit submit = new Submit();
+            List<ScriptText> scripts = new ArrayList<ScriptText>();
+            scripts.add(new ScriptText("lazy", getRuleText()));
+
+            submit.addScripts(scripts);
+            triggerMethod();
+            LifecycleHelper.getOutput();
+
+            String result = submit.deleteScripts(scripts);
+            log("deleted " + result.contains("uninstall RULE lazy test"));
+            triggerMethod();
+            // the quiet period configured for this test is long enough that the class is not yet retransformed
+            log("pending " + LifecycleHelper.getOutput().contains("uninstalled lazy test"));
+
+            String output = "";
+            long deadline = System.currentTimeMillis() + 20000;
+            while (!output.contains("uninstalled lazy test") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+                output += LifecycleHelper.getOutput();
+            }
+            log("retransformed " + output.contains("uninstalled lazy test"));
+            triggerMethod();
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE lazy test\n");
+        buffer.append("CLASS TestSubmitLazyUninstall\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.LifecycleHelper\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"triggered\")\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod()
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("triggered");
+        logExpected("deleted true");
+        logExpected("pending false");
+        logExpected("retransformed true");
+
+        return super.getExpected();
+    }
+}
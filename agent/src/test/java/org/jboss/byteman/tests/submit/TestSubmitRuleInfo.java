@@ -0,0 +1,124 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.RuleInfo;
+import org.jboss.byteman.agent.submit.RuleInfoIterator;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure rule summaries can be listed a page at a time with filters
+ */
+public class TestSubmitRuleInfo extends Test
+{
+    public TestSubmitRuleInfo()
+    {
+        super(TestSubmitRuleInfo.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("dynamic", getRuleText()));
+
+        try {
+            submit.addScripts(scripts);
+            triggerMethod(1);
+
+            RuleInfoIterator iterator = submit.iterateRules("^info rule", null, null, 2);
+            log("matched " + iterator.getMatchedCount());
+            while (iterator.hasNext()) {
+                RuleInfo info = iterator.next();
+                log(info.getRuleName() + " " + info.getStatus() + " " + info.getTransformedCount() + " " + info.getTargetMethod());
+            }
+
+            iterator = submit.iterateRules(null, "NoSuchClass", null, 0);
+            while (iterator.hasNext()) {
+                log("class filter " + iterator.next().getRuleName());
+            }
+
+            iterator = submit.iterateRules(null, null, "pending", 0);
+            while (iterator.hasNext()) {
+                log("status filter " + iterator.next().getRuleName());
+            }
+
+            submit.deleteScripts(scripts);
+            log("matched after delete " + submit.iterateRules().getMatchedCount());
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        for (int i = 1; i <= 3; i++) {
+            buffer.append("RULE info rule " + i + "\n");
+            buffer.append("CLASS TestSubmitRuleInfo\n");
+            buffer.append("METHOD triggerMethod\n");
+            buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+            buffer.append("AT ENTRY\n");
+            buffer.append("IF $1 == " + i + "\n");
+            buffer.append("DO $0.log(\"triggered rule " + i + "\")\n");
+            buffer.append("ENDRULE\n");
+        }
+        buffer.append("RULE info rule 4\n");
+        buffer.append("CLASS org.jboss.byteman.tests.submit.NoSuchClass\n");
+        buffer.append("METHOD <init>\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO traceln(\"never happens\")\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("triggered rule 1");
+        logExpected("matched 4");
+        logExpected("info rule 1 transformed 1 triggerMethod");
+        logExpected("info rule 2 transformed 1 triggerMethod");
+        logExpected("info rule 3 transformed 1 triggerMethod");
+        logExpected("info rule 4 pending 0 <init>");
+        logExpected("class filter info rule 4");
+        logExpected("status filter info rule 4");
+        logExpected("matched after delete 0");
+
+        return super.getExpected();
+    }
+}
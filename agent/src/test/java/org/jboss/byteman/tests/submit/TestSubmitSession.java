@@ -0,0 +1,128 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure several requests can be sent to the listener over a persistent session
+ */
+public class TestSubmitSession extends Test
+{
+    public TestSubmitSession()
+    {
+        super(TestSubmitSession.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("dynamic", getRuleText()));
+
+        try {
+            submit.openSession();
+            log("session open " + submit.isSessionOpen());
+            submit.addScripts(scripts);
+            triggerMethod(1);
+
+            List<String> requests = new ArrayList<String>();
+            requests.add("VERSION\n");
+            requests.add("LIST\n");
+            requests.add("METRICS\n");
+            List<String> responses = submit.submitRequests(requests);
+            log("pipelined " + responses.size() + " requests");
+            log("listed rule " + responses.get(1).contains("RULE session rule"));
+            log("metrics for rule " + responses.get(2).contains(" RULE session rule"));
+
+            // enough data in both directions to fill the socket buffers while requests are still being written
+            StringBuilder sync = new StringBuilder("SYNC\n");
+            for (int i = 0; i < 200; i++) {
+                sync.append("RULE 0 a rule which is not installed and has a rather long name " + i + "\n");
+            }
+            sync.append("ENDSYNC\n");
+            requests.clear();
+            for (int i = 0; i < 2000; i++) {
+                requests.add(sync.toString());
+            }
+            requests.add("LIST\n");
+            responses = submit.submitRequests(requests);
+            boolean listed = responses.get(2000).contains("RULE session rule");
+            log("pipelined " + responses.size() + " large requests listed rule " + listed);
+
+            submit.deleteScripts(scripts);
+            triggerMethod(2);
+            submit.closeSession();
+            log("session open " + submit.isSessionOpen());
+
+            // requests should still work without a session
+            log("rules after close " + submit.listAllRules().trim());
+        } catch (Exception e) {
+            log(e);
+        } finally {
+            submit.closeSession();
+        }
+
+        checkOutput(true);
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE session rule\n");
+        buffer.append("CLASS TestSubmitSession\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"triggered with \" + $1)\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("session open true");
+        logExpected("triggered with 1");
+        logExpected("pipelined 3 requests");
+        logExpected("listed rule true");
+        logExpected("metrics for rule true");
+        logExpected("pipelined 2001 large requests listed rule true");
+        logExpected("session open false");
+        logExpected("rules after close no rules installed");
+
+        return super.getExpected();
+    }
+}
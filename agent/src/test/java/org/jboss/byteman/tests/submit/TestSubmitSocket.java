@@ -0,0 +1,182 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.AsyncSubmit;
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test to ensure requests can be submitted to a listener started with the socket option. this uses a
+ * unix domain socket when the JDK supports them and otherwise checks that both the agent and the
+ * client fall back to using TCP. sessions and asynchronous requests are also exercised since they
+ * read responses while further requests are being written
+ */
+public class TestSubmitSocket extends Test
+{
+    public TestSubmitSocket()
+    {
+        super(TestSubmitSocket.class.getCanonicalName());
+    }
+
+    /**
+     * the socket path passed to the agent in the test configuration
+     */
+    private static final String SOCKET_PATH = "target/byteman-listener.sock";
+
+    public void test()
+    {
+        Submit submit = new Submit(null, 0, SOCKET_PATH, null);
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("dynamic", getRuleText()));
+
+        try {
+            log("socket path " + submit.getSocketPath());
+            submit.addScripts(scripts);
+            triggerMethod(1);
+            log("listed rule " + submit.listAllRules().contains("RULE socket rule"));
+            submit.deleteScripts(scripts);
+            triggerMethod(2);
+            log("rules after delete " + submit.listAllRules().trim());
+
+            // on JDK 16 and later this pipelines requests over the unix domain socket, reading
+            // responses while later requests are still being written
+            log("pipelined " + pipelineVersions(submit, 5));
+            log("async " + asyncVersions(submit, 6));
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    /**
+     * submit a batch of VERSION requests in a session, giving up if they are not all answered promptly
+     * @return the number of responses which match a single VERSION request
+     */
+    private static int pipelineVersions(final Submit submit, final int count) throws Exception
+    {
+        final String version = submit.getAgentVersion();
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                List<String> requests = new ArrayList<String>();
+                for (int i = 0; i < count; i++) {
+                    requests.add("VERSION\n");
+                }
+                submit.openSession();
+                try {
+                    int matched = 0;
+                    for (String response : submit.submitRequests(requests)) {
+                        if (response.trim().equals(version)) {
+                            matched++;
+                        }
+                    }
+                    return matched;
+                } finally {
+                    submit.closeSession();
+                }
+            }
+        });
+        Thread thread = new Thread(task, "pipeline");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            return task.get(30, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * submit a batch of VERSION requests asynchronously over two connections, each of which reads
+     * responses on its own thread while later requests are written
+     * @return the number of responses which match a single VERSION request
+     */
+    private static int asyncVersions(Submit submit, int count) throws Exception
+    {
+        String version = submit.getAgentVersion();
+        AsyncSubmit async = new AsyncSubmit(null, 0, SOCKET_PATH, 2, 10000);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < count; i++) {
+                futures.add(async.getAgentVersion());
+            }
+            int matched = 0;
+            for (Future<String> future : futures) {
+                try {
+                    if (future.get().trim().equals(version)) {
+                        matched++;
+                    }
+                } catch (ExecutionException e) {
+                    // a timed out request does not match
+                }
+            }
+            return matched;
+        } finally {
+            async.close();
+        }
+    }
+
+    public String getRuleText()
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE socket rule\n");
+        buffer.append("CLASS TestSubmitSocket\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"triggered with \" + $1)\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("socket path " + SOCKET_PATH);
+        logExpected("triggered with 1");
+        logExpected("listed rule true");
+        logExpected("rules after delete no rules installed");
+        logExpected("pipelined 5");
+        logExpected("async 6");
+
+        return super.getExpected();
+    }
+}
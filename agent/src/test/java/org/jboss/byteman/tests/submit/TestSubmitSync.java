@@ -0,0 +1,131 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure synchronizing rules only loads and deletes the rules which differ
+ */
+public class TestSubmitSync extends Test
+{
+    public TestSubmitSync()
+    {
+        super(TestSubmitSync.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+
+        try {
+            sync(submit, getRuleText(1, "first") + getRuleText(2, "first"));
+            triggerMethod(1);
+
+            // reformatting and comments do not change a rule
+            sync(submit, "# the same rules\n" + getRuleText(1, "first") + "\n\n    " + getRuleText(2, "first"));
+            triggerMethod(2);
+
+            sync(submit, getRuleText(2, "second") + getRuleText(3, "first"));
+            triggerMethod(3);
+            // a rule loaded on its own keeps its line number in the original script
+            log("rule 3 line " + submit.iterateRules("sync rule 3", null, null, 0).next().getLine());
+
+            sync(submit, "");
+            triggerMethod(4);
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    private void sync(Submit submit, String text) throws Exception
+    {
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("sync", text));
+        String results = submit.syncScripts(scripts);
+        for (String line : results.split("\n")) {
+            if (line.length() > 0) {
+                log(line);
+            }
+        }
+    }
+
+    public String getRuleText(int i, String version)
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE sync rule " + i + "\n");
+        buffer.append("CLASS TestSubmitSync\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"" + version + " rule " + i + " triggered with \" + $1)\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("ADDED sync rule 1");
+        logExpected("ADDED sync rule 2");
+        logExpected("UNCHANGED 0");
+        logExpected("install rule sync rule 1");
+        logExpected("install rule sync rule 2");
+        logExpected("first rule 1 triggered with 1");
+        logExpected("first rule 2 triggered with 1");
+        logExpected("UNCHANGED 2");
+        logExpected("first rule 1 triggered with 2");
+        logExpected("first rule 2 triggered with 2");
+        logExpected("CHANGED sync rule 2");
+        logExpected("ADDED sync rule 3");
+        logExpected("REMOVED sync rule 1");
+        logExpected("UNCHANGED 0");
+        logExpected("uninstall RULE sync rule 1");
+        logExpected("redefine rule sync rule 2");
+        logExpected("install rule sync rule 3");
+        logExpected("second rule 2 triggered with 3");
+        logExpected("first rule 3 triggered with 3");
+        logExpected("rule 3 line 14");
+        logExpected("REMOVED sync rule 2");
+        logExpected("REMOVED sync rule 3");
+        logExpected("UNCHANGED 0");
+        logExpected("uninstall RULE sync rule 2");
+        logExpected("uninstall RULE sync rule 3");
+
+        return super.getExpected();
+    }
+}
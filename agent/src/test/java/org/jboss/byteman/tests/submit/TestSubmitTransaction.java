@@ -0,0 +1,120 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2019, Red Hat and individual contributors
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*
+* @authors Andrew Dinn
+*/
+package org.jboss.byteman.tests.submit;
+
+import org.jboss.byteman.agent.submit.ScriptText;
+import org.jboss.byteman.agent.submit.Submit;
+import org.jboss.byteman.tests.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test to ensure a transactional load installs either all the rules in a bundle or none of them
+ */
+public class TestSubmitTransaction extends Test
+{
+    public TestSubmitTransaction()
+    {
+        super(TestSubmitTransaction.class.getCanonicalName());
+    }
+
+    public void test()
+    {
+        Submit submit = new Submit();
+
+        // the second rule does not type check
+        load(submit, getRuleText(1, "$1") + getRuleText(2, "$1.noSuchMethod()"));
+        triggerMethod(1);
+
+        // the second rule does not parse even though its target class is not loaded
+        load(submit, getRuleText(1, "$1") + "RULE bad parse\nCLASS NoSuchClass\nMETHOD m\nIF TRUE\nDO (\nENDRULE\n");
+        triggerMethod(2);
+
+        load(submit, getRuleText(1, "$1") + getRuleText(2, "($1 + 1)"));
+        triggerMethod(3);
+
+        try {
+            submit.deleteAllRules();
+        } catch (Exception e) {
+            log(e);
+        }
+
+        checkOutput(true);
+    }
+
+    private void load(Submit submit, String text)
+    {
+        List<ScriptText> scripts = new ArrayList<ScriptText>();
+        scripts.add(new ScriptText("transaction", text));
+        try {
+            submit.addScriptsTransactionally(scripts);
+            log("installed " + submit.iterateRules().getMatchedCount());
+        } catch (Exception e) {
+            String message = e.getMessage();
+            log("rejected " + message.contains("transaction rejected"));
+            log("reported rule " + (message.contains("rule tx rule 2") || message.contains("rule bad parse")));
+            try {
+                log("installed " + submit.iterateRules().getMatchedCount());
+            } catch (Exception e1) {
+                log(e1);
+            }
+        }
+    }
+
+    public String getRuleText(int i, String expression)
+    {
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("RULE tx rule " + i + "\n");
+        buffer.append("CLASS TestSubmitTransaction\n");
+        buffer.append("METHOD triggerMethod\n");
+        buffer.append("HELPER org.jboss.byteman.tests.helpers.Default\n");
+        buffer.append("AT ENTRY\n");
+        buffer.append("IF TRUE\n");
+        buffer.append("DO $0.log(\"rule " + i + " triggered with \" + " + expression + ")\n");
+        buffer.append("ENDRULE\n");
+
+        return buffer.toString();
+    }
+
+    public void triggerMethod(int i)
+    {
+    }
+
+    @Override
+    public String getExpected() {
+        logExpected("rejected true");
+        logExpected("reported rule true");
+        logExpected("installed 0");
+        logExpected("rejected true");
+        logExpected("reported rule true");
+        logExpected("installed 0");
+        logExpected("installed 2");
+        logExpected("rule 1 triggered with 3");
+        logExpected("rule 2 triggered with 4");
+
+        return super.getExpected();
+    }
+}
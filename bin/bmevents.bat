@@ -0,0 +1,40 @@
+@echo off
+@rem -----------------------------------------------------------------------------------
+@rem
+@rem JBoss, Home of Professional Open Source
+@rem Copyright 2019, Red Hat and individual contributors
+@rem by the @authors tag. See the copyright.txt in the distribution for a
+@rem full listing of individual contributors.
+@rem
+@rem This is free software; you can redistribute it and/or modify it
+@rem under the terms of the GNU Lesser General Public License as
+@rem published by the Free Software Foundation; either version 2.1 of
+@rem the License, or (at your option) any later version.
+@rem
+@rem This software is distributed in the hope that it will be useful,
+@rem but WITHOUT ANY WARRANTY; without even the implied warranty of
+@rem MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+@rem Lesser General Public License for more details.
+@rem You should have received a copy of the GNU Lesser General Public
+@rem License along with this software; if not, write to the Free
+@rem Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+@rem 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+@rem
+@rem
+@rem batch which decodes a binary event log written by the byteman record built-ins
+@rem
+@rem usage: bmevents [-csv] logfile
+@rem
+@rem -----------------------------------------------------------------------------------
+if "%OS%" == "Windows_NT" setlocal
+
+@rem set byteman environment
+call "%~dp0\bmsetenv.bat"
+if %ERRORLEVEL% == 1 goto exitBatch
+
+@rem Execute java program.
+java %BYTEMAN_JAVA_OPTS% -classpath "%BYTEMAN_JAR%" org.jboss.byteman.rule.helper.EventLogDecoder %*
+
+:exitBatch
+if "%OS%" == "Windows_NT" endlocal
+exit /b
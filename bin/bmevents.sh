@@ -0,0 +1,48 @@
+#!/bin/bash
+#
+# JBoss, Home of Professional Open Source
+# Copyright 2019, Red Hat and individual contributors
+# by the @authors tag. See the copyright.txt in the distribution for a
+# full listing of individual contributors.
+#
+# This is free software; you can redistribute it and/or modify it
+# under the terms of the GNU Lesser General Public License as
+# published by the Free Software Foundation; either version 2.1 of
+# the License, or (at your option) any later version.
+#
+# This software is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+# Lesser General Public License for more details.
+# You should have received a copy of the GNU Lesser General Public
+# License along with this software; if not, write to the Free
+# Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+# 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+#
+# @authors Andrew Dinn
+#
+# shell script which decodes a binary event log written by the byteman record built-ins
+#
+# usage: bmevents [-csv] logfile
+#
+# use BYTEMAN_HOME to locate installed byteman release
+if [ -z "$BYTEMAN_HOME" ]; then
+# use the root of the path to this file to locate the byteman jar
+    BYTEMAN_HOME="${0%*/bin/bmevents.sh}"
+    if [ "$BYTEMAN_HOME" == "$0" ]; then
+	BYTEMAN_HOME="${0%*/bin/bmevents}"
+    fi
+    if [ "$BYTEMAN_HOME" == "$0" ]; then
+	echo "Unable to find byteman home"
+	exit
+    fi
+fi
+
+if [ -r "${BYTEMAN_HOME}/lib/byteman.jar" ]; then
+    BYTEMAN_JAR="${BYTEMAN_HOME}/lib/byteman.jar"
+else
+    echo "Cannot locate byteman jar"
+    exit
+fi
+
+java ${BYTEMAN_JAVA_OPTS} -classpath "${BYTEMAN_JAR}" org.jboss.byteman.rule.helper.EventLogDecoder "$@"
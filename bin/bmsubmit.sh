@@ -24,14 +24,19 @@
 # shell script which submits a request to the Byteman agent listener
 # either to list, install or uninstall rule scripts
 #
-# usage: bmsubmit [-o outfile] [-p port] [-h host] [-l|-u] [script1 . . . scriptN]
-#        bmsubmit [-o outfile] [-p port] [-h host] [-b | -s] bootjar1 . . .
-#        bmsubmit [-o outfile] [-p port] [-h host] -c
-#        bmsubmit [-o outfile] [-p port] [-h host] -y [prop1[=[value1]]. . .]
-#        bmsubmit [-o outfile] [-p port] [-h host] -v
+# usage: bmsubmit [-o outfile] [-p port] [-h host] [-f socketfile] [-l|-u] [script1 . . . scriptN]
+#        bmsubmit [-o outfile] [-p port] [-h host] [-f socketfile] [-b | -s] bootjar1 . . .
+#        bmsubmit [-o outfile] [-p port] [-h host] [-f socketfile] -c
+#        bmsubmit [-o outfile] [-p port] [-h host] [-f socketfile] -y [prop1[=[value1]]. . .]
+#        bmsubmit [-o outfile] [-p port] [-h host] [-f socketfile] -v
+#        bmsubmit [-o outfile] [-p port] [-h host] [-f socketfile] -e topic1 . . .
+#        bmsubmit [-o outfile] -a [-l|-u] [script1 . . . scriptN]
 #   -o redirects output from System.out to outfile
 #   -p specifies the listener port (default 9091)
 #   -h specifies the listener host name (default localhost)
+#   -f specifies the listener unix domain socket file (requires JDK 16 or later)
+#   -a applies the request to every local JVM running an agent listener
+#      a load is undone in every JVM if it fails in any of them
 #   -l (default) install rules in script1 . . . scriptN
 #      with no scripts list all installed rules
 #   -u uninstall rules in script1 . . . scriptN
@@ -51,6 +56,8 @@
 #
 #   -v print the version of the byteman agent and this client
 #
+#   -e print events emitted by rules to topic1 etc until interrupted
+#
 # use BYTEMAN_HOME to locate installed byteman release
 if [ -z "$BYTEMAN_HOME" ]; then
 # use the root of the path to this file to locate the byteman jar
@@ -78,7 +85,15 @@ else
     echo "Cannot locate byteman-submit jar"
     exit
 fi
+CP="${BYTEMAN_JAR}:${BYTEMAN_SUBMIT_JAR}"
+# the install jar and the tools jar are only needed to find local JVMs for option -a
+if [ -r "${BYTEMAN_HOME}/lib/byteman-install.jar" ]; then
+    CP="${CP}:${BYTEMAN_HOME}/lib/byteman-install.jar"
+fi
+if [ -n "$JAVA_HOME" -a -r "${JAVA_HOME}/lib/tools.jar" ]; then
+    CP="${CP}:${JAVA_HOME}/lib/tools.jar"
+fi
 # allow for extra java opts via setting BYTEMAN_JAVA_OPTS
 # Submit class will validate arguments
 
-java ${BYTEMAN_JAVA_OPTS} -classpath "${BYTEMAN_JAR}":"${BYTEMAN_SUBMIT_JAR}" org.jboss.byteman.agent.submit.Submit $*
+java ${BYTEMAN_JAVA_OPTS} -classpath "${CP}" org.jboss.byteman.agent.submit.Submit $*
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019, Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.rule.helper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.jboss.byteman.rule.Rule;
+
+/**
+ * Implementation of CallerStack which uses a StackWalker to walk the current thread's stack
+ * lazily. Frames belonging to the rule engine are skipped without being converted to stack
+ * trace elements and the walk stops as soon as the requested frames have been seen.
+ */
+public class JigsawCallerStack extends CallerStack
+{
+    private final static String RULE_CLASS_NAME = Rule.class.getName();
+    private final static String RULE_EXECUTE_METHOD_NAME = "execute";
+
+    /**
+     * reflection frames are included so that frame indices agree with those computed from
+     * Thread.getStackTrace()
+     */
+    private final StackWalker walker = StackWalker.getInstance(StackWalker.Option.SHOW_REFLECT_FRAMES);
+
+    public int matchFrame(final FrameMatcher matcher, final int startFrame, final int frameCount)
+    {
+        return walker.walk(new Function<Stream<StackWalker.StackFrame>, Integer>() {
+            public Integer apply(Stream<StackWalker.StackFrame> frames) {
+                Iterator<StackWalker.StackFrame> iterator = frames.iterator();
+                if (!skipToTrigger(iterator)) {
+                    return NO_TRIGGER_FRAME;
+                }
+                int limit = (frameCount <= 0 ? Integer.MAX_VALUE : startFrame + frameCount);
+                int index = 0;
+                while (index < limit && iterator.hasNext()) {
+                    StackWalker.StackFrame frame = iterator.next();
+                    if (index >= startFrame && matcher.matches(frame.getClassName(), frame.getMethodName())) {
+                        return index;
+                    }
+                    index++;
+                }
+                return -1;
+            }
+        });
+    }
+
+    public StackTraceElement[] getFrames(final int maxFrames)
+    {
+        return walker.walk(new Function<Stream<StackWalker.StackFrame>, StackTraceElement[]>() {
+            public StackTraceElement[] apply(Stream<StackWalker.StackFrame> frames) {
+                Iterator<StackWalker.StackFrame> iterator = frames.iterator();
+                if (!skipToTrigger(iterator)) {
+                    return null;
+                }
+                // collect one extra frame so the caller can tell whether the stack was truncated
+                int limit = (maxFrames <= 0 ? Integer.MAX_VALUE : maxFrames + 1);
+                List<StackTraceElement> elements = new ArrayList<StackTraceElement>();
+                while (elements.size() < limit && iterator.hasNext()) {
+                    elements.add(iterator.next().toStackTraceElement());
+                }
+                return elements.toArray(new StackTraceElement[elements.size()]);
+            }
+        });
+    }
+
+    /**
+     * advance the iterator past the two Rule.execute frames through which the rule engine was
+     * entered so that the next frame is the trigger method frame
+     * @param iterator an iterator over the frames of the current stack
+     * @return true if the trigger method frame was found otherwise false
+     */
+    private static boolean skipToTrigger(Iterator<StackWalker.StackFrame> iterator)
+    {
+        while (iterator.hasNext()) {
+            StackWalker.StackFrame frame = iterator.next();
+            if (RULE_CLASS_NAME.equals(frame.getClassName()) &&
+                    RULE_EXECUTE_METHOD_NAME.equals(frame.getMethodName())) {
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                iterator.next();
+                return iterator.hasNext();
+            }
+        }
+        return false;
+    }
+}
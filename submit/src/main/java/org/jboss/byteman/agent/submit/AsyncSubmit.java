@@ -0,0 +1,584 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * a client which sends requests to a Byteman agent without waiting for the response. each request
+ * returns a {@link Future} which completes when the agent replies. requests are pipelined over a
+ * small pool of persistent session connections, so a pending request does not tie up a thread of its
+ * own. connections are opened and requests written by pooled daemon threads, with at most one thread
+ * writing to any one agent at a time, so an agent which is slow to accept a connection or a request
+ * only holds up requests to that agent. each open connection has one daemon thread which reads the
+ * responses. connections which have been idle for a while are closed and pooled threads which have
+ * been idle for a while exit, so a service which manages many agents only holds threads for the agents
+ * it is actually talking to.
+ *
+ * requests are written in the order they are submitted. with the default of one connection the agent
+ * also handles them in that order. if more than one connection is allowed then requests sent over
+ * different connections may be handled concurrently.
+ *
+ * a request may be given a timeout, after which its future fails with a TimeoutException. if the request
+ * has already been written the connection it was written to is closed, failing any other requests still
+ * waiting on it, since a response which has not arrived in time may never arrive. later requests use a new
+ * connection. cancelling a future before the request is written means it is never sent. once a request
+ * has been written the agent will still handle it even if the future has been cancelled. its response is
+ * discarded.
+ */
+public class AsyncSubmit
+{
+    /**
+     * how long to wait for a connection to be established when no request timeout is supplied
+     */
+    public final static int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * how long a connection may be idle before it is closed unless some other time is supplied
+     */
+    public final static long DEFAULT_IDLE_MILLIS = 60 * 1000L;
+
+    private final static ThreadPoolExecutor dispatcher;
+    private final static ScheduledExecutorService timer;
+
+    static {
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Byteman async submit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        // n.b. each client queues its own requests and only ever uses one of these threads at a time
+        // so the pool grows with the number of agents being written to, not with the number of requests
+        dispatcher = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), factory);
+        timer = new ScheduledThreadPoolExecutor(1, factory);
+    }
+
+    private final String address;
+    private final int port;
+    private final String socketPath;
+    private final int maxConnections;
+    private final long timeoutMillis;
+    private final long idleMillis;
+
+    /**
+     * requests waiting to be written, in submission order
+     */
+    private final LinkedList<Request> queue;
+    /**
+     * true while a dispatcher thread is writing queued requests
+     */
+    private boolean draining;
+    private final List<Connection> connections;
+    private boolean closed;
+
+    /**
+     * create a client which talks to the same agent as the supplied blocking client using one connection
+     * and no request timeout
+     * @param target a client identifying the agent listener
+     */
+    public AsyncSubmit(Submit target)
+    {
+        this(target.getAddress(), target.getPort(), target.getSocketPath(), 1, 0);
+    }
+
+    /**
+     * create a client for an agent listener
+     * @param address the host of the agent listener or null for the default host
+     * @param port the port of the agent listener or 0 or less for the default port
+     * @param socketPath the path of a unix domain socket to connect to or null if TCP should be used
+     * @param maxConnections the maximum number of connections to open to the agent
+     * @param timeoutMillis the time after which a request fails if no response has arrived or 0 if
+     * requests never time out
+     */
+    public AsyncSubmit(String address, int port, String socketPath, int maxConnections, long timeoutMillis)
+    {
+        this(address, port, socketPath, maxConnections, timeoutMillis, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * create a client for an agent listener
+     * @param address the host of the agent listener or null for the default host
+     * @param port the port of the agent listener or 0 or less for the default port
+     * @param socketPath the path of a unix domain socket to connect to or null if TCP should be used
+     * @param maxConnections the maximum number of connections to open to the agent
+     * @param timeoutMillis the time after which a request fails if no response has arrived or 0 if
+     * requests never time out
+     * @param idleMillis the time after which a connection with no requests in progress is closed
+     */
+    public AsyncSubmit(String address, int port, String socketPath, int maxConnections, long timeoutMillis, long idleMillis)
+    {
+        this.address = (address != null ? address : Submit.DEFAULT_ADDRESS);
+        this.port = (port > 0 ? port : Submit.DEFAULT_PORT);
+        this.socketPath = socketPath;
+        this.maxConnections = (maxConnections > 0 ? maxConnections : 1);
+        this.timeoutMillis = timeoutMillis;
+        this.idleMillis = (idleMillis > 0 ? idleMillis : DEFAULT_IDLE_MILLIS);
+        this.queue = new LinkedList<Request>();
+        this.draining = false;
+        this.connections = new ArrayList<Connection>();
+        this.closed = false;
+    }
+
+    /**
+     * @return the number of connections currently open to the agent
+     */
+    public synchronized int getConnectionCount()
+    {
+        return connections.size();
+    }
+
+    /**
+     * submit a generic request to the agent. the future fails with an exception if the connection
+     * fails, if the request times out or if the agent reports an error.
+     * @param request the request text, a command line followed by its argument lines
+     * @return a future for the response from the agent
+     */
+    public Future<String> submitRequest(String request)
+    {
+        Request pending = new Request(request);
+        boolean dispatch;
+        synchronized (this) {
+            if (closed) {
+                pending.fail(new IOException("AsyncSubmit has been closed"));
+                return pending;
+            }
+            queue.add(pending);
+            dispatch = !draining;
+            draining = true;
+        }
+        if (timeoutMillis > 0) {
+            final Request timed = pending;
+            pending.setTimeout(timer.schedule(new Runnable() {
+                public void run() {
+                    timed.fail(new TimeoutException("No response from Byteman agent after " + timeoutMillis + " ms"));
+                    Connection connection = timed.connection;
+                    if (connection != null) {
+                        connection.timedOut(timed);
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        if (dispatch) {
+            dispatcher.execute(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            });
+        }
+        return pending;
+    }
+
+    /**
+     * @return a future for the version of the agent
+     * @see Submit#getAgentVersion()
+     */
+    public Future<String> getAgentVersion()
+    {
+        return submitRequest("VERSION\n");
+    }
+
+    /**
+     * @return a future for the listing of all deployed rules
+     * @see Submit#listAllRules()
+     */
+    public Future<String> listAllRules()
+    {
+        return submitRequest("LIST\n");
+    }
+
+    /**
+     * @return a future for the results of deleting all rules
+     * @see Submit#deleteAllRules()
+     */
+    public Future<String> deleteAllRules()
+    {
+        return submitRequest("DELETEALL\n");
+    }
+
+    /**
+     * @param scripts the scripts to be deployed
+     * @return a future for the results of the deployment
+     * @see Submit#addScripts(List)
+     */
+    public Future<String> addScripts(List<ScriptText> scripts)
+    {
+        return submitScripts("LOAD", "ENDLOAD", scripts);
+    }
+
+    /**
+     * @param scripts the scripts to be deployed as a single transaction
+     * @return a future for the results of the deployment
+     * @see Submit#addScriptsTransactionally(List)
+     */
+    public Future<String> addScriptsTransactionally(List<ScriptText> scripts)
+    {
+        return submitScripts("LOADTX", "ENDLOAD", scripts);
+    }
+
+    /**
+     * @param scripts the scripts identifying the rules to be deleted
+     * @return a future for the results of the deletion
+     * @see Submit#deleteScripts(List)
+     */
+    public Future<String> deleteScripts(List<ScriptText> scripts)
+    {
+        return submitScripts("DELETE", "ENDDELETE", scripts);
+    }
+
+    private Future<String> submitScripts(String command, String endMarker, List<ScriptText> scripts)
+    {
+        if (scripts == null || scripts.size() == 0) {
+            // match the blocking client which sends nothing in this case
+            Request request = new Request("");
+            request.complete("");
+            return request;
+        }
+        return submitRequest(Submit.scriptRequest(command, endMarker, scripts));
+    }
+
+    /**
+     * close all connections. requests which have not completed fail with an IOException.
+     */
+    public void close()
+    {
+        List<Request> unsent;
+        List<Connection> open;
+        synchronized (this) {
+            closed = true;
+            unsent = new ArrayList<Request>(queue);
+            queue.clear();
+            open = new ArrayList<Connection>(connections);
+            connections.clear();
+        }
+        IOException e = new IOException("AsyncSubmit has been closed");
+        for (Request request : unsent) {
+            request.fail(e);
+        }
+        for (Connection connection : open) {
+            connection.close(e);
+        }
+    }
+
+    /**
+     * write queued requests in order. only one dispatcher thread runs this at a time for any given client.
+     */
+    private void drain()
+    {
+        while (true) {
+            Request request;
+            synchronized (this) {
+                request = queue.poll();
+                if (request == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            if (request.isDone()) {
+                // cancelled or timed out before we got to it
+                continue;
+            }
+            try {
+                // retry if the chosen connection was closed before the request could be written
+                while (!acquire().send(request)) {
+                }
+            } catch (Exception e) {
+                request.fail(e);
+            }
+        }
+    }
+
+    /**
+     * find the connection with the fewest requests in progress, opening a new one if they are all busy
+     * and the limit has not been reached
+     */
+    private Connection acquire() throws Exception
+    {
+        synchronized (this) {
+            Connection best = null;
+            for (Connection connection : connections) {
+                if (connection.isFailed()) {
+                    continue;
+                }
+                if (best == null || connection.pendingCount() < best.pendingCount()) {
+                    best = connection;
+                }
+            }
+            if (best != null && (best.pendingCount() == 0 || connections.size() >= maxConnections)) {
+                return best;
+            }
+        }
+        int connectTimeout = (timeoutMillis > 0 && timeoutMillis < Integer.MAX_VALUE ? (int) timeoutMillis : DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        Submit.Comm comm = new Submit.Comm(address, port, socketPath, connectTimeout);
+        // n.b. the reply to SESSION is read by the connection's reader thread so that an agent which
+        // accepts the connection and then stops responding cannot hold up the dispatcher
+        comm.println("SESSION");
+        Connection connection = new Connection(comm);
+        synchronized (this) {
+            if (closed) {
+                comm.close();
+                throw new IOException("AsyncSubmit has been closed");
+            }
+            connections.add(connection);
+        }
+        connection.start();
+        return connection;
+    }
+
+    private synchronized void remove(Connection connection)
+    {
+        connections.remove(connection);
+    }
+
+    /**
+     * a future for a request which is completed by the thread reading the response
+     */
+    private static class Request extends FutureTask<String>
+    {
+        private final String text;
+        private volatile Future<?> timeout;
+        /**
+         * the connection the request was written to or null if it has not been written
+         */
+        private volatile Connection connection;
+
+        Request(String text)
+        {
+            super(new Callable<String>() {
+                public String call() {
+                    throw new IllegalStateException("AsyncSubmit.Request : request futures are never run");
+                }
+            });
+            this.text = text;
+        }
+
+        void setTimeout(Future<?> timeout)
+        {
+            this.timeout = timeout;
+            if (isDone()) {
+                timeout.cancel(false);
+            }
+        }
+
+        @Override
+        protected void done()
+        {
+            Future<?> pendingTimeout = timeout;
+            if (pendingTimeout != null) {
+                pendingTimeout.cancel(false);
+            }
+        }
+
+        void complete(String response)
+        {
+            set(response);
+        }
+
+        void fail(Throwable throwable)
+        {
+            setException(throwable);
+        }
+    }
+
+    /**
+     * a persistent session with the agent over which requests are pipelined. responses arrive in
+     * request order and are read by a dedicated daemon thread.
+     */
+    private class Connection extends Thread
+    {
+        private final Submit.Comm comm;
+        private final LinkedList<Request> inFlight;
+        private final LinkedList<Integer> ids;
+        private int nextId;
+        private long lastUsed;
+        private boolean failed;
+
+        Connection(Submit.Comm comm)
+        {
+            super("Byteman async submit reader");
+            setDaemon(true);
+            this.comm = comm;
+            this.inFlight = new LinkedList<Request>();
+            this.ids = new LinkedList<Integer>();
+            this.nextId = 0;
+            this.lastUsed = System.currentTimeMillis();
+            this.failed = false;
+            scheduleIdleCheck();
+        }
+
+        synchronized boolean isFailed()
+        {
+            return failed;
+        }
+
+        synchronized int pendingCount()
+        {
+            return inFlight.size();
+        }
+
+        /**
+         * write a request. this is only ever called from the single dispatcher thread draining the
+         * owning client's queue so requests are written in the same order they are added to inFlight.
+         * n.b. the write is done without holding the lock so the reader thread can keep consuming
+         * responses while a large request is being written.
+         * @return false if the connection has already been closed otherwise true
+         */
+        boolean send(Request request)
+        {
+            int id;
+            synchronized (this) {
+                if (failed) {
+                    return false;
+                }
+                if (request.isDone()) {
+                    // timed out or cancelled while the connection was being opened
+                    return true;
+                }
+                id = nextId++;
+                inFlight.add(request);
+                ids.add(id);
+                lastUsed = System.currentTimeMillis();
+                request.connection = this;
+            }
+            comm.println("REQUEST " + id);
+            comm.print(request.text);
+            return true;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                try {
+                    comm.readResponse();
+                } catch (Exception e) {
+                    throw new IOException("Unable to open session with the Byteman agent", e);
+                }
+                while (true) {
+                    String header = comm.readLine();
+                    if (header == null) {
+                        close(new IOException("Byteman agent closed the session"));
+                        return;
+                    }
+                    String response = comm.readRawResponse();
+                    Request request;
+                    Integer id;
+                    synchronized (this) {
+                        request = inFlight.poll();
+                        id = ids.poll();
+                        lastUsed = System.currentTimeMillis();
+                    }
+                    if (request == null || !header.trim().equals("RESPONSE " + id)) {
+                        close(new IOException("Unexpected response from Byteman agent : " + header));
+                        return;
+                    }
+                    try {
+                        // n.b. this does nothing if the request has timed out or been cancelled
+                        request.complete(Submit.Comm.checkResponse(response));
+                    } catch (Exception e) {
+                        request.fail(e);
+                    }
+                }
+            } catch (Exception e) {
+                close(e);
+            }
+        }
+
+        /**
+         * close the connection, failing any requests still waiting for a response
+         */
+        void close(Exception cause)
+        {
+            List<Request> pending;
+            synchronized (this) {
+                if (failed) {
+                    return;
+                }
+                failed = true;
+                pending = new ArrayList<Request>(inFlight);
+                inFlight.clear();
+                ids.clear();
+            }
+            remove(this);
+            comm.close();
+            for (Request request : pending) {
+                request.fail(cause);
+            }
+        }
+
+        /**
+         * called when a request written to this connection has timed out. if it is still waiting for its
+         * response then the session is assumed to be stuck and is closed so that it is not used again.
+         * n.b. responses arrive in order so any requests behind it would be stuck too.
+         */
+        void timedOut(Request request)
+        {
+            boolean stuck;
+            synchronized (this) {
+                stuck = inFlight.contains(request);
+            }
+            if (stuck) {
+                close(new IOException("Connection to Byteman agent closed because a request timed out"));
+            }
+        }
+
+        private void scheduleIdleCheck()
+        {
+            timer.schedule(new Runnable() {
+                public void run() {
+                    boolean idle;
+                    synchronized (Connection.this) {
+                        if (failed) {
+                            return;
+                        }
+                        idle = inFlight.isEmpty() && System.currentTimeMillis() - lastUsed >= idleMillis;
+                    }
+                    if (idle) {
+                        close(new IOException("Connection to Byteman agent closed because it was idle"));
+                    } else {
+                        scheduleIdleCheck();
+                    }
+                }
+            }, idleMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
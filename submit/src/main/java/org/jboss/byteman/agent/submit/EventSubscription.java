@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * a subscription to events published by rules to one or more topics. the subscription holds its own
+ * connection to the agent which carries nothing but events until the subscription is closed. events
+ * are read one at a time by calling {@link #next()}. the agent never waits for a subscriber. if the
+ * subscriber does not read events fast enough the agent discards the oldest queued events and reports
+ * how many were lost, which can be checked by calling {@link #getDroppedCount()}.
+ */
+public class EventSubscription
+{
+    private Submit.Comm comm;
+    private List<String> topics;
+    private volatile boolean closed;
+    private long droppedCount;
+
+    EventSubscription(Submit.Comm comm, List<String> topics)
+    {
+        this.comm = comm;
+        this.topics = topics;
+        this.closed = false;
+        this.droppedCount = 0;
+    }
+
+    /**
+     * @return the topics to which this subscription applies
+     */
+    public List<String> getTopics()
+    {
+        return topics;
+    }
+
+    /**
+     * wait for the next event published to one of the subscribed topics
+     * @return the next event or null if the subscription has been closed or the agent has closed
+     * the connection
+     * @throws IOException if the connection fails or the agent sends something which is not an event
+     */
+    public synchronized RuleEvent next() throws IOException
+    {
+        while (!closed) {
+            String line;
+            try {
+                line = comm.readLine();
+            } catch (IOException e) {
+                if (closed) {
+                    return null;
+                }
+                throw e;
+            } catch (NullPointerException e) {
+                // the connection was closed before we started reading
+                if (closed) {
+                    return null;
+                }
+                throw e;
+            }
+            if (line == null) {
+                closed = true;
+                return null;
+            }
+            if (line.startsWith("EVENT ")) {
+                return parseEvent(line);
+            } else if (line.startsWith("DROPPED ")) {
+                FieldReader reader = new FieldReader(line, "DROPPED ".length());
+                reader.readField();
+                droppedCount += Long.parseLong(reader.rest().trim());
+            } else if (!line.equals("PING")) {
+                throw new IOException("Unexpected event from Byteman agent : " + line);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the total number of events which the agent discarded because this subscriber fell behind,
+     * as reported so far
+     */
+    public synchronized long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    /**
+     * close the subscription. a thread blocked in {@link #next()} returns null.
+     */
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // n.b. don't synchronize here so that we can unblock a reader
+        comm.close();
+    }
+
+    /**
+     * @return true if the subscription has been closed
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    private static RuleEvent parseEvent(String line) throws IOException
+    {
+        try {
+            FieldReader reader = new FieldReader(line, "EVENT ".length());
+            long timestamp = Long.parseLong(reader.readToken());
+            String topic = reader.readField();
+            String ruleName = reader.readField();
+            int count = Integer.parseInt(reader.readToken());
+            List<String> values = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(reader.readField());
+            }
+            return new RuleEvent(topic, ruleName, timestamp, values);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid event from Byteman agent : " + line, e);
+        }
+    }
+}
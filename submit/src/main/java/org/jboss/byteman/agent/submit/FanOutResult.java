@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+/**
+ * the outcome of a request sent to one agent as part of a request fanned out to many agents by
+ * {@link FanOutSubmit}
+ */
+public class FanOutResult
+{
+    private Submit target;
+    private String response;
+    private Exception failure;
+    private long elapsedMillis;
+    private boolean rolledBack;
+
+    /**
+     * Create the outcome of a request sent to one agent.
+     *
+     * @param target the client used to talk to the agent
+     * @param response the response from the agent or null if the request failed
+     * @param failure the exception thrown by the request or null if it succeeded
+     * @param elapsedMillis the time taken to complete the request in milliseconds
+     */
+    public FanOutResult(Submit target, String response, Exception failure, long elapsedMillis)
+    {
+        this.target = target;
+        this.response = response;
+        this.failure = failure;
+        this.elapsedMillis = elapsedMillis;
+        this.rolledBack = false;
+    }
+
+    /**
+     * @return the client used to talk to the agent
+     */
+    public Submit getTarget() {
+        return target;
+    }
+
+    /**
+     * @return a description of the agent listener endpoint, either host:port or the socket path
+     */
+    public String getEndpoint() {
+        return FanOutSubmit.describe(target);
+    }
+
+    /**
+     * @return the response from the agent or null if the request failed
+     */
+    public String getResponse() {
+        return response;
+    }
+
+    /**
+     * @return the exception thrown by the request or null if it succeeded
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the request succeeded
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * @return the time taken to complete the request in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return true if the rule changes made by the request were undone because the request
+     * failed for some other agent
+     */
+    public boolean isRolledBack() {
+        return rolledBack;
+    }
+
+    void setRolledBack(boolean rolledBack) {
+        this.rolledBack = rolledBack;
+    }
+
+    public String toString() {
+        return getEndpoint() + " " + (failure == null ? "OK" : "FAILED") + (rolledBack ? " (rolled back)" : "")
+                + " in " + elapsedMillis + " ms";
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a client which sends the same request to many agents at once. each agent is addressed by its
+ * own {@link Submit} instance and the requests are run concurrently on a bounded pool of threads,
+ * so applying a rule set to a fleet of JVMs costs roughly one round trip and one retransformation
+ * wait rather than one per JVM. the outcome and the elapsed time of the request to each agent are
+ * returned as a list of {@link FanOutResult} in the same order as the targets.
+ *
+ * local JVMs running an agent listener can be found using {@link #discoverLocalAgents()}. this
+ * uses the attach API via the byteman-install jar, which must be on the class path along with
+ * the JDK tools jar when running on JDK 8 or earlier.
+ */
+public class FanOutSubmit
+{
+    /**
+     * the maximum number of requests which are in progress at once unless some other limit is supplied
+     */
+    public final static int DEFAULT_THREADS = 16;
+
+    private final static String INSTALL_CLASS = "org.jboss.byteman.agent.install.Install";
+
+    /**
+     * system property set by a running agent listener to advertise its endpoint. this must match
+     * the value of TransformListener.LISTENER_ENDPOINT.
+     */
+    private final static String LISTENER_ENDPOINT = "org.jboss.byteman.agent.listener";
+
+    private final List<Submit> targets;
+    private final int threads;
+
+    /**
+     * create a client which sends requests to the supplied agents
+     * @param targets a client for each agent
+     */
+    public FanOutSubmit(List<Submit> targets)
+    {
+        this(targets, DEFAULT_THREADS);
+    }
+
+    /**
+     * create a client which sends requests to the supplied agents
+     * @param targets a client for each agent
+     * @param threads the maximum number of requests which may be in progress at once
+     */
+    public FanOutSubmit(List<Submit> targets, int threads)
+    {
+        this.targets = new ArrayList<Submit>(targets);
+        this.threads = (threads > 0 ? threads : DEFAULT_THREADS);
+    }
+
+    /**
+     * @return the clients used to talk to each agent
+     */
+    public List<Submit> getTargets()
+    {
+        return Collections.unmodifiableList(targets);
+    }
+
+    /**
+     * a request to be sent to each agent
+     */
+    public static abstract class Operation
+    {
+        /**
+         * send the request to one agent
+         * @param submit the client for the agent
+         * @return the response from the agent
+         * @throws Exception if the request fails
+         */
+        public abstract String apply(Submit submit) throws Exception;
+    }
+
+    /**
+     * send a request to every agent concurrently and wait for all of them to complete
+     * @param operation the request to send
+     * @return the outcome for each agent in target order
+     */
+    public List<FanOutResult> execute(final Operation operation)
+    {
+        List<Callable<FanOutResult>> tasks = new ArrayList<Callable<FanOutResult>>(targets.size());
+        for (final Submit target : targets) {
+            tasks.add(new Callable<FanOutResult>() {
+                public FanOutResult call() {
+                    return apply(operation, target);
+                }
+            });
+        }
+        return runAll(tasks, threads);
+    }
+
+    /**
+     * load the rules in the supplied scripts into every agent
+     * @param scripts the scripts to load
+     * @param rollback true if the rules should be removed again from every agent, restoring any
+     * rules they replaced, when the load fails for any one agent
+     * @return the outcome for each agent in target order
+     */
+    public List<FanOutResult> addScripts(final List<ScriptText> scripts, boolean rollback)
+    {
+        if (!rollback) {
+            return execute(new Operation() {
+                public String apply(Submit submit) throws Exception {
+                    return submit.addScripts(scripts);
+                }
+            });
+        }
+
+        // record the installed rules for each agent before loading so any which get replaced can be restored
+        final List<List<ScriptText>> snapshots = new ArrayList<List<ScriptText>>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            snapshots.add(null);
+        }
+        List<Callable<FanOutResult>> tasks = new ArrayList<Callable<FanOutResult>>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            final int index = i;
+            tasks.add(new Callable<FanOutResult>() {
+                public FanOutResult call() {
+                    return apply(new Operation() {
+                        public String apply(Submit submit) throws Exception {
+                            List<ScriptText> snapshot = submit.getAllScripts();
+                            synchronized (snapshots) {
+                                snapshots.set(index, snapshot);
+                            }
+                            return submit.addScripts(scripts);
+                        }
+                    }, targets.get(index));
+                }
+            });
+        }
+        final List<FanOutResult> results = runAll(tasks, threads);
+
+        if (allSucceeded(results)) {
+            return results;
+        }
+
+        // undo the load for every agent we got as far as loading into, including any that
+        // reported errors since they may have installed some of the rules
+        final Set<String> names = ruleNames(scripts);
+        tasks.clear();
+        for (int i = 0; i < targets.size(); i++) {
+            final List<ScriptText> snapshot;
+            synchronized (snapshots) {
+                snapshot = snapshots.get(i);
+            }
+            if (snapshot == null) {
+                continue;
+            }
+            final FanOutResult result = results.get(i);
+            tasks.add(new Callable<FanOutResult>() {
+                public FanOutResult call() {
+                    try {
+                        rollback(result.getTarget(), scripts, snapshot, names);
+                        result.setRolledBack(true);
+                    } catch (Exception e) {
+                        if (result.isSuccess()) {
+                            // report the failure so the caller knows this agent is in an unknown state
+                            return new FanOutResult(result.getTarget(), null,
+                                    new Exception("Unable to roll back rules", e), result.getElapsedMillis());
+                        }
+                    }
+                    return result;
+                }
+            });
+        }
+        List<FanOutResult> rolledBack = runAll(tasks, threads);
+        int next = 0;
+        for (int i = 0; i < targets.size(); i++) {
+            boolean loaded;
+            synchronized (snapshots) {
+                loaded = (snapshots.get(i) != null);
+            }
+            if (loaded) {
+                results.set(i, rolledBack.get(next++));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * unload the rules in the supplied scripts from every agent
+     * @param scripts the scripts identifying the rules to unload
+     * @return the outcome for each agent in target order
+     */
+    public List<FanOutResult> deleteScripts(final List<ScriptText> scripts)
+    {
+        return execute(new Operation() {
+            public String apply(Submit submit) throws Exception {
+                return submit.deleteScripts(scripts);
+            }
+        });
+    }
+
+    /**
+     * unload all rules from every agent
+     * @return the outcome for each agent in target order
+     */
+    public List<FanOutResult> deleteAllRules()
+    {
+        return execute(new Operation() {
+            public String apply(Submit submit) throws Exception {
+                return submit.deleteAllRules();
+            }
+        });
+    }
+
+    /**
+     * list the rules installed in every agent
+     * @return the outcome for each agent in target order
+     */
+    public List<FanOutResult> listAllRules()
+    {
+        return execute(new Operation() {
+            public String apply(Submit submit) throws Exception {
+                return submit.listAllRules();
+            }
+        });
+    }
+
+    /**
+     * @param results the results of a fanned out request
+     * @return true if the request succeeded for every agent
+     */
+    public static boolean allSucceeded(List<FanOutResult> results)
+    {
+        for (FanOutResult result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * find the JVMs on this host which are running an agent listener, using the attach API to read
+     * the listener endpoint each agent advertises. JVMs are inspected concurrently.
+     * @return a client for each agent listener found
+     * @throws Exception if the byteman-install jar or the attach API is not available
+     */
+    public static List<Submit> discoverLocalAgents() throws Exception
+    {
+        return discoverLocalAgents(DEFAULT_THREADS);
+    }
+
+    /**
+     * find the JVMs on this host which are running an agent listener
+     * @param threads the maximum number of JVMs to inspect at once
+     * @return a client for each agent listener found
+     * @throws Exception if the byteman-install jar or the attach API is not available
+     */
+    public static List<Submit> discoverLocalAgents(int threads) throws Exception
+    {
+        Class<?> installClass;
+        try {
+            installClass = Class.forName(INSTALL_CLASS);
+        } catch (ClassNotFoundException e) {
+            throw new Exception("Agent discovery requires the byteman-install jar on the class path", e);
+        }
+        final Method availableVMs = installClass.getMethod("availableVMs");
+        final Method getSystemProperty = installClass.getMethod("getSystemProperty", String.class, String.class);
+        Object vms;
+        try {
+            vms = availableVMs.invoke(null);
+        } catch (Throwable t) {
+            throw new Exception("Unable to list local JVMs using the attach API", t);
+        }
+
+        List<Callable<Submit>> tasks = new ArrayList<Callable<Submit>>();
+        int count = Array.getLength(vms);
+        for (int i = 0; i < count; i++) {
+            Object vm = Array.get(vms, i);
+            final String id = (String)vm.getClass().getMethod("getId").invoke(vm);
+            tasks.add(new Callable<Submit>() {
+                public Submit call() throws Exception {
+                    String endpoint = (String)getSystemProperty.invoke(null, id, LISTENER_ENDPOINT);
+                    return (endpoint == null ? null : forEndpoint(endpoint));
+                }
+            });
+        }
+
+        List<Submit> found = new ArrayList<Submit>();
+        for (Submit submit : runAll(tasks, (threads > 0 ? threads : DEFAULT_THREADS))) {
+            if (submit != null) {
+                found.add(submit);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * create a client for an endpoint advertised by an agent listener
+     * @param endpoint either host:port or socket:path
+     * @return a client for the endpoint or null if it cannot be parsed
+     */
+    static Submit forEndpoint(String endpoint)
+    {
+        if (endpoint.startsWith("socket:")) {
+            return new Submit(Submit.DEFAULT_ADDRESS, Submit.DEFAULT_PORT, endpoint.substring("socket:".length()), null);
+        }
+        int colon = endpoint.lastIndexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        try {
+            int port = Integer.parseInt(endpoint.substring(colon + 1));
+            return new Submit(endpoint.substring(0, colon), port);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static String describe(Submit submit)
+    {
+        if (submit.getSocketPath() != null) {
+            return submit.getSocketPath();
+        }
+        return submit.getAddress() + ":" + submit.getPort();
+    }
+
+    private static FanOutResult apply(Operation operation, Submit target)
+    {
+        long start = System.nanoTime();
+        try {
+            String response = operation.apply(target);
+            return new FanOutResult(target, response, null, elapsedMillis(start));
+        } catch (Exception e) {
+            return new FanOutResult(target, null, e, elapsedMillis(start));
+        }
+    }
+
+    private static long elapsedMillis(long startNanos)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * remove the supplied rules from an agent and reinstall any versions of them which were
+     * installed beforehand
+     */
+    private static void rollback(Submit submit, List<ScriptText> scripts, List<ScriptText> snapshot,
+                                 Set<String> names) throws Exception
+    {
+        submit.deleteScripts(scripts);
+        List<ScriptText> restore = new ArrayList<ScriptText>();
+        for (ScriptText script : snapshot) {
+            StringBuilder text = new StringBuilder();
+            for (String rule : submit.splitAllRulesFromScript(script.getText())) {
+                String name = submit.determineRuleName(rule);
+                if (name != null && names.contains(name.trim())) {
+                    text.append(rule);
+                }
+            }
+            if (text.length() > 0) {
+                restore.add(new ScriptText(script.getFileName(), text.toString()));
+            }
+        }
+        if (!restore.isEmpty()) {
+            submit.addScripts(restore);
+        }
+    }
+
+    private static Set<String> ruleNames(List<ScriptText> scripts)
+    {
+        // n.b. the rule splitting methods do not talk to the agent so any instance will do
+        Submit parser = new Submit();
+        Set<String> names = new HashSet<String>();
+        for (ScriptText script : scripts) {
+            try {
+                for (String rule : parser.splitAllRulesFromScript(script.getText())) {
+                    String name = parser.determineRuleName(rule);
+                    if (name != null) {
+                        names.add(name.trim());
+                    }
+                }
+            } catch (Exception e) {
+                // cannot happen reading from a string
+            }
+        }
+        return names;
+    }
+
+    /**
+     * run tasks on a bounded pool of daemon threads and wait for them all to complete
+     * @return the task results in task order
+     */
+    private static <T> List<T> runAll(List<Callable<T>> tasks, int threads)
+    {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (tasks.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Byteman fan out submit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<T>> futures = executor.invokeAll(tasks);
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // only discovery tasks throw and a JVM we cannot inspect is simply skipped
+                    results.add(null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for agents to respond", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+}
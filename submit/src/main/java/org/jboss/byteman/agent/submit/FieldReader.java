@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+/**
+ * reader for fields written as "length:text" separated by single spaces with any backslash,
+ * newline or carriage return in the text escaped
+ */
+class FieldReader
+{
+    private String line;
+    private int pos;
+
+    FieldReader(String line, int pos)
+    {
+        this.line = line;
+        this.pos = pos;
+    }
+
+    String readField()
+    {
+        int colon = line.indexOf(':', pos);
+        if (colon < 0) {
+            throw new IllegalStateException("Invalid field at offset " + pos + " in line [" + line + "]");
+        }
+        int length = Integer.parseInt(line.substring(pos, colon));
+        int end = colon + 1 + length;
+        String text = line.substring(colon + 1, end);
+        // skip the separator if there is one
+        pos = (end < line.length() ? end + 1 : end);
+        if (text.indexOf('\\') >= 0) {
+            text = unescape(text);
+        }
+        return text;
+    }
+
+    /**
+     * read an unprefixed token terminated by a space or the end of the line
+     * @return the token
+     */
+    String readToken()
+    {
+        int end = line.indexOf(' ', pos);
+        if (end < 0) {
+            end = line.length();
+        }
+        String token = line.substring(pos, end);
+        pos = (end < line.length() ? end + 1 : end);
+        return token;
+    }
+
+    String rest()
+    {
+        return line.substring(pos);
+    }
+
+    private static String unescape(String text)
+    {
+        StringBuilder builder = new StringBuilder(text.length());
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < length) {
+                c = text.charAt(++i);
+                if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'r') {
+                    c = '\r';
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+import java.util.List;
+
+/**
+ * an event published by a rule using one of the emit builtins and delivered to a client which has
+ * subscribed to the event's topic
+ */
+public class RuleEvent
+{
+    private String topic;
+    private String ruleName;
+    private long timestamp;
+    private List<String> values;
+
+    /**
+     * Create an event from the fields of an EVENT line written by the agent.
+     *
+     * @param topic the topic to which the event was published
+     * @param ruleName the name of the rule which published the event
+     * @param timestamp the time at which the event was published in milliseconds since the epoch
+     * @param values the values supplied when the event was published converted to strings
+     */
+    public RuleEvent(String topic, String ruleName, long timestamp, List<String> values)
+    {
+        this.topic = topic;
+        this.ruleName = ruleName;
+        this.timestamp = timestamp;
+        this.values = values;
+    }
+
+    /**
+     * @return the topic to which the event was published
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the name of the rule which published the event
+     */
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    /**
+     * @return the time at which the event was published in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the values supplied when the event was published converted to strings
+     */
+    public List<String> getValues() {
+        return values;
+    }
+
+    public String toString() {
+        return topic + " " + ruleName + " " + timestamp + " " + values;
+    }
+}
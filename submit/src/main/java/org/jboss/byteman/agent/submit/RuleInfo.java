@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+/**
+ * a summary of the state of a single rule as reported by the agent in response to a paged rule listing
+ */
+public class RuleInfo
+{
+    private String ruleName;
+    private String targetClass;
+    private String targetMethod;
+    private String file;
+    private int line;
+    private String status;
+    private int transformedCount;
+    private int failedCount;
+    private String detail;
+
+    /**
+     * Create a rule summary from the fields of a RULEINFO line written by the agent.
+     *
+     * @param ruleName the name of the rule
+     * @param targetClass the target class named in the rule
+     * @param targetMethod the target method named in the rule
+     * @param file the script file from which the rule was loaded
+     * @param line the line in the script file at which the rule starts
+     * @param status one of pending, transformed, failed or disabled
+     * @param transformedCount the number of successful transforms
+     * @param failedCount the number of failed transforms
+     * @param detail a description of the first failed transform or an empty string
+     */
+    public RuleInfo(String ruleName, String targetClass, String targetMethod, String file, int line,
+                    String status, int transformedCount, int failedCount, String detail)
+    {
+        this.ruleName = ruleName;
+        this.targetClass = targetClass;
+        this.targetMethod = targetMethod;
+        this.file = file;
+        this.line = line;
+        this.status = status;
+        this.transformedCount = transformedCount;
+        this.failedCount = failedCount;
+        this.detail = detail;
+    }
+
+    /**
+     * @return the name of the rule
+     */
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    /**
+     * @return the target class named in the rule
+     */
+    public String getTargetClass() {
+        return targetClass;
+    }
+
+    /**
+     * @return the target method named in the rule
+     */
+    public String getTargetMethod() {
+        return targetMethod;
+    }
+
+    /**
+     * @return the script file from which the rule was loaded
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return the line in the script file at which the rule starts
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return one of pending, meaning no class has yet been transformed by the rule, transformed,
+     * failed, meaning at least one transform failed to inject, typecheck or compile the rule, or
+     * disabled, meaning the rule has been disabled by a client or its circuit breaker has tripped
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the number of successful transforms
+     */
+    public int getTransformedCount() {
+        return transformedCount;
+    }
+
+    /**
+     * @return the number of failed transforms
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return a description of the first failed transform or an empty string if no transform failed
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    public String toString() {
+        return status + " transformed " + transformedCount + " failed " + failedCount + " RULE " + ruleName;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * an iterator over the rules installed in the agent which fetches the rule summaries a page at a
+ * time. rules are returned in rule name order. each page is requested from the agent when the
+ * previous page has been consumed so a client which only needs the first few rules of a large rule
+ * set does not transfer the rest. since the iterator methods cannot throw checked exceptions a failure
+ * to fetch a page is reported by throwing an IllegalStateException wrapping the original exception.
+ */
+public class RuleInfoIterator implements Iterator<RuleInfo>
+{
+    private Submit submit;
+    private String namePattern;
+    private String classPattern;
+    private String status;
+    private int pageSize;
+    private List<RuleInfo> page;
+    private int index;
+    private String after;
+    private boolean lastPage;
+    private int matchedCount;
+
+    RuleInfoIterator(Submit submit, String namePattern, String classPattern, String status, int pageSize)
+    {
+        this.submit = submit;
+        this.namePattern = namePattern;
+        this.classPattern = classPattern;
+        this.status = status;
+        this.pageSize = pageSize;
+        this.page = null;
+        this.index = 0;
+        this.after = null;
+        this.lastPage = false;
+        this.matchedCount = -1;
+    }
+
+    public boolean hasNext()
+    {
+        while (page == null || (index == page.size() && !lastPage)) {
+            fetchPage();
+        }
+        return index < page.size();
+    }
+
+    public RuleInfo next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(index++);
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException("RuleInfoIterator.remove : rules cannot be removed via the iterator");
+    }
+
+    /**
+     * @return the total number of rules which matched the filters when the most recent page was
+     * fetched. this may change between pages if rules are loaded or unloaded while iterating.
+     */
+    public int getMatchedCount()
+    {
+        if (page == null) {
+            fetchPage();
+        }
+        return matchedCount;
+    }
+
+    private void fetchPage()
+    {
+        String response;
+        try {
+            response = submit.listRulePage(after, pageSize, namePattern, classPattern, status);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to list rules", e);
+        }
+        List<RuleInfo> rules = new ArrayList<RuleInfo>(pageSize > 0 ? pageSize : 16);
+        String next = null;
+        try {
+            BufferedReader reader = new BufferedReader(new StringReader(response));
+            String line = reader.readLine();
+            while (line != null) {
+                if (line.startsWith("MATCHED ")) {
+                    matchedCount = Integer.parseInt(line.substring("MATCHED ".length()));
+                } else if (line.startsWith("RULEINFO ")) {
+                    rules.add(parseRuleInfo(line));
+                } else if (line.startsWith("NEXT ")) {
+                    next = new FieldReader(line, "NEXT ".length()).readField();
+                } else {
+                    throw new IllegalStateException("Invalid rule listing in line [" + line + "]. Full response below:\n" + response);
+                }
+                line = reader.readLine();
+            }
+        } catch (IOException e) {
+            // cannot happen reading from a string
+            throw new IllegalStateException("Unable to list rules", e);
+        }
+        page = rules;
+        index = 0;
+        after = next;
+        lastPage = (next == null);
+    }
+
+    private RuleInfo parseRuleInfo(String line)
+    {
+        FieldReader reader = new FieldReader(line, "RULEINFO ".length());
+        String ruleName = reader.readField();
+        String targetClass = reader.readField();
+        String targetMethod = reader.readField();
+        String file = reader.readField();
+        String detail = reader.readField();
+        String[] counts = reader.rest().split(" ");
+        if (counts.length != 4) {
+            throw new IllegalStateException("Invalid rule summary in line [" + line + "]");
+        }
+        return new RuleInfo(ruleName, targetClass, targetMethod, file, Integer.parseInt(counts[1]),
+                counts[0], Integer.parseInt(counts[2]), Integer.parseInt(counts[3]), detail);
+    }
+}
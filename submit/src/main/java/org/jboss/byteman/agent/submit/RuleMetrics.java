@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2019 Red Hat and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ * (C) 2019,
+ * @authors Andrew Dinn
+ */
+
+
+package org.jboss.byteman.agent.submit;
+
+/**
+ * execution metrics for a single rule as reported by the agent
+ */
+public class RuleMetrics
+{
+    private String ruleName;
+    private long fires;
+    private long hits;
+    private long nanos;
+
+    /**
+     * Create the metrics for a rule from the values reported by the agent.
+     *
+     * @param ruleName the name of the rule
+     * @param fires the number of times the rule has been executed
+     * @param hits the number of times the rule condition evaluated to true
+     * @param nanos the total time in nanoseconds spent executing the rule
+     */
+    public RuleMetrics(String ruleName, long fires, long hits, long nanos)
+    {
+        this.ruleName = ruleName;
+        this.fires = fires;
+        this.hits = hits;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return the name of the rule
+     */
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    /**
+     * @return the number of times the rule has been executed
+     */
+    public long getFires() {
+        return fires;
+    }
+
+    /**
+     * @return the number of times the rule condition evaluated to true
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the total time in nanoseconds spent executing the rule
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    public String toString() {
+        return "fires " + fires + " hits " + hits + " nanos " + nanos + " RULE " + ruleName;
+    }
+}
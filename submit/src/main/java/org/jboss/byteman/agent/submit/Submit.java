@@ -26,12 +26,21 @@
 package org.jboss.byteman.agent.submit;
 
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,12 +58,27 @@ public class Submit
 {
     public static final String DEFAULT_ADDRESS = "localhost";
     public static final int DEFAULT_PORT= 9091;
+    /**
+     * The number of rule summaries fetched from the agent in each page by {@link #iterateRules()}.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
 
     private final int port;
     private final String address;
+    private final String socketPath;
 
     private PrintStream out;
 
+    /**
+     * the connection used for all requests while a session is open or null if no session is open
+     */
+    private Comm session;
+
+    /**
+     * the id to be used for the next request sent during a session
+     */
+    private int nextRequestId;
+
     /**
      * Create a client that will connect to a Byteman agent on the default host
      * and port and writing output to System.out.
@@ -92,6 +116,29 @@ public class Submit
      *            the print stream used for writing output
      */
     public Submit(String address, int port, PrintStream out) {
+        this(address, port, null, out);
+    }
+
+    /**
+     * Create a client that will connect to a Byteman agent listening on the given
+     * unix domain socket file and writing output to the supplied print stream.
+     * Unix domain sockets are only available when running on JDK 16 or later. On
+     * earlier JDKs the client falls back to connecting to the agent on the given
+     * host and port.
+     *
+     * @param address
+     *            the hostname or IP address used if the client falls back to TCP.
+     *            If <code>null</code>, the default host is used.
+     * @param port
+     *            the port used if the client falls back to TCP.
+     *            If 0 or less, the default port is used.
+     * @param socketPath
+     *            the path of the socket file the Byteman agent is listening on.
+     *            If <code>null</code>, the client connects using TCP.
+     * @param out
+     *            the print stream used for writing output
+     */
+    public Submit(String address, int port, String socketPath, PrintStream out) {
         if (address == null) {
             address = DEFAULT_ADDRESS;
         }
@@ -106,6 +153,7 @@ public class Submit
 
         this.address = address;
         this.port = port;
+        this.socketPath = socketPath;
         this.out = out;
     }
 
@@ -125,6 +173,15 @@ public class Submit
         return this.port;
     }
 
+    /**
+     * @return the path of the unix domain socket file this client expects a
+     *         Byteman agent to be listening on or <code>null</code> if the
+     *         client connects using TCP.
+     */
+    public String getSocketPath() {
+        return this.socketPath;
+    }
+
     /**
      * Returns the version of the remote Byteman agent.
      *
@@ -592,15 +649,50 @@ public class Submit
             return "";
         }
 
-        StringBuilder str = new StringBuilder("LOAD\n");
+        return submitRequest(scriptRequest("LOAD", "ENDLOAD", scripts));
+    }
+
+    /**
+     * Deploys rules into Byteman as a single transaction. The agent checks
+     * every rule against the currently loaded classes before installing any
+     * of them. If any rule fails to parse, inject or type check then no rule
+     * is installed, no class is retransformed and an exception describing each
+     * failure is thrown. Otherwise all the rules are installed using a single
+     * retransformation pass.
+     *
+     * @param scripts
+     *            scripts to be deployed
+     *
+     * @return the results of the deployment
+     *
+     * @throws Exception
+     *             if the request failed or the rules were rejected
+     */
+    public String addScriptsTransactionally(List<ScriptText> scripts) throws Exception {
+        if (scripts == null || scripts.size() == 0) {
+            return "";
+        }
+
+        return submitRequest(scriptRequest("LOADTX", "ENDLOAD", scripts));
+    }
+
+    /**
+     * build the text of a request which carries a list of scripts
+     * @param command the command which starts the request
+     * @param endMarker the line which ends the request
+     * @param scripts the scripts
+     * @return the request text
+     */
+    static String scriptRequest(String command, String endMarker, List<ScriptText> scripts) {
+        StringBuilder str = new StringBuilder(command).append('\n');
         for (ScriptText scriptText : scripts) {
             str.append("SCRIPT " + scriptText.getFileName() + '\n');
             str.append(scriptText.getText()).append('\n');
             str.append("ENDSCRIPT\n");
         }
-        str.append("ENDLOAD\n");
+        str.append(endMarker).append('\n');
 
-        return submitRequest(str.toString());
+        return str.toString();
     }
 
     /**
@@ -686,15 +778,150 @@ public class Submit
             return "";
         }
 
-        StringBuilder str = new StringBuilder("DELETE\n");
-        for (ScriptText scriptText : scripts) {
-            str.append("SCRIPT " + scriptText.getFileName() + '\n');
-            str.append(scriptText.getText()).append('\n');
-            str.append("ENDSCRIPT\n");
+        return submitRequest(scriptRequest("DELETE", "ENDDELETE", scripts));
+    }
+
+    /**
+     * Synchronizes the rules deployed in the Byteman agent with the rules in the
+     * given scripts. A content hash for each rule is sent to the agent, which
+     * replies with the rules that are new, changed or no longer wanted. Only
+     * those rules are then loaded or deleted, so classes affected only by
+     * unchanged rules are not retransformed. A rule counts as unchanged if its
+     * text and any script level HELPER, IMPORT, COMPILE or NOCOMPILE settings
+     * which precede it are the same, ignoring indentation, blank lines and comments.
+     *
+     * @param scripts
+     *            the scripts containing all the rules which should be deployed
+     *
+     * @return the differences reported by the agent followed by the results of
+     *         any delete and load requests
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public String syncScripts(List<ScriptText> scripts) throws Exception {
+        List<SyncRule> rules = new ArrayList<SyncRule>();
+        for (ScriptText script : scripts) {
+            splitScriptForSync(script, rules);
         }
-        str.append("ENDDELETE\n");
 
-        return submitRequest(str.toString());
+        StringBuilder str = new StringBuilder("SYNC\n");
+        for (SyncRule rule : rules) {
+            str.append("RULE ").append(rule.hash).append(' ').append(rule.name).append('\n');
+        }
+        str.append("ENDSYNC\n");
+
+        String differences = submitRequest(str.toString());
+
+        Set<String> toBeLoaded = new HashSet<String>();
+        StringBuilder toBeDeleted = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new StringReader(differences));
+        String line = reader.readLine();
+        while (line != null) {
+            if (line.startsWith("ADDED ")) {
+                toBeLoaded.add(line.substring("ADDED ".length()));
+            } else if (line.startsWith("CHANGED ")) {
+                toBeLoaded.add(line.substring("CHANGED ".length()));
+            } else if (line.startsWith("REMOVED ")) {
+                // a delete only needs the RULE line to identify the rule
+                toBeDeleted.append("RULE ").append(line.substring("REMOVED ".length())).append('\n');
+            } else if (!line.startsWith("UNCHANGED ")) {
+                throw new Exception("Invalid rule differences in line [" + line + "]. Full response below:\n" + differences);
+            }
+            line = reader.readLine();
+        }
+
+        StringBuilder results = new StringBuilder(differences);
+
+        if (toBeDeleted.length() > 0) {
+            List<ScriptText> deletes = new ArrayList<ScriptText>(1);
+            deletes.add(new ScriptText("sync", toBeDeleted.toString()));
+            results.append(deleteScripts(deletes));
+        }
+
+        if (!toBeLoaded.isEmpty()) {
+            List<ScriptText> loads = new ArrayList<ScriptText>(toBeLoaded.size());
+            for (SyncRule rule : rules) {
+                if (toBeLoaded.contains(rule.name)) {
+                    loads.add(new ScriptText(rule.scriptName, rule.text));
+                }
+            }
+            results.append(addScripts(loads));
+        }
+
+        return results.toString();
+    }
+
+    /**
+     * a rule extracted from a script for synchronization
+     */
+    private static class SyncRule {
+        private String name;
+        private String hash;
+        private String scriptName;
+        /**
+         * a script containing just this rule and the script level settings which precede it, padded
+         * with blank lines so the rule starts at the same line as in the original script
+         */
+        private String text;
+    }
+
+    /**
+     * split a script into its rules computing the content hash for each rule. this must compute
+     * the same hash as the agent does when it processes the script text.
+     * @param script the script to be split
+     * @param rules a list to which the rules are appended
+     * @throws Exception if the hash cannot be computed
+     */
+    private static void splitScriptForSync(ScriptText script, List<SyncRule> rules) throws Exception {
+        String[] lines = script.getText().split("\n");
+        StringBuilder scriptContent = new StringBuilder();
+        int scriptContentLines = 0;
+        StringBuilder ruleContent = null;
+        StringBuilder ruleText = null;
+        String name = null;
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            boolean isContent = (line.length() > 0 && !line.startsWith("#"));
+            if (line.startsWith("RULE ")) {
+                name = line.substring("RULE ".length()).trim();
+                ruleContent = new StringBuilder(scriptContent);
+                ruleText = new StringBuilder(scriptContent);
+                for (int pad = scriptContentLines; pad < i; pad++) {
+                    ruleText.append('\n');
+                }
+            } else if (name == null && isContent) {
+                scriptContent.append(line).append('\n');
+                scriptContentLines++;
+                continue;
+            }
+            if (name != null) {
+                if (isContent) {
+                    ruleContent.append(line).append('\n');
+                }
+                ruleText.append(lines[i]).append('\n');
+                if (line.startsWith("ENDRULE")) {
+                    SyncRule rule = new SyncRule();
+                    rule.name = name;
+                    rule.hash = contentHash(ruleContent.toString());
+                    rule.scriptName = script.getFileName();
+                    rule.text = ruleText.toString();
+                    rules.add(rule);
+                    name = null;
+                }
+            }
+        }
+    }
+
+    private static String contentHash(String content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes("UTF-8"));
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
     }
 
     /**
@@ -719,6 +946,303 @@ public class Submit
 
         return submitRequest(str.toString());
     }
+
+    /**
+     * Returns execution metrics for all rules currently deployed in the
+     * Byteman agent. Metrics record how often each rule has been executed,
+     * how often its condition evaluated to true and how long it spent
+     * executing, accumulated across all of the rule's trigger points.
+     *
+     * @param reset
+     *            true if the agent should reset the metrics to zero once
+     *            they have been reported
+     *
+     * @return the metrics for each deployed rule
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public List<RuleMetrics> getRuleMetrics(boolean reset) throws Exception {
+        String results = submitRequest(reset ? "METRICSRESET\n" : "METRICS\n");
+        List<RuleMetrics> metrics = new ArrayList<RuleMetrics>();
+        Pattern metricsPattern = Pattern.compile("fires (\\d+) hits (\\d+) nanos (\\d+) RULE (.+)");
+        BufferedReader reader = new BufferedReader(new StringReader(results));
+        String line = reader.readLine();
+        while (line != null) {
+            Matcher matcher = metricsPattern.matcher(line);
+            if (!matcher.matches()) {
+                throw new Exception("Invalid rule metrics in line [" + line + "]. Full response below:\n" + results);
+            }
+            metrics.add(new RuleMetrics(matcher.group(4),
+                    Long.parseLong(matcher.group(1)),
+                    Long.parseLong(matcher.group(2)),
+                    Long.parseLong(matcher.group(3))));
+            line = reader.readLine();
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns execution metrics for all rules currently deployed in the
+     * Byteman agent without resetting them.
+     *
+     * @return the metrics for each deployed rule
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public List<RuleMetrics> getRuleMetrics() throws Exception {
+        return getRuleMetrics(false);
+    }
+
+    /**
+     * Returns an iterator over summaries of all rules currently deployed in the
+     * Byteman agent. The summaries are fetched from the agent a page at a time
+     * as the iterator is consumed. Opening a session first using {@link #openSession()}
+     * avoids the cost of a new connection per page.
+     *
+     * @return an iterator over the rule summaries in rule name order
+     */
+    public RuleInfoIterator iterateRules() {
+        return iterateRules(null, null, null, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Returns an iterator over summaries of the rules currently deployed in the
+     * Byteman agent which match the supplied filters. The summaries are fetched
+     * from the agent a page at a time as the iterator is consumed. The iterator
+     * throws an IllegalStateException if a page cannot be fetched.
+     *
+     * @param namePattern
+     *            a regular expression which must be found in the rule name or
+     *            <code>null</code> if rules with any name should be listed
+     * @param classPattern
+     *            a regular expression which must be found in the rule target
+     *            class or <code>null</code> if rules for any class should be listed
+     * @param status
+     *            one of pending, transformed, failed or disabled or
+     *            <code>null</code> if rules with any status should be listed
+     * @param pageSize
+     *            the number of rules to fetch per request. If 0 or less, all
+     *            matching rules are fetched in one request.
+     *
+     * @return an iterator over the rule summaries in rule name order
+     */
+    public RuleInfoIterator iterateRules(String namePattern, String classPattern, String status, int pageSize) {
+        return new RuleInfoIterator(this, namePattern, classPattern, status, (pageSize > 0 ? pageSize : 0));
+    }
+
+    /**
+     * request one page of rule summaries
+     * @param after the name of the last rule in the previous page or null
+     * @param limit the page size or 0 for no limit
+     * @param namePattern the rule name filter or null
+     * @param classPattern the target class filter or null
+     * @param status the status filter or null
+     * @return the response from the agent
+     * @throws Exception if the request failed
+     */
+    String listRulePage(String after, int limit, String namePattern, String classPattern, String status) throws Exception {
+        StringBuilder str = new StringBuilder("LISTRULES\n");
+        if (after != null) {
+            str.append("AFTER ").append(after).append('\n');
+        }
+        if (limit > 0) {
+            str.append("LIMIT ").append(limit).append('\n');
+        }
+        if (namePattern != null) {
+            str.append("RULE ").append(namePattern).append('\n');
+        }
+        if (classPattern != null) {
+            str.append("CLASS ").append(classPattern).append('\n');
+        }
+        if (status != null) {
+            str.append("STATUS ").append(status).append('\n');
+        }
+        str.append("ENDLISTRULES\n");
+
+        return submitRequest(str.toString());
+    }
+
+    /**
+     * Re-enables rules which have been disabled by the agent because they
+     * exceeded the execution rate or execution time budget configured via
+     * system properties org.jboss.byteman.breaker.rate and
+     * org.jboss.byteman.breaker.budget.
+     *
+     * @param ruleNames
+     *            the names of the rules to be re-enabled
+     *
+     * @return the results of the request
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public String rearmRules(List<String> ruleNames) throws Exception {
+        if (ruleNames == null || ruleNames.size() == 0) {
+            return "";
+        }
+
+        StringBuilder str = new StringBuilder("REARM\n");
+        for (String ruleName : ruleNames) {
+            str.append(ruleName).append('\n');
+        }
+        str.append("ENDREARM\n");
+
+        return submitRequest(str.toString());
+    }
+
+    /**
+     * Re-enables all rules which have been disabled by the agent because they
+     * exceeded the configured execution rate or execution time budget.
+     *
+     * @return the results of the request
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public String rearmAllRules() throws Exception {
+        return submitRequest("REARM\nENDREARM\n");
+    }
+
+    /**
+     * Suspends execution of the named rules without retransforming the
+     * classes into which they have been injected. The trigger code for a
+     * disabled rule returns before preparing the rule call so a disabled rule
+     * costs very little. A rule is enabled again by {@link #enableRules(List)}
+     * or when it is reloaded.
+     *
+     * @param ruleNames
+     *            the names of the rules to be disabled
+     *
+     * @return the results of the request
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public String disableRules(List<String> ruleNames) throws Exception {
+        return switchRules("DISABLE", ruleNames);
+    }
+
+    /**
+     * Resumes execution of the named rules after they have been disabled by
+     * {@link #disableRules(List)}.
+     *
+     * @param ruleNames
+     *            the names of the rules to be enabled
+     *
+     * @return the results of the request
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public String enableRules(List<String> ruleNames) throws Exception {
+        return switchRules("ENABLE", ruleNames);
+    }
+
+    /**
+     * Suspends execution of all loaded rules.
+     *
+     * @return the results of the request
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public String disableAllRules() throws Exception {
+        return submitRequest("DISABLE\nENDDISABLE\n");
+    }
+
+    /**
+     * Resumes execution of all loaded rules.
+     *
+     * @return the results of the request
+     *
+     * @throws Exception
+     *             if the request failed
+     */
+    public String enableAllRules() throws Exception {
+        return submitRequest("ENABLE\nENDENABLE\n");
+    }
+
+    private String switchRules(String command, List<String> ruleNames) throws Exception {
+        if (ruleNames == null || ruleNames.size() == 0) {
+            return "";
+        }
+
+        StringBuilder str = new StringBuilder(command).append('\n');
+        for (String ruleName : ruleNames) {
+            str.append(ruleName).append('\n');
+        }
+        str.append("END").append(command).append('\n');
+
+        return submitRequest(str.toString());
+    }
+
+    /**
+     * Subscribes to events published by rules to the given topics using the
+     * <code>emit</code> builtins. The subscription uses its own connection to
+     * the agent, independent of any session opened via {@link #openSession()},
+     * which stays open until the subscription is closed.
+     *
+     * @param topics
+     *            the topics to subscribe to
+     *
+     * @return the subscription
+     *
+     * @throws Exception
+     *             if the subscription could not be established
+     */
+    public EventSubscription subscribe(List<String> topics) throws Exception {
+        return subscribe(topics, 0, 1);
+    }
+
+    /**
+     * Subscribes to events published by rules to the given topics using the
+     * <code>emit</code> builtins. The agent queues events for each topic
+     * separately. When a queue is full the oldest queued event is discarded.
+     *
+     * @param topics
+     *            the topics to subscribe to
+     * @param capacity
+     *            the number of events the agent may queue per topic or 0 if the
+     *            agent default should be used
+     * @param sampleRate
+     *            1 if every event should be delivered or n if only every nth
+     *            event published to each topic should be delivered
+     *
+     * @return the subscription
+     *
+     * @throws Exception
+     *             if the subscription could not be established
+     */
+    public EventSubscription subscribe(List<String> topics, int capacity, int sampleRate) throws Exception {
+        if (topics == null || topics.size() == 0) {
+            throw new IllegalArgumentException("No topics supplied for subscription");
+        }
+
+        StringBuilder str = new StringBuilder("SUBSCRIBE\n");
+        for (String topic : topics) {
+            str.append("TOPIC ").append(topic).append('\n');
+        }
+        if (capacity > 0) {
+            str.append("CAPACITY ").append(capacity).append('\n');
+        }
+        if (sampleRate > 1) {
+            str.append("SAMPLE ").append(sampleRate).append('\n');
+        }
+        str.append("ENDSUBSCRIBE\n");
+
+        Comm comm = new Comm(this.address, this.port, this.socketPath);
+        try {
+            comm.print(str.toString());
+            comm.readResponse();
+        } catch (Exception e) {
+            comm.close();
+            throw e;
+        }
+        return new EventSubscription(comm, new ArrayList<String>(topics));
+    }
+
     /**
      * Sets system properties in the Byteman agent VM.
      * If Byteman was configured for strict mode, only Byteman related
@@ -784,7 +1308,14 @@ public class Submit
      *             if the request failed
      */
     public String submitRequest(String request) throws Exception {
-        Comm comm = new Comm(this.address, this.port);
+        synchronized (this) {
+            if (session != null) {
+                List<String> requests = new ArrayList<String>(1);
+                requests.add(request);
+                return submitRequests(requests).get(0);
+            }
+        }
+        Comm comm = new Comm(this.address, this.port, this.socketPath);
         try {
             comm.print(request);
             String results = comm.readResponse();
@@ -794,6 +1325,143 @@ public class Submit
         }
     }
 
+    /**
+     * Opens a persistent session with the Byteman agent. Until the session is closed all requests
+     * made via this client are sent over the same connection rather than opening a new connection
+     * per request. Requests made from different threads are serialized.
+     *
+     * @throws Exception
+     *             if the session could not be opened
+     */
+    public synchronized void openSession() throws Exception {
+        if (session != null) {
+            return;
+        }
+        Comm comm = new Comm(this.address, this.port, this.socketPath);
+        try {
+            comm.println("SESSION");
+            comm.readResponse();
+        } catch (Exception e) {
+            comm.close();
+            throw new Exception("Unable to open session with the Byteman agent", e);
+        }
+        session = comm;
+    }
+
+    /**
+     * Closes the session opened by {@link #openSession()}, if any. Subsequent requests open a new
+     * connection per request.
+     */
+    public synchronized void closeSession() {
+        if (session != null) {
+            try {
+                session.println("ENDSESSION");
+            } finally {
+                session.close();
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if a session opened by {@link #openSession()} is in use
+     */
+    public synchronized boolean isSessionOpen() {
+        return session != null;
+    }
+
+    /**
+     * Submits several generic request strings to the Byteman agent over one connection. The
+     * requests are written by a separate thread while the calling thread reads the responses so
+     * that the agent can process them back to back. n.b. writing and reading concurrently means
+     * neither side can stall on a full socket buffer when requests or responses are large. If a
+     * session is open it is used, otherwise a session is opened and closed again once all
+     * responses have been read.
+     *
+     * @param requests
+     *            the requests to submit
+     *
+     * @return the responses that the Byteman agent replied with, in request order
+     *
+     * @throws Exception
+     *             if any of the requests failed. n.b. all the requests will have been
+     *             processed by the agent even when an exception is thrown.
+     */
+    public synchronized List<String> submitRequests(List<String> requests) throws Exception {
+        boolean temporary = (session == null);
+        if (temporary) {
+            openSession();
+        }
+        Thread writer = null;
+        try {
+            final Comm comm = session;
+            final List<String> toWrite = requests;
+            final int firstId = nextRequestId;
+            nextRequestId += requests.size();
+            if (requests.size() == 1) {
+                // the agent reads the whole of a request before replying so one request cannot stall
+                writeRequests(comm, toWrite, firstId);
+            } else {
+                writer = new Thread("Byteman submit request writer") {
+                    public void run() {
+                        try {
+                            writeRequests(comm, toWrite, firstId);
+                        } catch (RuntimeException e) {
+                            // the session was closed because a response could not be read
+                        }
+                    }
+                };
+                writer.setDaemon(true);
+                writer.start();
+            }
+            List<String> responses = new ArrayList<String>(requests.size());
+            Exception failure = null;
+            for (int i = 0; i < requests.size(); i++) {
+                String header = session.readLine();
+                if (header == null) {
+                    throw new IOException("Byteman agent closed the session");
+                }
+                if (!header.trim().equals("RESPONSE " + (firstId + i))) {
+                    throw new IOException("Unexpected response from Byteman agent : " + header);
+                }
+                String response = session.readRawResponse();
+                try {
+                    responses.add(Comm.checkResponse(response));
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    responses.add(response);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return responses;
+        } catch (IOException e) {
+            // we cannot tell where the next response starts so the session is no longer usable
+            session.close();
+            session = null;
+            throw e;
+        } finally {
+            if (writer != null) {
+                // n.b. if the session was closed because of an error the writer fails fast
+                writer.join();
+            }
+            if (temporary) {
+                closeSession();
+            }
+        }
+    }
+
+    private static void writeRequests(Comm comm, List<String> requests, int firstId) {
+        int id = firstId;
+        for (String request : requests) {
+            comm.println("REQUEST " + id++);
+            comm.print(request);
+        }
+    }
+
     private List<ScriptText> getRulesFromRuleStreams(List<InputStream> streams) throws Exception {
         if (streams == null || streams.size() == 0) {
             return new ArrayList<ScriptText>(0);
@@ -872,36 +1540,60 @@ public class Submit
         return true;
     }
 
-    private class Comm {
+    static class Comm {
         private Socket commSocket;
+        private SocketChannel commChannel;
         private BufferedReader commInput;
         private PrintWriter commOutput;
 
-        public Comm(String address, int port) throws Exception {
-            this.commSocket = new Socket(address, port);
+        public Comm(String address, int port, String socketPath) throws Exception {
+            this(address, port, socketPath, 0);
+        }
 
+        /**
+         * connect to an agent listener
+         * @param address the listener host
+         * @param port the listener port
+         * @param socketPath the path of a unix domain socket or null if TCP should be used
+         * @param connectTimeoutMillis how long to wait for a TCP connection to be established or 0 to
+         * wait indefinitely
+         * @throws Exception if the connection cannot be established
+         */
+        public Comm(String address, int port, String socketPath, int connectTimeoutMillis) throws Exception {
             InputStream is;
-            try {
-                is = this.commSocket.getInputStream();
-            } catch (Exception e) {
-                // oops. cannot handle this
+            OutputStream os;
+
+            if (socketPath != null && UnixDomainSocket.isAvailable()) {
+                SocketChannel channel = UnixDomainSocket.connect(socketPath);
+                this.commChannel = channel;
+                is = new UnixDomainSocket.ChannelInputStream(channel);
+                os = new UnixDomainSocket.ChannelOutputStream(channel);
+            } else {
+                Socket socket = new Socket();
+                this.commSocket = socket;
+
                 try {
-                    this.commSocket.close();
-                } catch (Exception e1) {
+                    socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+                    is = socket.getInputStream();
+                } catch (Exception e) {
+                    // oops. cannot handle this
+                    try {
+                        socket.close();
+                    } catch (Exception e1) {
+                    }
+                    throw e;
                 }
-                throw e;
-            }
 
-            OutputStream os;
-            try {
-                os = this.commSocket.getOutputStream();
-            } catch (Exception e) {
-                // oops. cannot handle this
                 try {
-                    this.commSocket.close();
-                } catch (Exception e1) {
+                    os = socket.getOutputStream();
+                } catch (Exception e) {
+                    // oops. cannot handle this
+                    try {
+                        socket.close();
+                    } catch (Exception e1) {
+                    }
+                    throw e;
                 }
-                throw e;
             }
 
             this.commInput = new BufferedReader(new InputStreamReader(is));
@@ -912,13 +1604,18 @@ public class Submit
 
         public void close() {
             try {
-                this.commSocket.close(); // also closes the in/out streams
+                if (this.commChannel != null) {
+                    this.commChannel.close(); // also closes the in/out streams
+                } else {
+                    this.commSocket.close(); // also closes the in/out streams
+                }
             } catch (Exception e) {
                 // TODO what should I do here? no need to abort, we are closing this object anyway
             } finally {
                 // this object cannot be reused anymore, therefore, null everything out
                 // which will force NPEs if attempts to reuse this object occur later
                 this.commSocket = null;
+                this.commChannel = null;
                 this.commInput = null;
                 this.commOutput = null;
             }
@@ -934,13 +1631,46 @@ public class Submit
             this.commOutput.flush();
         }
 
+        public String readLine() throws IOException {
+            return this.commInput.readLine();
+        }
+
         public String readResponse() throws Exception {
+            return checkResponse(readRawResponse());
+        }
+
+        /**
+         * read the lines of a response up to the terminating OK line
+         * @return the trimmed response lines each followed by a newline
+         * @throws IOException if the response cannot be read
+         */
+        public String readRawResponse() throws IOException {
             StringBuilder str = new StringBuilder();
-            StringBuilder errorStr = null; // will be non-null if an error was reported by the agent
 
             String line = this.commInput.readLine();
             while (line != null && !line.trim().equals("OK")) {
-                line = line.trim();
+                str.append(line.trim()).append('\n');
+                line = this.commInput.readLine();
+            }
+
+            return str.toString();
+        }
+
+        /**
+         * check a response for errors reported by the agent
+         * @param response the response as returned by readRawResponse
+         * @return the response
+         * @throws Exception if the response includes an error
+         */
+        public static String checkResponse(String response) throws Exception {
+            StringBuilder str = new StringBuilder(response);
+            StringBuilder errorStr = null; // will be non-null if an error was reported by the agent
+
+            int start = 0;
+            while (start < response.length()) {
+                int end = response.indexOf('\n', start);
+                String line = response.substring(start, end);
+                start = end + 1;
 
                 if (line.startsWith("ERROR") || line.startsWith("EXCEPTION")) {
                     if (errorStr == null) {
@@ -952,9 +1682,6 @@ public class Submit
                 if (errorStr != null) {
                     errorStr.append(line).append('\n');
                 }
-
-                str.append(line).append('\n');
-                line = this.commInput.readLine();
             }
 
             if (errorStr != null) {
@@ -970,6 +1697,128 @@ public class Submit
         }
     }
 
+    /**
+     * Support for connecting to an agent listening on a unix domain socket file. Unix domain
+     * socket channels were only added in JDK 16 so the relevant classes and methods are looked
+     * up reflectively. When they are not available the client falls back to using TCP.
+     */
+    private static class UnixDomainSocket {
+        private static Object unixFamily;
+        private static Method addressOf;
+        private static Method open;
+        private static Method connect;
+
+        static {
+            try {
+                Class<?> familyClass = Class.forName("java.net.StandardProtocolFamily");
+                Class<?> protocolFamilyClass = Class.forName("java.net.ProtocolFamily");
+                Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+                Object family = familyClass.getField("UNIX").get(null);
+                Method of = addressClass.getMethod("of", String.class);
+                Method openMethod = SocketChannel.class.getMethod("open", protocolFamilyClass);
+                Method connectMethod = SocketChannel.class.getMethod("connect", SocketAddress.class);
+                unixFamily = family;
+                addressOf = of;
+                open = openMethod;
+                connect = connectMethod;
+            } catch (Exception e) {
+                // unix domain sockets are not supported by this JDK
+            }
+        }
+
+        public static boolean isAvailable() {
+            return unixFamily != null;
+        }
+
+        public static SocketChannel connect(String path) throws IOException {
+            SocketChannel channel = (SocketChannel) invoke(open, null, unixFamily);
+            try {
+                invoke(connect, channel, invoke(addressOf, null, path));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return channel;
+        }
+
+        private static Object invoke(Method method, Object target, Object arg) throws IOException {
+            try {
+                return method.invoke(target, arg);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause.toString());
+            } catch (IllegalAccessException e) {
+                throw new IOException(e.toString());
+            }
+        }
+
+        /**
+         * an input stream which reads directly from a socket channel. the streams returned by
+         * Channels.newInputStream lock the channel's blocking lock while reading which, on JDK 16 and
+         * later, stops a response reader and a request writer using the same channel concurrently.
+         */
+        static class ChannelInputStream extends InputStream {
+            private final SocketChannel channel;
+
+            ChannelInputStream(SocketChannel channel) {
+                this.channel = channel;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] bytes = new byte[1];
+                int count = read(bytes, 0, 1);
+                return (count < 0 ? -1 : bytes[0] & 0xff);
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(bytes, offset, length));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        }
+
+        /**
+         * an output stream which writes directly to a socket channel without locking the channel's
+         * blocking lock
+         */
+        static class ChannelOutputStream extends OutputStream {
+            private final SocketChannel channel;
+
+            ChannelOutputStream(SocketChannel channel) {
+                this.channel = channel;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        }
+    }
+
     /**
      * A main routine which submits requests to the Byteman agent utilizing the Java API.
      * @param args see {@link #usage(PrintStream, int)} for a description of the allowed arguments
@@ -979,6 +1828,7 @@ public class Submit
         String outfile = null;
         int port = DEFAULT_PORT;
         String hostname = DEFAULT_ADDRESS;
+        String socketPath = null;
         int startIdx = 0;
         int maxIdx = args.length;
         boolean deleteRules = false;
@@ -987,6 +1837,9 @@ public class Submit
         boolean showVersion = false;
         boolean showAddedClassloaderJars = false;
         boolean sysProps = false;
+        boolean showMetrics = false;
+        boolean showEvents = false;
+        boolean allAgents = false;
         int optionCount = 0;
         PrintStream out = System.out;
 
@@ -1029,6 +1882,12 @@ public class Submit
                     System.exit(1);
                 }
                 startIdx += 2;
+            } else if (maxIdx >= startIdx + 2 && args[startIdx].equals("-f")) {
+                socketPath = args[startIdx+1];
+                startIdx += 2;
+            } else if (args[startIdx].equals("-a")) {
+                allAgents = true;
+                startIdx++;
             } else if (maxIdx >= startIdx + 2 && args[startIdx].equals("-h")) {
                 hostname = args[startIdx+1];
                 startIdx += 2;
@@ -1059,6 +1918,14 @@ public class Submit
                 sysProps = true;
                 startIdx++;
                 optionCount++;
+            } else if (args[startIdx].equals("-m")) {
+                showMetrics = true;
+                startIdx++;
+                optionCount++;
+            } else if (args[startIdx].equals("-e")) {
+                showEvents = true;
+                startIdx++;
+                optionCount++;
             } else {
                 break;
             }
@@ -1068,13 +1935,39 @@ public class Submit
             usage(out, 1);
         }
 
-        // must have some file args if adding to sys or boot classpath
+        // must have some file args if adding to sys or boot classpath and some topics if streaming events
+
+        if (startIdx == maxIdx && (addBoot || addSys || showEvents)) {
+            usage(out, 1);
+        }
+
+        // metrics listing does not accept file args
 
-        if (startIdx == maxIdx && (addBoot || addSys)) {
+        if (startIdx < maxIdx && showMetrics) {
             usage(out, 1);
         }
 
-        Submit client = new Submit(hostname, port, out);
+        // fanning out to all local agents only supports listing, loading and unloading rules
+
+        if (allAgents) {
+            if (addBoot || addSys || showVersion || showAddedClassloaderJars || sysProps || showMetrics || showEvents) {
+                usage(out, 1);
+            }
+            List<String> files = new ArrayList<String>();
+            for (int i = startIdx; i < maxIdx; i++) {
+                files.add(args[i]);
+            }
+            boolean ok = fanOut(files, deleteRules, out);
+            if (out != System.out) {
+                out.close();
+            }
+            if (!ok) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        Submit client = new Submit(hostname, port, socketPath, out);
         String results = null;
         List<String> argsList = null;
 
@@ -1104,6 +1997,28 @@ public class Submit
                     }
                 }
                 results = str.toString();
+            } else if (showEvents) {
+                argsList = new ArrayList<String>();
+                for (int i = startIdx; i < maxIdx; i++) {
+                    argsList.add(args[i]);
+                }
+                // print events until the agent goes away or we are killed
+                EventSubscription subscription = client.subscribe(argsList);
+                RuleEvent event = subscription.next();
+                while (event != null) {
+                    out.println(event);
+                    out.flush();
+                    event = subscription.next();
+                }
+                long dropped = subscription.getDroppedCount();
+                results = (dropped > 0 ? "dropped " + dropped + " events" : "");
+            } else if (showMetrics) {
+                List<RuleMetrics> metrics = client.getRuleMetrics();
+                StringBuilder str = new StringBuilder();
+                for (RuleMetrics ruleMetrics : metrics) {
+                    str.append(ruleMetrics).append('\n');
+                }
+                results = str.toString();
             } else {
                 if (startIdx == maxIdx) {
                     // no args means list or delete all current scripts or list sysprops
@@ -1168,16 +2083,58 @@ public class Submit
         }
     }
 
+    /**
+     * list, load or unload rules in every local JVM running an agent listener, printing the outcome
+     * and time taken for each one. a load is rolled back in every JVM if it fails in any of them.
+     * @return true if the request succeeded for every JVM otherwise false
+     */
+    private static boolean fanOut(List<String> files, boolean deleteRules, PrintStream out)
+    {
+        List<FanOutResult> results;
+        try {
+            FanOutSubmit fanOut = new FanOutSubmit(FanOutSubmit.discoverLocalAgents());
+            if (fanOut.getTargets().isEmpty()) {
+                out.println("No local JVMs with an agent listener were found");
+                return true;
+            }
+            if (files.isEmpty()) {
+                results = (deleteRules ? fanOut.deleteAllRules() : fanOut.listAllRules());
+            } else {
+                List<ScriptText> scripts = new Submit().getRulesFromRuleFiles(files);
+                results = (deleteRules ? fanOut.deleteScripts(scripts) : fanOut.addScripts(scripts, true));
+            }
+        } catch (Exception e) {
+            out.println("Failed to process request: " + e);
+            return false;
+        }
+        for (FanOutResult result : results) {
+            out.println("== " + result);
+            if (result.isSuccess()) {
+                out.println(result.getResponse());
+            } else {
+                out.println(result.getFailure().getMessage());
+            }
+        }
+        return FanOutSubmit.allSucceeded(results);
+    }
+
     private static void usage(PrintStream out, int exitCode)
     {
-        out.println("usage : Submit [-o outfile] [-p port] [-h hostname] [-l|-u] [scriptfile . . .]");
-        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-b|-s] jarfile . . .");
-        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-c]");
-        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-y] [prop1[=[value1]]. . .]");
-        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-v]");
+        out.println("usage : Submit [-o outfile] [-p port] [-h hostname] [-f socketfile] [-l|-u] [scriptfile . . .]");
+        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-f socketfile] [-b|-s] jarfile . . .");
+        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-f socketfile] [-c]");
+        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-f socketfile] [-y] [prop1[=[value1]]. . .]");
+        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-f socketfile] [-v]");
+        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-f socketfile] [-m]");
+        out.println("        Submit [-o outfile] [-p port] [-h hostname] [-f socketfile] -e topic . . .");
+        out.println("        Submit [-o outfile] -a [-l|-u] [scriptfile . . .]");
         out.println("        -o redirects output from System.out to outfile");
         out.println("        -p specifies listener port");
         out.println("        -h specifies listener host");
+        out.println("        -a applies the request to every local JVM running an agent listener");
+        out.println("           (requires the byteman-install jar and, before JDK 9, the JDK tools jar)");
+        out.println("           a load is undone in every JVM if it fails in any of them");
+        out.println("        -f specifies listener unix domain socket file (requires JDK 16 or later)");
         out.println("        -l (default) with scriptfile(s) means load/reload all rules in scriptfile(s)");
         out.println("                     with no scriptfile means list all currently loaded rules");
         out.println("        -u with scriptfile(s) means unload all rules in scriptfile(s)");
@@ -1191,6 +2148,8 @@ public class Submit
         out.println("             prop= sets system property 'prop' to an empty string");
         out.println("             prop unsets system property 'prop'");
         out.println("        -v prints the version of the byteman agent and this client");
+        out.println("        -m prints execution counts and times for all currently loaded rules");
+        out.println("        -e with topic(s) prints events emitted by rules to those topics until interrupted");
         if (out != System.out) {
             out.close();
         }